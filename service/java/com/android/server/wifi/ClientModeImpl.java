@@ -1279,6 +1279,8 @@ public class ClientModeImpl extends StateMachine {
     private int mRxTimeLastReport = 0;
 
     private WifiLinkLayerStats mLastLinkLayerStats;
+    // Difference between mLastLinkLayerStats and the stats of the current poll
+    private final WifiLinkLayerStatsDelta mLinkLayerStatsDelta = new WifiLinkLayerStatsDelta();
     private long mLastLinkLayerStatsUpdate = 0;
 
     String reportOnTime() {
@@ -4931,8 +4933,9 @@ public class ClientModeImpl extends StateMachine {
                             }
                             mWifiScoreReport.noteIpCheck();
                         }
+                        mLinkLayerStatsDelta.update(mLastLinkLayerStats, stats);
                         int statusDataStall = mWifiDataStall.checkDataStallAndThroughputSufficiency(
-                                mLastLinkLayerStats, stats, mWifiInfo);
+                                mLinkLayerStatsDelta, stats, mWifiInfo);
                         if (mDataStallTriggerTimeMs == -1
                                 && statusDataStall != WifiIsUnusableEvent.TYPE_UNKNOWN) {
                             mDataStallTriggerTimeMs = mClock.getElapsedSinceBootMillis();
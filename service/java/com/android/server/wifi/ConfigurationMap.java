@@ -143,6 +143,14 @@ public class ConfigurationMap {
                 ScanResultMatchInfo.fromScanResult(scanResult));
     }
 
+    /**
+     * Same as {@link #getByScanResultForCurrentUser(ScanResult)}, but reuses the match info
+     * cached in the provided |scanDetail| instead of classifying the scan result again.
+     */
+    public WifiConfiguration getByScanDetailForCurrentUser(ScanDetail scanDetail) {
+        return mScanResultMatchInfoMapForCurrentUser.get(scanDetail.getScanResultMatchInfo());
+    }
+
     public Collection<WifiConfiguration> valuesForAllUsers() {
         return mPerID.values();
     }
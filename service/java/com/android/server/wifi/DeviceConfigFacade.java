@@ -142,6 +142,8 @@ public class DeviceConfigFacade {
     // Default RSSI threshold in dBm above which low score is not sent to connectivity service
     // when external scorer takes action.
     static final int DEFAULT_RSSI_THRESHOLD_NOT_SEND_LOW_SCORE_TO_CS_DBM = -67;
+    // Default estimated heap budget for the per-BSSID entries kept in memory by WifiScoreCard
+    static final int DEFAULT_SCORE_CARD_MEMORY_BUDGET_BYTES = 96 * 1024;
     // Cached values of fields updated via updateDeviceConfigFlags()
     private boolean mIsAbnormalConnectionBugreportEnabled;
     private int mAbnormalConnectionDurationMs;
@@ -193,6 +195,7 @@ public class DeviceConfigFacade {
     private int mMinConfirmationDurationSendLowScoreMs;
     private int mMinConfirmationDurationSendHighScoreMs;
     private int mRssiThresholdNotSendLowScoreToCsDbm;
+    private int mScoreCardMemoryBudgetBytes;
 
     public DeviceConfigFacade(Context context, Handler handler, WifiMetrics wifiMetrics) {
         mContext = context;
@@ -349,6 +352,9 @@ public class DeviceConfigFacade {
         mRssiThresholdNotSendLowScoreToCsDbm = DeviceConfig.getInt(NAMESPACE,
                 "rssi_threshold_not_send_low_score_to_cs_dbm",
                 DEFAULT_RSSI_THRESHOLD_NOT_SEND_LOW_SCORE_TO_CS_DBM);
+        mScoreCardMemoryBudgetBytes = DeviceConfig.getInt(NAMESPACE,
+                "score_card_memory_budget_bytes",
+                DEFAULT_SCORE_CARD_MEMORY_BUDGET_BYTES);
     }
 
     private Set<String> getUnmodifiableSetQuoted(String key) {
@@ -721,4 +727,11 @@ public class DeviceConfigFacade {
     public int getRssiThresholdNotSendLowScoreToCsDbm() {
         return mRssiThresholdNotSendLowScoreToCsDbm;
     }
+
+    /**
+     * Gets the estimated heap budget for the per-BSSID entries kept in memory by WifiScoreCard.
+     */
+    public int getScoreCardMemoryBudgetBytes() {
+        return mScoreCardMemoryBudgetBytes;
+    }
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.Handler;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.Preconditions;
+import com.android.server.wifi.WifiScoreCard.BlobListener;
+import com.android.server.wifi.WifiScoreCard.PendingWrite;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * File-backed implementation of WifiScoreCard.MemoryStore.
+ *
+ * Used in place of IpMemoryStore when that service is not available. The whole
+ * store is read into memory once, when started, so reads are answered without
+ * any further I/O. Changes are persisted by rewriting the file: a
+ * {@link #writeBatch(List)} is written right away, while single writes only mark
+ * the store dirty and are flushed together once the current wifi thread task
+ * is done.
+ *
+ * Like IpMemoryStore, the store is bounded: records not updated for
+ * {@link #MAX_RECORD_AGE_MS} are dropped, and beyond {@link #MAX_RECORDS} the
+ * least recently updated records are evicted.
+ *
+ * All calls are expected to happen on the wifi thread.
+ */
+public class LocalMemoryStore implements WifiScoreCard.BatchedMemoryStore {
+    private static final String TAG = "WifiLocalMemoryStore";
+
+    public static final String STORE_FILE_NAME = "WifiScoreCardStore.bin";
+
+    private static final int STORE_FORMAT_VERSION_WITHOUT_UPDATE_TIME = 1;
+    private static final int STORE_FORMAT_VERSION = 2;
+
+    @VisibleForTesting
+    static final int MAX_RECORDS = 1024;
+    @VisibleForTesting
+    static final long MAX_RECORD_AGE_MS = 90L * 24 * 60 * 60 * 1000;
+
+    /** The blobs and cluster for one L2 key */
+    private static final class Record {
+        public String cluster;
+        public long lastUpdateTimeMs;
+        public final Map<String, byte[]> blobs = new ArrayMap<>();
+    }
+
+    private static final Comparator<Map.Entry<String, Record>> LEAST_RECENTLY_UPDATED_FIRST =
+            Comparator.comparingLong(entry -> entry.getValue().lastUpdateTimeMs);
+
+    private final AtomicFile mAtomicFile;
+    private final Handler mHandler;
+    private final Clock mClock;
+    private final Map<String, Record> mRecords = new ArrayMap<>();
+    private final Runnable mFlushRunnable = this::flush;
+    private boolean mLoaded = false;
+    private boolean mDirty = false;
+    private int mFileWriteCount = 0;
+
+    public LocalMemoryStore(@NonNull File file, @NonNull Handler handler, @NonNull Clock clock) {
+        mAtomicFile = new AtomicFile(Preconditions.checkNotNull(file));
+        mHandler = Preconditions.checkNotNull(handler);
+        mClock = Preconditions.checkNotNull(clock);
+    }
+
+    /**
+     * Reads the entire store from disk.
+     *
+     * This is done once; later calls have no effect.
+     */
+    public void start() {
+        if (mLoaded) return;
+        mLoaded = true;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(mAtomicFile.openRead()))) {
+            readRecords(in);
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No existing store file, starting empty");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read store file, starting empty", e);
+            mRecords.clear();
+        }
+        if (evictRecords()) {
+            persist();
+        }
+    }
+
+    private void readRecords(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != STORE_FORMAT_VERSION
+                && version != STORE_FORMAT_VERSION_WITHOUT_UPDATE_TIME) {
+            throw new IOException("Unknown store version " + version);
+        }
+        long nowMs = mClock.getWallClockMillis();
+        int numRecords = in.readInt();
+        for (int i = 0; i < numRecords; i++) {
+            String key = in.readUTF();
+            Record record = new Record();
+            record.cluster = in.readBoolean() ? in.readUTF() : null;
+            // Records from before update times were stored start aging now.
+            record.lastUpdateTimeMs =
+                    version == STORE_FORMAT_VERSION ? in.readLong() : nowMs;
+            int numBlobs = in.readInt();
+            for (int j = 0; j < numBlobs; j++) {
+                String name = in.readUTF();
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                record.blobs.put(name, value);
+            }
+            mRecords.put(key, record);
+        }
+    }
+
+    /**
+     * Drops the records that are too old, then the least recently updated ones
+     * beyond the record limit.
+     *
+     * @return true if any record was dropped.
+     */
+    private boolean evictRecords() {
+        int initialSize = mRecords.size();
+        long nowMs = mClock.getWallClockMillis();
+        Iterator<Record> it = mRecords.values().iterator();
+        while (it.hasNext()) {
+            Record record = it.next();
+            // A record updated in the future means the wall clock was changed; keep it.
+            if (nowMs - record.lastUpdateTimeMs > MAX_RECORD_AGE_MS) {
+                it.remove();
+            }
+        }
+        int excess = mRecords.size() - MAX_RECORDS;
+        if (excess > 0) {
+            List<Map.Entry<String, Record>> entries = new ArrayList<>(mRecords.entrySet());
+            entries.sort(LEAST_RECENTLY_UPDATED_FIRST);
+            for (int i = 0; i < excess; i++) {
+                mRecords.remove(entries.get(i).getKey());
+            }
+        }
+        return mRecords.size() != initialSize;
+    }
+
+    private void persist() {
+        mDirty = false;
+        mHandler.removeCallbacks(mFlushRunnable);
+        evictRecords();
+        FileOutputStream fos = null;
+        try {
+            fos = mAtomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(STORE_FORMAT_VERSION);
+            out.writeInt(mRecords.size());
+            for (Map.Entry<String, Record> entry : mRecords.entrySet()) {
+                Record record = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(record.cluster != null);
+                if (record.cluster != null) out.writeUTF(record.cluster);
+                out.writeLong(record.lastUpdateTimeMs);
+                out.writeInt(record.blobs.size());
+                for (Map.Entry<String, byte[]> blob : record.blobs.entrySet()) {
+                    out.writeUTF(blob.getKey());
+                    out.writeInt(blob.getValue().length);
+                    out.write(blob.getValue());
+                }
+            }
+            out.flush();
+            mAtomicFile.finishWrite(fos);
+            mFileWriteCount++;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write store file", e);
+            if (fos != null) {
+                mAtomicFile.failWrite(fos);
+            }
+        }
+    }
+
+    private Record getOrCreateRecord(String key) {
+        Record record = mRecords.get(key);
+        if (record == null) {
+            record = new Record();
+            mRecords.put(key, record);
+        }
+        record.lastUpdateTimeMs = mClock.getWallClockMillis();
+        return record;
+    }
+
+    /**
+     * Marks the store as changed; the file is rewritten once for all the
+     * changes made during the current wifi thread task.
+     */
+    private void markDirty() {
+        if (mDirty) return;
+        mDirty = true;
+        mHandler.post(mFlushRunnable);
+    }
+
+    /**
+     * Persists any changes not yet written to the file.
+     */
+    public void flush() {
+        if (mDirty) persist();
+    }
+
+    @Override
+    public void read(String key, String name, BlobListener blobListener) {
+        Record record = mRecords.get(key);
+        blobListener.onBlobRetrieved(record == null ? null : record.blobs.get(name));
+    }
+
+    @Override
+    public void write(String key, String name, byte[] value) {
+        getOrCreateRecord(key).blobs.put(name, value);
+        markDirty();
+    }
+
+    @Override
+    public void setCluster(String key, String cluster) {
+        Record record = mRecords.get(key);
+        if (record != null && Objects.equals(record.cluster, cluster)) return;
+        getOrCreateRecord(key).cluster = cluster;
+        markDirty();
+    }
+
+    @Override
+    public void removeCluster(String cluster) {
+        boolean removed = false;
+        Iterator<Record> it = mRecords.values().iterator();
+        while (it.hasNext()) {
+            if (Objects.equals(cluster, it.next().cluster)) {
+                it.remove();
+                removed = true;
+            }
+        }
+        if (removed) markDirty();
+    }
+
+    @Override
+    public void writeBatch(@NonNull List<PendingWrite> writes) {
+        for (PendingWrite pendingWrite : writes) {
+            Record record = getOrCreateRecord(pendingWrite.key);
+            record.cluster = pendingWrite.cluster;
+            record.blobs.put(pendingWrite.name, pendingWrite.value);
+        }
+        persist();
+    }
+
+    /**
+     * Removes all stored data, both in memory and on disk.
+     */
+    public void clear() {
+        mDirty = false;
+        mHandler.removeCallbacks(mFlushRunnable);
+        mRecords.clear();
+        mAtomicFile.delete();
+    }
+
+    @VisibleForTesting
+    int getFileWriteCount() {
+        return mFileWriteCount;
+    }
+
+    @VisibleForTesting
+    int getRecordCount() {
+        return mRecords.size();
+    }
+
+    @VisibleForTesting
+    @Nullable byte[] getBlob(String key, String name) {
+        Record record = mRecords.get(key);
+        return record == null ? null : record.blobs.get(name);
+    }
+}
@@ -27,24 +27,44 @@ import android.util.Log;
 
 import com.android.internal.util.Preconditions;
 import com.android.server.wifi.WifiScoreCard.BlobListener;
+import com.android.server.wifi.WifiScoreCard.PendingWrite;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
  * Connects WifiScoreCard to IpMemoryStore.
+ *
+ * If IpMemoryStore is not available, and the device allows it, a file-backed
+ * {@link LocalMemoryStore} is installed instead.
  */
-final class MemoryStoreImpl implements WifiScoreCard.MemoryStore {
+final class MemoryStoreImpl implements WifiScoreCard.BatchedMemoryStore {
     private static final String TAG = "WifiMemoryStoreImpl";
     private static final boolean DBG = true;
 
     // The id of the client that stored this data
     public static final String WIFI_FRAMEWORK_IP_MEMORY_STORE_CLIENT_ID = "com.android.server.wifi";
+    // Maximum number of keys whose cluster is remembered, like the local memory store records
+    private static final int MAX_CLUSTER_FOR_KEY_ENTRIES = LocalMemoryStore.MAX_RECORDS;
 
     @NonNull private final Context mContext;
     @NonNull private final WifiScoreCard mWifiScoreCard;
     @NonNull private final WifiHealthMonitor mWifiHealthMonitor;
     @NonNull private final WifiInjector mWifiInjector;
     @Nullable private IpMemoryStore mIpMemoryStore;
+    @Nullable private LocalMemoryStore mLocalMemoryStore;
+    // Cluster most recently sent to IpMemoryStore for each key, to skip redundant updates.
+    // Kept in access order to drop the least recently used keys, and guarded by itself since
+    // failed updates are dropped from the binder thread.
+    private final Map<String, String> mClusterForKey = new LinkedHashMap<String, String>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CLUSTER_FOR_KEY_ENTRIES;
+        }
+    };
 
     MemoryStoreImpl(Context context, WifiInjector wifiInjector, WifiScoreCard wifiScoreCard,
             WifiHealthMonitor wifiHealthMonitor) {
@@ -59,6 +79,13 @@ final class MemoryStoreImpl implements WifiScoreCard.MemoryStore {
     private void handleException(Exception e) {
         Log.wtf(TAG, "Exception using IpMemoryStore - disabling WifiScoreReport persistence", e);
         mBroken = true;
+        clearClusterForKey();
+    }
+
+    private void clearClusterForKey() {
+        synchronized (mClusterForKey) {
+            mClusterForKey.clear();
+        }
     }
 
 
@@ -131,21 +158,54 @@ final class MemoryStoreImpl implements WifiScoreCard.MemoryStore {
     @Override
     public void setCluster(String key, String cluster) {
         if (mBroken) return;
+        synchronized (mClusterForKey) {
+            mClusterForKey.put(key, cluster);
+        }
         try {
             NetworkAttributes attributes = new NetworkAttributes.Builder()
                     .setCluster(cluster)
                     .build();
             mIpMemoryStore.storeNetworkAttributes(key, attributes, status -> {
                 Log.d(TAG, "Set cluster " + cluster + " for " + key + ": " + status);
+                if (!status.isSuccess()) {
+                    // Send it again with the next write of this key.
+                    synchronized (mClusterForKey) {
+                        mClusterForKey.remove(key, cluster);
+                    }
+                }
             });
         } catch (RuntimeException e) {
             handleException(e);
         }
     }
 
+    /**
+     * Issues the writes for a batch of changed entries.
+     *
+     * IpMemoryStore has no multi-key transaction, so each blob still needs its
+     * own call, but the cluster attributes are only sent when they change.
+     */
+    @Override
+    public void writeBatch(List<PendingWrite> writes) {
+        for (PendingWrite pendingWrite : writes) {
+            if (mBroken) return;
+            String cluster;
+            synchronized (mClusterForKey) {
+                cluster = mClusterForKey.get(pendingWrite.key);
+            }
+            if (!Objects.equals(cluster, pendingWrite.cluster)) {
+                setCluster(pendingWrite.key, pendingWrite.cluster);
+            }
+            write(pendingWrite.key, pendingWrite.name, pendingWrite.value);
+        }
+    }
+
     @Override
     public void removeCluster(String cluster) {
         if (mBroken) return;
+        synchronized (mClusterForKey) {
+            mClusterForKey.values().removeIf(cluster::equals);
+        }
         try {
             final boolean needWipe = true;
             mIpMemoryStore.deleteCluster(cluster, needWipe, (status, deletedRecords) -> {
@@ -164,25 +224,56 @@ final class MemoryStoreImpl implements WifiScoreCard.MemoryStore {
         if (mIpMemoryStore != null) {
             Log.w(TAG, "Reconnecting to IpMemoryStore service");
         }
+        // The clusters may have been changed while disconnected.
+        clearClusterForKey();
         mIpMemoryStore = mWifiInjector.getIpMemoryStore();
         if (mIpMemoryStore == null) {
             Log.e(TAG, "No IpMemoryStore service!");
+            startLocalMemoryStore();
             return;
         }
         mWifiScoreCard.installMemoryStore(this);
         mWifiHealthMonitor.installMemoryStoreSetUpDetectionAlarm(this);
     }
 
+    private void startLocalMemoryStore() {
+        if (mLocalMemoryStore != null) return;
+        mLocalMemoryStore = mWifiInjector.getLocalMemoryStore();
+        if (mLocalMemoryStore == null) return;
+        Log.i(TAG, "Falling back to local memory store");
+        mLocalMemoryStore.start();
+        mWifiScoreCard.installMemoryStore(mLocalMemoryStore);
+        mWifiHealthMonitor.installMemoryStoreSetUpDetectionAlarm(mLocalMemoryStore);
+    }
+
+    /**
+     * Wipes the local memory store, if it is in use.
+     *
+     * IpMemoryStore takes care of its own factory reset.
+     */
+    public void clearLocalMemoryStore() {
+        if (mLocalMemoryStore == null) return;
+        mLocalMemoryStore.clear();
+    }
+
     /**
      * Stops using IpMemoryStore after performing any outstanding writes.
      */
     public void stop() {
+        if (mLocalMemoryStore != null) {
+            mWifiScoreCard.doWrites();
+            mWifiHealthMonitor.doWrites();
+            mLocalMemoryStore.flush();
+            mLocalMemoryStore = null;
+            return;
+        }
         if (mIpMemoryStore == null) return;
         mWifiScoreCard.doWrites();
         mWifiHealthMonitor.doWrites();
         // TODO - Should wait for writes to complete (or time out)
         Log.i(TAG, "Disconnecting from IpMemoryStore service");
         mIpMemoryStore = null;
+        clearClusterForKey();
     }
 
 }
@@ -27,9 +27,11 @@ import com.android.server.wifi.hotspot2.anqp.Constants;
 import com.android.server.wifi.hotspot2.anqp.HSFriendlyNameElement;
 import com.android.server.wifi.hotspot2.anqp.RawByteElement;
 import com.android.server.wifi.hotspot2.anqp.VenueNameElement;
+import com.android.server.wifi.util.ScanResultUtil;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * Wifi scan result details.
@@ -39,6 +41,13 @@ public class ScanDetail {
     private volatile NetworkDetail mNetworkDetail;
     private long mSeen = 0;
     private byte[] mInformationElementRawData;
+    // Security classification, computed on first use. The capabilities and SSID strings it was
+    // computed from are kept so that a change to the (public) ScanResult fields is detected;
+    // the comparison is an identity check in the common case where they were not touched.
+    private String mSecurityFlagsCapabilities;
+    private int mSecurityFlags;
+    private String mMatchInfoSsid;
+    private ScanResultMatchInfo mScanResultMatchInfo;
 
     public ScanDetail(NetworkDetail networkDetail, WifiSsid wifiSsid, String bssid,
             String caps, int level, int frequency, long tsf,
@@ -121,6 +130,35 @@ public class ScanDetail {
         return mScanResult;
     }
 
+    /**
+     * Return the security flags of the scan result, as computed by
+     * {@link ScanResultUtil#getSecurityFlags(ScanResult)}.
+     */
+    public int getSecurityFlags() {
+        String caps = mScanResult.capabilities;
+        if (mSecurityFlagsCapabilities == null
+                || !Objects.equals(caps, mSecurityFlagsCapabilities)) {
+            mSecurityFlags = ScanResultUtil.getSecurityFlags(mScanResult);
+            mSecurityFlagsCapabilities = caps;
+            mScanResultMatchInfo = null;
+        }
+        return mSecurityFlags;
+    }
+
+    /**
+     * Return the {@link ScanResultMatchInfo} of the scan result. The returned instance is shared
+     * between callers and must not be modified.
+     */
+    public ScanResultMatchInfo getScanResultMatchInfo() {
+        int securityFlags = getSecurityFlags();
+        if (mScanResultMatchInfo == null
+                || !Objects.equals(mScanResult.SSID, mMatchInfoSsid)) {
+            mScanResultMatchInfo = ScanResultMatchInfo.fromScanResult(mScanResult, securityFlags);
+            mMatchInfoSsid = mScanResult.SSID;
+        }
+        return mScanResultMatchInfo;
+    }
+
     public NetworkDetail getNetworkDetail() {
         return mNetworkDetail;
     }
@@ -85,26 +85,29 @@ public class ScanResultMatchInfo {
     }
 
     /**
-     * Fetch network type from scan result.
+     * Fetch network type from the security flags of a scan result.
+     *
+     * @see ScanResultUtil#getSecurityFlags(ScanResult)
      */
-    private static @WifiConfiguration.SecurityType int getNetworkType(ScanResult scanResult) {
-        if (ScanResultUtil.isScanResultForSaeNetwork(scanResult)) {
+    private static @WifiConfiguration.SecurityType int getNetworkType(ScanResult scanResult,
+            int securityFlags) {
+        if ((securityFlags & ScanResultUtil.SECURITY_FLAG_SAE) != 0) {
             return WifiConfiguration.SECURITY_TYPE_SAE;
-        } else if (ScanResultUtil.isScanResultForWapiPskNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_WAPI_PSK) != 0) {
             return WifiConfiguration.SECURITY_TYPE_WAPI_PSK;
-        } else if (ScanResultUtil.isScanResultForWapiCertNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_WAPI_CERT) != 0) {
             return WifiConfiguration.SECURITY_TYPE_WAPI_CERT;
-        } else if (ScanResultUtil.isScanResultForPskNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_PSK) != 0) {
             return WifiConfiguration.SECURITY_TYPE_PSK;
-        } else if (ScanResultUtil.isScanResultForEapSuiteBNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_EAP_SUITE_B) != 0) {
             return WifiConfiguration.SECURITY_TYPE_EAP_SUITE_B;
-        } else if (ScanResultUtil.isScanResultForEapNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_EAP) != 0) {
             return WifiConfiguration.SECURITY_TYPE_EAP;
-        } else if (ScanResultUtil.isScanResultForWepNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_WEP) != 0) {
             return WifiConfiguration.SECURITY_TYPE_WEP;
-        } else if (ScanResultUtil.isScanResultForOweNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAG_OWE) != 0) {
             return WifiConfiguration.SECURITY_TYPE_OWE;
-        } else if (ScanResultUtil.isScanResultForOpenNetwork(scanResult)) {
+        } else if ((securityFlags & ScanResultUtil.SECURITY_FLAGS_NOT_OPEN) == 0) {
             return WifiConfiguration.SECURITY_TYPE_OPEN;
         } else {
             throw new IllegalArgumentException("Invalid ScanResult: " + scanResult);
@@ -115,24 +118,32 @@ public class ScanResultMatchInfo {
      * Get the ScanResultMatchInfo for the given ScanResult
      */
     public static ScanResultMatchInfo fromScanResult(ScanResult scanResult) {
+        return fromScanResult(scanResult, ScanResultUtil.getSecurityFlags(scanResult));
+    }
+
+    /**
+     * Get the ScanResultMatchInfo for the given ScanResult, using security flags previously
+     * computed by {@link ScanResultUtil#getSecurityFlags(ScanResult)}.
+     */
+    public static ScanResultMatchInfo fromScanResult(ScanResult scanResult, int securityFlags) {
         ScanResultMatchInfo info = new ScanResultMatchInfo();
         // Scan result ssid's are not quoted, hence add quotes.
         // TODO: This matching algo works only if the scan result contains a string SSID.
         // However, according to our public documentation ths {@link WifiConfiguration#SSID} can
         // either have a hex string or quoted ASCII string SSID.
         info.networkSsid = ScanResultUtil.createQuotedSSID(scanResult.SSID);
-        info.networkType = getNetworkType(scanResult);
+        info.networkType = getNetworkType(scanResult, securityFlags);
         info.oweInTransitionMode = false;
         info.pskSaeInTransitionMode = false;
         info.mFromScanResult = true;
         if (info.networkType == WifiConfiguration.SECURITY_TYPE_SAE) {
             // Note that scan result util will always choose the highest security protocol.
             info.pskSaeInTransitionMode =
-                    ScanResultUtil.isScanResultForPskSaeTransitionNetwork(scanResult);
+                    (securityFlags & ScanResultUtil.SECURITY_FLAG_PSK) != 0;
         } else  if (info.networkType == WifiConfiguration.SECURITY_TYPE_OWE) {
             // Note that scan result util will always choose OWE.
             info.oweInTransitionMode =
-                    ScanResultUtil.isScanResultForOweTransitionNetwork(scanResult);
+                    (securityFlags & ScanResultUtil.SECURITY_FLAG_OWE_TRANSITION) != 0;
         }
         return info;
     }
@@ -22,7 +22,6 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Interface describing parser of WiFi backup data for each major version.
@@ -33,15 +32,27 @@ import java.util.List;
 interface WifiBackupDataParser {
 
     /**
-     * Parses the list of configurations from the provided XML stream.
+     * Interface for receiving each configuration as soon as it is parsed from the XML stream.
+     */
+    interface OnNetworkParsedListener {
+        /**
+         * Invoked with a configuration parsed from the XML stream.
+         */
+        void onNetworkParsed(WifiConfiguration configuration);
+    }
+
+    /**
+     * Parses the configurations from the provided XML stream, handing each of them to the
+     * listener as soon as it is parsed.
      *
      * @param in            XmlPullParser instance pointing to the XML stream.
      * @param outerTagDepth depth of the outer tag in the XML document.
      * @param minorVersion  minor version number parsed from incoming data.
-     * @return List<WifiConfiguration> object if parsing is successful, null otherwise.
+     * @param listener      listener receiving the parsed configurations.
      */
-    List<WifiConfiguration> parseNetworkConfigurationsFromXml(XmlPullParser in, int outerTagDepth,
-            int minorVersion) throws XmlPullParserException, IOException;
+    void parseNetworkConfigurationsFromXml(XmlPullParser in, int outerTagDepth,
+            int minorVersion, OnNetworkParsedListener listener)
+            throws XmlPullParserException, IOException;
 
     /**
      * Get the highest supported minor version for this major version.
@@ -42,6 +42,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.CharArrayReader;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
@@ -115,6 +116,16 @@ public class WifiBackupRestore {
     private static final String WEP_KEYS_MASK_SEARCH_PATTERN = "(<.*=)(.*)(/>)";
     private static final String WEP_KEYS_MASK_REPLACE_PATTERN = "$1*$3";
 
+    /**
+     * Interface for receiving the networks parsed out of the backup data in batches.
+     */
+    public interface RestoredNetworksListener {
+        /**
+         * Invoked with the next batch of networks retrieved from the backed up data.
+         */
+        void onNetworksRestored(List<WifiConfiguration> configurations);
+    }
+
     private final WifiPermissionsUtil mWifiPermissionsUtil;
     /**
      * Verbose logging flag.
@@ -251,55 +262,133 @@ public class WifiBackupRestore {
             Log.e(TAG, "Invalid backup data received");
             return null;
         }
+        if (mVerboseLoggingEnabled) {
+            mDebugLastBackupDataRestored = data;
+        }
+        List<WifiConfiguration> configurations = new ArrayList<>();
         try {
-            if (mVerboseLoggingEnabled) {
-                mDebugLastBackupDataRestored = data;
+            if (!parseBackupData(new ByteArrayInputStream(data), configurations::add)) {
+                return null;
             }
+            return configurations;
+        } catch (XmlPullParserException | IOException | ClassCastException
+                | IllegalArgumentException e) {
+            Log.e(TAG, "Error parsing the backup data: " + e);
+        }
+        return null;
+    }
 
-            final XmlPullParser in = Xml.newPullParser();
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-            in.setInput(inputStream, StandardCharsets.UTF_8.name());
-
-            // Start parsing the XML stream.
-            XmlUtil.gotoDocumentStart(in, XML_TAG_DOCUMENT_HEADER);
-            int rootTagDepth = in.getDepth();
+    /**
+     * Parse out the configurations from the back up data, handing them to the listener in batches
+     * as they are parsed.
+     * See {@link #retrieveConfigurationsFromBackupData(InputStream, int,
+     * RestoredNetworksListener)}.
+     *
+     * @param data raw byte stream representing the XML data.
+     * @param batchSize maximum number of networks handed to the listener at a time.
+     * @param listener listener receiving the batches of networks retrieved from the backed up
+     *                 data.
+     * @return true if the whole backup data was parsed, false otherwise.
+     */
+    public boolean retrieveConfigurationsFromBackupData(byte[] data, int batchSize,
+            RestoredNetworksListener listener) {
+        if (data == null || data.length == 0) {
+            Log.e(TAG, "Invalid backup data received");
+            return false;
+        }
+        if (mVerboseLoggingEnabled) {
+            mDebugLastBackupDataRestored = data;
+        }
+        return retrieveConfigurationsFromBackupData(
+                new ByteArrayInputStream(data), batchSize, listener);
+    }
 
-            int majorVersion = -1;
-            int minorVersion = -1;
-            try {
-                float version = (float) XmlUtil.readNextValueWithName(in, XML_TAG_VERSION);
-
-                // parse out major and minor versions
-                String versionStr = new Float(version).toString();
-                int separatorPos = versionStr.indexOf('.');
-                if (separatorPos == -1) {
-                    majorVersion = Integer.parseInt(versionStr);
-                    minorVersion = 0;
-                } else {
-                    majorVersion = Integer.parseInt(versionStr.substring(0, separatorPos));
-                    minorVersion = Integer.parseInt(versionStr.substring(separatorPos + 1));
+    /**
+     * Parse out the configurations from the back up data read from the provided stream, handing
+     * them to the listener in batches as they are parsed, so the whole list of networks is never
+     * held in memory.
+     * If the data turns out to be corrupt part way through, the batches already handed to the
+     * listener are not taken back.
+     * Note: The data read is not stored for the debug dump.
+     *
+     * @param inputStream stream of the XML data.
+     * @param batchSize maximum number of networks handed to the listener at a time.
+     * @param listener listener receiving the batches of networks retrieved from the backed up
+     *                 data.
+     * @return true if the whole backup data was parsed, false otherwise.
+     */
+    public boolean retrieveConfigurationsFromBackupData(InputStream inputStream, int batchSize,
+            RestoredNetworksListener listener) {
+        if (inputStream == null || batchSize <= 0) {
+            Log.e(TAG, "Invalid backup data received");
+            return false;
+        }
+        List<WifiConfiguration> batch = new ArrayList<>(batchSize);
+        boolean success = false;
+        try {
+            success = parseBackupData(inputStream, configuration -> {
+                batch.add(configuration);
+                if (batch.size() == batchSize) {
+                    listener.onNetworksRestored(new ArrayList<>(batch));
+                    batch.clear();
                 }
-            } catch (ClassCastException cce) {
-                // Integer cannot be cast to Float for data coming from before Android P
-                majorVersion = 1;
-                minorVersion = 0;
-            }
-            Log.d(TAG, "Version of backup data - major: " + majorVersion
-                    + "; minor: " + minorVersion);
-
-            WifiBackupDataParser parser = getWifiBackupDataParser(majorVersion);
-            if (parser == null) {
-                Log.w(TAG, "Major version of backup data is unknown to this Android"
-                        + " version; not restoring");
-                return null;
-            } else {
-                return parser.parseNetworkConfigurationsFromXml(in, rootTagDepth, minorVersion);
-            }
+            });
         } catch (XmlPullParserException | IOException | ClassCastException
                 | IllegalArgumentException e) {
             Log.e(TAG, "Error parsing the backup data: " + e);
         }
-        return null;
+        if (!batch.isEmpty()) {
+            listener.onNetworksRestored(batch);
+        }
+        return success;
+    }
+
+    /**
+     * Parse the backup data document from the provided stream.
+     *
+     * @return true if the data was parsed, false if its version is not supported.
+     */
+    private boolean parseBackupData(InputStream inputStream,
+            WifiBackupDataParser.OnNetworkParsedListener listener)
+            throws XmlPullParserException, IOException {
+        final XmlPullParser in = Xml.newPullParser();
+        in.setInput(inputStream, StandardCharsets.UTF_8.name());
+
+        // Start parsing the XML stream.
+        XmlUtil.gotoDocumentStart(in, XML_TAG_DOCUMENT_HEADER);
+        int rootTagDepth = in.getDepth();
+
+        int majorVersion = -1;
+        int minorVersion = -1;
+        try {
+            float version = (float) XmlUtil.readNextValueWithName(in, XML_TAG_VERSION);
+
+            // parse out major and minor versions
+            String versionStr = new Float(version).toString();
+            int separatorPos = versionStr.indexOf('.');
+            if (separatorPos == -1) {
+                majorVersion = Integer.parseInt(versionStr);
+                minorVersion = 0;
+            } else {
+                majorVersion = Integer.parseInt(versionStr.substring(0, separatorPos));
+                minorVersion = Integer.parseInt(versionStr.substring(separatorPos + 1));
+            }
+        } catch (ClassCastException cce) {
+            // Integer cannot be cast to Float for data coming from before Android P
+            majorVersion = 1;
+            minorVersion = 0;
+        }
+        Log.d(TAG, "Version of backup data - major: " + majorVersion
+                + "; minor: " + minorVersion);
+
+        WifiBackupDataParser parser = getWifiBackupDataParser(majorVersion);
+        if (parser == null) {
+            Log.w(TAG, "Major version of backup data is unknown to this Android"
+                    + " version; not restoring");
+            return false;
+        }
+        parser.parseNetworkConfigurationsFromXml(in, rootTagDepth, minorVersion, listener);
+        return true;
     }
 
     private WifiBackupDataParser getWifiBackupDataParser(int majorVersion) {
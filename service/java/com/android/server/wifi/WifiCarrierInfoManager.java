@@ -37,6 +37,7 @@ import android.net.wifi.WifiEnterpriseConfig;
 import android.net.wifi.hotspot2.PasspointConfiguration;
 import android.net.wifi.hotspot2.pps.Credential;
 import android.os.Handler;
+import android.os.HandlerExecutor;
 import android.os.PersistableBundle;
 import android.telephony.CarrierConfigManager;
 import android.telephony.ImsiEncryptionInfo;
@@ -62,6 +63,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -163,6 +165,10 @@ public class WifiCarrierInfoManager {
     private SparseBooleanArray mImsiEncryptionRequired = new SparseBooleanArray();
     private SparseBooleanArray mImsiEncryptionInfoAvailable = new SparseBooleanArray();
     private SparseBooleanArray mEapMethodPrefixEnable = new SparseBooleanArray();
+    private int mSimStateGeneration = 0;
+    // Rebuilt lazily after the active subscriptions or their carrier configs change.
+    private volatile SubscriptionSnapshot mSubscriptionSnapshot = null;
+    private boolean mLastSubscriptionSnapshotIncomplete = false;
     private final Map<Integer, Boolean> mImsiPrivacyProtectionExemptionMap = new HashMap<>();
     private final List<OnUserApproveCarrierListener>
             mOnUserApproveCarrierListeners =
@@ -184,6 +190,33 @@ public class WifiCarrierInfoManager {
         void onUserAllowed(int carrierId);
     }
 
+    /**
+     * Immutable snapshot of the active subscriptions, indexed by carrier ID and subscription ID,
+     * so that the lookups done for every scan and connection do not need to query telephony.
+     */
+    private static final class SubscriptionSnapshot {
+        public final List<SubscriptionInfo> subInfos;
+        // Subscription IDs for each carrier ID, in the order of the active subscription list.
+        public final Map<Integer, List<Integer>> carrierIdToSubIds;
+        public final Map<Integer, SubscriptionInfo> subIdToSubInfo;
+        public final Map<Integer, String> subIdToImsi;
+        public final Map<Integer, String> subIdToSimOperator;
+        // False if the IMSI or SIM operator of any subscription was not loaded yet.
+        public final boolean isComplete;
+
+        SubscriptionSnapshot(List<SubscriptionInfo> subInfos,
+                Map<Integer, List<Integer>> carrierIdToSubIds,
+                Map<Integer, SubscriptionInfo> subIdToSubInfo, Map<Integer, String> subIdToImsi,
+                Map<Integer, String> subIdToSimOperator, boolean isComplete) {
+            this.subInfos = Collections.unmodifiableList(subInfos);
+            this.carrierIdToSubIds = Collections.unmodifiableMap(carrierIdToSubIds);
+            this.subIdToSubInfo = Collections.unmodifiableMap(subIdToSubInfo);
+            this.subIdToImsi = Collections.unmodifiableMap(subIdToImsi);
+            this.subIdToSimOperator = Collections.unmodifiableMap(subIdToSimOperator);
+            this.isComplete = isComplete;
+        }
+    }
+
     /**
      * Module to interact with the wifi config store.
      */
@@ -322,19 +355,110 @@ public class WifiCarrierInfoManager {
                 if (CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED
                         .equals(intent.getAction())) {
                     updateImsiEncryptionInfo(context);
+                    mSimStateGeneration++;
+                    mSubscriptionSnapshot = null;
                 }
             }
-        }, filter);
+        }, filter, null, handler);
+
+        // Monitor for SIM cards being added, removed or changed.
+        mSubscriptionManager.addOnSubscriptionsChangedListener(new HandlerExecutor(handler),
+                new SubscriptionManager.OnSubscriptionsChangedListener() {
+                    @Override
+                    public void onSubscriptionsChanged() {
+                        mSimStateGeneration++;
+                        mSubscriptionSnapshot = null;
+                    }
+                });
 
         frameworkFacade.registerContentObserver(context, CONTENT_URI, false,
                 new ContentObserver(handler) {
                     @Override
                     public void onChange(boolean selfChange) {
                         updateImsiEncryptionInfo(context);
+                        // IMSI encryption keys gate the IMSI lookups, so results cached while
+                        // a key was missing must be dropped.
+                        mSimStateGeneration++;
+                        mSubscriptionSnapshot = null;
                     }
                 });
     }
 
+    /**
+     * Get a counter that is incremented every time the active subscriptions or their carrier
+     * configs change. Results derived from the SIM state may be cached until it changes.
+     */
+    public int getSimStateGeneration() {
+        return mSimStateGeneration;
+    }
+
+    /**
+     * Get the snapshot of the active subscriptions, building it from telephony if the
+     * subscriptions changed since it was last built. A snapshot missing the IMSI or SIM operator
+     * of a subscription, e.g. before the SIM records are loaded, is not kept so that the next
+     * call builds it again.
+     */
+    private @NonNull SubscriptionSnapshot getSubscriptionSnapshot() {
+        SubscriptionSnapshot snapshot = mSubscriptionSnapshot;
+        if (snapshot == null) {
+            int simStateGeneration = mSimStateGeneration;
+            snapshot = buildSubscriptionSnapshot();
+            if (simStateGeneration != mSimStateGeneration) {
+                // The SIM state changed while building, don't keep a possibly stale snapshot.
+                return snapshot;
+            }
+            if (snapshot.isComplete) {
+                mSubscriptionSnapshot = snapshot;
+                if (mLastSubscriptionSnapshotIncomplete) {
+                    // Results derived from the incomplete snapshot are stale now.
+                    mSimStateGeneration++;
+                }
+            }
+            mLastSubscriptionSnapshotIncomplete = !snapshot.isComplete;
+        }
+        return snapshot;
+    }
+
+    private SubscriptionSnapshot buildSubscriptionSnapshot() {
+        List<SubscriptionInfo> subInfos = new ArrayList<>();
+        Map<Integer, List<Integer>> carrierIdToSubIds = new HashMap<>();
+        Map<Integer, SubscriptionInfo> subIdToSubInfo = new HashMap<>();
+        Map<Integer, String> subIdToImsi = new HashMap<>();
+        Map<Integer, String> subIdToSimOperator = new HashMap<>();
+        boolean isComplete = true;
+        List<SubscriptionInfo> activeSubInfos =
+                mSubscriptionManager.getActiveSubscriptionInfoList();
+        if (activeSubInfos != null) {
+            for (SubscriptionInfo subInfo : activeSubInfos) {
+                int subId = subInfo.getSubscriptionId();
+                subInfos.add(subInfo);
+                List<Integer> subIds = carrierIdToSubIds.get(subInfo.getCarrierId());
+                if (subIds == null) {
+                    subIds = new ArrayList<>();
+                    carrierIdToSubIds.put(subInfo.getCarrierId(), subIds);
+                }
+                subIds.add(subId);
+                subIdToSubInfo.put(subId, subInfo);
+                TelephonyManager specifiedTm = mTelephonyManager.createForSubscriptionId(subId);
+                String imsi = specifiedTm == null ? null : specifiedTm.getSubscriberId();
+                String simOperator = specifiedTm == null ? null : specifiedTm.getSimOperator();
+                if (TextUtils.isEmpty(imsi) || TextUtils.isEmpty(simOperator)) {
+                    isComplete = false;
+                }
+                if (!TextUtils.isEmpty(imsi)) {
+                    subIdToImsi.put(subId, imsi);
+                }
+                if (!TextUtils.isEmpty(simOperator)) {
+                    subIdToSimOperator.put(subId, simOperator);
+                }
+            }
+        }
+        vlogd("Subscription snapshot rebuilt with " + subInfos.size() + " subscriptions"
+                + (isComplete ? "" : ", some SIM records not loaded yet"));
+        return new SubscriptionSnapshot(subInfos, carrierIdToSubIds, subIdToSubInfo,
+                subIdToImsi, subIdToSimOperator, isComplete);
+    }
+
     /**
      * Enable/disable verbose logging.
      */
@@ -431,22 +555,14 @@ public class WifiCarrierInfoManager {
      * @return the matched SubscriptionId
      */
     public int getMatchingSubId(int carrierId) {
-        List<SubscriptionInfo> subInfoList = mSubscriptionManager.getActiveSubscriptionInfoList();
-        if (subInfoList == null || subInfoList.isEmpty()) {
+        List<Integer> subIds = getSubscriptionSnapshot().carrierIdToSubIds.get(carrierId);
+        if (subIds == null) {
             return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         }
 
         int dataSubId = SubscriptionManager.getDefaultDataSubscriptionId();
-        int matchSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
-        for (SubscriptionInfo subInfo : subInfoList) {
-            if (subInfo.getCarrierId() == carrierId) {
-                matchSubId = subInfo.getSubscriptionId();
-                if (matchSubId == dataSubId) {
-                    // Priority of Data sub is higher than non data sub.
-                    break;
-                }
-            }
-        }
+        // Priority of Data sub is higher than non data sub.
+        int matchSubId = subIds.contains(dataSubId) ? dataSubId : subIds.get(subIds.size() - 1);
         vlogd("matching subId is " + matchSubId);
         return matchSubId;
     }
@@ -480,13 +596,8 @@ public class WifiCarrierInfoManager {
         if (!SubscriptionManager.isValidSubscriptionId(subId)) {
             return false;
         }
-        List<SubscriptionInfo> subInfoList = mSubscriptionManager.getActiveSubscriptionInfoList();
-        if (subInfoList == null || subInfoList.isEmpty()) {
-            return false;
-        }
-        return subInfoList.stream()
-                .anyMatch(info -> info.getSubscriptionId() == subId
-                        && isSimStateReady(info));
+        SubscriptionInfo info = getSubscriptionSnapshot().subIdToSubInfo.get(subId);
+        return info != null && isSimStateReady(info);
     }
 
     /**
@@ -1204,14 +1315,10 @@ public class WifiCarrierInfoManager {
             vlogd("IMSI is not available or not full");
             return false;
         }
-        List<SubscriptionInfo> infos = mSubscriptionManager.getActiveSubscriptionInfoList();
-        if (infos == null) {
-            return false;
-        }
+        SubscriptionSnapshot snapshot = getSubscriptionSnapshot();
         // Find the active matching SIM card with the full IMSI from passpoint profile.
-        for (SubscriptionInfo subInfo : infos) {
-            String imsi = mTelephonyManager
-                    .createForSubscriptionId(subInfo.getSubscriptionId()).getSubscriberId();
+        for (SubscriptionInfo subInfo : snapshot.subInfos) {
+            String imsi = snapshot.subIdToImsi.get(subInfo.getSubscriptionId());
             if (imsiParameter.matchesImsi(imsi)) {
                 config.setCarrierId(subInfo.getCarrierId());
                 return true;
@@ -1235,7 +1342,7 @@ public class WifiCarrierInfoManager {
                 vlogd("required IMSI encryption information is not available.");
                 return null;
             }
-            return mTelephonyManager.createForSubscriptionId(subId).getSubscriberId();
+            return getSubscriptionSnapshot().subIdToImsi.get(subId);
         }
         vlogd("no active SIM card to match the carrier ID.");
         return null;
@@ -1255,10 +1362,7 @@ public class WifiCarrierInfoManager {
         if (imsiParameter == null) {
             return null;
         }
-        List<SubscriptionInfo> infos = mSubscriptionManager.getActiveSubscriptionInfoList();
-        if (infos == null) {
-            return null;
-        }
+        SubscriptionSnapshot snapshot = getSubscriptionSnapshot();
         int dataSubId = SubscriptionManager.getDefaultDataSubscriptionId();
         //Pair<IMSI, carrier ID> the IMSI and carrier ID of matched SIM card
         Pair<String, Integer> matchedPair = null;
@@ -1269,16 +1373,15 @@ public class WifiCarrierInfoManager {
 
         // Find the active matched SIM card with the priority order of Data MNO SIM,
         // Nondata MNO SIM, Data MVNO SIM, Nondata MVNO SIM.
-        for (SubscriptionInfo subInfo : infos) {
+        for (SubscriptionInfo subInfo : snapshot.subInfos) {
             int subId = subInfo.getSubscriptionId();
             if (requiresImsiEncryption(subId) && !isImsiEncryptionInfoAvailable(subId)) {
                 vlogd("required IMSI encryption information is not available.");
                 continue;
             }
-            TelephonyManager specifiedTm = mTelephonyManager.createForSubscriptionId(subId);
-            String operatorNumeric = specifiedTm.getSimOperator();
+            String operatorNumeric = snapshot.subIdToSimOperator.get(subId);
             if (operatorNumeric != null && imsiParameter.matchesMccMnc(operatorNumeric)) {
-                String curImsi = specifiedTm.getSubscriberId();
+                String curImsi = snapshot.subIdToImsi.get(subId);
                 if (TextUtils.isEmpty(curImsi)) {
                     continue;
                 }
@@ -1322,6 +1425,11 @@ public class WifiCarrierInfoManager {
         pw.println(TAG + ": ");
         pw.println("mImsiEncryptionRequired=" + mImsiEncryptionRequired);
         pw.println("mImsiEncryptionInfoAvailable=" + mImsiEncryptionInfoAvailable);
+        pw.println("mSimStateGeneration=" + mSimStateGeneration);
+        SubscriptionSnapshot snapshot = mSubscriptionSnapshot;
+        if (snapshot != null) {
+            pw.println("Subscription snapshot: carrierIdToSubIds=" + snapshot.carrierIdToSubIds);
+        }
     }
 
     /**
@@ -1333,8 +1441,8 @@ public class WifiCarrierInfoManager {
      *         by any available carrier, will return UNKNOWN_CARRIER_ID.
      */
     public int getCarrierIdForPackageWithCarrierPrivileges(String packageName) {
-        List<SubscriptionInfo> subInfoList = mSubscriptionManager.getActiveSubscriptionInfoList();
-        if (subInfoList == null || subInfoList.isEmpty()) {
+        List<SubscriptionInfo> subInfoList = getSubscriptionSnapshot().subInfos;
+        if (subInfoList.isEmpty()) {
             if (mVerboseLogEnabled) Log.v(TAG, "No subs for carrier privilege check");
             return TelephonyManager.UNKNOWN_CARRIER_ID;
         }
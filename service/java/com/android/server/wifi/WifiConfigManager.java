@@ -246,6 +246,7 @@ public class WifiConfigManager {
     private final MacAddressUtil mMacAddressUtil;
     private final WifiCarrierInfoManager mWifiCarrierInfoManager;
     private final WifiScoreCard mWifiScoreCard;
+    private final Handler mHandler;
     // Keep order of network connection.
     private final LruConnectionTracker mLruConnectionTracker;
 
@@ -309,6 +310,19 @@ public class WifiConfigManager {
      * Flag to indicate if the user unlock was deferred until the store load occurs.
      */
     private boolean mDeferredUserUnlockRead = false;
+    /**
+     * Number of pending {@link #deferStoreWrites()} calls. Store writes are deferred until the
+     * matching {@link #resumeStoreWrites()} calls.
+     */
+    private int mStoreWriteDeferralCount = 0;
+    /**
+     * Flag to indicate that a store write was requested while the store writes were deferred.
+     */
+    private boolean mDeferredStoreWritePending = false;
+    /**
+     * Resumes the store writes left deferred by the Wifi thread task which deferred them.
+     */
+    private final Runnable mStoreWriteDeferralCheck = this::checkStoreWritesResumed;
     /**
      * This is keeping track of the next network ID to be assigned. Any new networks will be
      * assigned |mNextNetworkId| as network ID.
@@ -357,6 +371,7 @@ public class WifiConfigManager {
         mWifiPermissionsWrapper = wifiPermissionsWrapper;
         mWifiInjector = wifiInjector;
         mWifiScoreCard = wifiScoreCard;
+        mHandler = handler;
 
         mConfiguredNetworks = new ConfigurationMap(userManager);
         mScanDetailCaches = new HashMap<>(16, 0.75f);
@@ -1320,6 +1335,131 @@ public class WifiConfigManager {
             return new NetworkUpdateResult(WifiConfiguration.INVALID_NETWORK_ID);
         }
         WifiConfiguration existingConfig = getInternalConfiguredNetwork(config);
+        NetworkUpdateResult result =
+                addOrUpdateNetworkReplacingEphemeral(config, existingConfig, uid, packageName);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        sendConfiguredNetworkChangedBroadcast(
+                result.isNewNetwork()
+                        ? WifiManager.CHANGE_REASON_ADDED
+                        : WifiManager.CHANGE_REASON_CONFIG_CHANGE);
+        // Unless the added network is ephemeral or Passpoint, persist the network update/addition.
+        if (!config.ephemeral && !config.isPasspoint()) {
+            saveToStore(true);
+        }
+        notifyNetworkAddedOrUpdated(result,
+                getInternalConfiguredNetwork(result.getNetworkId()), existingConfig);
+        return result;
+    }
+
+    /**
+     * Add or update multiple networks in our database in one pass. Each network is validated and
+     * merged as in {@link #addOrUpdateNetwork(WifiConfiguration, int, String)}, but a single
+     * {@link WifiManager#CONFIGURED_NETWORKS_CHANGED_ACTION} broadcast is sent and the store is
+     * written once for the whole list.
+     *
+     * @param configs list of provided WifiConfiguration objects.
+     * @param uid UID of the app requesting the network additions/modifications.
+     * @param packageName Package name of the app requesting the network additions/modifications.
+     * @return list of NetworkUpdateResult objects representing the status of each update, in the
+     * order of the provided configurations.
+     */
+    public List<NetworkUpdateResult> addOrUpdateNetworks(List<WifiConfiguration> configs, int uid,
+            @Nullable String packageName) {
+        List<NetworkUpdateResult> results = new ArrayList<>(configs.size());
+        if (!mWifiPermissionsUtil.doesUidBelongToCurrentUser(uid)) {
+            Log.e(TAG, "UID " + uid + " not visible to the current user");
+            addInvalidNetworkUpdateResults(results, configs.size());
+            return results;
+        }
+        if (mPendingStoreRead) {
+            Log.e(TAG, "Cannot add/update networks before store is read!");
+            addInvalidNetworkUpdateResults(results, configs.size());
+            return results;
+        }
+        // Internal configs right after each update, and before it, for the listeners.
+        List<WifiConfiguration> newConfigs = new ArrayList<>(configs.size());
+        List<WifiConfiguration> existingConfigs = new ArrayList<>(configs.size());
+        int numNetworksUpdated = 0;
+        int numNetworksAdded = 0;
+        boolean needsStoreWrite = false;
+        deferStoreWrites();
+        try {
+            for (WifiConfiguration config : configs) {
+                if (config == null) {
+                    Log.e(TAG, "Cannot add/update network with null config");
+                    results.add(new NetworkUpdateResult(WifiConfiguration.INVALID_NETWORK_ID));
+                    newConfigs.add(null);
+                    existingConfigs.add(null);
+                    continue;
+                }
+                WifiConfiguration existingConfig = getInternalConfiguredNetwork(config);
+                NetworkUpdateResult result = addOrUpdateNetworkReplacingEphemeral(
+                        config, existingConfig, uid, packageName);
+                results.add(result);
+                newConfigs.add(result.isSuccess()
+                        ? getInternalConfiguredNetwork(result.getNetworkId()) : null);
+                existingConfigs.add(existingConfig);
+                if (!result.isSuccess()) {
+                    continue;
+                }
+                if (result.isNewNetwork()) {
+                    numNetworksAdded++;
+                } else {
+                    numNetworksUpdated++;
+                }
+                // Unless all the networks are ephemeral or Passpoint, persist the updates.
+                if (!config.ephemeral && !config.isPasspoint()) {
+                    needsStoreWrite = true;
+                }
+            }
+            if (numNetworksAdded + numNetworksUpdated > 0) {
+                sendConfiguredNetworkChangedBroadcast(
+                        numNetworksUpdated == 0
+                                ? WifiManager.CHANGE_REASON_ADDED
+                                : WifiManager.CHANGE_REASON_CONFIG_CHANGE);
+            }
+            if (needsStoreWrite) {
+                saveToStore(true);
+            }
+        } finally {
+            resumeStoreWrites();
+        }
+        for (int i = 0; i < results.size(); i++) {
+            NetworkUpdateResult result = results.get(i);
+            // Skip the networks removed by a later update of the batch, e.g. an ephemeral network
+            // replaced by a saved one, their removal was already notified.
+            if (result.isSuccess()
+                    && getInternalConfiguredNetwork(result.getNetworkId()) != null) {
+                notifyNetworkAddedOrUpdated(result, newConfigs.get(i), existingConfigs.get(i));
+            }
+        }
+        localLog("addOrUpdateNetworks: added " + numNetworksAdded + " and updated "
+                + numNetworksUpdated + " of " + configs.size() + " networks."
+                + " uid=" + Integer.toString(uid));
+        return results;
+    }
+
+    private static void addInvalidNetworkUpdateResults(List<NetworkUpdateResult> results,
+            int count) {
+        for (int i = 0; i < count; i++) {
+            results.add(new NetworkUpdateResult(WifiConfiguration.INVALID_NETWORK_ID));
+        }
+    }
+
+    /**
+     * Add or update a network in our database, first removing the ephemeral network it replaces
+     * if any. Does not send the broadcast, persist the update or notify the listeners.
+     *
+     * @param config provided WifiConfiguration object.
+     * @param existingConfig internal WifiConfiguration object matching |config| if any.
+     * @param uid UID of the app requesting the network addition/modification.
+     * @param packageName Package name of the app requesting the network addition/modification.
+     * @return NetworkUpdateResult object representing status of the update.
+     */
+    private NetworkUpdateResult addOrUpdateNetworkReplacingEphemeral(WifiConfiguration config,
+            @Nullable WifiConfiguration existingConfig, int uid, @Nullable String packageName) {
         if (!config.isEphemeral()) {
             // Removes the existing ephemeral network if it exists to add this configuration.
             if (existingConfig != null && existingConfig.isEphemeral()) {
@@ -1334,18 +1474,19 @@ public class WifiConfigManager {
         NetworkUpdateResult result = addOrUpdateNetworkInternal(config, uid, packageName);
         if (!result.isSuccess()) {
             Log.e(TAG, "Failed to add/update network " + config.getPrintableSsid());
-            return result;
-        }
-        WifiConfiguration newConfig = getInternalConfiguredNetwork(result.getNetworkId());
-        sendConfiguredNetworkChangedBroadcast(
-                result.isNewNetwork()
-                        ? WifiManager.CHANGE_REASON_ADDED
-                        : WifiManager.CHANGE_REASON_CONFIG_CHANGE);
-        // Unless the added network is ephemeral or Passpoint, persist the network update/addition.
-        if (!config.ephemeral && !config.isPasspoint()) {
-            saveToStore(true);
         }
+        return result;
+    }
 
+    /**
+     * Notify the listeners about a successful network addition/modification.
+     *
+     * @param result NetworkUpdateResult of the addition/modification.
+     * @param newConfig internal WifiConfiguration object right after the modification.
+     * @param existingConfig internal WifiConfiguration object before the modification.
+     */
+    private void notifyNetworkAddedOrUpdated(NetworkUpdateResult result,
+            @NonNull WifiConfiguration newConfig, @Nullable WifiConfiguration existingConfig) {
         for (OnNetworkUpdateListener listener : mListeners) {
             if (result.isNewNetwork()) {
                 listener.onNetworkAdded(
@@ -1356,7 +1497,6 @@ public class WifiConfigManager {
                         createExternalWifiConfiguration(existingConfig, true, Process.WIFI_UID));
             }
         }
-        return result;
     }
 
     /**
@@ -2337,7 +2477,7 @@ public class WifiConfigManager {
         }
         WifiConfiguration config = null;
         try {
-            config = mConfiguredNetworks.getByScanResultForCurrentUser(scanResult);
+            config = mConfiguredNetworks.getByScanDetailForCurrentUser(scanDetail);
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Failed to lookup network from config map", e);
         }
@@ -2807,7 +2947,8 @@ public class WifiConfigManager {
             return new HashSet<>();
         }
         if (mUserManager.isUserUnlockingOrUnlocked(UserHandle.of(mCurrentUserId))) {
-            saveToStore(true);
+            // Write out any deferred updates while the old user's store is still in use.
+            writeToStore(true);
         }
         // Remove any private networks of the old user before switching the userId.
         Set<Integer> removedNetworkIds = clearInternalDataForCurrentUser();
@@ -2864,7 +3005,8 @@ public class WifiConfigManager {
         }
         if (userId == mCurrentUserId
                 && mUserManager.isUserUnlockingOrUnlocked(UserHandle.of(mCurrentUserId))) {
-            saveToStore(true);
+            // Write out any deferred updates before the user's store becomes unavailable.
+            writeToStore(true);
             clearInternalDataForCurrentUser();
         }
     }
@@ -3112,10 +3254,71 @@ public class WifiConfigManager {
      * @return Whether the write was successful or not, this is applicable only for force writes.
      */
     public boolean saveToStore(boolean forceWrite) {
+        if (mStoreWriteDeferralCount > 0 && !mPendingStoreRead) {
+            mDeferredStoreWritePending = true;
+            return true;
+        }
+        return writeToStore(forceWrite);
+    }
+
+    /**
+     * Defer the store writes until the matching {@link #resumeStoreWrites()} call, which
+     * performs a single forced write covering all the updates made in between. This is used to
+     * apply a large number of network updates, e.g. when restoring networks from backup data.
+     * Calls can be nested. The matching resume must be called from the same Wifi thread task:
+     * any store write requested while the writes are deferred is only acknowledged, so a
+     * deferral spanning several tasks would hold back the updates of unrelated callers too.
+     */
+    public void deferStoreWrites() {
+        if (mStoreWriteDeferralCount++ == 0) {
+            // Runs after the current Wifi thread task.
+            mHandler.post(mStoreWriteDeferralCheck);
+        }
+    }
+
+    private void checkStoreWritesResumed() {
+        if (mStoreWriteDeferralCount == 0) {
+            return;
+        }
+        Log.wtf(TAG, "Store writes still deferred after the task deferring them, resuming them");
+        mStoreWriteDeferralCount = 1;
+        resumeStoreWrites();
+    }
+
+    /**
+     * Resume the store writes deferred by {@link #deferStoreWrites()}, and write the store if any
+     * store write was requested in between.
+     *
+     * @return Whether the write was successful or not, true if no write was needed.
+     */
+    public boolean resumeStoreWrites() {
+        if (mStoreWriteDeferralCount == 0) {
+            Log.e(TAG, "Store writes are not deferred");
+            return false;
+        }
+        mStoreWriteDeferralCount--;
+        if (mStoreWriteDeferralCount == 0) {
+            mHandler.removeCallbacks(mStoreWriteDeferralCheck);
+        }
+        if (mStoreWriteDeferralCount > 0 || !mDeferredStoreWritePending) {
+            return true;
+        }
+        return writeToStore(true);
+    }
+
+    /**
+     * Write the current snapshot of the in-memory lists to the config store, even if the store
+     * writes are deferred.
+     *
+     * @param forceWrite Whether the write needs to be forced or not.
+     * @return Whether the write was successful or not, this is applicable only for force writes.
+     */
+    private boolean writeToStore(boolean forceWrite) {
         if (mPendingStoreRead) {
             Log.e(TAG, "Cannot save to store before store is read!");
             return false;
         }
+        mDeferredStoreWritePending = false;
         ArrayList<WifiConfiguration> sharedConfigurations = new ArrayList<>();
         ArrayList<WifiConfiguration> userConfigurations = new ArrayList<>();
         // List of network IDs for legacy Passpoint configuration to be removed.
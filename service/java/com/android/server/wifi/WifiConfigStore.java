@@ -59,8 +59,10 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -228,6 +230,18 @@ public class WifiConfigStore {
      * List of data containers.
      */
     private final List<StoreData> mStoreDataList;
+    /**
+     * Buffer the store files are serialized into. It is reused across writes so that it only
+     * grows once to the size of the largest store file, instead of repeatedly doubling from
+     * scratch while every store file is serialized.
+     */
+    private final SerializationBuffer mSerializationBuffer = new SerializationBuffer();
+    /**
+     * Number of bytes of {@link StoreData} sections serialized and reused from the previous
+     * serialization during the current write, reported to {@link WifiMetrics}.
+     */
+    private long mWriteNumBytesSerialized = 0;
+    private long mWriteNumBytesReused = 0;
 
     /**
      * Create a new instance of WifiConfigStore.
@@ -384,12 +398,14 @@ public class WifiConfigStore {
     }
 
     /**
-     * Check if any of the provided list of {@link StoreData} instances registered
-     * for the provided {@link StoreFile }have indicated that they have new data to serialize.
+     * Retrieve the {@link StoreData} instances registered for the provided {@link StoreFile} that
+     * have indicated that they have new data to serialize.
      */
-    private boolean hasNewDataToSerialize(@NonNull StoreFile storeFile) {
+    private Set<StoreData> retrieveStoreDataWithNewDataToSerialize(@NonNull StoreFile storeFile) {
         List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
-        return storeDataList.stream().anyMatch(s -> s.hasNewDataToSerialize());
+        return storeDataList.stream()
+                .filter(s -> s.hasNewDataToSerialize())
+                .collect(Collectors.toSet());
     }
 
     /**
@@ -403,19 +419,25 @@ public class WifiConfigStore {
     public void write(boolean forceSync)
             throws XmlPullParserException, IOException {
         boolean hasAnyNewData = false;
+        mWriteNumBytesSerialized = 0;
+        mWriteNumBytesReused = 0;
         // Serialize the provided data and send it to the respective stores. The actual write will
         // be performed later depending on the |forceSync| flag .
         for (StoreFile sharedStoreFile : mSharedStores) {
-            if (hasNewDataToSerialize(sharedStoreFile)) {
-                byte[] sharedDataBytes = serializeData(sharedStoreFile);
+            Set<StoreData> storeDataWithNewData =
+                    retrieveStoreDataWithNewDataToSerialize(sharedStoreFile);
+            if (!storeDataWithNewData.isEmpty()) {
+                byte[] sharedDataBytes = serializeData(sharedStoreFile, storeDataWithNewData);
                 sharedStoreFile.storeRawDataToWrite(sharedDataBytes);
                 hasAnyNewData = true;
             }
         }
         if (mUserStores != null) {
             for (StoreFile userStoreFile : mUserStores) {
-                if (hasNewDataToSerialize(userStoreFile)) {
-                    byte[] userDataBytes = serializeData(userStoreFile);
+                Set<StoreData> storeDataWithNewData =
+                        retrieveStoreDataWithNewDataToSerialize(userStoreFile);
+                if (!storeDataWithNewData.isEmpty()) {
+                    byte[] userDataBytes = serializeData(userStoreFile, storeDataWithNewData);
                     userStoreFile.storeRawDataToWrite(userDataBytes);
                     hasAnyNewData = true;
                 }
@@ -423,6 +445,8 @@ public class WifiConfigStore {
         }
 
         if (hasAnyNewData) {
+            mWifiMetrics.noteWifiConfigStoreWriteBytes(
+                    mWriteNumBytesSerialized, mWriteNumBytesReused);
             // Every write provides a new snapshot to be persisted, so |forceSync| flag overrides
             // any pending buffer writes.
             if (forceSync) {
@@ -444,31 +468,55 @@ public class WifiConfigStore {
      * This method also computes the integrity of the data being written and serializes the computed
      * {@link EncryptedData} to the output.
      *
+     * A {@link StoreData} section that has no new data to serialize is copied from the previous
+     * serialization of the store file instead of being serialized again, when there is one.
+     *
      * @param storeFile StoreFile that we want to write to.
+     * @param storeDataWithNewData StoreData instances of the file that have new data to serialize.
      * @return byte[] of serialized bytes
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private byte[] serializeData(@NonNull StoreFile storeFile)
+    private byte[] serializeData(@NonNull StoreFile storeFile,
+            @NonNull Set<StoreData> storeDataWithNewData)
             throws XmlPullParserException, IOException {
         List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
 
         final XmlSerializer out = new FastXmlSerializer();
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        mSerializationBuffer.reset();
+        out.setOutput(mSerializationBuffer, StandardCharsets.UTF_8.name());
 
         // First XML header.
         XmlUtil.writeDocumentStart(out, XML_TAG_DOCUMENT_HEADER);
         // Next version.
         XmlUtil.writeNextValue(out, XML_TAG_VERSION, CURRENT_CONFIG_STORE_DATA_VERSION);
         for (StoreData storeData : storeDataList) {
+            // Flush the serializer so that the sections can be copied from and to the buffer.
+            out.flush();
+            boolean hasNewData = storeDataWithNewData.contains(storeData);
+            byte[] serializedSection = storeFile.mSerializedSections.get(storeData);
+            if (serializedSection != null && !hasNewData) {
+                mSerializationBuffer.write(serializedSection);
+                mWriteNumBytesReused += serializedSection.length;
+                continue;
+            }
+            int sectionStart = mSerializationBuffer.size();
             String tag = storeData.getName();
             XmlUtil.writeNextSectionStart(out, tag);
             storeData.serializeData(out, storeFile.getEncryptionUtil());
             XmlUtil.writeNextSectionEnd(out, tag);
+            out.flush();
+            int sectionEnd = mSerializationBuffer.size();
+            mWriteNumBytesSerialized += sectionEnd - sectionStart;
+            // Only keep the sections that have been seen without new data once, the ones that
+            // always have new data would never be reused.
+            if (serializedSection != null || !hasNewData) {
+                storeFile.mSerializedSections.put(storeData,
+                        mSerializationBuffer.copyOfRange(sectionStart, sectionEnd));
+            }
         }
         XmlUtil.writeDocumentEnd(out, XML_TAG_DOCUMENT_HEADER);
-        return outputStream.toByteArray();
+        return mSerializationBuffer.toByteArray();
     }
 
     /**
@@ -705,6 +753,7 @@ public class WifiConfigStore {
         for (StoreData storeData: retrieveStoreDataListForStoreFile(storeFile)) {
             storeData.resetData();
         }
+        storeFile.mSerializedSections.clear();
     }
 
     // Inform all the provided store data clients that there is nothing in the store for them.
@@ -833,6 +882,18 @@ public class WifiConfigStore {
         pw.println("WifiConfigStore - Store Data End ----");
     }
 
+    /**
+     * {@link ByteArrayOutputStream} giving access to ranges of the written bytes.
+     */
+    private static class SerializationBuffer extends ByteArrayOutputStream {
+        /**
+         * Return a copy of the bytes written between the given offsets.
+         */
+        public synchronized byte[] copyOfRange(int from, int to) {
+            return Arrays.copyOfRange(buf, from, to);
+        }
+    }
+
     /**
      * Class to encapsulate all file writes. This is a wrapper over {@link AtomicFile} to write/read
      * raw data from the persistent file with integrity. This class provides helper methods to
@@ -869,6 +930,11 @@ public class WifiConfigStore {
          * Integrity checking for the store file.
          */
         private final WifiConfigStoreEncryptionUtil mEncryptionUtil;
+        /**
+         * Serialized {@link StoreData} sections of the last write, to be reused as long as the
+         * {@link StoreData} has no new data to serialize.
+         */
+        private final Map<StoreData, byte[]> mSerializedSections = new HashMap<>();
 
         public StoreFile(File file, @StoreFileId int fileId,
                 @NonNull UserHandle userHandle,
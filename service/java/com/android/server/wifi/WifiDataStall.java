@@ -217,20 +217,20 @@ public class WifiDataStall {
 
     /**
      * Update data stall detection, check throughput sufficiency and report wifi health stat
-     * with the latest link layer stats
-     * @param oldStats second most recent WifiLinkLayerStats
+     * with a link layer stats delta which was already computed for the latest poll
+     * @param delta difference between the two most recent WifiLinkLayerStats
      * @param newStats most recent WifiLinkLayerStats
      * @param wifiInfo WifiInfo for current connection
      * @return trigger type of WifiIsUnusableEvent
      */
-    public int checkDataStallAndThroughputSufficiency(WifiLinkLayerStats oldStats,
+    public int checkDataStallAndThroughputSufficiency(WifiLinkLayerStatsDelta delta,
             WifiLinkLayerStats newStats, WifiInfo wifiInfo) {
         int currFrequency = wifiInfo.getFrequency();
         mWifiChannelUtilization.refreshChannelStatsAndChannelUtilization(newStats, currFrequency);
         int ccaLevel = mWifiChannelUtilization.getUtilizationRatio(currFrequency);
         mWifiMetrics.incrementChannelUtilizationCount(ccaLevel, currFrequency);
 
-        if (oldStats == null || newStats == null) {
+        if (!delta.isValid()) {
             // First poll after new association
             // Update throughput with prediction
             if (wifiInfo.getRssi() != WifiInfo.INVALID_RSSI && mConnectionCapabilities != null) {
@@ -245,34 +245,18 @@ public class WifiDataStall {
             return WifiIsUnusableEvent.TYPE_UNKNOWN;
         }
 
-        long txSuccessDelta = (newStats.txmpdu_be + newStats.txmpdu_bk
-                + newStats.txmpdu_vi + newStats.txmpdu_vo)
-                - (oldStats.txmpdu_be + oldStats.txmpdu_bk
-                + oldStats.txmpdu_vi + oldStats.txmpdu_vo);
-        long txRetriesDelta = (newStats.retries_be + newStats.retries_bk
-                + newStats.retries_vi + newStats.retries_vo)
-                - (oldStats.retries_be + oldStats.retries_bk
-                + oldStats.retries_vi + oldStats.retries_vo);
-        long txBadDelta = (newStats.lostmpdu_be + newStats.lostmpdu_bk
-                + newStats.lostmpdu_vi + newStats.lostmpdu_vo)
-                - (oldStats.lostmpdu_be + oldStats.lostmpdu_bk
-                + oldStats.lostmpdu_vi + oldStats.lostmpdu_vo);
-        long rxSuccessDelta = (newStats.rxmpdu_be + newStats.rxmpdu_bk
-                + newStats.rxmpdu_vi + newStats.rxmpdu_vo)
-                - (oldStats.rxmpdu_be + oldStats.rxmpdu_bk
-                + oldStats.rxmpdu_vi + oldStats.rxmpdu_vo);
-        int timeDeltaLastTwoPollsMs = (int) (newStats.timeStampInMs - oldStats.timeStampInMs);
+        long txSuccessDelta = delta.getTotalDelta(WifiLinkLayerStatsDelta.COUNTER_TX_SUCCESS);
+        long txRetriesDelta = delta.getTotalDelta(WifiLinkLayerStatsDelta.COUNTER_TX_RETRIES);
+        long txBadDelta = delta.getTotalDelta(WifiLinkLayerStatsDelta.COUNTER_TX_BAD);
+        long rxSuccessDelta = delta.getTotalDelta(WifiLinkLayerStatsDelta.COUNTER_RX_SUCCESS);
+        int timeDeltaLastTwoPollsMs = (int) delta.getTimeDeltaMs();
 
         long totalTxDelta = txSuccessDelta + txRetriesDelta;
         boolean isTxTrafficHigh = (totalTxDelta * 1000)
                 > (mDeviceConfigFacade.getTxPktPerSecondThr() * timeDeltaLastTwoPollsMs);
         boolean isRxTrafficHigh = (rxSuccessDelta * 1000)
                 > (mDeviceConfigFacade.getRxPktPerSecondThr() * timeDeltaLastTwoPollsMs);
-        if (timeDeltaLastTwoPollsMs < 0
-                || txSuccessDelta < 0
-                || txRetriesDelta < 0
-                || txBadDelta < 0
-                || rxSuccessDelta < 0) {
+        if (timeDeltaLastTwoPollsMs < 0 || delta.hasCounterReset()) {
             mIsThroughputSufficient = true;
             // There was a reset in WifiLinkLayerStats
             mWifiMetrics.resetWifiIsUnusableLinkLayerStats();
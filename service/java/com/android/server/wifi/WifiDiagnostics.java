@@ -20,23 +20,28 @@ import android.annotation.NonNull;
 import android.content.Context;
 import android.os.BugreportManager;
 import android.os.BugreportParams;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.ArraySet;
-import android.util.Base64;
 import android.util.Log;
 import android.util.SparseLongArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.util.ByteArrayRingBuffer;
+import com.android.server.wifi.util.CompressionUtil;
+import com.android.server.wifi.util.FileSpool;
 import com.android.server.wifi.util.StringUtil;
 import com.android.wifi.resources.R;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -46,8 +51,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.zip.Deflater;
 
 /**
  * Tracks various logs for framework.
@@ -58,6 +61,9 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
      * 1) All non-private methods are |synchronized|.
      * 2) Callbacks into WifiDiagnostics use non-private (and hence, synchronized) methods. See, e.g,
      *    onRingBufferData(), onWifiAlert().
+     * 3) Bug reports and alerts only snapshot the ring buffers while holding the lock. Everything
+     *    else (ring buffer flush, logcat, firmware and driver dumps, packet fates, compression)
+     *    is collected on the capture thread, which only takes the lock to publish the result.
      */
 
     private static final String TAG = "WifiDiags";
@@ -98,6 +104,17 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
     /** number of alerts to hold */
     public static final int MAX_ALERT_REPORTS                       = 1;
 
+    /** number of bug reports and alerts waiting to be collected on the capture thread */
+    @VisibleForTesting
+    public static final int MAX_PENDING_CAPTURES                    = MAX_BUG_REPORTS;
+
+    /** Identical back-to-back triggers within this window are only captured once */
+    @VisibleForTesting
+    public static final long CAPTURE_DEDUP_WINDOW_MILLIS            = 5 * 1000; // 5 secs
+
+    /** Flush reason when a capture should not flush the HAL ring buffers */
+    private static final int NO_FLUSH = -1;
+
     /** minimum wakeup interval for each of the log levels */
     private static final int MinWakeupIntervals[] = new int[] { 0, 3600, 60, 10 };
     /** minimum buffer size for each of the log levels */
@@ -135,13 +152,32 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
     private int mMaxRingBufferSizeBytes;
     private WifiInjector mWifiInjector;
     private Clock mClock;
+    private final Handler mCaptureHandler;
+    /** Where firmware and driver dumps are kept, if not in memory */
+    private final FileSpool mSpool;
+
+    /** Last accepted capture trigger, used to drop identical back-to-back triggers */
+    private boolean mLastCaptureWasAlert;
+    private int mLastCaptureCode;
+    private byte[] mLastCaptureAlertData;
+    private long mLastCaptureTimeMs = -1;
+
+    private int mNumPendingCaptures;
+    private int mNumDedupedCaptures;
+    private int mNumDroppedCaptures;
+    private boolean mPacketFatesFetchPending;
 
     /** Interfaces started logging */
     private final Set<String> mActiveInterfaces = new ArraySet<>();
 
+    /**
+     * @param captureLooper Looper of the thread bug reports and alerts are collected on, it
+     *                      should not be the wifi main thread
+     */
     public WifiDiagnostics(Context context, WifiInjector wifiInjector,
                            WifiNative wifiNative, BuildProperties buildProperties,
-                           LastMileLogger lastMileLogger, Clock clock) {
+                           LastMileLogger lastMileLogger, Clock clock,
+                           @NonNull Looper captureLooper) {
         super(wifiNative);
 
         mContext = context;
@@ -153,6 +189,11 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
         mWifiMetrics = wifiInjector.getWifiMetrics();
         mWifiInjector = wifiInjector;
         mClock = clock;
+        mCaptureHandler = new Handler(captureLooper);
+        int spoolSizeLimitKb = mContext.getResources().getInteger(
+                R.integer.config_wifi_diagnostics_spool_size_limit_kb);
+        mSpool = spoolSizeLimitKb > 0 ? new FileSpool(
+                wifiInjector.getWifiDiagnosticsSpoolDirectory(), spoolSizeLimitKb * 1024L) : null;
     }
 
     /**
@@ -245,29 +286,42 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
     @Override
     public synchronized void reportConnectionEvent(byte event) {
         mLastMileLogger.reportConnectionEvent(event);
-        if (event == CONNECTION_EVENT_FAILED || event == CONNECTION_EVENT_TIMEOUT) {
-            mPacketFatesForLastFailure = fetchPacketFates();
+        if ((event == CONNECTION_EVENT_FAILED || event == CONNECTION_EVENT_TIMEOUT)
+                && !mPacketFatesFetchPending) {
+            // A fetch that is still pending gets the fates of this failure as well.
+            mPacketFatesFetchPending = true;
+            mCaptureHandler.post(() -> {
+                ArrayList<WifiNative.FateReport> fates = fetchPacketFates();
+                synchronized (WifiDiagnostics.this) {
+                    mPacketFatesForLastFailure = fates;
+                    mPacketFatesFetchPending = false;
+                }
+            });
         }
     }
 
     @Override
     public synchronized void captureBugReportData(int reason) {
-        BugReport report = captureBugreport(reason, isVerboseLoggingEnabled());
-        mLastBugReports.addLast(report);
-        flushDump(reason);
+        if (!shouldCapture(false, reason, null)) return;
+        BugReport report = snapshotBugreport(reason);
+        scheduleCapture(report, mLastBugReports, reason, isVerboseLoggingEnabled());
     }
 
     @Override
     public synchronized void captureAlertData(int errorCode, byte[] alertData) {
-        BugReport report = captureBugreport(errorCode, isVerboseLoggingEnabled());
+        if (!shouldCapture(true, errorCode, alertData)) return;
+        BugReport report = snapshotBugreport(errorCode);
         report.alertData = alertData;
-        mLastAlerts.addLast(report);
         /* Flush HAL ring buffer when detecting data stall */
-        if (Arrays.stream(mContext.getResources().getIntArray(
-                R.array.config_wifi_fatal_firmware_alert_error_code_list))
-                .boxed().collect(Collectors.toList()).contains(errorCode)) {
-            flushDump(REPORT_REASON_FATAL_FW_ALERT);
+        int flushReason = NO_FLUSH;
+        for (int fatalErrorCode : mContext.getResources().getIntArray(
+                R.array.config_wifi_fatal_firmware_alert_error_code_list)) {
+            if (fatalErrorCode == errorCode) {
+                flushReason = REPORT_REASON_FATAL_FW_ALERT;
+                break;
+            }
         }
+        scheduleCapture(report, mLastAlerts, flushReason, isVerboseLoggingEnabled());
     }
 
     @Override
@@ -277,18 +331,21 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
         for (int i = 0; i < mLastAlerts.size(); i++) {
             pw.println("--------------------------------------------------------------------");
             pw.println("Alert dump " + i);
-            pw.print(mLastAlerts.get(i));
+            dumpBugReport(mLastAlerts.get(i), pw);
             pw.println("--------------------------------------------------------------------");
         }
 
         for (int i = 0; i < mLastBugReports.size(); i++) {
             pw.println("--------------------------------------------------------------------");
             pw.println("Bug dump " + i);
-            pw.print(mLastBugReports.get(i));
+            dumpBugReport(mLastBugReports.get(i), pw);
             pw.println("--------------------------------------------------------------------");
         }
 
         pw.println("Last Flush Time: " + mLastDumpTime.toString());
+        pw.println("Pending captures: " + mNumPendingCaptures
+                + ", deduplicated captures: " + mNumDedupedCaptures
+                + ", dropped captures: " + mNumDroppedCaptures);
         pw.println("--------------------------------------------------------------------");
 
         dumpPacketFates(pw);
@@ -329,95 +386,177 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
         long systemTimeMs;
         long kernelTimeNanos;
         int errorCode;
-        HashMap<String, byte[][]> ringBuffers = new HashMap();
+        HashMap<String, byte[]> ringBuffers = new HashMap();
         byte[] fwMemoryDump;
         byte[] mDriverStateDump;
         byte[] alertData;
         ArrayList<String> kernelLogLines;
         ArrayList<String> logcatLines;
 
+        /** deflated copies of the binary data, set by compress() */
+        HashMap<String, byte[]> compressedRingBuffers;
+        byte[] compressedAlertData;
+        byte[] compressedFwMemoryDump;
+        byte[] compressedDriverStateDump;
+
+        /** spool file holding the firmware and driver dumps, instead of this report */
+        File spoolFile;
+
+        /** elapsed time of each capture phase */
+        long snapshotDurationMs;
+        long queuedDurationMs;
+        long flushDurationMs;
+        long logcatDurationMs;
+        long fwDumpDurationMs;
+        long compressDurationMs;
+
         void clearVerboseLogs() {
             fwMemoryDump = null;
             mDriverStateDump = null;
+            compressedFwMemoryDump = null;
+            compressedDriverStateDump = null;
+            if (spoolFile != null) {
+                mSpool.delete(spoolFile);
+                spoolFile = null;
+            }
         }
 
-        public String toString() {
-            StringBuilder builder = new StringBuilder();
+        /**
+         * Compresses the binary data ahead of time, so that dumping the report does not need to.
+         * Only the compressed copy of the firmware and driver dumps is kept.
+         */
+        void compress() {
+            compressedRingBuffers = new HashMap<>();
+            for (HashMap.Entry<String, byte[]> e : ringBuffers.entrySet()) {
+                compressedRingBuffers.put(e.getKey(), CompressionUtil.deflate(e.getValue()));
+            }
+            if (alertData != null) {
+                compressedAlertData = CompressionUtil.deflate(alertData);
+            }
+            if (fwMemoryDump != null) {
+                compressedFwMemoryDump = CompressionUtil.deflate(fwMemoryDump);
+                fwMemoryDump = null;
+            }
+            if (mDriverStateDump != null && !StringUtil.isAsciiPrintable(mDriverStateDump)) {
+                compressedDriverStateDump = CompressionUtil.deflate(mDriverStateDump);
+                mDriverStateDump = null;
+            }
+        }
+
+        boolean hasVerboseLogs() {
+            return fwMemoryDump != null || compressedFwMemoryDump != null
+                    || mDriverStateDump != null || compressedDriverStateDump != null;
+        }
+
+        /**
+         * Moves the firmware and driver dumps to a spool file.
+         */
+        void spool() {
+            spoolFile = mSpool.write("bugreport", this::writeVerboseLogs);
+            if (spoolFile != null) {
+                fwMemoryDump = null;
+                mDriverStateDump = null;
+                compressedFwMemoryDump = null;
+                compressedDriverStateDump = null;
+            }
+        }
 
+        private byte[] compressed(byte[] compressedData, byte[] data) {
+            return compressedData != null ? compressedData : CompressionUtil.deflate(data);
+        }
+
+        /**
+         * Writes the report to |out|, streaming the encoded binary data.
+         */
+        void dump(Writer out) throws IOException {
             Calendar c = Calendar.getInstance();
             c.setTimeInMillis(systemTimeMs);
-            builder.append("system time = ").append(
-                    String.format("%tm-%td %tH:%tM:%tS.%tL", c, c, c, c, c, c)).append("\n");
+            out.write("system time = " + String.format("%tm-%td %tH:%tM:%tS.%tL", c, c, c, c, c, c)
+                    + "\n");
 
             long kernelTimeMs = kernelTimeNanos/(1000*1000);
-            builder.append("kernel time = ").append(kernelTimeMs/1000).append(".").append
-                    (kernelTimeMs%1000).append("\n");
+            out.write("kernel time = " + kernelTimeMs/1000 + "." + kernelTimeMs%1000 + "\n");
 
             if (alertData == null)
-                builder.append("reason = ").append(errorCode).append("\n");
+                out.write("reason = " + errorCode + "\n");
             else {
-                builder.append("errorCode = ").append(errorCode);
-                builder.append("data \n");
-                builder.append(compressToBase64(alertData)).append("\n");
+                out.write("errorCode = " + errorCode);
+                out.write("data \n");
+                CompressionUtil.writeBase64(compressed(compressedAlertData, alertData), out);
+                out.write("\n");
             }
 
+            out.write("capture timings (ms): snapshot = " + snapshotDurationMs
+                    + ", queued = " + queuedDurationMs
+                    + ", flush = " + flushDurationMs
+                    + ", logcat = " + logcatDurationMs
+                    + ", fw dump = " + fwDumpDurationMs
+                    + ", compress = " + compressDurationMs + "\n");
+
             if (kernelLogLines != null) {
-                builder.append("kernel log: \n");
+                out.write("kernel log: \n");
                 for (int i = 0; i < kernelLogLines.size(); i++) {
-                    builder.append(kernelLogLines.get(i)).append("\n");
+                    out.write(kernelLogLines.get(i));
+                    out.write("\n");
                 }
-                builder.append("\n");
+                out.write("\n");
             }
 
             if (logcatLines != null) {
-                builder.append("system log: \n");
+                out.write("system log: \n");
                 for (int i = 0; i < logcatLines.size(); i++) {
-                    builder.append(logcatLines.get(i)).append("\n");
+                    out.write(logcatLines.get(i));
+                    out.write("\n");
                 }
-                builder.append("\n");
+                out.write("\n");
             }
 
-            for (HashMap.Entry<String, byte[][]> e : ringBuffers.entrySet()) {
+            for (HashMap.Entry<String, byte[]> e : ringBuffers.entrySet()) {
                 String ringName = e.getKey();
-                byte[][] buffers = e.getValue();
-                builder.append("ring-buffer = ").append(ringName).append("\n");
-
-                int size = 0;
-                for (int i = 0; i < buffers.length; i++) {
-                    size += buffers[i].length;
-                }
+                out.write("ring-buffer = " + ringName + "\n");
+                CompressionUtil.writeBase64(compressed(compressedRingBuffers != null
+                        ? compressedRingBuffers.get(ringName) : null, e.getValue()), out);
+                out.write("\n");
+            }
 
-                byte[] buffer = new byte[size];
-                int index = 0;
-                for (int i = 0; i < buffers.length; i++) {
-                    System.arraycopy(buffers[i], 0, buffer, index, buffers[i].length);
-                    index += buffers[i].length;
+            if (spoolFile != null) {
+                if (!mSpool.copyTo(spoolFile, out)) {
+                    out.write("firmware and driver dumps deleted from spool\n");
                 }
-
-                builder.append(compressToBase64(buffer));
-                builder.append("\n");
+            } else {
+                writeVerboseLogs(out);
             }
+        }
 
-            if (fwMemoryDump != null) {
-                builder.append(FIRMWARE_DUMP_SECTION_HEADER);
-                builder.append("\n");
-                builder.append(compressToBase64(fwMemoryDump));
-                builder.append("\n");
+        private void writeVerboseLogs(Writer out) throws IOException {
+            if (fwMemoryDump != null || compressedFwMemoryDump != null) {
+                out.write(FIRMWARE_DUMP_SECTION_HEADER);
+                out.write("\n");
+                CompressionUtil.writeBase64(compressed(compressedFwMemoryDump, fwMemoryDump), out);
+                out.write("\n");
             }
 
-            if (mDriverStateDump != null) {
-                builder.append(DRIVER_DUMP_SECTION_HEADER);
-                if (StringUtil.isAsciiPrintable(mDriverStateDump)) {
-                    builder.append(" (ascii)\n");
-                    builder.append(new String(mDriverStateDump, Charset.forName("US-ASCII")));
-                    builder.append("\n");
-                } else {
-                    builder.append(" (base64)\n");
-                    builder.append(compressToBase64(mDriverStateDump));
-                }
+            if (mDriverStateDump != null && StringUtil.isAsciiPrintable(mDriverStateDump)) {
+                out.write(DRIVER_DUMP_SECTION_HEADER);
+                out.write(" (ascii)\n");
+                out.write(new String(mDriverStateDump, StandardCharsets.US_ASCII));
+                out.write("\n");
+            } else if (mDriverStateDump != null || compressedDriverStateDump != null) {
+                out.write(DRIVER_DUMP_SECTION_HEADER);
+                out.write(" (base64)\n");
+                CompressionUtil.writeBase64(
+                        compressed(compressedDriverStateDump, mDriverStateDump), out);
             }
+        }
 
-            return builder.toString();
+        public String toString() {
+            StringWriter sw = new StringWriter();
+            try {
+                dump(sw);
+            } catch (IOException e) {
+                // StringWriter does not throw.
+            }
+            return sw.toString();
         }
     }
 
@@ -429,10 +568,15 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
             mMax = max;
         }
 
-        public final void addLast(E e) {
+        /**
+         * Adds |e|, and returns the element removed to make room for it, if any.
+         */
+        public final E addLast(E e) {
+            E removed = null;
             if (mArrayList.size() >= mMax)
-                mArrayList.remove(0);
+                removed = mArrayList.remove(0);
             mArrayList.add(e);
+            return removed;
         }
 
         public final int size() {
@@ -616,25 +760,62 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
 
     }
 
+    /**
+     * Only called on the capture thread, so the window check and the update of mLastDumpTime
+     * can not race with another flush.
+     */
     private boolean flushDump(int errorCode) {
         if (errorCode == REPORT_REASON_USER_ACTION) return false;
 
         long currentTime = mClock.getWallClockMillis();
-        int index = mLastDumpTime.indexOfKey(errorCode);
-        if (index >= 0) {
-            if (currentTime - mLastDumpTime.valueAt(index) < MIN_DUMP_TIME_WINDOW_MILLIS) {
-                return false;
+        synchronized (this) {
+            int index = mLastDumpTime.indexOfKey(errorCode);
+            if (index >= 0) {
+                if (currentTime - mLastDumpTime.valueAt(index) < MIN_DUMP_TIME_WINDOW_MILLIS) {
+                    return false;
+                }
             }
         }
         if (!mWifiNative.flushRingBufferData()) {
             mLog.wC("could not flush ringbuffer");
             return false;
         }
-        mLastDumpTime.put(errorCode, currentTime);
+        synchronized (this) {
+            mLastDumpTime.put(errorCode, currentTime);
+        }
+        return true;
+    }
+
+    /**
+     * Returns false if the trigger is identical to the previous one and follows it closely, or
+     * if too many captures are already waiting for the capture thread.
+     */
+    private boolean shouldCapture(boolean isAlert, int code, byte[] alertData) {
+        long now = mClock.getElapsedSinceBootMillis();
+        if (mLastCaptureTimeMs >= 0 && now - mLastCaptureTimeMs < CAPTURE_DEDUP_WINDOW_MILLIS
+                && isAlert == mLastCaptureWasAlert && code == mLastCaptureCode
+                && Arrays.equals(alertData, mLastCaptureAlertData)) {
+            mNumDedupedCaptures++;
+            return false;
+        }
+        if (mNumPendingCaptures >= MAX_PENDING_CAPTURES) {
+            mNumDroppedCaptures++;
+            mLog.wC("too many pending captures, dropping capture");
+            return false;
+        }
+        mLastCaptureWasAlert = isAlert;
+        mLastCaptureCode = code;
+        mLastCaptureAlertData = alertData;
+        mLastCaptureTimeMs = now;
         return true;
     }
 
-    private BugReport captureBugreport(int errorCode, boolean captureFWDump) {
+    /**
+     * Creates a report holding a copy of the ring buffers, the rest of the report is collected
+     * by completeCapture().
+     */
+    private BugReport snapshotBugreport(int errorCode) {
+        long startMs = mClock.getElapsedSinceBootMillis();
         BugReport report = new BugReport();
         report.errorCode = errorCode;
         report.systemTimeMs = System.currentTimeMillis();
@@ -642,25 +823,71 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
 
         if (mRingBuffers != null) {
             for (WifiNative.RingBufferStatus buffer : mRingBuffers) {
-                /* this will push data in mRingBuffers */
-                mWifiNative.getRingBufferData(buffer.name);
-                ByteArrayRingBuffer data = mRingBufferData.get(buffer.name);
-                byte[][] buffers = new byte[data.getNumBuffers()][];
-                for (int i = 0; i < data.getNumBuffers(); i++) {
-                    buffers[i] = data.getBuffer(i).clone();
+                report.ringBuffers.put(buffer.name,
+                        mRingBufferData.get(buffer.name).toByteArray());
+            }
+        }
+        report.snapshotDurationMs = mClock.getElapsedSinceBootMillis() - startMs;
+        return report;
+    }
+
+    private void scheduleCapture(BugReport report, LimitedCircularArray<BugReport> reports,
+            int flushReason, boolean captureFWDump) {
+        mNumPendingCaptures++;
+        long queuedMs = mClock.getElapsedSinceBootMillis();
+        mCaptureHandler.post(() -> {
+            report.queuedDurationMs = mClock.getElapsedSinceBootMillis() - queuedMs;
+            completeCapture(report, flushReason, captureFWDump);
+            synchronized (WifiDiagnostics.this) {
+                mNumPendingCaptures--;
+                if (!isVerboseLoggingEnabled()) {
+                    // Verbose logging was disabled while the report was being collected.
+                    report.clearVerboseLogs();
+                }
+                BugReport removed = reports.addLast(report);
+                if (removed != null) {
+                    // Also deletes its spool file, if any.
+                    removed.clearVerboseLogs();
                 }
-                report.ringBuffers.put(buffer.name, buffers);
             }
+        });
+    }
+
+    /**
+     * Collects the rest of the report on the capture thread, without holding the lock.
+     */
+    private void completeCapture(BugReport report, int flushReason, boolean captureFWDump) {
+        long startMs = mClock.getElapsedSinceBootMillis();
+        for (String ringName : report.ringBuffers.keySet()) {
+            /* this will push data in mRingBufferData, for the next capture */
+            mWifiNative.getRingBufferData(ringName);
+        }
+        if (flushReason != NO_FLUSH) {
+            flushDump(flushReason);
         }
+        long endMs = mClock.getElapsedSinceBootMillis();
+        report.flushDurationMs = endMs - startMs;
 
+        startMs = endMs;
         report.logcatLines = getLogcatSystem(127);
         report.kernelLogLines = getLogcatKernel(127);
+        endMs = mClock.getElapsedSinceBootMillis();
+        report.logcatDurationMs = endMs - startMs;
 
         if (captureFWDump) {
+            startMs = endMs;
             report.fwMemoryDump = mWifiNative.getFwMemoryDump();
             report.mDriverStateDump = mWifiNative.getDriverStateDump();
+            endMs = mClock.getElapsedSinceBootMillis();
+            report.fwDumpDurationMs = endMs - startMs;
         }
-        return report;
+
+        startMs = endMs;
+        report.compress();
+        if (mSpool != null && report.hasVerboseLogs()) {
+            report.spool();
+        }
+        report.compressDurationMs = mClock.getElapsedSinceBootMillis() - startMs;
     }
 
     @VisibleForTesting
@@ -673,44 +900,12 @@ class WifiDiagnostics extends BaseWifiDiagnostics {
         return mLastAlerts;
     }
 
-    private String compressToBase64(byte[] input) {
-        String result;
-        //compress
-        Deflater compressor = new Deflater();
-        compressor.setLevel(Deflater.BEST_SPEED);
-        compressor.setInput(input);
-        compressor.finish();
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
-        final byte[] buf = new byte[1024];
-
-        while (!compressor.finished()) {
-            int count = compressor.deflate(buf);
-            bos.write(buf, 0, count);
-        }
-
+    private void dumpBugReport(BugReport report, PrintWriter pw) {
         try {
-            compressor.end();
-            bos.close();
+            report.dump(pw);
         } catch (IOException e) {
-            mLog.wC("ByteArrayOutputStream close error");
-            result =  android.util.Base64.encodeToString(input, Base64.DEFAULT);
-            return result;
-        }
-
-        byte[] compressed = bos.toByteArray();
-        if (DBG) {
-            mLog.dump("length is: %").c(compressed == null ? 0 : compressed.length).flush();
+            pw.println("Failed to read spool file: " + e);
         }
-
-        //encode
-        result = android.util.Base64.encodeToString(
-                compressed.length < input.length ? compressed : input , Base64.DEFAULT);
-
-        if (DBG) {
-            mLog.dump("FwMemoryDump length is: %").c(result.length()).flush();
-        }
-
-        return result;
     }
 
     private void readLogcatStreamLinesWithTimeout(
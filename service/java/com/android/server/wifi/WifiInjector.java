@@ -53,12 +53,15 @@ import com.android.server.wifi.p2p.WifiP2pMetrics;
 import com.android.server.wifi.p2p.WifiP2pMonitor;
 import com.android.server.wifi.p2p.WifiP2pNative;
 import com.android.server.wifi.rtt.RttMetrics;
+import com.android.server.wifi.util.Environment;
 import com.android.server.wifi.util.LruConnectionTracker;
 import com.android.server.wifi.util.NetdWrapper;
 import com.android.server.wifi.util.SettingsMigrationDataHolder;
 import com.android.server.wifi.util.WifiPermissionsUtil;
 import com.android.server.wifi.util.WifiPermissionsWrapper;
+import com.android.wifi.resources.R;
 
+import java.io.File;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchProviderException;
@@ -91,6 +94,7 @@ public class WifiInjector {
     private final HandlerThread mWifiHandlerThread;
     private final HandlerThread mWifiP2pServiceHandlerThread;
     private final HandlerThread mPasspointProvisionerHandlerThread;
+    private final HandlerThread mWifiDiagnosticsHandlerThread;
     private final WifiTrafficPoller mWifiTrafficPoller;
     private final WifiCountryCode mCountryCode;
     private final BackupManagerProxy mBackupManagerProxy = new BackupManagerProxy();
@@ -151,6 +155,7 @@ public class WifiInjector {
     private final DppManager mDppManager;
     private final LinkProbeManager mLinkProbeManager;
     private IpMemoryStore mIpMemoryStore;
+    private LocalMemoryStore mLocalMemoryStore;
     private final WifiThreadRunner mWifiThreadRunner;
     private BssidBlocklistMonitor mBssidBlocklistMonitor;
     private final MacAddressUtil mMacAddressUtil;
@@ -216,6 +221,8 @@ public class WifiInjector {
         mPasspointProvisionerHandlerThread =
                 new HandlerThread("PasspointProvisionerHandlerThread");
         mPasspointProvisionerHandlerThread.start();
+        mWifiDiagnosticsHandlerThread = new HandlerThread("WifiDiagnosticsHandlerThread");
+        mWifiDiagnosticsHandlerThread.start();
         WifiAwareMetrics awareMetrics = new WifiAwareMetrics(mClock);
         RttMetrics rttMetrics = new RttMetrics(mClock);
         mWifiP2pMetrics = new WifiP2pMetrics(mClock);
@@ -330,7 +337,7 @@ public class WifiInjector {
                 mWifiNative);
         mWifiDiagnostics = new WifiDiagnostics(
                 mContext, this, mWifiNative, mBuildProperties,
-                new LastMileLogger(this), mClock);
+                new LastMileLogger(this), mClock, mWifiDiagnosticsHandlerThread.getLooper());
         mWifiChannelUtilizationConnected = new WifiChannelUtilization(mClock, mContext);
         mWifiDataStall = new WifiDataStall(mFrameworkFacade, mWifiMetrics, mContext,
                 mDeviceConfigFacade, mWifiChannelUtilizationConnected, mClock, wifiHandler,
@@ -800,6 +807,27 @@ public class WifiInjector {
         return mIpMemoryStore;
     }
 
+    /**
+     * Returns the directory of the spool WifiDiagnostics keeps firmware and driver dumps in.
+     */
+    public File getWifiDiagnosticsSpoolDirectory() {
+        return new File(Environment.getWifiSharedDirectory(), "diagnostics");
+    }
+
+    /**
+     * Returns the file-backed store used when IpMemoryStore is not available,
+     * or null if the device does not allow this fallback.
+     */
+    public LocalMemoryStore getLocalMemoryStore() {
+        if (mLocalMemoryStore == null && mContext.getResources().getBoolean(
+                R.bool.config_wifiScoreCardLocalMemoryStoreFallbackEnabled)) {
+            mLocalMemoryStore = new LocalMemoryStore(new File(
+                    Environment.getWifiSharedDirectory(), LocalMemoryStore.STORE_FILE_NAME),
+                    new Handler(mWifiHandlerThread.getLooper()), mClock);
+        }
+        return mLocalMemoryStore;
+    }
+
     public BssidBlocklistMonitor getBssidBlocklistMonitor() {
         return mBssidBlocklistMonitor;
     }
@@ -35,6 +35,7 @@ import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -84,15 +85,23 @@ public class WifiLastResortWatchdog {
     /**
      * Cached WifiConfigurations of available networks seen within MAX_BSSID_AGE scan results
      * Key:BSSID, Value:Counters of failure types
+     * Ordered by the scan result they were last seen in, least recently seen first, so that the
+     * networks timing out are found without visiting the others.
      */
-    private Map<String, AvailableNetworkFailureCount> mRecentAvailableNetworks = new HashMap<>();
+    private LinkedHashMap<String, AvailableNetworkFailureCount> mRecentAvailableNetworks =
+            new LinkedHashMap<>();
 
     /**
-     * Map of SSID to <FailureCount, AP count>, used to count failures & number of access points
+     * Map of SSID to failure count & AP count, used to count failures & number of access points
      * belonging to an SSID.
      */
-    private Map<String, Pair<AvailableNetworkFailureCount, Integer>> mSsidFailureCount =
-            new HashMap<>();
+    private Map<String, SsidFailureCount> mSsidFailureCount = new HashMap<>();
+
+    /**
+     * Number of scan results received, the age of a network is the number of scan results
+     * received since the one it was last seen in.
+     */
+    private long mScanResultsCount = 0;
 
     /* List of failure BSSID */
     private Set<String> mBssidFailureList = new HashSet<>();
@@ -199,6 +208,7 @@ public class WifiLastResortWatchdog {
      */
     public void updateAvailableNetworks(
             List<Pair<ScanDetail, WifiConfiguration>> availableNetworks) {
+        mScanResultsCount++;
         // Add new networks to mRecentAvailableNetworks
         if (availableNetworks != null) {
             if (mVerboseLoggingEnabled) {
@@ -210,25 +220,24 @@ public class WifiLastResortWatchdog {
                 ScanResult scanResult = scanDetail.getScanResult();
                 if (scanResult == null) continue;
                 String bssid = scanResult.BSSID;
-                String ssid = "\"" + scanDetail.getSSID() + "\"";
                 if (mVerboseLoggingEnabled) {
                     Log.v(TAG, " " + bssid + ": " + scanDetail.getSSID());
                 }
-                // Cache the scanResult & WifiConfig
+                // Cache the scanResult & WifiConfig, moving it to the most recently seen end
                 AvailableNetworkFailureCount availableNetworkFailureCount =
-                        mRecentAvailableNetworks.get(bssid);
+                        mRecentAvailableNetworks.remove(bssid);
                 if (availableNetworkFailureCount == null) {
                     // New network is available
+                    String ssid = "\"" + scanDetail.getSSID() + "\"";
                     availableNetworkFailureCount = new AvailableNetworkFailureCount(config);
                     availableNetworkFailureCount.ssid = ssid;
 
                     // Count AP for this SSID
-                    Pair<AvailableNetworkFailureCount, Integer> ssidFailsAndApCount =
-                            mSsidFailureCount.get(ssid);
+                    SsidFailureCount ssidFailsAndApCount = mSsidFailureCount.get(ssid);
                     if (ssidFailsAndApCount == null) {
                         // This is a new SSID, create new FailureCount for it and set AP count to 1
-                        ssidFailsAndApCount = Pair.create(new AvailableNetworkFailureCount(config),
-                                1);
+                        mSsidFailureCount.put(ssid, new SsidFailureCount(
+                                new AvailableNetworkFailureCount(config)));
                         // Do not re-enable Watchdog in LAST_TRIGGER_TIMEOUT_MILLIS
                         // after last time Watchdog be triggered
                         if (!mWatchdogAllowedToTrigger && (mTimeLastTrigger == 0
@@ -238,48 +247,39 @@ public class WifiLastResortWatchdog {
                             setWatchdogTriggerEnabled(true);
                         }
                     } else {
-                        final Integer numberOfAps = ssidFailsAndApCount.second;
                         // This is not a new SSID, increment the AP count for it
-                        ssidFailsAndApCount = Pair.create(ssidFailsAndApCount.first,
-                                numberOfAps + 1);
+                        ssidFailsAndApCount.apCount++;
                     }
-                    mSsidFailureCount.put(ssid, ssidFailsAndApCount);
                 }
                 // refresh config if it is not null
                 if (config != null) {
                     availableNetworkFailureCount.config = config;
                 }
-                // If we saw a network, set its Age to -1 here, aging iteration will set it to 0
-                availableNetworkFailureCount.age = -1;
+                availableNetworkFailureCount.lastSeenScanResultsCount = mScanResultsCount;
                 mRecentAvailableNetworks.put(bssid, availableNetworkFailureCount);
             }
         }
 
-        // Iterate through available networks updating timeout counts & removing networks.
-        Iterator<Map.Entry<String, AvailableNetworkFailureCount>> it =
-                mRecentAvailableNetworks.entrySet().iterator();
+        // Remove the networks that timed out, which are all at the least recently seen end.
+        Iterator<AvailableNetworkFailureCount> it = mRecentAvailableNetworks.values().iterator();
         while (it.hasNext()) {
-            Map.Entry<String, AvailableNetworkFailureCount> entry = it.next();
-            if (entry.getValue().age < MAX_BSSID_AGE - 1) {
-                entry.getValue().age++;
-            } else {
-                // Decrement this SSID : AP count
-                String ssid = entry.getValue().ssid;
-                Pair<AvailableNetworkFailureCount, Integer> ssidFails =
-                            mSsidFailureCount.get(ssid);
-                if (ssidFails != null) {
-                    Integer apCount = ssidFails.second - 1;
-                    if (apCount > 0) {
-                        ssidFails = Pair.create(ssidFails.first, apCount);
-                        mSsidFailureCount.put(ssid, ssidFails);
-                    } else {
-                        mSsidFailureCount.remove(ssid);
-                    }
-                } else {
-                    Log.d(TAG, "updateAvailableNetworks: SSID to AP count mismatch for " + ssid);
+            AvailableNetworkFailureCount availableNetworkFailureCount = it.next();
+            if (mScanResultsCount - availableNetworkFailureCount.lastSeenScanResultsCount
+                    < MAX_BSSID_AGE) {
+                break;
+            }
+            // Decrement this SSID : AP count
+            String ssid = availableNetworkFailureCount.ssid;
+            SsidFailureCount ssidFails = mSsidFailureCount.get(ssid);
+            if (ssidFails != null) {
+                ssidFails.apCount--;
+                if (ssidFails.apCount <= 0) {
+                    mSsidFailureCount.remove(ssid);
                 }
-                it.remove();
+            } else {
+                Log.d(TAG, "updateAvailableNetworks: SSID to AP count mismatch for " + ssid);
             }
+            it.remove();
         }
         if (mVerboseLoggingEnabled) Log.v(TAG, toString());
     }
@@ -423,12 +423,12 @@ public class WifiLastResortWatchdog {
      * @param reason the failure type to increment count for
      */
     private void incrementSsidFailureCount(String ssid, int reason) {
-        Pair<AvailableNetworkFailureCount, Integer> ssidFails = mSsidFailureCount.get(ssid);
+        SsidFailureCount ssidFails = mSsidFailureCount.get(ssid);
         if (ssidFails == null) {
             Log.d(TAG, "updateFailureCountForNetwork: No networks for ssid = " + ssid);
             return;
         }
-        AvailableNetworkFailureCount failureCount = ssidFails.first;
+        AvailableNetworkFailureCount failureCount = ssidFails.failureCount;
         failureCount.incrementFailureCount(reason);
     }
 
@@ -495,12 +495,12 @@ public class WifiLastResortWatchdog {
             return false;
         }
         String ssid = availableNetworkFailureCount.ssid;
-        Pair<AvailableNetworkFailureCount, Integer> ssidFails = mSsidFailureCount.get(ssid);
+        SsidFailureCount ssidFails = mSsidFailureCount.get(ssid);
         if (ssidFails == null) {
             Log.d(TAG, "isOnlyBssidAvailable: Could not find SSID count for " + ssid);
             return false;
         }
-        if (ssidFails.second != 1) {
+        if (ssidFails.apCount != 1) {
             return false;
         }
         return true;
@@ -566,16 +566,16 @@ public class WifiLastResortWatchdog {
         int badAssoc = 0;
         int badDhcp = 0;
         int badSum = 0;
-        for (Map.Entry<String, Pair<AvailableNetworkFailureCount, Integer>> entry
-                : mSsidFailureCount.entrySet()) {
-            badSum = entry.getValue().first.associationRejection
-                    + entry.getValue().first.authenticationFailure
-                    + entry.getValue().first.dhcpFailure;
+        for (SsidFailureCount ssidFails : mSsidFailureCount.values()) {
+            AvailableNetworkFailureCount failureCount = ssidFails.failureCount;
+            badSum = failureCount.associationRejection
+                    + failureCount.authenticationFailure
+                    + failureCount.dhcpFailure;
             // count as contributor if over half of badSum.
             if (badSum >= FAILURE_THRESHOLD) {
-                badAssoc += (entry.getValue().first.associationRejection >= badSum / 2) ? 1 : 0;
-                badAuth += (entry.getValue().first.authenticationFailure >= badSum / 2) ? 1 : 0;
-                badDhcp += (entry.getValue().first.dhcpFailure >= badSum / 2) ? 1 : 0;
+                badAssoc += (failureCount.associationRejection >= badSum / 2) ? 1 : 0;
+                badAuth += (failureCount.authenticationFailure >= badSum / 2) ? 1 : 0;
+                badDhcp += (failureCount.dhcpFailure >= badSum / 2) ? 1 : 0;
             }
         }
         if (badAuth > 0) {
@@ -602,10 +602,8 @@ public class WifiLastResortWatchdog {
             final AvailableNetworkFailureCount failureCount = entry.getValue();
             failureCount.resetCounts();
         }
-        for (Map.Entry<String, Pair<AvailableNetworkFailureCount, Integer>> entry
-                : mSsidFailureCount.entrySet()) {
-            final AvailableNetworkFailureCount failureCount = entry.getValue().first;
-            failureCount.resetCounts();
+        for (SsidFailureCount ssidFails : mSsidFailureCount.values()) {
+            ssidFails.failureCount.resetCounts();
         }
         mBssidFailureList.clear();
     }
@@ -613,9 +611,22 @@ public class WifiLastResortWatchdog {
      * Gets the buffer of recently available networks
      */
     Map<String, AvailableNetworkFailureCount> getRecentAvailableNetworks() {
+        updateAges();
         return mRecentAvailableNetworks;
     }
 
+    /**
+     * Update {@link AvailableNetworkFailureCount#age} of the recently available networks. It is
+     * only updated on demand, the networks are aged by counting the scan results.
+     */
+    private void updateAges() {
+        for (AvailableNetworkFailureCount availableNetworkFailureCount
+                : mRecentAvailableNetworks.values()) {
+            availableNetworkFailureCount.age = (int) (mScanResultsCount
+                    - availableNetworkFailureCount.lastSeenScanResultsCount);
+        }
+    }
+
     /**
      * Activates or deactivates the Watchdog trigger. Counting and network buffering still occurs
      * @param enable true to enable the Watchdog trigger, false to disable it
@@ -638,16 +649,16 @@ public class WifiLastResortWatchdog {
         sb.append("\nmWatchdogAllowedToTrigger: ").append(mWatchdogAllowedToTrigger);
         sb.append("\nmWifiIsConnected: ").append(mWifiIsConnected);
         sb.append("\nmRecentAvailableNetworks: ").append(mRecentAvailableNetworks.size());
+        updateAges();
         for (Map.Entry<String, AvailableNetworkFailureCount> entry
                 : mRecentAvailableNetworks.entrySet()) {
             sb.append("\n ").append(entry.getKey()).append(": ").append(entry.getValue())
                 .append(", Age: ").append(entry.getValue().age);
         }
         sb.append("\nmSsidFailureCount:");
-        for (Map.Entry<String, Pair<AvailableNetworkFailureCount, Integer>> entry :
-                mSsidFailureCount.entrySet()) {
-            final AvailableNetworkFailureCount failureCount = entry.getValue().first;
-            final Integer apCount = entry.getValue().second;
+        for (Map.Entry<String, SsidFailureCount> entry : mSsidFailureCount.entrySet()) {
+            final AvailableNetworkFailureCount failureCount = entry.getValue().failureCount;
+            final int apCount = entry.getValue().apCount;
             sb.append("\n").append(entry.getKey()).append(": ").append(apCount).append(",")
                     .append(failureCount.toString());
         }
@@ -676,12 +687,12 @@ public class WifiLastResortWatchdog {
             return 0;
         }
         String ssid = availableNetworkFailureCount.ssid;
-        Pair<AvailableNetworkFailureCount, Integer> ssidFails = mSsidFailureCount.get(ssid);
+        SsidFailureCount ssidFails = mSsidFailureCount.get(ssid);
         if (ssidFails == null) {
             Log.d(TAG, "getFailureCount: Could not find SSID count for " + ssid);
             return 0;
         }
-        final AvailableNetworkFailureCount failCount = ssidFails.first;
+        final AvailableNetworkFailureCount failCount = ssidFails.failureCount;
         switch (reason) {
             case FAILURE_CODE_ASSOCIATION:
                 return failCount.associationRejection;
@@ -754,9 +765,14 @@ public class WifiLastResortWatchdog {
          */
         public int dhcpFailure = 0;
         /**
-         * Number of scanResults since this network was last seen
+         * Number of scanResults since this network was last seen. Only up to date in the
+         * networks returned by {@link #getRecentAvailableNetworks()}.
          */
         public int age = 0;
+        /**
+         * Number of scan results received when this network was last seen.
+         */
+        long lastSeenScanResultsCount = 0;
 
         AvailableNetworkFailureCount(WifiConfiguration configParam) {
             this.config = configParam;
@@ -800,6 +816,19 @@ public class WifiLastResortWatchdog {
         }
     }
 
+    /**
+     * This class holds the failure counts for an SSID, and the number of its access points in the
+     * recently available networks.
+     */
+    private static class SsidFailureCount {
+        public final AvailableNetworkFailureCount failureCount;
+        public int apCount = 1;
+
+        SsidFailureCount(AvailableNetworkFailureCount failureCount) {
+            this.failureCount = failureCount;
+        }
+    }
+
     /**
      * Helper function for logging into local log buffer.
      */
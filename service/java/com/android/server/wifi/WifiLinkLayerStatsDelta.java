@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import android.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Difference between two consecutive {@link WifiLinkLayerStats} samples.
+ *
+ * The packet counters of both samples are read into primitive arrays indexed by counter and
+ * access category, so the per access category deltas, their totals and the radio time deltas are
+ * computed once per poll and can be shared by every consumer of the same link layer stats poll.
+ * The instance and its arrays are reused across polls.
+ */
+public class WifiLinkLayerStatsDelta {
+    /** WME Best Effort Access Category */
+    public static final int AC_BE = 0;
+    /** WME Background Access Category */
+    public static final int AC_BK = 1;
+    /** WME Video Access Category */
+    public static final int AC_VI = 2;
+    /** WME Voice Access Category */
+    public static final int AC_VO = 3;
+    public static final int NUM_AC = 4;
+
+    /** Transmitted mpdu */
+    public static final int COUNTER_TX_SUCCESS = 0;
+    /** Transmission retries */
+    public static final int COUNTER_TX_RETRIES = 1;
+    /** Lost mpdu */
+    public static final int COUNTER_TX_BAD = 2;
+    /** Received mpdu */
+    public static final int COUNTER_RX_SUCCESS = 3;
+    public static final int NUM_COUNTERS = 4;
+
+    /** Milliseconds the radio is awake */
+    public static final int RADIO_ON_TIME = 0;
+    /** Milliseconds of active transmission */
+    public static final int RADIO_TX_TIME = 1;
+    /** Milliseconds of active receive */
+    public static final int RADIO_RX_TIME = 2;
+    /** Milliseconds the radio is awake due to scan */
+    public static final int RADIO_SCAN_TIME = 3;
+    /** Milliseconds the radio is awake due to nan scan */
+    public static final int RADIO_NAN_SCAN_TIME = 4;
+    /** Milliseconds the radio is awake due to background scan */
+    public static final int RADIO_BACKGROUND_SCAN_TIME = 5;
+    /** Milliseconds the radio is awake due to roam scan */
+    public static final int RADIO_ROAM_SCAN_TIME = 6;
+    /** Milliseconds the radio is awake due to pno scan */
+    public static final int RADIO_PNO_SCAN_TIME = 7;
+    /** Milliseconds the radio is awake due to hotspot 2.0 scan and GAS exchange */
+    public static final int RADIO_HS20_SCAN_TIME = 8;
+    public static final int NUM_RADIO_TIMES = 9;
+
+    // Counters of the old and new samples, and their difference, at [counter * NUM_AC + ac].
+    private final long[] mOldCounters = new long[NUM_COUNTERS * NUM_AC];
+    private final long[] mNewCounters = new long[NUM_COUNTERS * NUM_AC];
+    private final long[] mCounterDeltas = new long[NUM_COUNTERS * NUM_AC];
+    private final long[] mCounterTotalDeltas = new long[NUM_COUNTERS];
+    private final long[] mRadioTimeDeltasMs = new long[NUM_RADIO_TIMES];
+    private long mTimeDeltaMs;
+    private boolean mIsValid;
+
+    /**
+     * Computes the difference between two link layer stats samples.
+     *
+     * @param oldStats second most recent WifiLinkLayerStats
+     * @param newStats most recent WifiLinkLayerStats
+     * @return true if both samples are present and the delta is valid, false otherwise.
+     */
+    public boolean update(@Nullable WifiLinkLayerStats oldStats,
+            @Nullable WifiLinkLayerStats newStats) {
+        if (oldStats == null || newStats == null) {
+            invalidate();
+            return false;
+        }
+        readCounters(oldStats, mOldCounters);
+        readCounters(newStats, mNewCounters);
+
+        Arrays.fill(mCounterTotalDeltas, 0);
+        for (int i = 0; i < mCounterDeltas.length; i++) {
+            mCounterDeltas[i] = mNewCounters[i] - mOldCounters[i];
+            mCounterTotalDeltas[i / NUM_AC] += mCounterDeltas[i];
+        }
+        mRadioTimeDeltasMs[RADIO_ON_TIME] = newStats.on_time - oldStats.on_time;
+        mRadioTimeDeltasMs[RADIO_TX_TIME] = newStats.tx_time - oldStats.tx_time;
+        mRadioTimeDeltasMs[RADIO_RX_TIME] = newStats.rx_time - oldStats.rx_time;
+        mRadioTimeDeltasMs[RADIO_SCAN_TIME] = newStats.on_time_scan - oldStats.on_time_scan;
+        mRadioTimeDeltasMs[RADIO_NAN_SCAN_TIME] =
+                newStats.on_time_nan_scan - oldStats.on_time_nan_scan;
+        mRadioTimeDeltasMs[RADIO_BACKGROUND_SCAN_TIME] =
+                newStats.on_time_background_scan - oldStats.on_time_background_scan;
+        mRadioTimeDeltasMs[RADIO_ROAM_SCAN_TIME] =
+                newStats.on_time_roam_scan - oldStats.on_time_roam_scan;
+        mRadioTimeDeltasMs[RADIO_PNO_SCAN_TIME] =
+                newStats.on_time_pno_scan - oldStats.on_time_pno_scan;
+        mRadioTimeDeltasMs[RADIO_HS20_SCAN_TIME] =
+                newStats.on_time_hs20_scan - oldStats.on_time_hs20_scan;
+        mTimeDeltaMs = newStats.timeStampInMs - oldStats.timeStampInMs;
+        mIsValid = true;
+        return true;
+    }
+
+    /**
+     * Clears the delta, e.g. when one of the samples is missing.
+     */
+    public void invalidate() {
+        Arrays.fill(mCounterDeltas, 0);
+        Arrays.fill(mCounterTotalDeltas, 0);
+        Arrays.fill(mRadioTimeDeltasMs, 0);
+        mTimeDeltaMs = 0;
+        mIsValid = false;
+    }
+
+    /**
+     * Returns whether the last update had both samples.
+     */
+    public boolean isValid() {
+        return mIsValid;
+    }
+
+    /**
+     * Returns whether any counter or the sample time went backwards, which means that the link
+     * layer stats were reset between the two samples.
+     */
+    public boolean hasCounterReset() {
+        if (mTimeDeltaMs < 0) {
+            return true;
+        }
+        for (long delta : mCounterTotalDeltas) {
+            if (delta < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the delta of one counter summed over all access categories.
+     *
+     * @param counter one of the COUNTER_* constants
+     */
+    public long getTotalDelta(int counter) {
+        return mCounterTotalDeltas[counter];
+    }
+
+    /**
+     * Returns the delta of one counter for one access category.
+     *
+     * @param counter one of the COUNTER_* constants
+     * @param ac one of the AC_* constants
+     */
+    public long getDelta(int counter, int ac) {
+        return mCounterDeltas[counter * NUM_AC + ac];
+    }
+
+    /**
+     * Returns the delta of one of the radio times in milliseconds.
+     *
+     * @param radioTime one of the RADIO_* constants
+     */
+    public long getRadioTimeDeltaMs(int radioTime) {
+        return mRadioTimeDeltasMs[radioTime];
+    }
+
+    /**
+     * Returns the time in milliseconds between the two samples.
+     */
+    public long getTimeDeltaMs() {
+        return mTimeDeltaMs;
+    }
+
+    private static void readCounters(WifiLinkLayerStats stats, long[] counters) {
+        counters[COUNTER_TX_SUCCESS * NUM_AC + AC_BE] = stats.txmpdu_be;
+        counters[COUNTER_TX_SUCCESS * NUM_AC + AC_BK] = stats.txmpdu_bk;
+        counters[COUNTER_TX_SUCCESS * NUM_AC + AC_VI] = stats.txmpdu_vi;
+        counters[COUNTER_TX_SUCCESS * NUM_AC + AC_VO] = stats.txmpdu_vo;
+        counters[COUNTER_TX_RETRIES * NUM_AC + AC_BE] = stats.retries_be;
+        counters[COUNTER_TX_RETRIES * NUM_AC + AC_BK] = stats.retries_bk;
+        counters[COUNTER_TX_RETRIES * NUM_AC + AC_VI] = stats.retries_vi;
+        counters[COUNTER_TX_RETRIES * NUM_AC + AC_VO] = stats.retries_vo;
+        counters[COUNTER_TX_BAD * NUM_AC + AC_BE] = stats.lostmpdu_be;
+        counters[COUNTER_TX_BAD * NUM_AC + AC_BK] = stats.lostmpdu_bk;
+        counters[COUNTER_TX_BAD * NUM_AC + AC_VI] = stats.lostmpdu_vi;
+        counters[COUNTER_TX_BAD * NUM_AC + AC_VO] = stats.lostmpdu_vo;
+        counters[COUNTER_RX_SUCCESS * NUM_AC + AC_BE] = stats.rxmpdu_be;
+        counters[COUNTER_RX_SUCCESS * NUM_AC + AC_BK] = stats.rxmpdu_bk;
+        counters[COUNTER_RX_SUCCESS * NUM_AC + AC_VI] = stats.rxmpdu_vi;
+        counters[COUNTER_RX_SUCCESS * NUM_AC + AC_VO] = stats.rxmpdu_vo;
+    }
+}
@@ -216,6 +216,9 @@ public class WifiMetrics {
     private FrameworkFacade mFacade;
     private WifiDataStall mWifiDataStall;
     private WifiLinkLayerStats mLastLinkLayerStats;
+    // Usage stats keep their own baseline, which spans disconnections.
+    private final WifiLinkLayerStatsDelta mLinkLayerUsageStatsDelta =
+            new WifiLinkLayerStatsDelta();
     private WifiHealthMonitor mWifiHealthMonitor;
     private WifiScoreCard mWifiScoreCard;
     private String mLastBssid;
@@ -417,6 +420,12 @@ public class WifiMetrics {
 
     /** WifiConfigStore write duration histogram. */
     private SparseIntArray mWifiConfigStoreWriteDurationHistogram = new SparseIntArray();
+    private long mWifiConfigStoreNumBytesSerialized = 0;
+    private long mWifiConfigStoreNumBytesReused = 0;
+    private static final int[] WIFI_CONFIG_STORE_WRITE_BYTES_REUSED_PERCENT_HISTOGRAM_BUCKETS =
+            {10, 25, 50, 75, 90, 100};
+    private final IntHistogram mWifiConfigStoreWriteBytesReusedPercentHistogram =
+            new IntHistogram(WIFI_CONFIG_STORE_WRITE_BYTES_REUSED_PERCENT_HISTOGRAM_BUCKETS);
 
     /** New  API surface metrics */
     private final WifiNetworkRequestApiLog mWifiNetworkRequestApiLog =
@@ -509,6 +518,11 @@ public class WifiMetrics {
     private final IntHistogram mInitPartialScanFailureHistogram =
             new IntHistogram(INIT_PARTIAL_SCAN_HISTOGRAM_BUCKETS);
 
+    private static final int[] PASSPOINT_ANQP_TIME_TO_FIRST_MATCH_MS_HISTOGRAM_BUCKETS =
+            {100, 500, 1000, 2000, 5000, 10000, 30000};
+    private final IntHistogram mPasspointAnqpTimeToFirstMatchMsHistogram =
+            new IntHistogram(PASSPOINT_ANQP_TIME_TO_FIRST_MATCH_MS_HISTOGRAM_BUCKETS);
+
     // Wi-Fi off metrics
     private final WifiOffMetrics mWifiOffMetrics = new WifiOffMetrics();
 
@@ -1429,38 +1443,41 @@ public class WifiMetrics {
             mLastLinkLayerStats = newStats;
             return;
         }
-        if (!newLinkLayerStatsIsValid(mLastLinkLayerStats, newStats)) {
+        mLinkLayerUsageStatsDelta.update(mLastLinkLayerStats, newStats);
+        if (!linkLayerUsageStatsDeltaIsValid(mLinkLayerUsageStatsDelta)) {
             // This could mean the radio chip is reset or the data is incorrectly reported.
             // Don't increment any counts and discard the possibly corrupt |newStats| completely.
             mLastLinkLayerStats = null;
             return;
         }
-        mWifiLinkLayerUsageStats.loggingDurationMs +=
-                (newStats.timeStampInMs - mLastLinkLayerStats.timeStampInMs);
-        mWifiLinkLayerUsageStats.radioOnTimeMs += (newStats.on_time - mLastLinkLayerStats.on_time);
-        mWifiLinkLayerUsageStats.radioTxTimeMs += (newStats.tx_time - mLastLinkLayerStats.tx_time);
-        mWifiLinkLayerUsageStats.radioRxTimeMs += (newStats.rx_time - mLastLinkLayerStats.rx_time);
+        WifiLinkLayerStatsDelta delta = mLinkLayerUsageStatsDelta;
+        mWifiLinkLayerUsageStats.loggingDurationMs += delta.getTimeDeltaMs();
+        mWifiLinkLayerUsageStats.radioOnTimeMs +=
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_ON_TIME);
+        mWifiLinkLayerUsageStats.radioTxTimeMs +=
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_TX_TIME);
+        mWifiLinkLayerUsageStats.radioRxTimeMs +=
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_RX_TIME);
         mWifiLinkLayerUsageStats.radioScanTimeMs +=
-                (newStats.on_time_scan - mLastLinkLayerStats.on_time_scan);
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_SCAN_TIME);
         mWifiLinkLayerUsageStats.radioNanScanTimeMs +=
-                (newStats.on_time_nan_scan - mLastLinkLayerStats.on_time_nan_scan);
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_NAN_SCAN_TIME);
         mWifiLinkLayerUsageStats.radioBackgroundScanTimeMs +=
-                (newStats.on_time_background_scan - mLastLinkLayerStats.on_time_background_scan);
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_BACKGROUND_SCAN_TIME);
         mWifiLinkLayerUsageStats.radioRoamScanTimeMs +=
-                (newStats.on_time_roam_scan - mLastLinkLayerStats.on_time_roam_scan);
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_ROAM_SCAN_TIME);
         mWifiLinkLayerUsageStats.radioPnoScanTimeMs +=
-                (newStats.on_time_pno_scan - mLastLinkLayerStats.on_time_pno_scan);
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_PNO_SCAN_TIME);
         mWifiLinkLayerUsageStats.radioHs20ScanTimeMs +=
-                (newStats.on_time_hs20_scan - mLastLinkLayerStats.on_time_hs20_scan);
+                delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_HS20_SCAN_TIME);
         mLastLinkLayerStats = newStats;
     }
 
-    private boolean newLinkLayerStatsIsValid(WifiLinkLayerStats oldStats,
-            WifiLinkLayerStats newStats) {
-        if (newStats.on_time < oldStats.on_time
-                || newStats.tx_time < oldStats.tx_time
-                || newStats.rx_time < oldStats.rx_time
-                || newStats.on_time_scan < oldStats.on_time_scan) {
+    private boolean linkLayerUsageStatsDeltaIsValid(WifiLinkLayerStatsDelta delta) {
+        if (delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_ON_TIME) < 0
+                || delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_TX_TIME) < 0
+                || delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_RX_TIME) < 0
+                || delta.getRadioTimeDeltaMs(WifiLinkLayerStatsDelta.RADIO_SCAN_TIME) < 0) {
             return false;
         }
         return true;
@@ -2925,6 +2942,26 @@ public class WifiMetrics {
         }
     }
 
+    /**
+     * Increment number of ANQP queries coalesced with a query to another AP of the same ESS that
+     * was already in flight. Counted once per in flight query.
+     */
+    public void incrementNumPasspointAnqpQueriesCoalesced() {
+        synchronized (mLock) {
+            mWifiLogProto.numPasspointAnqpQueriesCoalesced++;
+        }
+    }
+
+    /**
+     * Log the time from the first ANQP query to an ESS until a Passpoint provider was matched
+     * to it.
+     */
+    public void logPasspointAnqpTimeToFirstMatch(int timeMs) {
+        synchronized (mLock) {
+            mPasspointAnqpTimeToFirstMatchMsHistogram.increment(timeMs);
+        }
+    }
+
     /**
      * Increment number of times we detected a radio mode change to MCC.
      */
@@ -3532,6 +3569,11 @@ public class WifiMetrics {
                 pw.println("mWifiLogProto.passpointProvisionStats.provisionFailureCount:"
                             + mPasspointProvisionFailureCounts);
 
+                pw.println("mWifiLogProto.numPasspointAnqpQueriesCoalesced="
+                        + mWifiLogProto.numPasspointAnqpQueriesCoalesced);
+                pw.println("mPasspointAnqpTimeToFirstMatchMsHistogram:\n"
+                        + mPasspointAnqpTimeToFirstMatchMsHistogram);
+
                 pw.println("mWifiLogProto.numRadioModeChangeToMcc="
                         + mWifiLogProto.numRadioModeChangeToMcc);
                 pw.println("mWifiLogProto.numRadioModeChangeToScc="
@@ -3749,6 +3791,11 @@ public class WifiMetrics {
                         + mWifiConfigStoreReadDurationHistogram.toString());
                 pw.println("mWifiConfigStoreWriteDurationHistogram:"
                         + mWifiConfigStoreWriteDurationHistogram.toString());
+                pw.println("mWifiConfigStoreNumBytesSerialized="
+                        + mWifiConfigStoreNumBytesSerialized);
+                pw.println("mWifiConfigStoreNumBytesReused=" + mWifiConfigStoreNumBytesReused);
+                pw.println("mWifiConfigStoreWriteBytesReusedPercentHistogram:\n"
+                        + mWifiConfigStoreWriteBytesReusedPercentHistogram);
 
                 pw.println("mLinkProbeSuccessRssiCounts:" + mLinkProbeSuccessRssiCounts);
                 pw.println("mLinkProbeFailureRssiCounts:" + mLinkProbeFailureRssiCounts);
@@ -4378,6 +4425,11 @@ public class WifiMetrics {
             mWifiLogProto.wifiConfigStoreIo.writeDurations =
                     makeWifiConfigStoreIODurationBucketArray(
                             mWifiConfigStoreWriteDurationHistogram);
+            mWifiLogProto.wifiConfigStoreIo.numBytesSerialized =
+                    mWifiConfigStoreNumBytesSerialized;
+            mWifiLogProto.wifiConfigStoreIo.numBytesReused = mWifiConfigStoreNumBytesReused;
+            mWifiLogProto.wifiConfigStoreIo.writeBytesReusedPercentHistogram =
+                    mWifiConfigStoreWriteBytesReusedPercentHistogram.toProto();
 
             LinkProbeStats linkProbeStats = new LinkProbeStats();
             linkProbeStats.successRssiCounts = mLinkProbeSuccessRssiCounts.toProto();
@@ -4517,6 +4569,8 @@ public class WifiMetrics {
                     mInitPartialScanFailureHistogram.toProto();
             mWifiLogProto.initPartialScanStats = initialPartialScanStats;
             mWifiLogProto.carrierWifiMetrics = mCarrierWifiMetrics.toProto();
+            mWifiLogProto.passpointAnqpTimeToFirstMatchMsHistogram =
+                    mPasspointAnqpTimeToFirstMatchMsHistogram.toProto();
             mWifiLogProto.mainlineModuleVersion = mWifiHealthMonitor.getWifiStackVersion();
 
         }
@@ -4700,6 +4754,9 @@ public class WifiMetrics {
             mMeteredNetworkStatsBuilder.clear();
             mWifiConfigStoreReadDurationHistogram.clear();
             mWifiConfigStoreWriteDurationHistogram.clear();
+            mWifiConfigStoreNumBytesSerialized = 0;
+            mWifiConfigStoreNumBytesReused = 0;
+            mWifiConfigStoreWriteBytesReusedPercentHistogram.clear();
             mLinkProbeSuccessRssiCounts.clear();
             mLinkProbeFailureRssiCounts.clear();
             mLinkProbeSuccessLinkSpeedCounts.clear();
@@ -4743,6 +4800,7 @@ public class WifiMetrics {
             mInitPartialScanSuccessHistogram.clear();
             mInitPartialScanFailureHistogram.clear();
             mCarrierWifiMetrics.clear();
+            mPasspointAnqpTimeToFirstMatchMsHistogram.clear();
         }
     }
 
@@ -6089,6 +6147,25 @@ public class WifiMetrics {
         }
     }
 
+    /**
+     * Update the number of bytes of store data sections serialized and reused from their
+     * previous serialization by a wifi config store write.
+     *
+     * @param numBytesSerialized Number of bytes serialized
+     * @param numBytesReused Number of bytes copied from their previous serialization
+     */
+    public void noteWifiConfigStoreWriteBytes(long numBytesSerialized, long numBytesReused) {
+        synchronized (mLock) {
+            mWifiConfigStoreNumBytesSerialized += numBytesSerialized;
+            mWifiConfigStoreNumBytesReused += numBytesReused;
+            long numBytes = numBytesSerialized + numBytesReused;
+            if (numBytes > 0) {
+                mWifiConfigStoreWriteBytesReusedPercentHistogram.increment(
+                        (int) (numBytesReused * 100 / numBytes));
+            }
+        }
+    }
+
     /**
      * Logs the decision of a network selection algorithm when compared against another network
      * selection algorithm.
@@ -1545,8 +1545,7 @@ public class WifiNetworkSuggestionsManager {
         }
         Set<ExtendedWifiNetworkSuggestion> extNetworkSuggestions = null;
         try {
-            ScanResultMatchInfo scanResultMatchInfo =
-                    ScanResultMatchInfo.fromScanResult(scanResult);
+            ScanResultMatchInfo scanResultMatchInfo = scanDetail.getScanResultMatchInfo();
             extNetworkSuggestions = getNetworkSuggestionsForScanResultMatchInfo(
                     scanResultMatchInfo,  MacAddress.fromString(scanResult.BSSID));
         } catch (IllegalArgumentException e) {
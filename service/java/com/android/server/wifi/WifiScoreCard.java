@@ -71,6 +71,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -96,7 +97,11 @@ public class WifiScoreCard {
     @VisibleForTesting
     boolean mPersistentHistograms = true;
 
-    private static final int TARGET_IN_MEMORY_ENTRIES = 50;
+    // Rough estimates of the heap used by a PerBssid, for enforcing the memory budget
+    @VisibleForTesting
+    static final int PER_BSSID_BASE_BYTES = 256;
+    @VisibleForTesting
+    static final int PER_SIGNAL_BYTES = 400;
     private static final int UNKNOWN_REASON = -1;
 
     public static final String PER_BSSID_DATA_NAME = "scorecard.proto";
@@ -135,6 +140,25 @@ public class WifiScoreCard {
         /** Requests removal of all entries matching the cluster */
         void removeCluster(String cluster);
     }
+    /** A memory store that can persist a group of changed entries in one transaction */
+    public interface BatchedMemoryStore extends MemoryStore {
+        /** Requests writes (with cluster identifiers) for all entries, does not wait */
+        void writeBatch(@NonNull List<PendingWrite> writes);
+    }
+    /** One entry of a batched write */
+    public static final class PendingWrite {
+        public final String key;
+        public final String cluster;
+        public final String name;
+        public final byte[] value;
+
+        public PendingWrite(String key, String cluster, String name, byte[] value) {
+            this.key = key;
+            this.cluster = cluster;
+            this.name = name;
+            this.value = value;
+        }
+    }
     /** Asynchronous response to a read request */
     public interface BlobListener {
         /** Provides the previously stored value, or null if none */
@@ -681,7 +705,8 @@ public class WifiScoreCard {
         // The wall clock time in milliseconds for the last successful l2 connection.
         public long lastConnectionTimestampMs;
         public boolean changed;
-        public boolean referenced;
+        // Estimated size included in mApForBssidBytes, or 0 if not in mApForBssid
+        public int accountedSizeBytes;
 
         private SecurityType mSecurityType = null;
         private int mNetworkAgentId = Integer.MIN_VALUE;
@@ -694,7 +719,6 @@ public class WifiScoreCard {
             this.bssid = bssid;
             this.id = idFromLong();
             this.changed = false;
-            this.referenced = false;
         }
         void updateEventStats(Event event, int frequency, int rssi, int linkspeed) {
             PerSignal perSignal = lookupSignal(event, frequency);
@@ -721,6 +745,10 @@ public class WifiScoreCard {
             if (ans == null) {
                 ans = new PerSignal(event, frequency);
                 mSignalForEventAndFrequency.put(key, ans);
+                if (accountedSizeBytes > 0) {
+                    accountedSizeBytes += PER_SIGNAL_BYTES;
+                    mApForBssidBytes += PER_SIGNAL_BYTES;
+                }
             }
             return ans;
         }
@@ -1507,9 +1535,15 @@ public class WifiScoreCard {
     // for instance when we are not associated.
     private final PerBssid mDummyPerBssid;
 
-    private final Map<MacAddress, PerBssid> mApForBssid = new ArrayMap<>();
-    private int mApForBssidTargetSize = TARGET_IN_MEMORY_ENTRIES;
-    private int mApForBssidReferenced = 0;
+    // Kept in access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<MacAddress, PerBssid> mApForBssid =
+            new LinkedHashMap<>(16, 0.75f, true);
+    // Estimated heap used by mApForBssid
+    private int mApForBssidBytes = 0;
+    private int mApForBssidHits = 0;
+    private int mApForBssidMisses = 0;
+    private int mApForBssidEvictions = 0;
+    private int mApForBssidEvictionWrites = 0;
 
     // TODO should be private, but WifiCandidates needs it
     @NonNull PerBssid lookupBssid(String ssid, String bssid) {
@@ -1527,22 +1561,28 @@ public class WifiScoreCard {
         }
         PerBssid ans = mApForBssid.get(mac);
         if (ans == null || !ans.ssid.equals(ssid)) {
+            mApForBssidMisses++;
             ans = new PerBssid(ssid, mac);
             PerBssid old = mApForBssid.put(mac, ans);
             if (old != null) {
                 Log.i(TAG, "Discarding stats for score card (ssid changed) ID: " + old.id);
-                if (old.referenced) mApForBssidReferenced--;
+                unaccount(old);
             }
+            ans.accountedSizeBytes = PER_BSSID_BASE_BYTES;
+            mApForBssidBytes += PER_BSSID_BASE_BYTES;
             requestReadBssid(ans);
+        } else {
+            mApForBssidHits++;
         }
-        if (!ans.referenced) {
-            ans.referenced = true;
-            mApForBssidReferenced++;
-            clean();
-        }
+        clean();
         return ans;
     }
 
+    private void unaccount(PerBssid perBssid) {
+        mApForBssidBytes -= perBssid.accountedSizeBytes;
+        perBssid.accountedSizeBytes = 0;
+    }
+
     private void requestReadBssid(final PerBssid perBssid) {
         if (mMemoryStore != null) {
             mMemoryStore.read(perBssid.getL2Key(), PER_BSSID_DATA_NAME,
@@ -1585,7 +1625,14 @@ public class WifiScoreCard {
             return;
         }
         mApForNetwork.remove(ssid);
-        mApForBssid.entrySet().removeIf(entry -> ssid.equals(entry.getValue().ssid));
+        Iterator<PerBssid> it = mApForBssid.values().iterator();
+        while (it.hasNext()) {
+            PerBssid perBssid = it.next();
+            if (ssid.equals(perBssid.ssid)) {
+                it.remove();
+                unaccount(perBssid);
+            }
+        }
         if (mMemoryStore == null) return;
         mMemoryStore.removeCluster(groupHintFromSsid(ssid));
     }
@@ -1604,26 +1651,59 @@ public class WifiScoreCard {
      * storage. Since we always check internal state first, this does not need
      * to be called very often, but it should be called before shutdown.
      *
+     * If the memory store supports it, all of the changed entries are handed
+     * over in a single batch rather than one write per entry.
+     *
      * @returns number of writes issued.
      */
     public int doWrites() {
-        return doWritesBssid() + doWritesNetwork();
+        List<PendingWrite> batch = newBatchIfSupported();
+        int count = doWritesBssid(batch) + doWritesNetwork(batch);
+        flushBatch(batch);
+        return count;
+    }
+
+    /**
+     * Returns a list to collect writes into if the memory store can take them
+     * all at once, or null if each entry should be written individually.
+     */
+    private @Nullable List<PendingWrite> newBatchIfSupported() {
+        if (mMemoryStore instanceof BatchedMemoryStore) return new ArrayList<>();
+        return null;
+    }
+
+    private void writeEntry(@Nullable List<PendingWrite> batch,
+            String key, String ssid, String name, byte[] serialized) {
+        String cluster = groupHintFromSsid(ssid);
+        if (batch != null) {
+            batch.add(new PendingWrite(key, cluster, name, serialized));
+            return;
+        }
+        mMemoryStore.setCluster(key, cluster);
+        mMemoryStore.write(key, name, serialized);
+    }
+
+    private void flushBatch(@Nullable List<PendingWrite> batch) {
+        if (batch == null || batch.isEmpty()) return;
+        ((BatchedMemoryStore) mMemoryStore).writeBatch(batch);
+        if (mVerboseLoggingEnabled) Log.v(TAG, "Batched write count: " + batch.size());
     }
 
     private int doWritesBssid() {
+        List<PendingWrite> batch = newBatchIfSupported();
+        int count = doWritesBssid(batch);
+        flushBatch(batch);
+        return count;
+    }
+
+    private int doWritesBssid(@Nullable List<PendingWrite> batch) {
         if (mMemoryStore == null) return 0;
         int count = 0;
         int bytes = 0;
         for (PerBssid perBssid : mApForBssid.values()) {
             if (perBssid.changed) {
-                perBssid.finishPendingRead();
-                byte[] serialized = perBssid.toAccessPoint(/* No BSSID */ true).toByteArray();
-                mMemoryStore.setCluster(perBssid.getL2Key(), groupHintFromSsid(perBssid.ssid));
-                mMemoryStore.write(perBssid.getL2Key(), PER_BSSID_DATA_NAME, serialized);
-
-                perBssid.changed = false;
+                bytes += writeBssid(batch, perBssid);
                 count++;
-                bytes += serialized.length;
             }
         }
         if (mVerboseLoggingEnabled && count > 0) {
@@ -1632,7 +1712,18 @@ public class WifiScoreCard {
         return count;
     }
 
-    private int doWritesNetwork() {
+    /**
+     * Writes out one changed entry, returning the number of bytes written.
+     */
+    private int writeBssid(@Nullable List<PendingWrite> batch, PerBssid perBssid) {
+        perBssid.finishPendingRead();
+        byte[] serialized = perBssid.toAccessPoint(/* No BSSID */ true).toByteArray();
+        writeEntry(batch, perBssid.getL2Key(), perBssid.ssid, PER_BSSID_DATA_NAME, serialized);
+        perBssid.changed = false;
+        return serialized.length;
+    }
+
+    private int doWritesNetwork(@Nullable List<PendingWrite> batch) {
         if (mMemoryStore == null) return 0;
         int count = 0;
         int bytes = 0;
@@ -1640,8 +1731,8 @@ public class WifiScoreCard {
             if (perNetwork.changed) {
                 perNetwork.finishPendingRead();
                 byte[] serialized = perNetwork.toNetworkStats().toByteArray();
-                mMemoryStore.setCluster(perNetwork.getL2Key(), groupHintFromSsid(perNetwork.ssid));
-                mMemoryStore.write(perNetwork.getL2Key(), PER_NETWORK_DATA_NAME, serialized);
+                writeEntry(batch, perNetwork.getL2Key(), perNetwork.ssid, PER_NETWORK_DATA_NAME,
+                        serialized);
                 perNetwork.changed = false;
                 count++;
                 bytes += serialized.length;
@@ -1656,29 +1747,54 @@ public class WifiScoreCard {
     /**
      * Evicts older entries from memory.
      *
-     * This uses an approximate least-recently-used method. When the number of
-     * referenced entries exceeds the target value, any items that have not been
-     * referenced since the last round are evicted, and the remaining entries
-     * are marked as unreferenced. The total count varies between the target
-     * value and twice the target value.
+     * Entries are evicted in least-recently-used order until the estimated
+     * size of the table is within the memory budget. Only the entries being
+     * evicted are written out, and only if they have changed. The most
+     * recently used entry is always kept.
      */
     private void clean() {
         if (mMemoryStore == null) return;
-        if (mApForBssidReferenced >= mApForBssidTargetSize) {
-            doWritesBssid(); // Do not want to evict changed items
-            // Evict the unreferenced ones, and clear all the referenced bits for the next round.
-            Iterator<Map.Entry<MacAddress, PerBssid>> it = mApForBssid.entrySet().iterator();
-            while (it.hasNext()) {
-                PerBssid perBssid = it.next().getValue();
-                if (perBssid.referenced) {
-                    perBssid.referenced = false;
-                } else {
-                    it.remove();
-                    if (mVerboseLoggingEnabled) Log.v(TAG, "Evict " + perBssid.id);
-                }
+        int budget = mDeviceConfigFacade.getScoreCardMemoryBudgetBytes();
+        if (mApForBssidBytes <= budget) return;
+        List<PendingWrite> batch = newBatchIfSupported();
+        Iterator<PerBssid> it = mApForBssid.values().iterator();
+        while (mApForBssidBytes > budget && mApForBssid.size() > 1 && it.hasNext()) {
+            PerBssid perBssid = it.next();
+            if (perBssid.changed) {
+                writeBssid(batch, perBssid);
+                mApForBssidEvictionWrites++;
             }
-            mApForBssidReferenced = 0;
+            it.remove();
+            unaccount(perBssid);
+            mApForBssidEvictions++;
+            if (mVerboseLoggingEnabled) Log.v(TAG, "Evict " + perBssid.id);
         }
+        flushBatch(batch);
+    }
+
+    /**
+     * Returns a summary of the in-memory per-BSSID table, for dumpsys.
+     */
+    public String getCacheStatsString() {
+        int lookups = mApForBssidHits + mApForBssidMisses;
+        return "PerBssid entries: " + mApForBssid.size()
+                + " estimatedBytes: " + mApForBssidBytes
+                + " budgetBytes: " + mDeviceConfigFacade.getScoreCardMemoryBudgetBytes()
+                + " hits: " + mApForBssidHits
+                + " misses: " + mApForBssidMisses
+                + " hitRatePercent: " + (lookups == 0 ? 0 : mApForBssidHits * 100 / lookups)
+                + " evictions: " + mApForBssidEvictions
+                + " evictionWrites: " + mApForBssidEvictionWrites;
+    }
+
+    @VisibleForTesting
+    int getApForBssidEstimatedBytes() {
+        return mApForBssidBytes;
+    }
+
+    @VisibleForTesting
+    int getApForBssidEvictions() {
+        return mApForBssidEvictions;
     }
 
     /**
@@ -1978,6 +2094,7 @@ public class WifiScoreCard {
      */
     public void clear() {
         mApForBssid.clear();
+        mApForBssidBytes = 0;
         mApForNetwork.clear();
         resetConnectionStateInternal(false);
     }
@@ -162,6 +162,9 @@ public class WifiServiceImpl extends BaseWifiService {
     /** Max wait time for posting blocking runnables */
     private static final int RUN_WITH_SCISSORS_TIMEOUT_MILLIS = 4000;
 
+    /** Number of networks restored from backup data per Wifi thread task */
+    private static final int RESTORE_NETWORKS_BATCH_SIZE = 50;
+
     private final ClientModeImpl mClientModeImpl;
     private final ActiveModeWarden mActiveModeWarden;
     private final ScanRequestProxy mScanRequestProxy;
@@ -3293,6 +3296,7 @@ public class WifiServiceImpl extends BaseWifiService {
                     wifiScoreCard.getNetworkListBase64(true), "");
             pw.println("WifiScoreCard:");
             pw.println(networkListBase64);
+            pw.println(mWifiThreadRunner.call(wifiScoreCard::getCacheStatsString, ""));
 
             updateWifiMetrics();
             mWifiMetrics.dump(fd, pw, args);
@@ -3481,6 +3485,7 @@ public class WifiServiceImpl extends BaseWifiService {
             mWifiNetworkSuggestionsManager.clear();
             mWifiInjector.getWifiScoreCard().clear();
             mWifiInjector.getWifiHealthMonitor().clear();
+            mMemoryStoreImpl.clearLocalMemoryStore();
             notifyFactoryReset();
         });
     }
@@ -3566,22 +3571,40 @@ public class WifiServiceImpl extends BaseWifiService {
             return;
         }
         int callingUid = Binder.getCallingUid();
-        mWifiThreadRunner.run(
-                () -> {
-                    for (WifiConfiguration configuration : configurations) {
-                        int networkId =
-                                mWifiConfigManager.addOrUpdateNetwork(configuration, callingUid)
-                                        .getNetworkId();
-                        if (networkId == WifiConfiguration.INVALID_NETWORK_ID) {
-                            Log.e(TAG, "Restore network failed: " + configuration.getKey());
-                            continue;
-                        }
-                        // Enable all networks restored.
-                        mWifiConfigManager.enableNetwork(networkId, false, callingUid, null);
-                        // Restore auto-join param.
-                        mWifiConfigManager.allowAutojoin(networkId, configuration.allowAutojoin);
-                    }
-                });
+        mWifiThreadRunner.run(() -> restoreNetworksInternal(configurations, callingUid));
+    }
+
+    /**
+     * Helper method to add the networks retrieved from backup data to WifiConfigManager, with a
+     * single store write once all of them are added and enabled.
+     * Must be called on the Wifi thread.
+     */
+    private void restoreNetworksInternal(List<WifiConfiguration> configurations, int callingUid) {
+        // The deferral must not outlive this task, or the store writes of other Wifi thread
+        // tasks would be held back too.
+        mWifiConfigManager.deferStoreWrites();
+        try {
+            addRestoredNetworks(configurations, callingUid);
+        } finally {
+            mWifiConfigManager.resumeStoreWrites();
+        }
+    }
+
+    private void addRestoredNetworks(List<WifiConfiguration> configurations, int callingUid) {
+        List<NetworkUpdateResult> results =
+                mWifiConfigManager.addOrUpdateNetworks(configurations, callingUid, null);
+        for (int i = 0; i < configurations.size(); i++) {
+            WifiConfiguration configuration = configurations.get(i);
+            int networkId = results.get(i).getNetworkId();
+            if (networkId == WifiConfiguration.INVALID_NETWORK_ID) {
+                Log.e(TAG, "Restore network failed: " + configuration.getKey());
+                continue;
+            }
+            // Enable all networks restored.
+            mWifiConfigManager.enableNetwork(networkId, false, callingUid, null);
+            // Restore auto-join param.
+            mWifiConfigManager.allowAutojoin(networkId, configuration.allowAutojoin);
+        }
     }
 
     /**
@@ -3599,9 +3622,15 @@ public class WifiServiceImpl extends BaseWifiService {
         }
 
         Log.d(TAG, "Restoring backup data");
-        List<WifiConfiguration> wifiConfigurations =
-                mWifiBackupRestore.retrieveConfigurationsFromBackupData(data);
-        restoreNetworks(wifiConfigurations);
+        // The networks are parsed on this thread and added to WifiConfigManager in batches as
+        // they are parsed, with a single store write per batch.
+        int callingUid = Binder.getCallingUid();
+        if (!mWifiBackupRestore.retrieveConfigurationsFromBackupData(
+                data, RESTORE_NETWORKS_BATCH_SIZE,
+                configurations -> mWifiThreadRunner.run(
+                        () -> restoreNetworksInternal(configurations, callingUid)))) {
+            Log.e(TAG, "Backup data parse failed");
+        }
         Log.d(TAG, "Restored backup data");
     }
 
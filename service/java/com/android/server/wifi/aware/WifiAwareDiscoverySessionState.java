@@ -48,6 +48,9 @@ public class WifiAwareDiscoverySessionState {
     private boolean mIsPublishSession;
     private boolean mIsRangingEnabled;
     private final long mCreationTime;
+    private int mNumMessagesSent = 0;
+    private long mNumBytesSent = 0;
+    private long mTotalMessageSendLatencyMs = 0;
 
     static class PeerInfo {
         PeerInfo(int instanceId, byte[] mac) {
@@ -111,6 +114,26 @@ public class WifiAwareDiscoverySessionState {
         return mCreationTime;
     }
 
+    /**
+     * Record a message successfully transmitted on this session.
+     *
+     * @param numBytes Size of the message payload.
+     * @param latencyMs Time from the message being queued by the app to its transmission.
+     */
+    public void onMessageSent(int numBytes, long latencyMs) {
+        mNumMessagesSent++;
+        mNumBytesSent += numBytes;
+        mTotalMessageSendLatencyMs += latencyMs;
+    }
+
+    public int getNumMessagesSent() {
+        return mNumMessagesSent;
+    }
+
+    public long getNumBytesSent() {
+        return mNumBytesSent;
+    }
+
     public IWifiAwareDiscoverySessionCallback getCallback() {
         return mCallback;
     }
@@ -327,5 +350,7 @@ public class WifiAwareDiscoverySessionState {
         pw.println("  mIsPublishSession: " + mIsPublishSession);
         pw.println("  mPubSubId: " + mPubSubId);
         pw.println("  mPeerInfoByRequestorInstanceId: [" + mPeerInfoByRequestorInstanceId + "]");
+        pw.println("  mNumMessagesSent: " + mNumMessagesSent + ", mNumBytesSent: "
+                + mNumBytesSent + ", mTotalMessageSendLatencyMs: " + mTotalMessageSendLatencyMs);
     }
 }
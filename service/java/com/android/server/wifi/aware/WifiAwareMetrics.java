@@ -55,6 +55,11 @@ public class WifiAwareMetrics {
     private static final MetricsUtils.LogHistParms DURATION_LOG_HISTOGRAM =
             new MetricsUtils.LogHistParms(0, 1, 10, 9, 8);
 
+    // Histogram for message throughput of discovery sessions (bytes/sec): same buckets as the
+    // duration histogram, 1 -> 10^8
+    private static final MetricsUtils.LogHistParms THROUGHPUT_LOG_HISTOGRAM =
+            new MetricsUtils.LogHistParms(0, 1, 10, 9, 8);
+
     // Histogram for ranging limits in discovery. Indicates the following 5 buckets (in meters):
     //   < 10
     //   [10, 30)
@@ -110,6 +115,8 @@ public class WifiAwareMetrics {
     private int mNumSubscribesWithRanging = 0;
     private int mNumMatchesWithRanging = 0;
     private int mNumMatchesWithoutRangingForRangingEnabledSubscribes = 0;
+    private SparseIntArray mHistogramMessageSendLatencyMs = new SparseIntArray();
+    private SparseIntArray mHistogramSessionMessageThroughput = new SparseIntArray();
 
     // data-path (NDI/NDP) data
     private int mMaxNdiInApp = 0;
@@ -374,6 +381,32 @@ public class WifiAwareMetrics {
         }
     }
 
+    /**
+     * Push the latency of a successfully transmitted message: from the message being queued by the
+     * app to its transmission.
+     */
+    public void recordMessageSendLatency(long latencyMs) {
+        synchronized (mLock) {
+            MetricsUtils.addValueToLogHistogram(latencyMs, mHistogramMessageSendLatencyMs,
+                    DURATION_LOG_HISTOGRAM);
+        }
+    }
+
+    /**
+     * Push the message throughput of a terminated discovery session: bytes successfully sent over
+     * the lifetime of the session. Sessions which didn't send any message are ignored.
+     */
+    public void recordDiscoverySessionMessageThroughput(long creationTime, long numBytesSent) {
+        if (numBytesSent == 0) {
+            return;
+        }
+        synchronized (mLock) {
+            long durationMs = Math.max(1, mClock.getElapsedSinceBootMillis() - creationTime);
+            MetricsUtils.addValueToLogHistogram(numBytesSent * 1000 / durationMs,
+                    mHistogramSessionMessageThroughput, THROUGHPUT_LOG_HISTOGRAM);
+        }
+    }
+
     /**
      * Push information about Match indication (aka service discovered) for subscribe sessions
      * which enabled ranging. Collect information about whether or not service discovery was
@@ -560,6 +593,12 @@ public class WifiAwareMetrics {
             log.numMatchesWithRanging = mNumMatchesWithRanging;
             log.numMatchesWithoutRangingForRangingEnabledSubscribes =
                     mNumMatchesWithoutRangingForRangingEnabledSubscribes;
+            log.histogramMessageSendLatencyMs = histogramToProtoArray(
+                    MetricsUtils.logHistogramToGenericBuckets(mHistogramMessageSendLatencyMs,
+                            DURATION_LOG_HISTOGRAM));
+            log.histogramSessionMessageThroughputBytesPerSec = histogramToProtoArray(
+                    MetricsUtils.logHistogramToGenericBuckets(mHistogramSessionMessageThroughput,
+                            THROUGHPUT_LOG_HISTOGRAM));
 
             log.maxConcurrentNdiInApp = mMaxNdiInApp;
             log.maxConcurrentNdiInSystem = mMaxNdiInSystem;
@@ -632,6 +671,8 @@ public class WifiAwareMetrics {
             mNumSubscribesWithRanging = 0;
             mNumMatchesWithRanging = 0;
             mNumMatchesWithoutRangingForRangingEnabledSubscribes = 0;
+            mHistogramMessageSendLatencyMs.clear();
+            mHistogramSessionMessageThroughput.clear();
 
             mMaxNdiInApp = 0;
             mMaxNdpInApp = 0;
@@ -751,6 +792,16 @@ public class WifiAwareMetrics {
             pw.println("mNumMatchesWithRanging:" + mNumMatchesWithRanging);
             pw.println("mNumMatchesWithoutRangingForRangingEnabledSubscribes:"
                     + mNumMatchesWithoutRangingForRangingEnabledSubscribes);
+            pw.println("mHistogramMessageSendLatencyMs:");
+            for (int i = 0; i < mHistogramMessageSendLatencyMs.size(); ++i) {
+                pw.println("  " + mHistogramMessageSendLatencyMs.keyAt(i) + ": "
+                        + mHistogramMessageSendLatencyMs.valueAt(i));
+            }
+            pw.println("mHistogramSessionMessageThroughput:");
+            for (int i = 0; i < mHistogramSessionMessageThroughput.size(); ++i) {
+                pw.println("  " + mHistogramSessionMessageThroughput.keyAt(i) + ": "
+                        + mHistogramSessionMessageThroughput.valueAt(i));
+            }
 
             pw.println("mMaxNdiInApp:" + mMaxNdiInApp);
             pw.println("mMaxNdpInApp:" + mMaxNdpInApp);
@@ -48,6 +48,7 @@ import android.util.ArrayMap;
 import android.util.Log;
 import android.util.Pair;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.MessageUtils;
@@ -64,6 +65,7 @@ import org.json.JSONObject;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -178,6 +180,7 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
     private static final String MESSAGE_BUNDLE_KEY_MESSAGE_DATA = "message_data";
     private static final String MESSAGE_BUNDLE_KEY_REQ_INSTANCE_ID = "req_instance_id";
     private static final String MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ENQUEUE_TIME = "message_queue_time";
+    private static final String MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ARRIVAL_TIME = "message_arrival_time";
     private static final String MESSAGE_BUNDLE_KEY_RETRY_COUNT = "retry_count";
     private static final String MESSAGE_BUNDLE_KEY_SUCCESS_FLAG = "success_flag";
     private static final String MESSAGE_BUNDLE_KEY_STATUS_CODE = "status_code";
@@ -1208,9 +1211,16 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
 
         private static final long AWARE_SEND_MESSAGE_TIMEOUT = 10_000;
         private static final int MESSAGE_QUEUE_DEPTH_PER_UID = 50;
+        // Per message cost, on top of the payload, when sharing the firmware queue between UIDs
+        private static final int SEND_MESSAGE_OVERHEAD_BYTES = 64;
         private int mSendArrivalSequenceCounter = 0;
         private boolean mSendQueueBlocked = false;
-        private final SparseArray<Message> mHostQueuedSendMessages = new SparseArray<>();
+        // Host queued messages: per UID, each ordered by arrival sequence number
+        private final SparseArray<SparseArray<Message>> mHostQueuedSendMessages =
+                new SparseArray<>();
+        // UIDs with host queued messages, in (deficit) round-robin service order
+        private final ArrayDeque<Integer> mSendUidRoundRobin = new ArrayDeque<>();
+        private final SparseIntArray mSendDeficitBytes = new SparseIntArray();
         private final Map<Short, Message> mFwQueuedSendMessages = new LinkedHashMap<>();
         private WakeupMessage mSendMessageTimeoutMessage = new WakeupMessage(mContext, getHandler(),
                 HAL_SEND_MESSAGE_TIMEOUT_TAG, MESSAGE_TYPE_SEND_MESSAGE_TIMEOUT);
@@ -1232,6 +1242,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         public void onAwareDownCleanupSendQueueState() {
             mSendQueueBlocked = false;
             mHostQueuedSendMessages.clear();
+            mSendUidRoundRobin.clear();
+            mSendDeficitBytes.clear();
             mFwQueuedSendMessages.clear();
         }
 
@@ -1481,9 +1493,7 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                             sentMessage.getData().putInt(MESSAGE_BUNDLE_KEY_RETRY_COUNT,
                                     retryCount - 1);
 
-                            int arrivalSeq = sentMessage.getData().getInt(
-                                    MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ);
-                            mHostQueuedSendMessages.put(arrivalSeq, sentMessage);
+                            enqueueHostSendMessage(sentMessage);
                         } else {
                             onMessageSendFailLocal(sentMessage, reason);
                         }
@@ -1664,7 +1674,9 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                     sendMsg.copyFrom(msg);
                     sendMsg.getData().putInt(MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ,
                             mSendArrivalSequenceCounter);
-                    mHostQueuedSendMessages.put(mSendArrivalSequenceCounter, sendMsg);
+                    sendMsg.getData().putLong(MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ARRIVAL_TIME,
+                            SystemClock.elapsedRealtime());
+                    enqueueHostSendMessage(sendMsg);
                     mSendArrivalSequenceCounter++;
                     waitForResponse = false;
 
@@ -1675,20 +1687,20 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                     break;
                 }
                 case COMMAND_TYPE_TRANSMIT_NEXT_MESSAGE: {
-                    if (mSendQueueBlocked || mHostQueuedSendMessages.size() == 0) {
+                    if (mSendQueueBlocked || mSendUidRoundRobin.isEmpty()
+                            || mFwQueuedSendMessages.size() >= getSendWindowSize()) {
                         if (VDBG) {
-                            Log.v(TAG, "processCommand: SEND_TOP_OF_QUEUE_MESSAGE - blocked or "
-                                    + "empty host queue");
+                            Log.v(TAG, "processCommand: SEND_TOP_OF_QUEUE_MESSAGE - blocked, "
+                                    + "empty host queue or full send window");
                         }
                         waitForResponse = false;
                     } else {
+                        Message sendMessage = dequeueNextHostSendMessage();
                         if (VDBG) {
                             Log.v(TAG, "processCommand: SEND_TOP_OF_QUEUE_MESSAGE - "
-                                    + "sendArrivalSequenceCounter="
-                                    + mHostQueuedSendMessages.keyAt(0));
+                                    + "sendArrivalSequenceCounter=" + sendMessage.getData().getInt(
+                                    MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ));
                         }
-                        Message sendMessage = mHostQueuedSendMessages.valueAt(0);
-                        mHostQueuedSendMessages.removeAt(0);
 
                         Bundle data = sendMessage.getData();
                         int clientId = sendMessage.arg2;
@@ -1879,7 +1891,11 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                                 MESSAGE_BUNDLE_KEY_SENT_MESSAGE);
                         int arrivalSeq = sentMessage.getData().getInt(
                                 MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ);
-                        mHostQueuedSendMessages.put(arrivalSeq, sentMessage);
+                        // wasn't transmitted: refund its share of the firmware queue
+                        enqueueHostSendMessage(sentMessage);
+                        int uid = sentMessage.getData().getInt(MESSAGE_BUNDLE_KEY_UID);
+                        mSendDeficitBytes.put(uid,
+                                mSendDeficitBytes.get(uid) + getSendMessageCost(sentMessage));
                         mSendQueueBlocked = true;
 
                         if (VDBG) {
@@ -2059,8 +2075,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
 
         private void updateSendMessageTimeout() {
             if (VDBG) {
-                Log.v(TAG, "updateSendMessageTimeout: mHostQueuedSendMessages.size()="
-                        + mHostQueuedSendMessages.size() + ", mFwQueuedSendMessages.size()="
+                Log.v(TAG, "updateSendMessageTimeout: numHostQueuedSendMessages="
+                        + getNumHostQueuedSendMessages() + ", mFwQueuedSendMessages.size()="
                         + mFwQueuedSendMessages.size() + ", mSendQueueBlocked="
                         + mSendQueueBlocked);
             }
@@ -2081,8 +2097,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
 
         private void processSendMessageTimeout() {
             if (mDbg) {
-                Log.v(TAG, "processSendMessageTimeout: mHostQueuedSendMessages.size()="
-                        + mHostQueuedSendMessages.size() + ", mFwQueuedSendMessages.size()="
+                Log.v(TAG, "processSendMessageTimeout: numHostQueuedSendMessages="
+                        + getNumHostQueuedSendMessages() + ", mFwQueuedSendMessages.size()="
                         + mFwQueuedSendMessages.size() + ", mSendQueueBlocked="
                         + mSendQueueBlocked);
 
@@ -2121,21 +2137,93 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         }
 
         private boolean isUidExceededMessageQueueDepthLimit(int uid) {
-            int size = mHostQueuedSendMessages.size();
-            int numOfMessages = 0;
-            if (size < MESSAGE_QUEUE_DEPTH_PER_UID) {
-                return false;
-            }
-            for (int i = 0; i < size; ++i) {
-                if (mHostQueuedSendMessages.valueAt(i).getData()
-                        .getInt(MESSAGE_BUNDLE_KEY_UID) == uid) {
-                    numOfMessages++;
-                    if (numOfMessages >= MESSAGE_QUEUE_DEPTH_PER_UID) {
-                        return true;
-                    }
+            SparseArray<Message> uidQueue = mHostQueuedSendMessages.get(uid);
+            return uidQueue != null && uidQueue.size() >= MESSAGE_QUEUE_DEPTH_PER_UID;
+        }
+
+        /**
+         * Add a message to the host queue of its UID. Messages are ordered by arrival sequence
+         * number, so a message being re-queued (e.g. for retransmission) goes back ahead of the
+         * later messages of its UID.
+         */
+        private void enqueueHostSendMessage(Message sendMessage) {
+            int uid = sendMessage.getData().getInt(MESSAGE_BUNDLE_KEY_UID);
+            SparseArray<Message> uidQueue = mHostQueuedSendMessages.get(uid);
+            if (uidQueue == null) {
+                uidQueue = new SparseArray<>();
+                mHostQueuedSendMessages.put(uid, uidQueue);
+                mSendUidRoundRobin.addLast(uid);
+            }
+            uidQueue.put(sendMessage.getData().getInt(MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ),
+                    sendMessage);
+        }
+
+        /**
+         * Remove the next message to transmit from the host queues using deficit round-robin
+         * between UIDs: each UID gets (on average) an equal share of the firmware transmit
+         * bandwidth, measured in bytes, independently of how many messages it queues up.
+         * Must only be called if there are host queued messages.
+         */
+        private Message dequeueNextHostSendMessage() {
+            int quantum = getSendQuantumBytes();
+            while (true) {
+                int uid = mSendUidRoundRobin.peekFirst();
+                SparseArray<Message> uidQueue = mHostQueuedSendMessages.get(uid);
+                Message sendMessage = uidQueue.valueAt(0);
+                int cost = getSendMessageCost(sendMessage);
+                int deficit = mSendDeficitBytes.get(uid);
+                if (deficit < cost) {
+                    // turn over: give the UID its quantum for its next turn
+                    mSendDeficitBytes.put(uid, deficit + quantum);
+                    mSendUidRoundRobin.addLast(mSendUidRoundRobin.pollFirst());
+                    continue;
                 }
+
+                uidQueue.removeAt(0);
+                if (uidQueue.size() == 0) {
+                    // an idle UID doesn't accumulate credit
+                    mHostQueuedSendMessages.remove(uid);
+                    mSendUidRoundRobin.pollFirst();
+                    mSendDeficitBytes.delete(uid);
+                } else {
+                    mSendDeficitBytes.put(uid, deficit - cost);
+                }
+                return sendMessage;
             }
-            return false;
+        }
+
+        private int getNumHostQueuedSendMessages() {
+            int numMessages = 0;
+            for (int i = 0; i < mHostQueuedSendMessages.size(); ++i) {
+                numMessages += mHostQueuedSendMessages.valueAt(i).size();
+            }
+            return numMessages;
+        }
+
+        private int getSendMessageCost(Message sendMessage) {
+            byte[] message = sendMessage.getData().getByteArray(MESSAGE_BUNDLE_KEY_MESSAGE);
+            return SEND_MESSAGE_OVERHEAD_BYTES + (message == null ? 0 : message.length);
+        }
+
+        /**
+         * The quantum is large enough for any regular (non-extended) message to be sent in a
+         * single round-robin turn.
+         */
+        private int getSendQuantumBytes() {
+            int maxMessageLength = mCapabilities == null ? 0
+                    : mCapabilities.maxServiceSpecificInfoLen;
+            return SEND_MESSAGE_OVERHEAD_BYTES + Math.max(maxMessageLength, 255);
+        }
+
+        /**
+         * Number of messages which may be queued in the firmware at any time: messages are
+         * pipelined up to the firmware capability rather than relying on a queue-full failure.
+         */
+        private int getSendWindowSize() {
+            if (mCapabilities == null || mCapabilities.maxQueuedTransmitMessages <= 0) {
+                return Integer.MAX_VALUE;
+            }
+            return mCapabilities.maxQueuedTransmitMessages;
         }
 
         @Override
@@ -2160,6 +2248,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
             pw.println("  mSendQueueBlocked: " + mSendQueueBlocked);
             pw.println("  mSendArrivalSequenceCounter: " + mSendArrivalSequenceCounter);
             pw.println("  mHostQueuedSendMessages: [" + mHostQueuedSendMessages + "]");
+            pw.println("  mSendUidRoundRobin: " + mSendUidRoundRobin);
+            pw.println("  mSendDeficitBytes: " + mSendDeficitBytes);
             pw.println("  mFwQueuedSendMessages: [" + mFwQueuedSendMessages + "]");
             super.dump(fd, pw, args);
         }
@@ -2280,6 +2370,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         for (int i = 0; i < sessions.size(); ++i) {
             mAwareMetrics.recordDiscoverySessionDuration(sessions.valueAt(i).getCreationTime(),
                     sessions.valueAt(i).isPublishSession());
+            mAwareMetrics.recordDiscoverySessionMessageThroughput(
+                    sessions.valueAt(i).getCreationTime(), sessions.valueAt(i).getNumBytesSent());
         }
         client.destroy();
 
@@ -2343,6 +2435,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         if (session != null) {
             mAwareMetrics.recordDiscoverySessionDuration(session.getCreationTime(),
                     session.isPublishSession());
+            mAwareMetrics.recordDiscoverySessionMessageThroughput(session.getCreationTime(),
+                    session.getNumBytesSent());
         }
     }
 
@@ -2878,6 +2972,12 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
             return;
         }
 
+        byte[] message = completedCommand.getData().getByteArray(MESSAGE_BUNDLE_KEY_MESSAGE);
+        long latencyMs = SystemClock.elapsedRealtime() - completedCommand.getData().getLong(
+                MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ARRIVAL_TIME);
+        session.onMessageSent(message == null ? 0 : message.length, latencyMs);
+        mAwareMetrics.recordMessageSendLatency(latencyMs);
+
         try {
             session.getCallback().onMessageSendSuccess(messageId);
         } catch (RemoteException e) {
@@ -3085,6 +3185,8 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         }
         mAwareMetrics.recordDiscoverySessionDuration(data.second.getCreationTime(),
                 data.second.isPublishSession());
+        mAwareMetrics.recordDiscoverySessionMessageThroughput(data.second.getCreationTime(),
+                data.second.getNumBytesSent());
     }
 
     private void onMessageReceivedLocal(int pubSubId, int requestorInstanceId, byte[] peerMac,
@@ -20,6 +20,7 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.Clock;
 import com.android.server.wifi.hotspot2.anqp.ANQPElement;
 import com.android.server.wifi.hotspot2.anqp.Constants;
+import com.android.server.wifi.hotspot2.anqp.RawByteElement;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -35,9 +36,15 @@ public class ANQPData {
     @VisibleForTesting
     public static final long DATA_LIFETIME_MILLISECONDS = 3600000L;
 
+    /**
+     * Estimated memory used by an entry in addition to its elements.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
     private final Clock mClock;
     private final Map<Constants.ANQPElementType, ANQPElement> mANQPElements;
     private final long mExpiryTime;
+    private int mEstimatedSizeBytes = -1;
 
     public ANQPData(Clock clock, Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
         mClock = clock;
@@ -67,6 +74,28 @@ public class ANQPData {
         return mExpiryTime <= at;
     }
 
+    /**
+     * Return an estimate of the memory used by this entry. The elements are not retained in
+     * their wire format, so the size of parsed elements is estimated from their text form.
+     *
+     * @return Estimated size in bytes
+     */
+    public int getEstimatedSizeBytes() {
+        if (mEstimatedSizeBytes < 0) {
+            int size = ENTRY_OVERHEAD_BYTES;
+            for (ANQPElement element : mANQPElements.values()) {
+                if (element instanceof RawByteElement) {
+                    size += ((RawByteElement) element).getPayload().length;
+                } else {
+                    // Java strings use two bytes per character.
+                    size += 2 * String.valueOf(element).length();
+                }
+            }
+            mEstimatedSizeBytes = size;
+        }
+        return mEstimatedSizeBytes;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -20,12 +20,14 @@ import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.Clock;
+import com.android.server.wifi.WifiMetrics;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -33,12 +35,18 @@ import java.util.Map;
  * Class for managing sending of ANQP requests.  This manager will ignore ANQP requests for a
  * period of time (hold off time) to a specified AP if the previous request to that AP goes
  * unanswered or failed.  The hold off time will increase exponentially until the max is reached.
+ *
+ * APs with the same {@link ANQPNetworkKey} share the same ANQP information, so only one of them
+ * is queried at a time: requests to the other APs of the ESS are not sent while a query is in
+ * flight, and the response is cached for all of them by the network key. The number of queries
+ * in flight is bounded, so that a venue with many ESSs is queried a few ESSs at a time.
  */
 public class ANQPRequestManager {
     private static final String TAG = "ANQPRequestManager";
 
     private final PasspointEventHandler mPasspointHandler;
     private final Clock mClock;
+    private final WifiMetrics mWifiMetrics;
 
     /**
      * List of pending ANQP request associated with an AP (BSSID).
@@ -52,6 +60,17 @@ public class ANQPRequestManager {
      */
     private final Map<Long, HoldOffInfo> mHoldOffInfo;
 
+    /**
+     * Queries in flight, keyed by the network key they were sent for.
+     */
+    private final Map<ANQPNetworkKey, InFlightQuery> mInFlightQueries;
+
+    /**
+     * Time stamp in milliseconds of the first query sent for each network key that has not been
+     * matched to a provider yet.
+     */
+    private final Map<ANQPNetworkKey, Long> mFirstRequestTimes;
+
     /**
      * Minimum number of milliseconds to wait for before attempting ANQP queries to the same AP
      * after previous request goes unanswered or failed.
@@ -68,6 +87,25 @@ public class ANQPRequestManager {
     @VisibleForTesting
     public static final int MAX_HOLDOFF_COUNT = 6;
 
+    /**
+     * Maximum number of queries in flight at a time.
+     */
+    @VisibleForTesting
+    public static final int MAX_IN_FLIGHT_QUERIES = 3;
+
+    /**
+     * Number of milliseconds after which a query that has not been answered is no longer
+     * considered in flight, allowing other APs of the same ESS to be queried.
+     */
+    @VisibleForTesting
+    public static final int IN_FLIGHT_TIMEOUT_MILLISECONDS = BASE_HOLDOFF_TIME_MILLISECONDS;
+
+    /**
+     * Number of milliseconds after the first query to an ESS after which a provider match is no
+     * longer counted as the first match for the time to first match metric.
+     */
+    private static final int FIRST_MATCH_TIMEOUT_MILLISECONDS = 10 * 60 * 1000;
+
     private static final List<Constants.ANQPElementType> R1_ANQP_BASE_SET = Arrays.asList(
             Constants.ANQPElementType.ANQPVenueName,
             Constants.ANQPElementType.ANQPIPAddrAvailability,
@@ -96,11 +134,38 @@ public class ANQPRequestManager {
         public long holdOffExpirationTime;
     }
 
-    public ANQPRequestManager(PasspointEventHandler handler, Clock clock) {
+    /**
+     * Class to keep track of a query in flight for a network key.
+     */
+    private static class InFlightQuery {
+        /**
+         * The BSSID of the AP the query was sent to.
+         */
+        public final long bssid;
+        /**
+         * The time stamp in milliseconds when the query was sent.
+         */
+        public final long requestTime;
+        /**
+         * Whether a request to another AP of the ESS was already avoided by this query.
+         */
+        public boolean coalesced;
+
+        InFlightQuery(long bssid, long requestTime) {
+            this.bssid = bssid;
+            this.requestTime = requestTime;
+        }
+    }
+
+    public ANQPRequestManager(PasspointEventHandler handler, Clock clock,
+            WifiMetrics wifiMetrics) {
         mPasspointHandler = handler;
         mClock = clock;
+        mWifiMetrics = wifiMetrics;
         mPendingQueries = new HashMap<>();
         mHoldOffInfo = new HashMap<>();
+        mInFlightQueries = new HashMap<>();
+        mFirstRequestTimes = new HashMap<>();
     }
 
     /**
@@ -124,6 +189,22 @@ public class ANQPRequestManager {
             return false;
         }
 
+        long currentTime = mClock.getElapsedSinceBootMillis();
+        removeTimedOutQueries(currentTime);
+        InFlightQuery inFlightQuery = mInFlightQueries.get(anqpNetworkKey);
+        if (inFlightQuery != null && inFlightQuery.bssid != bssid) {
+            // Another AP of the same ESS is being queried, its response will be used for this AP.
+            // Siblings are requested again on every scan, so only count the ESS once per query.
+            if (!inFlightQuery.coalesced) {
+                inFlightQuery.coalesced = true;
+                mWifiMetrics.incrementNumPasspointAnqpQueriesCoalesced();
+            }
+            return false;
+        }
+        if (inFlightQuery == null && mInFlightQueries.size() >= MAX_IN_FLIGHT_QUERIES) {
+            return false;
+        }
+
         // No need to hold off future requests for send failures.
         if (!mPasspointHandler.requestANQP(bssid, getRequestElementIDs(rcOIs, hsReleaseVer))) {
             return false;
@@ -134,6 +215,11 @@ public class ANQPRequestManager {
         updateHoldOffInfo(bssid);
 
         mPendingQueries.put(bssid, anqpNetworkKey);
+        mInFlightQueries.put(anqpNetworkKey, new InFlightQuery(bssid, currentTime));
+        removeTimedOutFirstRequestTimes(currentTime);
+        if (!mFirstRequestTimes.containsKey(anqpNetworkKey)) {
+            mFirstRequestTimes.put(anqpNetworkKey, currentTime);
+        }
         return true;
     }
 
@@ -149,7 +235,59 @@ public class ANQPRequestManager {
             // Query succeeded.  No need to hold off request to the given AP.
             mHoldOffInfo.remove(bssid);
         }
-        return mPendingQueries.remove(bssid);
+        ANQPNetworkKey anqpNetworkKey = mPendingQueries.remove(bssid);
+        if (anqpNetworkKey != null) {
+            InFlightQuery inFlightQuery = mInFlightQueries.get(anqpNetworkKey);
+            if (inFlightQuery != null && inFlightQuery.bssid == bssid) {
+                // On failure, another AP of the ESS may be queried on the next scan.
+                mInFlightQueries.remove(anqpNetworkKey);
+            }
+        }
+        return anqpNetworkKey;
+    }
+
+    /**
+     * Notification that a provider was matched to an AP using the ANQP information associated
+     * with the given network key. The time since the first query for the network key is logged
+     * the first time a provider is matched to it.
+     *
+     * @param anqpNetworkKey The network key of the matched AP
+     */
+    public void onProviderMatched(ANQPNetworkKey anqpNetworkKey) {
+        Long firstRequestTime = mFirstRequestTimes.remove(anqpNetworkKey);
+        if (firstRequestTime == null) {
+            return;
+        }
+        long timeToFirstMatch = mClock.getElapsedSinceBootMillis() - firstRequestTime;
+        if (timeToFirstMatch < FIRST_MATCH_TIMEOUT_MILLISECONDS) {
+            mWifiMetrics.logPasspointAnqpTimeToFirstMatch((int) timeToFirstMatch);
+        }
+    }
+
+    /**
+     * Remove the queries that have been in flight for longer than
+     * {@link #IN_FLIGHT_TIMEOUT_MILLISECONDS}. Their responses are still handled if they arrive.
+     */
+    private void removeTimedOutQueries(long currentTime) {
+        Iterator<InFlightQuery> iter = mInFlightQueries.values().iterator();
+        while (iter.hasNext()) {
+            if (currentTime - iter.next().requestTime >= IN_FLIGHT_TIMEOUT_MILLISECONDS) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove the first query times of the network keys that have not been matched to a provider
+     * within {@link #FIRST_MATCH_TIMEOUT_MILLISECONDS}.
+     */
+    private void removeTimedOutFirstRequestTimes(long currentTime) {
+        Iterator<Long> iter = mFirstRequestTimes.values().iterator();
+        while (iter.hasNext()) {
+            if (currentTime - iter.next() >= FIRST_MATCH_TIMEOUT_MILLISECONDS) {
+                iter.remove();
+            }
+        }
     }
 
     /**
@@ -224,6 +362,11 @@ public class ANQPRequestManager {
      */
     public void dump(PrintWriter pw) {
         pw.println("ANQPRequestManager - Begin ---");
+        for (Map.Entry<ANQPNetworkKey, InFlightQuery> inFlightQuery
+                : mInFlightQueries.entrySet()) {
+            pw.println("In flight query for " + inFlightQuery.getKey() + " to BSSID: "
+                    + Utils.macToString(inFlightQuery.getValue().bssid));
+        }
         for (Map.Entry<Long, HoldOffInfo> holdOffInfo : mHoldOffInfo.entrySet()) {
             long bssid = holdOffInfo.getKey();
             pw.println("For BBSID: " + Utils.macToString(bssid));
@@ -241,5 +384,7 @@ public class ANQPRequestManager {
     public void clear() {
         mPendingQueries.clear();
         mHoldOffInfo.clear();
+        mInFlightQueries.clear();
+        mFirstRequestTimes.clear();
     }
 }
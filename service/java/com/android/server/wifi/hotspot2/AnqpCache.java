@@ -22,27 +22,57 @@ import com.android.server.wifi.hotspot2.anqp.ANQPElement;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Cache for storing ANQP data.  This is simply a data cache, all the logic related to
  * ANQP data query will be handled elsewhere (e.g. the consumer of the cache).
+ *
+ * All entries have the same lifetime, so the entries are kept in the order they expire in and
+ * a sweep only visits the expired entries. The cache is bounded by both the number of entries
+ * and their estimated memory usage, evicting the least recently used entries when full.
  */
 public class AnqpCache {
     @VisibleForTesting
     public static final long CACHE_SWEEP_INTERVAL_MILLISECONDS = 60000L;
 
+    /**
+     * Maximum number of entries in the cache.
+     */
+    @VisibleForTesting
+    public static final int MAX_CACHE_ENTRIES = 256;
+
+    /**
+     * Maximum estimated memory usage of the entries in the cache.
+     */
+    @VisibleForTesting
+    public static final long MAX_CACHE_SIZE_BYTES = 1024 * 1024;
+
     private long mLastSweep;
     private Clock mClock;
 
-    private final Map<ANQPNetworkKey, ANQPData> mANQPCache;
+    /**
+     * Entries in least recently used order.
+     */
+    private final LinkedHashMap<ANQPNetworkKey, ANQPData> mANQPCache;
+
+    /**
+     * The same entries in the order they expire in, which is the order they were added in.
+     */
+    private final LinkedHashMap<ANQPNetworkKey, ANQPData> mExpiryQueue;
+
+    private long mSizeBytes;
+    private long mHits;
+    private long mMisses;
+    private long mExpirations;
+    private long mEvictions;
 
     public AnqpCache(Clock clock) {
         mClock = clock;
-        mANQPCache = new HashMap<>();
+        mANQPCache = new LinkedHashMap<>(16, 0.75f, true);
+        mExpiryQueue = new LinkedHashMap<>();
         mLastSweep = mClock.getElapsedSinceBootMillis();
     }
 
@@ -55,7 +85,15 @@ public class AnqpCache {
     public void addEntry(ANQPNetworkKey key,
             Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
         ANQPData data = new ANQPData(mClock, anqpElements);
-        mANQPCache.put(key, data);
+        ANQPData oldData = mANQPCache.put(key, data);
+        if (oldData != null) {
+            mSizeBytes -= oldData.getEstimatedSizeBytes();
+            // Move the entry to the end of the expiry queue.
+            mExpiryQueue.remove(key);
+        }
+        mExpiryQueue.put(key, data);
+        mSizeBytes += data.getEstimatedSizeBytes();
+        evictIfNeeded();
     }
 
     /**
@@ -65,11 +103,43 @@ public class AnqpCache {
      * @return {@link ANQPData}
      */
     public ANQPData getEntry(ANQPNetworkKey key) {
-        return mANQPCache.get(key);
+        ANQPData data = mANQPCache.get(key);
+        if (data == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return data;
     }
 
     /**
-     * Go through the cache to remove any expired entries.
+     * Get the ANQP data associated with the given AP, without counting it as a use of the entry.
+     *
+     * @param key The key that's associated with the entry
+     * @return {@link ANQPData}
+     */
+    public ANQPData peekEntry(ANQPNetworkKey key) {
+        return mExpiryQueue.get(key);
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is within its bounds. The most
+     * recently added entry is always kept.
+     */
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<ANQPNetworkKey, ANQPData>> iter = mANQPCache.entrySet().iterator();
+        while (mANQPCache.size() > 1 && (mANQPCache.size() > MAX_CACHE_ENTRIES
+                || mSizeBytes > MAX_CACHE_SIZE_BYTES)) {
+            Map.Entry<ANQPNetworkKey, ANQPData> entry = iter.next();
+            iter.remove();
+            mExpiryQueue.remove(entry.getKey());
+            mSizeBytes -= entry.getValue().getEstimatedSizeBytes();
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Remove the expired entries from the cache.
      */
     public void sweep() {
         long now = mClock.getElapsedSinceBootMillis();
@@ -78,17 +148,17 @@ public class AnqpCache {
             return;
         }
 
-        // Get all expired keys.
-        List<ANQPNetworkKey> expiredKeys = new ArrayList<>();
-        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mANQPCache.entrySet()) {
-            if (entry.getValue().expired(now)) {
-                expiredKeys.add(entry.getKey());
+        // Entries expire in the order of the queue, stop at the first one that is not expired.
+        Iterator<Map.Entry<ANQPNetworkKey, ANQPData>> iter = mExpiryQueue.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<ANQPNetworkKey, ANQPData> entry = iter.next();
+            if (!entry.getValue().expired(now)) {
+                break;
             }
-        }
-
-        // Remove all expired entries.
-        for (ANQPNetworkKey key : expiredKeys) {
-            mANQPCache.remove(key);
+            iter.remove();
+            mANQPCache.remove(entry.getKey());
+            mSizeBytes -= entry.getValue().getEstimatedSizeBytes();
+            mExpirations++;
         }
         mLastSweep = now;
     }
@@ -96,7 +166,12 @@ public class AnqpCache {
     public void dump(PrintWriter out) {
         out.println("Last sweep " + Utils.toHMS(mClock.getElapsedSinceBootMillis() - mLastSweep)
                 + " ago.");
-        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mANQPCache.entrySet()) {
+        long lookups = mHits + mMisses;
+        out.println("Entries: " + mANQPCache.size() + ", estimated size: " + mSizeBytes
+                + " bytes, hits: " + mHits + ", misses: " + mMisses + ", hit rate: "
+                + (lookups == 0 ? 0 : mHits * 100 / lookups) + "%, expirations: "
+                + mExpirations + ", evictions: " + mEvictions);
+        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mExpiryQueue.entrySet()) {
             out.println(entry.getKey() + ": " + entry.getValue());
         }
     }
@@ -106,6 +181,42 @@ public class AnqpCache {
      */
     public void flush() {
         mANQPCache.clear();
+        mExpiryQueue.clear();
+        mSizeBytes = 0;
         mLastSweep = mClock.getElapsedSinceBootMillis();
     }
+
+    /**
+     * Return the number of entries in the cache.
+     */
+    public int size() {
+        return mANQPCache.size();
+    }
+
+    /**
+     * Return the estimated memory usage of the entries in the cache.
+     */
+    public long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    @VisibleForTesting
+    long getHitCount() {
+        return mHits;
+    }
+
+    @VisibleForTesting
+    long getMissCount() {
+        return mMisses;
+    }
+
+    @VisibleForTesting
+    long getExpirationCount() {
+        return mExpirations;
+    }
+
+    @VisibleForTesting
+    long getEvictionCount() {
+        return mEvictions;
+    }
 }
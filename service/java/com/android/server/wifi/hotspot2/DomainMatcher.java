@@ -18,15 +18,16 @@ package com.android.server.wifi.hotspot2;
 
 import android.text.TextUtils;
 
-import com.android.server.wifi.hotspot2.Utils;
-
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Utility class for matching domain names.
+ *
+ * Domain names are matched label by label, from the top-level label down, directly over the
+ * domain string: matching does not split the domain into a list of labels or allocate any
+ * objects. Labels are compared case-insensitively, and the NAI user part ("user@") and a
+ * trailing "." are ignored, the same way as {@link Utils#splitDomain(String)} does.
  */
 public class DomainMatcher {
     public static final int MATCH_NONE = 0;
@@ -34,109 +35,187 @@ public class DomainMatcher {
     public static final int MATCH_SECONDARY = 2;
 
     /**
-     * The root of the Label tree.
+     * Returned by {@link #domainEnd(String, int)} for a domain without any label, i.e. a
+     * domain that consists of dots only.
      */
-    private final Label mRoot;
+    private static final int NO_LABELS = -1;
+
+    static final int NO_NODE = -1;
+    private static final int INITIAL_CAPACITY = 8;
 
     /**
-     * Label tree representation for the domain name.  Labels are delimited by "." in the domain
-     * name.
-     *
-     * For example, the tree representation of "android.google.com" as a primary domain:
-     * [com, None] -> [google, None] -> [android, Primary]
-     *
+     * Labels of a 3GPP network domain name, top-level label first, as in
+     * "wlan.mnc<MNC>.mcc<MCC>.3gppnetwork.org". The labels are matched by prefix.
      */
-    private static class Label {
-        private final Map<String, Label> mSubDomains;
-        private int mMatch;
-
-        Label(int match) {
-            mMatch = match;
-            mSubDomains = new HashMap<String, Label>();
-        }
-
-        /**
-         * Add sub-domains to this label.
-         *
-         * @param labels The iterator of domain label strings
-         * @param match The match status of the domain
-         */
-        public void addDomain(Iterator<String> labels, int match) {
-            String labelName = labels.next();
-            // Create the Label object if it doesn't exist yet.
-            Label subLabel = mSubDomains.get(labelName);
-            if (subLabel == null) {
-                subLabel = new Label(MATCH_NONE);
-                mSubDomains.put(labelName, subLabel);
-            }
-
-            if (labels.hasNext()) {
-                // Adding sub-domain.
-                subLabel.addDomain(labels, match);
-            } else {
-                // End of the domain, update the match status.
-                subLabel.mMatch = match;
-            }
-        }
-
-        /**
-         * Return the Label for the give label string.
-         * @param labelString The label string to look for
-         * @return {@link Label}
-         */
-        public Label getSubLabel(String labelString) {
-            return mSubDomains.get(labelString);
-        }
-
-        /**
-         * Return the match status
-         *
-         * @return The match status
-         */
-        public int getMatch() {
-            return mMatch;
-        }
-
-        private void toString(StringBuilder sb) {
-            if (mSubDomains != null) {
-                sb.append(".{");
-                for (Map.Entry<String, Label> entry : mSubDomains.entrySet()) {
-                    sb.append(entry.getKey());
-                    entry.getValue().toString(sb);
-                }
-                sb.append('}');
-            } else {
-                sb.append('=').append(mMatch);
-            }
-        }
+    private static final String[] PLMN_LABELS = {"org", "3gppnetwork", "mcc", "mnc", "wlan"};
+    private static final int PLMN_MCC_LABEL = 2;
+    private static final int PLMN_MNC_LABEL = 3;
 
-        @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            toString(sb);
-            return sb.toString();
-        }
+    /**
+     * Receives the nodes of the label tree walked for a domain name.
+     *
+     * @param <T> Type of the argument passed along with each node
+     */
+    interface NodeConsumer<T> {
+        void accept(int node, T arg);
     }
 
+    /**
+     * The compiled label tree of the primary and secondary domains, stored as a flat array of
+     * nodes. Node 0 is the root, and every other node is reached from its parent through its
+     * (lower case) label. The children of a node form a linked list through
+     * {@link #mNextSibling}.
+     *
+     * For example, the tree representation of "android.google.com" as a primary domain:
+     * [root, None] -> [com, None] -> [google, None] -> [android, Primary]
+     */
+    private String[] mLabels;
+    private int[] mFirstChild;
+    private int[] mNextSibling;
+    private int[] mMatch;
+    private int mNodeCount;
+
     public DomainMatcher(String primaryDomain, List<String> secondaryDomains) {
-        // Create the root label.
-        mRoot = new Label(MATCH_NONE);
+        this();
 
         // Add secondary domains.
         if (secondaryDomains != null) {
             for (String domain : secondaryDomains) {
                 if (!TextUtils.isEmpty(domain)) {
-                    List<String> secondaryLabel = Utils.splitDomain(domain);
-                    mRoot.addDomain(secondaryLabel.iterator(), MATCH_SECONDARY);
+                    addDomain(Utils.splitDomain(domain), MATCH_SECONDARY);
                 }
             }
         }
 
         // Add primary domain, primary overwrites secondary.
         if (!TextUtils.isEmpty(primaryDomain)) {
-            List<String> primaryLabel = Utils.splitDomain(primaryDomain);
-            mRoot.addDomain(primaryLabel.iterator(), MATCH_PRIMARY);
+            addDomain(Utils.splitDomain(primaryDomain), MATCH_PRIMARY);
+        }
+    }
+
+    /**
+     * Create an empty label tree, which domains are added to with {@link #addDomain(String)}.
+     */
+    DomainMatcher() {
+        mLabels = new String[INITIAL_CAPACITY];
+        mFirstChild = new int[INITIAL_CAPACITY];
+        mNextSibling = new int[INITIAL_CAPACITY];
+        mMatch = new int[INITIAL_CAPACITY];
+        // Create the root node.
+        addNode(null);
+    }
+
+    private int addNode(String label) {
+        if (mNodeCount == mLabels.length) {
+            int capacity = mNodeCount * 2;
+            mLabels = Arrays.copyOf(mLabels, capacity);
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mMatch = Arrays.copyOf(mMatch, capacity);
+        }
+        int node = mNodeCount++;
+        mLabels[node] = label;
+        mFirstChild[node] = NO_NODE;
+        mNextSibling[node] = NO_NODE;
+        mMatch[node] = MATCH_NONE;
+        return node;
+    }
+
+    /**
+     * Add a domain to the label tree.
+     *
+     * @param labels The labels of the domain, top-level label first
+     * @param match The match status of the domain
+     * @return the node of the domain, or {@link #NO_NODE} if the domain has no labels
+     */
+    private int addDomain(List<String> labels, int match) {
+        if (labels.isEmpty()) {
+            // A domain without labels can never be matched.
+            return NO_NODE;
+        }
+        int node = 0;
+        for (String label : labels) {
+            int child = mFirstChild[node];
+            while (child != NO_NODE && !mLabels[child].equals(label)) {
+                child = mNextSibling[child];
+            }
+            if (child == NO_NODE) {
+                // Create the node if it doesn't exist yet.
+                child = addNode(label);
+                mNextSibling[child] = mFirstChild[node];
+                mFirstChild[node] = child;
+            }
+            node = child;
         }
+        // End of the domain, update the match status.
+        mMatch[node] = match;
+        return node;
+    }
+
+    /**
+     * Add a domain to the label tree.
+     *
+     * @param domain The domain name
+     * @return the node of the domain, or {@link #NO_NODE} if the domain has no labels. Nodes are
+     * numbered from 1 in the order they are created, and are below {@link #getNodeCount()}.
+     */
+    int addDomain(String domain) {
+        return addDomain(Utils.splitDomain(domain), MATCH_PRIMARY);
+    }
+
+    /**
+     * Return the number of nodes of the label tree, including the root node.
+     */
+    int getNodeCount() {
+        return mNodeCount;
+    }
+
+    /**
+     * Walk the label tree along the labels of the given domain name, passing every node walked
+     * through to the consumer: these are the nodes of all the domains added to the tree that the
+     * given domain is the same as or a sub-domain of, and of their parent domains.
+     *
+     * @param domainName The domain name
+     * @param consumer Consumer of the nodes, top-level label first
+     * @param arg Argument passed along with each node
+     */
+    <T> void forEachNode(String domainName, NodeConsumer<T> consumer, T arg) {
+        if (TextUtils.isEmpty(domainName)) {
+            return;
+        }
+        int start = domainStart(domainName);
+        int end = domainEnd(domainName, start);
+        if (end == NO_LABELS) {
+            return;
+        }
+
+        int node = 0;
+        while (true) {
+            int labelStart = labelStart(domainName, start, end);
+            node = getChild(node, domainName, labelStart, end);
+            if (node == NO_NODE) {
+                return;
+            }
+            consumer.accept(node, arg);
+            if (labelStart == start) {
+                return;
+            }
+            end = labelStart - 1;
+        }
+    }
+
+    /**
+     * Return the child of the given node for the label at [start, end) of the given domain.
+     */
+    private int getChild(int node, String domain, int start, int end) {
+        int length = end - start;
+        for (int child = mFirstChild[node]; child != NO_NODE; child = mNextSibling[child]) {
+            String label = mLabels[child];
+            if (label.length() == length && label.regionMatches(true, 0, domain, start, length)) {
+                return child;
+            }
+        }
+        return NO_NODE;
     }
 
     /**
@@ -159,20 +238,29 @@ public class DomainMatcher {
         if (TextUtils.isEmpty(domainName)) {
             return MATCH_NONE;
         }
-        List<String> domainLabels = Utils.splitDomain(domainName);
+        int start = domainStart(domainName);
+        int end = domainEnd(domainName, start);
+        if (end == NO_LABELS) {
+            return MATCH_NONE;
+        }
 
-        Label label = mRoot;
+        int node = 0;
         int match = MATCH_NONE;
-        for (String labelString : domainLabels) {
-            label = label.getSubLabel(labelString);
-            if (label == null) {
+        while (true) {
+            int labelStart = labelStart(domainName, start, end);
+            node = getChild(node, domainName, labelStart, end);
+            if (node == NO_NODE) {
                 break;
-            } else if (label.getMatch() != MATCH_NONE) {
-                match = label.getMatch();
+            } else if (mMatch[node] != MATCH_NONE) {
+                match = mMatch[node];
                 if (match == MATCH_PRIMARY) {
                     break;
                 }
             }
+            if (labelStart == start) {
+                break;
+            }
+            end = labelStart - 1;
         }
         return match;
     }
@@ -189,27 +277,151 @@ public class DomainMatcher {
             return false;
         }
 
-        List<String> labels1 = Utils.splitDomain(domain1);
-        List<String> labels2 = Utils.splitDomain(domain2);
-
-        // domain2 must be the same or longer than domain1 in order to be a sub-domain.
-        if (labels2.size() < labels1.size()) {
+        int start1 = domainStart(domain1);
+        int end1 = domainEnd(domain1, start1);
+        int start2 = domainStart(domain2);
+        int end2 = domainEnd(domain2, start2);
+        if (end1 == NO_LABELS) {
+            return true;
+        }
+        if (end2 == NO_LABELS) {
             return false;
         }
 
-        Iterator<String> l1 = labels1.iterator();
-        Iterator<String> l2 = labels2.iterator();
+        // Compare the labels from the top-level label down, until all labels of domain1 are
+        // matched.
+        while (true) {
+            int labelStart1 = labelStart(domain1, start1, end1);
+            int labelStart2 = labelStart(domain2, start2, end2);
+            int length = end1 - labelStart1;
+            if (length != end2 - labelStart2
+                    || !domain1.regionMatches(true, labelStart1, domain2, labelStart2, length)) {
+                return false;
+            }
+            if (labelStart1 == start1) {
+                return true;
+            }
+            // domain2 must be the same or longer than domain1 in order to be a sub-domain.
+            if (labelStart2 == start2) {
+                return false;
+            }
+            end1 = labelStart1 - 1;
+            end2 = labelStart2 - 1;
+        }
+    }
 
-        while(l1.hasNext()) {
-            if (!TextUtils.equals(l1.next(), l2.next())) {
+    /**
+     * Return the MCC-MNC of a 3GPP network domain name of the form
+     * "wlan.mnc<MNC>.mcc<MCC>.3gppnetwork.org", the same way as {@link Utils#getMccMnc(List)}
+     * does for the labels of the domain, without splitting the domain.
+     *
+     * @param domain The domain name
+     * @return the MCC followed by the MNC, or null if the domain is not a 3GPP network domain
+     */
+    static String getMccMnc(String domain) {
+        if (TextUtils.isEmpty(domain)) {
+            return null;
+        }
+        int start = domainStart(domain);
+        int end = domainEnd(domain, start);
+        if (end == NO_LABELS) {
+            return null;
+        }
+
+        int mccStart = 0;
+        int mccEnd = 0;
+        int mncStart = 0;
+        int mncEnd = 0;
+        for (int n = 0; n < PLMN_LABELS.length; n++) {
+            int labelStart = labelStart(domain, start, end);
+            String expect = PLMN_LABELS[n];
+            if (end - labelStart < expect.length()
+                    || !domain.regionMatches(true, labelStart, expect, 0, expect.length())) {
+                return null;
+            }
+            if (n == PLMN_MCC_LABEL) {
+                mccStart = labelStart + expect.length();
+                mccEnd = end;
+            } else if (n == PLMN_MNC_LABEL) {
+                mncStart = labelStart + expect.length();
+                mncEnd = end;
+            }
+            // The domain must have exactly as many labels as expected.
+            if ((labelStart == start) != (n == PLMN_LABELS.length - 1)) {
+                return null;
+            }
+            end = labelStart - 1;
+        }
+        if (!isDigits(domain, mccStart, mccEnd) || !isDigits(domain, mncStart, mncEnd)) {
+            return null;
+        }
+        return domain.substring(mccStart, mccEnd) + domain.substring(mncStart, mncEnd);
+    }
+
+    private static boolean isDigits(String domain, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = domain.charAt(i);
+            if (ch < '0' || ch > '9') {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Return the start of the domain part of the given domain name, skipping the user part of
+     * an NAI.
+     */
+    private static int domainStart(String domain) {
+        return domain.indexOf('@') + 1;
+    }
+
+    /**
+     * Return the end of the last (top-level) label of the given domain name, or
+     * {@link #NO_LABELS} if the domain has no labels.
+     *
+     * Follows {@link Utils#splitDomain(String)}: a single trailing "." is ignored, an empty
+     * domain has a single empty label, and trailing empty labels are dropped otherwise.
+     */
+    private static int domainEnd(String domain, int start) {
+        int end = domain.length();
+        if (end > start && domain.charAt(end - 1) == '.') {
+            end--;
+        }
+        if (end == start) {
+            return end;
+        }
+        while (end > start && domain.charAt(end - 1) == '.') {
+            end--;
+        }
+        return end == start ? NO_LABELS : end;
+    }
+
+    /**
+     * Return the start of the label that ends at the given end of the domain name.
+     */
+    private static int labelStart(String domain, int start, int end) {
+        int dot = domain.lastIndexOf('.', end - 1);
+        return dot < start ? start : dot + 1;
+    }
+
+    private void toString(int node, StringBuilder sb) {
+        if (mFirstChild[node] != NO_NODE) {
+            sb.append(".{");
+            for (int child = mFirstChild[node]; child != NO_NODE; child = mNextSibling[child]) {
+                sb.append(mLabels[child]);
+                toString(child, sb);
+            }
+            sb.append('}');
+        } else {
+            sb.append('=').append(mMatch[node]);
+        }
+    }
+
     @Override
     public String toString() {
-        return "Domain matcher " + mRoot;
+        StringBuilder sb = new StringBuilder("Domain matcher ");
+        toString(0, sb);
+        return sb.toString();
     }
 }
@@ -75,6 +75,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -116,6 +117,18 @@ public class PasspointManager {
     private final PasspointObjectFactory mObjectFactory;
 
     private final Map<String, PasspointProvider> mProviders;
+    // Incremented whenever mProviders, or a provider configuration used for matching, changes.
+    private int mProviderGeneration = 0;
+    // Index of mProviders used for matching, rebuilt on first use after mProviders changes.
+    private final PasspointProviderIndex mProviderMatchIndex = new PasspointProviderIndex();
+    private int mProviderMatchIndexGeneration = -1;
+    // Generations at which the carrier IDs of the providers were last updated.
+    private int mCarrierIdUpdateProviderGeneration = -1;
+    private int mCarrierIdUpdateSimStateGeneration = -1;
+    // Results of matching all providers against an AP, see getAllMatchedProviders().
+    private final Map<MatchCacheKey, MatchCacheEntry> mMatchCache = new HashMap<>();
+    private int mMatchCacheHits = 0;
+    private int mMatchCacheMisses = 0;
     private final AnqpCache mAnqpCache;
     private final ANQPRequestManager mAnqpRequestManager;
     private final WifiConfigManager mWifiConfigManager;
@@ -173,6 +186,63 @@ public class PasspointManager {
         }
     }
 
+    /**
+     * Key of the provider match cache: the ANQP network key of the AP, and the roaming consortium
+     * OIs from its beacon, which may differ between the BSSs sharing an ANQP entry.
+     */
+    private static class MatchCacheKey {
+        public final ANQPNetworkKey anqpKey;
+        public final long[] roamingConsortiums;
+
+        MatchCacheKey(ANQPNetworkKey anqpKey, long[] roamingConsortiums) {
+            this.anqpKey = anqpKey;
+            this.roamingConsortiums = roamingConsortiums;
+        }
+
+        @Override
+        public boolean equals(Object thatObject) {
+            if (this == thatObject) {
+                return true;
+            }
+            if (!(thatObject instanceof MatchCacheKey)) {
+                return false;
+            }
+            MatchCacheKey that = (MatchCacheKey) thatObject;
+            return anqpKey.equals(that.anqpKey)
+                    && Arrays.equals(roamingConsortiums, that.roamingConsortiums);
+        }
+
+        @Override
+        public int hashCode() {
+            return anqpKey.hashCode() * 31 + Arrays.hashCode(roamingConsortiums);
+        }
+    }
+
+    /**
+     * Entry of the provider match cache. It is only valid for the ANQP entry and the generations
+     * of the providers and SIM state it was computed with.
+     */
+    private static class MatchCacheEntry {
+        public final ANQPData anqpEntry;
+        public final int providerGeneration;
+        public final int simStateGeneration;
+        public final List<Pair<PasspointProvider, PasspointMatch>> matches;
+
+        MatchCacheEntry(ANQPData anqpEntry, int providerGeneration, int simStateGeneration,
+                List<Pair<PasspointProvider, PasspointMatch>> matches) {
+            this.anqpEntry = anqpEntry;
+            this.providerGeneration = providerGeneration;
+            this.simStateGeneration = simStateGeneration;
+            this.matches = matches;
+        }
+
+        boolean isValid(ANQPData currentAnqpEntry, int currentProviderGeneration,
+                int currentSimStateGeneration) {
+            return anqpEntry == currentAnqpEntry && providerGeneration == currentProviderGeneration
+                    && simStateGeneration == currentSimStateGeneration;
+        }
+    }
+
     /**
      * Data provider for the Passpoint configuration store data
      * {@link PasspointConfigUserStoreData}.
@@ -190,6 +260,7 @@ public class PasspointManager {
         @Override
         public void setProviders(List<PasspointProvider> providers) {
             mProviders.clear();
+            mProviderGeneration++;
             for (PasspointProvider provider : providers) {
                 provider.enableVerboseLogging(mVerboseLoggingEnabled ? 1 : 0);
                 mProviders.put(provider.getConfig().getUniqueId(), provider);
@@ -323,7 +394,8 @@ public class PasspointManager {
         mObjectFactory = objectFactory;
         mProviders = new HashMap<>();
         mAnqpCache = objectFactory.makeAnqpCache(clock);
-        mAnqpRequestManager = objectFactory.makeANQPRequestManager(mPasspointEventHandler, clock);
+        mAnqpRequestManager = objectFactory.makeANQPRequestManager(mPasspointEventHandler, clock,
+                wifiMetrics);
         mWifiConfigManager = wifiConfigManager;
         mWifiMetrics = wifiMetrics;
         mProviderIndex = 0;
@@ -500,6 +572,7 @@ public class PasspointManager {
         }
         newProvider.enableVerboseLogging(mVerboseLoggingEnabled ? 1 : 0);
         mProviders.put(config.getUniqueId(), newProvider);
+        mProviderGeneration++;
         if (!isFromSuggestion) {
             // Suggestions will be handled by the WifiNetworkSuggestionsManager
             mWifiConfigManager.saveToStore(true /* forceWrite */);
@@ -541,6 +614,7 @@ public class PasspointManager {
                 provider.getWifiConfig().getKey());
         String uniqueId = provider.getConfig().getUniqueId();
         mProviders.remove(uniqueId);
+        mProviderGeneration++;
         if (!provider.isFromSuggestion()) {
             // Suggestions will be handled by the WifiNetworkSuggestionsManager
             mWifiConfigManager.saveToStore(true /* forceWrite */);
@@ -858,12 +932,78 @@ public class PasspointManager {
             Log.d(TAG, "ANQP entry not found for: " + anqpKey);
             return allMatches;
         }
+        int simStateGeneration = mWifiCarrierInfoManager.getSimStateGeneration();
+        updateCarrierIdsIfNeeded(simStateGeneration);
+
+        // The match results only depend on the ANQP entry, the roaming consortium IE, the
+        // providers and the SIM state, so reuse the last result if none of them changed.
+        MatchCacheKey cacheKey = new MatchCacheKey(anqpKey,
+                roamingConsortium == null ? null : roamingConsortium.getRoamingConsortiums());
+        MatchCacheEntry cacheEntry = mMatchCache.get(cacheKey);
+        if (cacheEntry != null
+                && cacheEntry.isValid(anqpEntry, mProviderGeneration, simStateGeneration)) {
+            mMatchCacheHits++;
+            allMatches.addAll(cacheEntry.matches);
+        } else {
+            mMatchCacheMisses++;
+            matchProviders(anqpEntry, roamingConsortium, allMatches);
+            mMatchCache.put(cacheKey, new MatchCacheEntry(anqpEntry, mProviderGeneration,
+                    simStateGeneration, new ArrayList<>(allMatches)));
+        }
+        if (allMatches.size() != 0) {
+            mAnqpRequestManager.onProviderMatched(anqpKey);
+            for (Pair<PasspointProvider, PasspointMatch> match : allMatches) {
+                Log.d(TAG, String.format("Matched %s to %s as %s", scanResult.SSID,
+                        match.first.getConfig().getHomeSp().getFqdn(),
+                        match.second == PasspointMatch.HomeProvider ? "Home Provider"
+                                : "Roaming Provider"));
+            }
+        } else {
+            if (mVerboseLoggingEnabled) {
+                Log.d(TAG, "No service providers found for " + scanResult.SSID);
+            }
+        }
+        return allMatches;
+    }
+
+    /**
+     * Try to update the carrier ID of all providers with a SIM credential, if the providers or the
+     * SIM state changed since the last attempt.
+     */
+    private void updateCarrierIdsIfNeeded(int simStateGeneration) {
+        if (mCarrierIdUpdateProviderGeneration == mProviderGeneration
+                && mCarrierIdUpdateSimStateGeneration == simStateGeneration) {
+            return;
+        }
         boolean anyProviderUpdated = false;
-        for (Map.Entry<String, PasspointProvider> entry : mProviders.entrySet()) {
-            PasspointProvider provider = entry.getValue();
+        for (PasspointProvider provider : mProviders.values()) {
             if (provider.tryUpdateCarrierId()) {
                 anyProviderUpdated = true;
             }
+        }
+        if (anyProviderUpdated) {
+            // The carrier ID is used for matching SIM credentials.
+            mProviderGeneration++;
+            mWifiConfigManager.saveToStore(true);
+        }
+        mCarrierIdUpdateProviderGeneration = mProviderGeneration;
+        mCarrierIdUpdateSimStateGeneration = simStateGeneration;
+    }
+
+    /**
+     * Match the providers against an AP and add the home and roaming provider matches to
+     * |matches|.
+     */
+    private void matchProviders(ANQPData anqpEntry,
+            InformationElementUtil.RoamingConsortium roamingConsortium,
+            List<Pair<PasspointProvider, PasspointMatch>> matches) {
+        if (mProviderMatchIndexGeneration != mProviderGeneration) {
+            mProviderMatchIndex.rebuild(mProviders.values());
+            mProviderMatchIndexGeneration = mProviderGeneration;
+        }
+        // Only match the providers that the index could not rule out for this AP.
+        for (PasspointProvider provider : mProviderMatchIndex.getCandidates(
+                anqpEntry.getElements(), roamingConsortium)) {
             if (mVerboseLoggingEnabled) {
                 Log.d(TAG, "Matching provider " + provider.getConfig().getHomeSp().getFqdn()
                         + " with "
@@ -873,25 +1013,9 @@ public class PasspointManager {
                     roamingConsortium);
             if (matchStatus == PasspointMatch.HomeProvider
                     || matchStatus == PasspointMatch.RoamingProvider) {
-                allMatches.add(Pair.create(provider, matchStatus));
+                matches.add(Pair.create(provider, matchStatus));
             }
         }
-        if (anyProviderUpdated) {
-            mWifiConfigManager.saveToStore(true);
-        }
-        if (allMatches.size() != 0) {
-            for (Pair<PasspointProvider, PasspointMatch> match : allMatches) {
-                Log.d(TAG, String.format("Matched %s to %s as %s", scanResult.SSID,
-                        match.first.getConfig().getHomeSp().getFqdn(),
-                        match.second == PasspointMatch.HomeProvider ? "Home Provider"
-                                : "Roaming Provider"));
-            }
-        } else {
-            if (mVerboseLoggingEnabled) {
-                Log.d(TAG, "No service providers found for " + scanResult.SSID);
-            }
-        }
-        return allMatches;
     }
 
     /**
@@ -919,6 +1043,17 @@ public class PasspointManager {
      */
     public void sweepCache() {
         mAnqpCache.sweep();
+        // Drop the match results that can no longer be used.
+        int simStateGeneration = mWifiCarrierInfoManager.getSimStateGeneration();
+        Iterator<Map.Entry<MatchCacheKey, MatchCacheEntry>> it =
+                mMatchCache.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MatchCacheKey, MatchCacheEntry> entry = it.next();
+            if (!entry.getValue().isValid(mAnqpCache.peekEntry(entry.getKey().anqpKey),
+                    mProviderGeneration, simStateGeneration)) {
+                it.remove();
+            }
+        }
     }
 
     /**
@@ -1203,6 +1338,8 @@ public class PasspointManager {
         }
         pw.println("PasspointManager - Providers End ---");
         pw.println("PasspointManager - Next provider ID to be assigned " + mProviderIndex);
+        pw.println("PasspointManager - Provider match cache: size=" + mMatchCache.size()
+                + " hits=" + mMatchCacheHits + " misses=" + mMatchCacheMisses);
         mAnqpCache.dump(pw);
         mAnqpRequestManager.dump(pw);
     }
@@ -1254,6 +1391,7 @@ public class PasspointManager {
                 enterpriseConfig.getClientCertificateAlias(), null, false, false);
         provider.enableVerboseLogging(mVerboseLoggingEnabled ? 1 : 0);
         mProviders.put(passpointConfig.getUniqueId(), provider);
+        mProviderGeneration++;
         return true;
     }
 
@@ -104,10 +104,12 @@ public class PasspointObjectFactory{
      *
      * @param handler Instance of {@link PasspointEventHandler}
      * @param clock Instance of {@link Clock}
+     * @param wifiMetrics Instance of {@link WifiMetrics}
      * @return {@link ANQPRequestManager}
      */
-    public ANQPRequestManager makeANQPRequestManager(PasspointEventHandler handler, Clock clock) {
-        return new ANQPRequestManager(handler, clock);
+    public ANQPRequestManager makeANQPRequestManager(PasspointEventHandler handler, Clock clock,
+            WifiMetrics wifiMetrics) {
+        return new ANQPRequestManager(handler, clock, wifiMetrics);
     }
 
     /**
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.wifi.hotspot2.PasspointConfiguration;
+import android.net.wifi.hotspot2.pps.Credential;
+import android.net.wifi.hotspot2.pps.HomeSp;
+import android.text.TextUtils;
+
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.CellularNetwork;
+import com.android.server.wifi.hotspot2.anqp.Constants.ANQPElementType;
+import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmData;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmElement;
+import com.android.server.wifi.hotspot2.anqp.RoamingConsortiumElement;
+import com.android.server.wifi.hotspot2.anqp.ThreeGPPNetworkElement;
+import com.android.server.wifi.util.InformationElementUtil.RoamingConsortium;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the installed Passpoint providers by the data they can be matched on: FQDN and
+ * Other Home Partner labels, roaming consortium OIs, the MCC-MNC of SIM credentials and NAI
+ * realm labels.
+ *
+ * The index is used to narrow down the providers that {@link PasspointProvider#match} needs
+ * to be called for, given the ANQP elements and roaming consortium IE of an AP. It is
+ * conservative: every provider that could match the AP is returned as a candidate, but a
+ * candidate does not necessarily match. Candidates are returned in the same order as the
+ * providers were passed to {@link #rebuild(Collection)}.
+ */
+public class PasspointProviderIndex {
+    /**
+     * Length of the MCC-MNC prefix used as key for SIM credentials. An MCC-MNC is either 5 or
+     * 6 digits long, and is only ever matched against an IMSI it is a prefix of.
+     */
+    private static final int MCC_MNC_KEY_LENGTH = 5;
+
+    /**
+     * Index of domain names on the label tree of {@link DomainMatcher}: the providers of each
+     * domain are kept by the node of the domain, so walking the labels of a domain collects the
+     * providers for all domains it is the same as or a sub-domain of.
+     */
+    private static class DomainIndex {
+        private final DomainMatcher mTree = new DomainMatcher();
+        private final List<BitSet> mProvidersByNode = new ArrayList<>();
+        private final DomainMatcher.NodeConsumer<BitSet> mCollector = (node, candidates) -> {
+            BitSet providers = mProvidersByNode.get(node);
+            if (providers != null) {
+                candidates.or(providers);
+            }
+        };
+
+        void add(String domain, int ordinal) {
+            int node = mTree.addDomain(domain);
+            if (node == DomainMatcher.NO_NODE) {
+                return;
+            }
+            while (mProvidersByNode.size() < mTree.getNodeCount()) {
+                mProvidersByNode.add(null);
+            }
+            BitSet providers = mProvidersByNode.get(node);
+            if (providers == null) {
+                providers = new BitSet();
+                mProvidersByNode.set(node, providers);
+            }
+            providers.set(ordinal);
+        }
+
+        void collect(String domain, BitSet candidates) {
+            mTree.forEachNode(domain, mCollector, candidates);
+        }
+    }
+
+    private final List<PasspointProvider> mProviders = new ArrayList<>();
+    private DomainIndex mDomains = new DomainIndex();
+    private DomainIndex mRealms = new DomainIndex();
+    private final Map<Long, BitSet> mOis = new HashMap<>();
+    private final Map<String, BitSet> mMccMncs = new HashMap<>();
+    // Providers that can not be excluded based on the indexed data.
+    private final BitSet mUnindexed = new BitSet();
+
+    /**
+     * Rebuild the index for the given providers.
+     *
+     * @param providers The installed providers, in the order candidates should be returned
+     */
+    public void rebuild(@NonNull Collection<PasspointProvider> providers) {
+        clear();
+        for (PasspointProvider provider : providers) {
+            int ordinal = mProviders.size();
+            mProviders.add(provider);
+            addProvider(provider.getConfig(), ordinal);
+        }
+    }
+
+    /**
+     * Remove all providers from the index.
+     */
+    public void clear() {
+        mProviders.clear();
+        mDomains = new DomainIndex();
+        mRealms = new DomainIndex();
+        mOis.clear();
+        mMccMncs.clear();
+        mUnindexed.clear();
+    }
+
+    private void addProvider(PasspointConfiguration config, int ordinal) {
+        HomeSp homeSp = config.getHomeSp();
+        Credential credential = config.getCredential();
+        if (homeSp == null || credential == null) {
+            mUnindexed.set(ordinal);
+            return;
+        }
+        if (!TextUtils.isEmpty(homeSp.getFqdn())) {
+            mDomains.add(homeSp.getFqdn(), ordinal);
+        }
+        if (homeSp.getOtherHomePartners() != null) {
+            for (String otherHomePartner : homeSp.getOtherHomePartners()) {
+                if (!TextUtils.isEmpty(otherHomePartner)) {
+                    mDomains.add(otherHomePartner, ordinal);
+                }
+            }
+        }
+        if (homeSp.getMatchAllOis() != null) {
+            // An empty list of required OIs, or an AP advertising no OI in its IE, is a match.
+            mUnindexed.set(ordinal);
+        } else if (homeSp.getMatchAnyOis() != null) {
+            addOis(homeSp.getMatchAnyOis(), ordinal);
+        }
+        if (homeSp.getRoamingConsortiumOis() != null) {
+            addOis(homeSp.getRoamingConsortiumOis(), ordinal);
+        }
+        if (credential.getSimCredential() != null) {
+            String imsi = credential.getSimCredential().getImsi();
+            if (imsi != null && imsi.length() >= MCC_MNC_KEY_LENGTH) {
+                getOrCreate(mMccMncs, imsi.substring(0, MCC_MNC_KEY_LENGTH)).set(ordinal);
+            }
+        }
+        if (!TextUtils.isEmpty(credential.getRealm())) {
+            mRealms.add(credential.getRealm(), ordinal);
+        }
+    }
+
+    private void addOis(long[] ois, int ordinal) {
+        for (long oi : ois) {
+            getOrCreate(mOis, oi).set(ordinal);
+        }
+    }
+
+    private static <K> BitSet getOrCreate(Map<K, BitSet> map, K key) {
+        BitSet bits = map.get(key);
+        if (bits == null) {
+            bits = new BitSet();
+            map.put(key, bits);
+        }
+        return bits;
+    }
+
+    /**
+     * Return the providers that could match an AP with the given ANQP elements and roaming
+     * consortium IE.
+     *
+     * @param anqpElements The ANQP elements of the AP
+     * @param roamingConsortium The roaming consortium IE of the AP
+     * @return the candidate providers
+     */
+    public @NonNull List<PasspointProvider> getCandidates(
+            @NonNull Map<ANQPElementType, ANQPElement> anqpElements,
+            @Nullable RoamingConsortium roamingConsortium) {
+        BitSet candidates = (BitSet) mUnindexed.clone();
+
+        DomainNameElement domainNameElement =
+                (DomainNameElement) anqpElements.get(ANQPElementType.ANQPDomName);
+        if (domainNameElement != null) {
+            for (String domain : domainNameElement.getDomains()) {
+                if (TextUtils.isEmpty(domain)) {
+                    continue;
+                }
+                mDomains.collect(domain, candidates);
+                if (!mMccMncs.isEmpty()) {
+                    collectMccMnc(DomainMatcher.getMccMnc(domain), candidates);
+                }
+            }
+        }
+
+        RoamingConsortiumElement roamingConsortiumElement = (RoamingConsortiumElement)
+                anqpElements.get(ANQPElementType.ANQPRoamingConsortium);
+        if (roamingConsortiumElement != null) {
+            for (Long oi : roamingConsortiumElement.getOIs()) {
+                collectOi(oi, candidates);
+            }
+        }
+        if (roamingConsortium != null && roamingConsortium.getRoamingConsortiums() != null) {
+            for (long oi : roamingConsortium.getRoamingConsortiums()) {
+                collectOi(oi, candidates);
+            }
+        }
+
+        ThreeGPPNetworkElement threeGppNetworkElement =
+                (ThreeGPPNetworkElement) anqpElements.get(ANQPElementType.ANQP3GPPNetwork);
+        if (threeGppNetworkElement != null && !mMccMncs.isEmpty()) {
+            for (CellularNetwork network : threeGppNetworkElement.getNetworks()) {
+                for (String plmn : network.getPlmns()) {
+                    collectMccMnc(plmn, candidates);
+                }
+            }
+        }
+
+        NAIRealmElement naiRealmElement =
+                (NAIRealmElement) anqpElements.get(ANQPElementType.ANQPNAIRealm);
+        if (naiRealmElement != null) {
+            for (NAIRealmData realmData : naiRealmElement.getRealmDataList()) {
+                for (String realm : realmData.getRealms()) {
+                    if (!TextUtils.isEmpty(realm)) {
+                        mRealms.collect(realm, candidates);
+                    }
+                }
+            }
+        }
+
+        List<PasspointProvider> result = new ArrayList<>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            result.add(mProviders.get(i));
+        }
+        return result;
+    }
+
+    private void collectOi(long oi, BitSet candidates) {
+        BitSet bits = mOis.get(oi);
+        if (bits != null) {
+            candidates.or(bits);
+        }
+    }
+
+    private void collectMccMnc(String mccMnc, BitSet candidates) {
+        if (mccMnc == null || mccMnc.length() < MCC_MNC_KEY_LENGTH) {
+            return;
+        }
+        BitSet bits = mMccMncs.get(mccMnc.substring(0, MCC_MNC_KEY_LENGTH));
+        if (bits != null) {
+            candidates.or(bits);
+        }
+    }
+
+    /**
+     * Return the number of providers in the index.
+     */
+    public int size() {
+        return mProviders.size();
+    }
+}
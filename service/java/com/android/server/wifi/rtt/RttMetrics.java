@@ -91,6 +91,12 @@ public class RttMetrics {
     private SparseIntArray mMeasurementDurationApOnlyHistogram = new SparseIntArray();
     private SparseIntArray mMeasurementDurationWithAwareHistogram = new SparseIntArray();
     private PerPeerTypeInfo[] mPerPeerTypeInfo;
+    private int mNumHalRangingCommands = 0;
+    private int mNumRequestsServedByHalCommands = 0;
+    private SparseIntArray mRequestsPerHalCommandHistogram = new SparseIntArray();
+    private SparseIntArray mQueueingDelayHistogram = new SparseIntArray();
+    private int mNumResultCacheHits = 0;
+    private int mNumResultCacheMisses = 0;
 
     public RttMetrics(Clock clock) {
         mClock = clock;
@@ -221,6 +227,35 @@ public class RttMetrics {
         mOverallStatusHistogram.put(status, mOverallStatusHistogram.get(status) + 1);
     }
 
+    /**
+     * Record metrics for a ranging command issued to the HAL, which may serve several requests
+     * merged together.
+     *
+     * @param queueingDelaysMs The time each of the served requests spent queued before dispatch.
+     */
+    public void recordHalRangingCommand(long[] queueingDelaysMs) {
+        mNumHalRangingCommands++;
+        mNumRequestsServedByHalCommands += queueingDelaysMs.length;
+        mRequestsPerHalCommandHistogram.put(queueingDelaysMs.length,
+                mRequestsPerHalCommandHistogram.get(queueingDelaysMs.length) + 1);
+        for (long queueingDelayMs : queueingDelaysMs) {
+            addValueToLogHistogram(queueingDelayMs, mQueueingDelayHistogram, COUNT_LOG_HISTOGRAM);
+        }
+    }
+
+    /**
+     * Record the outcome of looking up a request in the result cache.
+     *
+     * @param hit true if the request was served from the cache, false if it required ranging.
+     */
+    public void recordResultCacheLookup(boolean hit) {
+        if (hit) {
+            mNumResultCacheHits++;
+        } else {
+            mNumResultCacheMisses++;
+        }
+    }
+
     private void updatePeerInfoWithRequestInfo(PerPeerTypeInfo peerInfo, WorkSource ws,
             int numIndividualCalls) {
         if (numIndividualCalls == 0) {
@@ -284,6 +319,14 @@ public class RttMetrics {
 
             consolidatePeerType(log.rttToAp, mPerPeerTypeInfo[PEER_AP]);
             consolidatePeerType(log.rttToAware, mPerPeerTypeInfo[PEER_AWARE]);
+
+            log.numHalRangingCommands = mNumHalRangingCommands;
+            log.histogramRequestsPerHalCommand = consolidateNumPeersPerRequest(
+                    mRequestsPerHalCommandHistogram);
+            log.histogramQueueingDelayMs = genericBucketsToRttBuckets(
+                    logHistogramToGenericBuckets(mQueueingDelayHistogram, COUNT_LOG_HISTOGRAM));
+            log.numResultCacheHits = mNumResultCacheHits;
+            log.numResultCacheMisses = mNumResultCacheMisses;
         }
         return log;
     }
@@ -387,6 +430,12 @@ public class RttMetrics {
                     + mMeasurementDurationWithAwareHistogram);
             pw.println("AP:" + mPerPeerTypeInfo[PEER_AP]);
             pw.println("AWARE:" + mPerPeerTypeInfo[PEER_AWARE]);
+            pw.println("mNumHalRangingCommands:" + mNumHalRangingCommands
+                    + ", mNumRequestsServedByHalCommands:" + mNumRequestsServedByHalCommands);
+            pw.println("mRequestsPerHalCommandHistogram:" + mRequestsPerHalCommandHistogram);
+            pw.println("mQueueingDelayHistogram:" + mQueueingDelayHistogram);
+            pw.println("mNumResultCacheHits:" + mNumResultCacheHits
+                    + ", mNumResultCacheMisses:" + mNumResultCacheMisses);
         }
     }
 
@@ -401,6 +450,12 @@ public class RttMetrics {
             mPerPeerTypeInfo[PEER_AWARE] = new PerPeerTypeInfo();
             mMeasurementDurationApOnlyHistogram.clear();
             mMeasurementDurationWithAwareHistogram.clear();
+            mNumHalRangingCommands = 0;
+            mNumRequestsServedByHalCommands = 0;
+            mRequestsPerHalCommandHistogram.clear();
+            mQueueingDelayHistogram.clear();
+            mNumResultCacheHits = 0;
+            mNumResultCacheMisses = 0;
         }
     }
 
@@ -51,6 +51,7 @@ import android.os.UserHandle;
 import android.os.WorkSource;
 import android.os.WorkSource.WorkChain;
 import android.util.Log;
+import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -69,6 +70,8 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -92,6 +95,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
     private ActivityManager mActivityManager;
     private PowerManager mPowerManager;
     private int mBackgroundProcessExecGapMs;
+    private int mResultCacheMaxAgeMs;
     private long mLastRequestTimestamp;
 
     private RttServiceSynchronized mRttServiceSynchronized;
@@ -282,6 +286,8 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
 
             mBackgroundProcessExecGapMs = mContext.getResources().getInteger(
                     R.integer.config_wifiRttBackgroundExecGapMs);
+            mResultCacheMaxAgeMs = mContext.getResources().getInteger(
+                    R.integer.config_wifiRttResultCacheMaxAgeMs);
 
             intentFilter = new IntentFilter();
             intentFilter.addAction(LocationManager.MODE_CHANGED_ACTION);
@@ -555,6 +561,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         private Map<Integer, RttRequesterInfo> mRttRequesterInfo = new HashMap<>();
         private List<RttRequestInfo> mRttRequestQueue = new LinkedList<>();
         private WakeupMessage mRangingTimeoutMessage = null;
+        // Recent successful results keyed by responder MAC, along with the responder config they
+        // were measured with: only used if mResultCacheMaxAgeMs > 0
+        private Map<MacAddress, CachedRangingResult> mResultCache = new HashMap<>();
 
         RttServiceSynchronized(Looper looper, RttNative rttNative) {
             mRttNative = rttNative;
@@ -567,8 +576,10 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         }
 
         private void cancelRanging(RttRequestInfo rri) {
+            RangingRequest request =
+                    rri.dispatchedRequest != null ? rri.dispatchedRequest : rri.request;
             ArrayList<byte[]> macAddresses = new ArrayList<>();
-            for (ResponderConfig peer : rri.request.mRttPeers) {
+            for (ResponderConfig peer : request.mRttPeers) {
                 macAddresses.add(peer.macAddress.toByteArray());
             }
 
@@ -578,25 +589,28 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         private void cleanUpOnDisable() {
             if (VDBG) Log.v(TAG, "RttServiceSynchronized.cleanUpOnDisable");
             for (RttRequestInfo rri : mRttRequestQueue) {
-                try {
-                    if (rri.dispatchedToNative) {
-                        // may not be necessary in some cases (e.g. Wi-Fi disable may already clear
-                        // up active RTT), but in other cases will be needed (doze disabling RTT
-                        // but Wi-Fi still up). Doesn't hurt - worst case will fail.
-                        cancelRanging(rri);
+                if (rri.dispatchedToNative) {
+                    // may not be necessary in some cases (e.g. Wi-Fi disable may already clear
+                    // up active RTT), but in other cases will be needed (doze disabling RTT
+                    // but Wi-Fi still up). Doesn't hurt - worst case will fail.
+                    cancelRanging(rri);
+                }
+                for (RttRequestInfo servedRequest : getServedRequests(rri)) {
+                    try {
+                        mRttMetrics.recordOverallStatus(
+                                WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
+                        servedRequest.callback.onRangingFailure(
+                                RangingResultCallback.STATUS_CODE_FAIL_RTT_NOT_AVAILABLE);
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "RttServiceSynchronized.startRanging: disabled, callback "
+                                + "failed -- " + e);
                     }
-                    mRttMetrics.recordOverallStatus(
-                            WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
-                    rri.callback.onRangingFailure(
-                            RangingResultCallback.STATUS_CODE_FAIL_RTT_NOT_AVAILABLE);
-                } catch (RemoteException e) {
-                    Log.e(TAG, "RttServiceSynchronized.startRanging: disabled, callback failed -- "
-                            + e);
+                    servedRequest.binder.unlinkToDeath(servedRequest.dr, 0);
                 }
-                rri.binder.unlinkToDeath(rri.dr, 0);
             }
             mRttRequestQueue.clear();
             mRangingTimeoutMessage.cancel();
+            mResultCache.clear();
         }
 
         /**
@@ -617,18 +631,35 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             while (it.hasNext()) {
                 RttRequestInfo rri = it.next();
 
-                boolean match = rri.uid == uid; // original UID will never be 0
-                if (rri.workSource != null && workSource != null) {
-                    rri.workSource.remove(workSource);
-                    if (rri.workSource.isEmpty()) {
-                        match = true;
+                // requests merged into a dispatched command are simply dropped: the command
+                // continues on behalf of the others
+                boolean hadMergedRequests = !rri.mergedRequests.isEmpty();
+                Iterator<RttRequestInfo> mergedIt = rri.mergedRequests.iterator();
+                while (mergedIt.hasNext()) {
+                    RttRequestInfo mergedRequest = mergedIt.next();
+                    if (isClientRequest(mergedRequest, uid, workSource)) {
+                        mergedIt.remove();
+                        mergedRequest.binder.unlinkToDeath(mergedRequest.dr, 0);
                     }
                 }
 
-                if (match) {
+                if (rri.callerGone) {
+                    if (hadMergedRequests && rri.mergedRequests.isEmpty()) {
+                        dispatchedRequestAborted = true;
+                        Log.d(TAG, "Client death - no remaining requester, cancelling RTT "
+                                + "operation in progress: cmdId=" + rri.cmdId);
+                        mRangingTimeoutMessage.cancel();
+                        cancelRanging(rri);
+                    }
+                } else if (isClientRequest(rri, uid, workSource)) {
                     if (!rri.dispatchedToNative) {
                         it.remove();
                         rri.binder.unlinkToDeath(rri.dr, 0);
+                    } else if (!rri.mergedRequests.isEmpty()) {
+                        Log.d(TAG, "Client death - RTT operation continues for merged requests: "
+                                + "cmdId=" + rri.cmdId);
+                        rri.callerGone = true;
+                        rri.binder.unlinkToDeath(rri.dr, 0);
                     } else {
                         dispatchedRequestAborted = true;
                         Log.d(TAG, "Client death - cancelling RTT operation in progress: cmdId="
@@ -650,6 +681,34 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             }
         }
 
+        /**
+         * Returns true if the request belongs to the specified client. A workSource specification
+         * is cleared from the request's workSource, which then matches only once it is empty.
+         */
+        private boolean isClientRequest(RttRequestInfo rri, int uid, WorkSource workSource) {
+            boolean match = rri.uid == uid; // original UID will never be 0
+            if (rri.workSource != null && workSource != null) {
+                rri.workSource.remove(workSource);
+                if (rri.workSource.isEmpty()) {
+                    match = true;
+                }
+            }
+            return match;
+        }
+
+        /**
+         * Returns the requests whose callers are waiting on the ranging operation of the top of
+         * queue request: itself (unless its caller is gone) and any requests merged into it.
+         */
+        private List<RttRequestInfo> getServedRequests(RttRequestInfo rri) {
+            List<RttRequestInfo> servedRequests = new ArrayList<>(1 + rri.mergedRequests.size());
+            if (!rri.callerGone) {
+                servedRequests.add(rri);
+            }
+            servedRequests.addAll(rri.mergedRequests);
+            return servedRequests;
+        }
+
         private void timeoutRangingRequest() {
             if (VDBG) {
                 Log.v(TAG, "RttServiceSynchronized.timeoutRangingRequest mRttRequestQueue="
@@ -666,11 +725,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
             cancelRanging(rri);
-            try {
-                mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
-                rri.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
-            } catch (RemoteException e) {
-                Log.e(TAG, "RttServiceSynchronized.timeoutRangingRequest: callback failed: " + e);
+            for (RttRequestInfo servedRequest : getServedRequests(rri)) {
+                try {
+                    mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
+                    servedRequest.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
+                } catch (RemoteException e) {
+                    Log.e(TAG, "RttServiceSynchronized.timeoutRangingRequest: callback failed: "
+                            + e);
+                }
             }
             executeNextRangingRequestIfPossible(true);
         }
@@ -705,6 +767,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             newRequest.request = request;
             newRequest.callback = callback;
             newRequest.isCalledFromPrivilegedContext = isCalledFromPrivilegedContext;
+            newRequest.queuedTimestampMs = mClock.getElapsedSinceBootMillis();
             mRttRequestQueue.add(newRequest);
 
             if (VDBG) {
@@ -719,18 +782,20 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
 
             SparseIntArray counts = new SparseIntArray();
 
-            for (RttRequestInfo rri : mRttRequestQueue) {
-                for (int i = 0; i < rri.workSource.size(); ++i) {
-                    int uid = rri.workSource.getUid(i);
-                    counts.put(uid, counts.get(uid) + 1);
-                }
-
-                final List<WorkChain> workChains = rri.workSource.getWorkChains();
-                if (workChains != null) {
-                    for (int i = 0; i < workChains.size(); ++i) {
-                        final int uid = workChains.get(i).getAttributionUid();
+            for (RttRequestInfo topRequest : mRttRequestQueue) {
+                for (RttRequestInfo rri : getServedRequests(topRequest)) {
+                    for (int i = 0; i < rri.workSource.size(); ++i) {
+                        int uid = rri.workSource.getUid(i);
                         counts.put(uid, counts.get(uid) + 1);
                     }
+
+                    final List<WorkChain> workChains = rri.workSource.getWorkChains();
+                    if (workChains != null) {
+                        for (int i = 0; i < workChains.size(); ++i) {
+                            final int uid = workChains.get(i).getAttributionUid();
+                            counts.put(uid, counts.get(uid) + 1);
+                        }
+                    }
                 }
             }
 
@@ -765,7 +830,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                             + "queue!? Ignoring pop.");
                 } else {
                     RttRequestInfo topOfQueueRequest = mRttRequestQueue.remove(0);
-                    topOfQueueRequest.binder.unlinkToDeath(topOfQueueRequest.dr, 0);
+                    for (RttRequestInfo servedRequest : getServedRequests(topOfQueueRequest)) {
+                        servedRequest.binder.unlinkToDeath(servedRequest.dr, 0);
+                    }
                 }
             }
 
@@ -829,12 +896,20 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
 
+            if (serveFromResultCache(nextRequest)) {
+                executeNextRangingRequestIfPossible(true);
+                return;
+            }
+
+            mergeCompatibleRequests(nextRequest);
+            recordDispatchMetrics(nextRequest);
+
             nextRequest.cmdId = mNextCommandId++;
             mLastRequestTimestamp = mClock.getWallClockMillis();
-            if (mRttNative.rangeRequest(nextRequest.cmdId, nextRequest.request,
+            if (mRttNative.rangeRequest(nextRequest.cmdId, nextRequest.dispatchedRequest,
                     nextRequest.isCalledFromPrivilegedContext)) {
                 long timeout = HAL_RANGING_TIMEOUT_MS;
-                for (ResponderConfig responderConfig : nextRequest.request.mRttPeers) {
+                for (ResponderConfig responderConfig : nextRequest.dispatchedRequest.mRttPeers) {
                     if (responderConfig.responderType == ResponderConfig.RESPONDER_AWARE) {
                         timeout = HAL_AWARE_RANGING_TIMEOUT_MS;
                         break;
@@ -843,19 +918,195 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 mRangingTimeoutMessage.schedule(mClock.getElapsedSinceBootMillis() + timeout);
             } else {
                 Log.w(TAG, "RttServiceSynchronized.startRanging: native rangeRequest call failed");
-                try {
-                    mRttMetrics.recordOverallStatus(
-                            WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE);
-                    nextRequest.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
-                } catch (RemoteException e) {
-                    Log.e(TAG, "RttServiceSynchronized.startRanging: HAL request failed, callback "
-                            + "failed -- " + e);
+                for (RttRequestInfo servedRequest : getServedRequests(nextRequest)) {
+                    try {
+                        mRttMetrics.recordOverallStatus(
+                                WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE);
+                        servedRequest.callback.onRangingFailure(
+                                RangingResultCallback.STATUS_CODE_FAIL);
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "RttServiceSynchronized.startRanging: HAL request failed, "
+                                + "callback failed -- " + e);
+                    }
                 }
                 executeNextRangingRequestIfPossible(true);
             }
             nextRequest.dispatchedToNative = true;
         }
 
+        /**
+         * Serve the request from the result cache if fresh successful results, measured with the
+         * same responder config (channel, preamble, responder type, 802.11mc support), are available
+         * for all of its peers. The cached results retain their original ranging timestamp, which
+         * lets the caller know how old the measurement is.
+         *
+         * @return true if the request was served (the caller was notified), false if the request
+         * needs to be executed by the HAL.
+         */
+        private boolean serveFromResultCache(RttRequestInfo rri) {
+            if (mResultCacheMaxAgeMs <= 0) {
+                return false;
+            }
+
+            long oldestValidTimestampMs = mClock.getElapsedSinceBootMillis() - mResultCacheMaxAgeMs;
+            List<RangingResult> cachedResults = new ArrayList<>(rri.request.mRttPeers.size());
+            for (ResponderConfig peer : rri.request.mRttPeers) {
+                CachedRangingResult cached =
+                        peer.macAddress == null ? null : mResultCache.get(peer.macAddress);
+                if (cached == null || cached.receivedTimestampMs < oldestValidTimestampMs
+                        || !cached.config.equals(peer)) {
+                    mRttMetrics.recordResultCacheLookup(false);
+                    return false;
+                }
+                cachedResults.add(cached.result);
+            }
+            mRttMetrics.recordResultCacheLookup(true);
+
+            if (mDbg) {
+                Log.v(TAG, "serveFromResultCache: serving from cache - rri=" + rri);
+            }
+            rri.dispatchedRequest = rri.request;
+            dispatchRangingResults(rri, cachedResults, -1);
+            return true;
+        }
+
+        /**
+         * Add the successful results of a ranging operation to the result cache, dropping any
+         * expired entries.
+         *
+         * @param request The request the results were measured for, holding the responder configs
+         * @param results The results of the ranging operation
+         */
+        private void updateResultCache(RangingRequest request, List<RangingResult> results) {
+            if (mResultCacheMaxAgeMs <= 0) {
+                return;
+            }
+
+            long nowMs = mClock.getElapsedSinceBootMillis();
+            Iterator<CachedRangingResult> it = mResultCache.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().receivedTimestampMs < nowMs - mResultCacheMaxAgeMs) {
+                    it.remove();
+                }
+            }
+            Map<MacAddress, ResponderConfig> peers = new HashMap<>();
+            for (ResponderConfig peer : request.mRttPeers) {
+                if (peer.macAddress != null) {
+                    peers.put(peer.macAddress, peer);
+                }
+            }
+            for (RangingResult result : results) {
+                if (result == null || result.getMacAddress() == null
+                        || result.getStatus() != RttNative.FRAMEWORK_RTT_STATUS_SUCCESS) {
+                    continue;
+                }
+                ResponderConfig peer = peers.get(result.getMacAddress());
+                if (peer == null) {
+                    continue;
+                }
+                mResultCache.put(result.getMacAddress(),
+                        new CachedRangingResult(peer, result, nowMs));
+            }
+        }
+
+        /**
+         * Merge queued requests from other UIDs into the ranging command of the top of queue
+         * request, so that several apps ranging (possibly overlapping) peers are served by a single
+         * HAL operation rather than being serialized behind each other.
+         *
+         * A request is merged only if:
+         * - No request of its UID is already part of the command: each UID gets at most one slot
+         *   per command, so a single app can't starve the others
+         * - It has the same privilege level and all its peers have a MAC address (i.e. no pending
+         *   Aware PeerHandle translation)
+         * - The combined, de-duplicated peer list fits in a single HAL request
+         * - It passes the background throttling check
+         *
+         * Sets the dispatchedRequest of the top of queue request to the combined request.
+         */
+        private void mergeCompatibleRequests(RttRequestInfo topOfQueueRequest) {
+            topOfQueueRequest.dispatchedRequest = topOfQueueRequest.request;
+            if (mRttRequestQueue.size() < 2) {
+                return;
+            }
+
+            Map<MacAddress, ResponderConfig> peers = new LinkedHashMap<>();
+            for (ResponderConfig peer : topOfQueueRequest.request.mRttPeers) {
+                peers.put(peer.macAddress, peer);
+            }
+            SparseBooleanArray uidsInCommand = new SparseBooleanArray();
+            uidsInCommand.put(topOfQueueRequest.uid, true);
+
+            ListIterator<RttRequestInfo> it = mRttRequestQueue.listIterator(1);
+            while (it.hasNext()) {
+                RttRequestInfo candidate = it.next();
+                if (uidsInCommand.get(candidate.uid)
+                        || candidate.isCalledFromPrivilegedContext
+                        != topOfQueueRequest.isCalledFromPrivilegedContext) {
+                    continue;
+                }
+                int numNewPeers = countNewPeers(peers, candidate.request);
+                if (numNewPeers < 0 || peers.size() + numNewPeers > RangingRequest.getMaxPeers()) {
+                    continue;
+                }
+                if (!preExecThrottleCheck(candidate.workSource)) {
+                    continue;
+                }
+
+                for (ResponderConfig peer : candidate.request.mRttPeers) {
+                    peers.put(peer.macAddress, peer);
+                }
+                uidsInCommand.put(candidate.uid, true);
+                it.remove();
+                topOfQueueRequest.mergedRequests.add(candidate);
+            }
+
+            if (topOfQueueRequest.mergedRequests.isEmpty()) {
+                return;
+            }
+            RangingRequest.Builder builder = new RangingRequest.Builder();
+            for (ResponderConfig peer : peers.values()) {
+                builder.addResponder(peer);
+            }
+            topOfQueueRequest.dispatchedRequest = builder.build();
+            if (mDbg) {
+                Log.v(TAG, "mergeCompatibleRequests: merged "
+                        + topOfQueueRequest.mergedRequests.size() + " requests into cmd with "
+                        + peers.size() + " peers");
+            }
+        }
+
+        /**
+         * Returns the number of peers of the request which aren't in the peers map, or -1 if the
+         * request can't be merged: a peer has no MAC address yet or is configured differently.
+         */
+        private int countNewPeers(Map<MacAddress, ResponderConfig> peers,
+                RangingRequest request) {
+            int numNewPeers = 0;
+            for (ResponderConfig peer : request.mRttPeers) {
+                if (peer.macAddress == null) {
+                    return -1;
+                }
+                ResponderConfig existingPeer = peers.get(peer.macAddress);
+                if (existingPeer == null) {
+                    numNewPeers++;
+                } else if (!existingPeer.equals(peer)) {
+                    return -1;
+                }
+            }
+            return numNewPeers;
+        }
+
+        private void recordDispatchMetrics(RttRequestInfo topOfQueueRequest) {
+            List<RttRequestInfo> servedRequests = getServedRequests(topOfQueueRequest);
+            long nowMs = mClock.getElapsedSinceBootMillis();
+            long[] queueingDelaysMs = new long[servedRequests.size()];
+            for (int i = 0; i < queueingDelaysMs.length; ++i) {
+                queueingDelaysMs[i] = nowMs - servedRequests.get(i).queuedTimestampMs;
+            }
+            mRttMetrics.recordHalRangingCommand(queueingDelaysMs);
+        }
+
         /**
          * Perform pre-execution throttling checks:
          * - If all uids in ws are in background then check last execution and block if request is
@@ -1058,36 +1309,78 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
 
+            updateResultCache(topOfQueueRequest.dispatchedRequest, results);
+
+            int measurementDuration = (int) (mClock.getWallClockMillis() - mLastRequestTimestamp);
+            for (RttRequestInfo servedRequest : getServedRequests(topOfQueueRequest)) {
+                dispatchRangingResults(servedRequest, results, measurementDuration);
+            }
+
+            executeNextRangingRequestIfPossible(true);
+        }
+
+        /**
+         * Deliver the results of a ranging operation to one of the requests it served. Only the
+         * results for the request's own peers are delivered and recorded.
+         *
+         * @param measurementDuration Duration of the ranging operation, or -1 if the results
+         *                            weren't measured for this request (served from the cache).
+         */
+        private void dispatchRangingResults(RttRequestInfo rri, List<RangingResult> results,
+                int measurementDuration) {
             boolean permissionGranted = mWifiPermissionsUtil.checkCallersLocationPermission(
-                    topOfQueueRequest.callingPackage, topOfQueueRequest.callingFeatureId,
-                    topOfQueueRequest.uid, /* coarseForTargetSdkLessThanQ */ false, null)
+                    rri.callingPackage, rri.callingFeatureId,
+                    rri.uid, /* coarseForTargetSdkLessThanQ */ false, null)
                     && mWifiPermissionsUtil.isLocationModeEnabled();
             try {
                 if (permissionGranted) {
-                    List<RangingResult> finalResults = postProcessResults(topOfQueueRequest.request,
-                            results, topOfQueueRequest.isCalledFromPrivilegedContext);
+                    List<RangingResult> requestResults = results;
+                    if (rri.request != rri.dispatchedRequest) {
+                        requestResults = filterResultsForRequest(rri.request, results);
+                    }
+                    List<RangingResult> finalResults = postProcessResults(rri.request,
+                            requestResults, rri.isCalledFromPrivilegedContext);
                     mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
-                    mRttMetrics.recordResult(topOfQueueRequest.request, results,
-                            (int) (mClock.getWallClockMillis() - mLastRequestTimestamp));
+                    if (measurementDuration >= 0) {
+                        mRttMetrics.recordResult(rri.request, requestResults,
+                                measurementDuration);
+                    }
                     if (VDBG) {
                         Log.v(TAG, "RttServiceSynchronized.onRangingResults: finalResults="
                                 + finalResults);
                     }
-                    topOfQueueRequest.callback.onRangingResults(finalResults);
+                    rri.callback.onRangingResults(finalResults);
                 } else {
                     Log.w(TAG, "RttServiceSynchronized.onRangingResults: location permission "
                             + "revoked - not forwarding results");
                     mRttMetrics.recordOverallStatus(
                             WifiMetricsProto.WifiRttLog.OVERALL_LOCATION_PERMISSION_MISSING);
-                    topOfQueueRequest.callback.onRangingFailure(
+                    rri.callback.onRangingFailure(
                             RangingResultCallback.STATUS_CODE_FAIL);
                 }
             } catch (RemoteException e) {
                 Log.e(TAG,
                         "RttServiceSynchronized.onRangingResults: callback exception -- " + e);
             }
+        }
 
-            executeNextRangingRequestIfPossible(true);
+        /**
+         * Returns the results for the peers of the request, in the order of the request's peers.
+         */
+        private List<RangingResult> filterResultsForRequest(RangingRequest request,
+                List<RangingResult> results) {
+            Map<MacAddress, RangingResult> resultEntries = new HashMap<>();
+            for (RangingResult result : results) {
+                resultEntries.put(result.getMacAddress(), result);
+            }
+            List<RangingResult> requestResults = new ArrayList<>(request.mRttPeers.size());
+            for (ResponderConfig peer : request.mRttPeers) {
+                RangingResult result = resultEntries.get(peer.macAddress);
+                if (result != null) {
+                    requestResults.add(result);
+                }
+            }
+            return requestResults;
         }
 
         /*
@@ -1183,6 +1476,8 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             pw.println("  mRttRequesterInfo: " + mRttRequesterInfo);
             pw.println("  mRttRequestQueue: " + mRttRequestQueue);
             pw.println("  mRangingTimeoutMessage: " + mRangingTimeoutMessage);
+            pw.println("  mResultCacheMaxAgeMs: " + mResultCacheMaxAgeMs);
+            pw.println("  mResultCache: " + mResultCache.keySet());
             mRttMetrics.dump(fd, pw, args);
             mRttNative.dump(fd, pw, args);
         }
@@ -1199,10 +1494,19 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         public IRttCallback callback;
         public boolean isCalledFromPrivilegedContext;
 
+        public long queuedTimestampMs;
+
         public int cmdId = 0; // uninitialized cmdId value
         public boolean dispatchedToNative = false;
         public boolean peerHandlesTranslated = false;
 
+        // The request sent to the HAL: this request combined with any merged requests
+        public RangingRequest dispatchedRequest = null;
+        // Requests (from other UIDs) served by this request's ranging operation
+        public List<RttRequestInfo> mergedRequests = new ArrayList<>();
+        // The caller died while the operation was executing on behalf of merged requests
+        public boolean callerGone = false;
+
         @Override
         public String toString() {
             return new StringBuilder("RttRequestInfo: uid=").append(uid).append(
@@ -1212,7 +1516,22 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                     request.toString()).append(", callback=").append(callback).append(
                     ", cmdId=").append(cmdId).append(", peerHandlesTranslated=").append(
                     peerHandlesTranslated).append(", isCalledFromPrivilegedContext=").append(
-                    isCalledFromPrivilegedContext).toString();
+                    isCalledFromPrivilegedContext).append(", mergedRequests=").append(
+                    mergedRequests.size()).append(", callerGone=").append(
+                    callerGone).toString();
+        }
+    }
+
+    private static class CachedRangingResult {
+        public final ResponderConfig config;
+        public final RangingResult result;
+        public final long receivedTimestampMs;
+
+        CachedRangingResult(ResponderConfig config, RangingResult result,
+                long receivedTimestampMs) {
+            this.config = config;
+            this.result = result;
+            this.receivedTimestampMs = receivedTimestampMs;
         }
     }
 
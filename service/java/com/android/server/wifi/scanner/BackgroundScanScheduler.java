@@ -16,6 +16,8 @@
 
 package com.android.server.wifi.scanner;
 
+import static android.net.wifi.WifiScanner.WIFI_BAND_COUNT;
+
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.net.wifi.ScanResult;
@@ -803,33 +805,83 @@ public class BackgroundScanScheduler {
         return splitBucketList;
     }
 
+    /**
+     * Returns the period of the bucket. The period of the exponential back off bucket is only
+     * set when the schedule is created, so its starting period is used instead.
+     */
+    private static int getBucketPeriod(Bucket bucket) {
+        if (bucket.period > 0 || bucket.getSettingsList().isEmpty()) {
+            return bucket.period;
+        }
+        return bucket.getSettingsList().get(0).periodInMs;
+    }
+
+    /**
+     * Returns the number of channel scans per hour saved by splitting a bucket that has more
+     * channels than can be specified for a bucket. A bucket that is not split scans all the
+     * channels of the bands its channels are on instead.
+     */
+    private long getSplitSavingsPerHour(Bucket bucket) {
+        ChannelCollection channelCollection = bucket.getChannelCollection();
+        int numBandChannels = 0;
+        for (int i = 0; i < WIFI_BAND_COUNT; i++) {
+            int band = 1 << i;
+            if (channelCollection.partiallyContainsBand(band)) {
+                for (WifiScanner.ChannelSpec[] channels
+                        : mChannelHelper.getAvailableScanChannels(band)) {
+                    numBandChannels += channels.length;
+                }
+            }
+        }
+        int period = getBucketPeriod(bucket);
+        if (period <= 0) {
+            return 0;
+        }
+        int numSavedChannels = numBandChannels - channelCollection.getChannelSet().size();
+        return (long) numSavedChannels * (3600L * 1000 / period);
+    }
+
     /**
      * Check if any of the buckets don't fit into the bucket specification and fix it. This
      * creates duplicate buckets to fit all the channels. So, the channels to be scanned
      * will be split across 2 (or more) buckets.
-     * TODO: If we reach the max number of buckets, then this fix will be skipped!
+     * If there are not enough buckets to split all the buckets that don't fit, the buckets
+     * that save the most channel scans when split are split first, the others scan all the
+     * channels of their bands.
      */
     private List<Bucket> fixBuckets(List<Bucket> originalBucketList, int maxBuckets,
             int maxChannelsPerBucket) {
-        List<Bucket> fixedBucketList = new ArrayList<>();
+        List<Bucket> oversizedBuckets = new ArrayList<>();
+        for (Bucket bucket : originalBucketList) {
+            if (bucket.getChannelCollection().getChannelSet().size() > maxChannelsPerBucket) {
+                oversizedBuckets.add(bucket);
+            }
+        }
+        Map<Bucket, Long> splitSavings = new HashMap<>();
+        for (Bucket bucket : oversizedBuckets) {
+            splitSavings.put(bucket, getSplitSavingsPerHour(bucket));
+        }
+        // Stable sort, buckets with the same savings are split in the order of their periods.
+        Collections.sort(oversizedBuckets,
+                (b1, b2) -> Long.compare(splitSavings.get(b2), splitSavings.get(b1)));
+
+        Map<Bucket, List<Set<Integer>>> bucketsToSplit = new HashMap<>();
         int totalNumBuckets = originalBucketList.size();
+        for (Bucket bucket : oversizedBuckets) {
+            List<Set<Integer>> channelSetList = partitionChannelSet(
+                    bucket.getChannelCollection().getChannelSet(), maxChannelsPerBucket);
+            int newTotalNumBuckets = totalNumBuckets + channelSetList.size() - 1;
+            if (newTotalNumBuckets <= maxBuckets) {
+                bucketsToSplit.put(bucket, channelSetList);
+                totalNumBuckets = newTotalNumBuckets;
+            }
+        }
 
+        List<Bucket> fixedBucketList = new ArrayList<>();
         for (Bucket originalBucket : originalBucketList) {
-            ChannelCollection channelCollection = originalBucket.getChannelCollection();
-            Set<Integer> channelSet = channelCollection.getChannelSet();
-            if (channelSet.size() > maxChannelsPerBucket) {
-                List<Set<Integer>> channelSetList =
-                        partitionChannelSet(channelSet, maxChannelsPerBucket);
-                int newTotalNumBuckets = totalNumBuckets + channelSetList.size() - 1;
-                if (newTotalNumBuckets <= maxBuckets) {
-                    List<Bucket> splitBuckets = createSplitBuckets(originalBucket, channelSetList);
-                    for (Bucket bucket : splitBuckets) {
-                        fixedBucketList.add(bucket);
-                    }
-                    totalNumBuckets = newTotalNumBuckets;
-                } else {
-                    fixedBucketList.add(originalBucket);
-                }
+            List<Set<Integer>> channelSetList = bucketsToSplit.get(originalBucket);
+            if (channelSetList != null) {
+                fixedBucketList.addAll(createSplitBuckets(originalBucket, channelSetList));
             } else {
                 fixedBucketList.add(originalBucket);
             }
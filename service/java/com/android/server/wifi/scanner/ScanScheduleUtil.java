@@ -24,6 +24,7 @@ import android.net.wifi.WifiScanner.ScanSettings;
 import com.android.server.wifi.WifiNative;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -188,4 +189,41 @@ public class ScanScheduleUtil {
             return filteredScanDatas.toArray(new ScanData[filteredScanDatas.size()]);
         }
     }
+
+    /**
+     * Returns the indices of the scan results that are requested in the settings, limited to
+     * {@link ScanSettings#numBssidsPerScan} results. For a scan that covered the settings these
+     * are the results {@link #filterResultsForSettings} reports, so settings that select the
+     * same results can share a single filtered copy.
+     */
+    public static BitSet getResultIndicesForSettings(ChannelHelper channelHelper,
+            ScanResult[] results, ScanSettings settings) {
+        BitSet indices = new BitSet(results.length);
+        int numIndices = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (channelHelper.settingsContainChannel(settings, results[i].frequency)) {
+                indices.set(i);
+                numIndices++;
+            }
+            if (settings.numBssidsPerScan > 0 && numIndices >= settings.numBssidsPerScan) {
+                break;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Returns a copy of the ScanData that only contains the results at the given indices, as
+     * returned by {@link #getResultIndicesForSettings}.
+     */
+    public static ScanData createScanDataForResultIndices(ScanData scanData, BitSet indices) {
+        ScanResult[] results = scanData.getResults();
+        ScanResult[] filteredResults = new ScanResult[indices.cardinality()];
+        int numFilteredResults = 0;
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            filteredResults[numFilteredResults++] = results[i];
+        }
+        return new ScanData(scanData.getId(), scanData.getFlags(), 0,
+                scanData.getBandScanned(), filteredResults);
+    }
 }
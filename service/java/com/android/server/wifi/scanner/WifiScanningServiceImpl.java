@@ -75,7 +75,9 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -1260,20 +1262,34 @@ public class WifiScanningServiceImpl extends IWifiScanner.Stub {
                 }
             }
             ScanData[] allResults = new ScanData[] {results};
+            WifiScanner.ParcelableScanData parcelableAllResults =
+                    new WifiScanner.ParcelableScanData(allResults);
+            // Requests are delivered a view of the results selected by their channels. Requests
+            // selecting the same results (most commonly all of them) share a single copy of the
+            // results instead of each getting their own.
+            Map<BitSet, WifiScanner.ParcelableScanData> resultViews = new HashMap<>();
             for (RequestInfo<ScanSettings> entry : mActiveScans) {
-                ScanData[] resultsToDeliver = ScanScheduleUtil.filterResultsForSettings(
-                        mChannelHelper, allResults, entry.settings, -1);
+                BitSet resultIndices = ScanScheduleUtil.getResultIndicesForSettings(
+                        mChannelHelper, results.getResults(), entry.settings);
                 WifiScanner.ParcelableScanData parcelableResultsToDeliver =
-                        new WifiScanner.ParcelableScanData(resultsToDeliver);
+                        resultViews.get(resultIndices);
+                if (parcelableResultsToDeliver == null) {
+                    if (resultIndices.cardinality() == results.getResults().length) {
+                        parcelableResultsToDeliver = parcelableAllResults;
+                    } else {
+                        parcelableResultsToDeliver = new WifiScanner.ParcelableScanData(
+                                new ScanData[] {ScanScheduleUtil.createScanDataForResultIndices(
+                                        results, resultIndices)});
+                    }
+                    resultViews.put(resultIndices, parcelableResultsToDeliver);
+                }
                 logCallback("singleScanResults",  entry.clientInfo, entry.handlerId,
-                        describeForLog(resultsToDeliver));
+                        describeForLog(parcelableResultsToDeliver.getResults()));
                 entry.reportEvent(WifiScanner.CMD_SCAN_RESULT, 0, parcelableResultsToDeliver);
                 // make sure the handler is removed
                 entry.reportEvent(WifiScanner.CMD_SINGLE_SCAN_COMPLETED, 0, null);
             }
 
-            WifiScanner.ParcelableScanData parcelableAllResults =
-                    new WifiScanner.ParcelableScanData(allResults);
             for (RequestInfo<Void> entry : mSingleScanListeners) {
                 logCallback("singleScanResults",  entry.clientInfo, entry.handlerId,
                         describeForLog(allResults));
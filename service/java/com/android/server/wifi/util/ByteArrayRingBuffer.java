@@ -16,16 +16,27 @@
 
 package com.android.server.wifi.util;
 
-import java.util.ArrayList;
-
 /**
  * A ring buffer where each element of the ring is itself a byte array.
+ *
+ * The data of all elements is kept in a single circular byte region of the maximum size, with
+ * a circular index of the offset and length of each element. Appending copies the new data
+ * into the region, and removing the oldest elements only moves the start of the region and of
+ * the index, so neither depends on the number of elements held.
  */
 public class ByteArrayRingBuffer {
-    private ArrayList<byte[]> mArrayList;
+    private static final int INITIAL_NUM_ENTRIES = 16;
+
+    private byte[] mData;
+    private int mDataStart;
     private int mMaxBytes;
     private int mBytesUsed;
 
+    private int[] mEntryOffsets = new int[INITIAL_NUM_ENTRIES];
+    private int[] mEntryLengths = new int[INITIAL_NUM_ENTRIES];
+    private int mFirstEntry;
+    private int mNumEntries;
+
     /**
      * Creates a ring buffer that holds at most |maxBytes| of data. The overhead for each element
      * is not included in this limit.
@@ -35,14 +46,14 @@ public class ByteArrayRingBuffer {
         if (maxBytes < 1) {
             throw new IllegalArgumentException();
         }
-        mArrayList = new ArrayList<byte[]>();
+        mData = new byte[maxBytes];
         mMaxBytes = maxBytes;
         mBytesUsed = 0;
     }
 
     /**
-     * Adds |newData| to the ring buffer. Removes existing entries to make room, if necessary.
-     * Existing entries are removed in FIFO order.
+     * Adds a copy of |newData| to the ring buffer. Removes existing entries to make room, if
+     * necessary. Existing entries are removed in FIFO order.
      * <p><b>Note:</b> will fail if |newData| itself exceeds the size limit for this buffer.
      * Will first remove all existing entries in this case. (This guarantees that the ring buffer
      * always represents a contiguous sequence of data.)
@@ -55,18 +66,39 @@ public class ByteArrayRingBuffer {
             return false;
         }
 
-        mArrayList.add(newData);
+        if (mNumEntries == mEntryOffsets.length) {
+            growEntries();
+        }
+        int offset = wrap(mDataStart + mBytesUsed);
+        copyIn(newData, offset);
+        int entry = mFirstEntry + mNumEntries;
+        if (entry >= mEntryOffsets.length) {
+            entry -= mEntryOffsets.length;
+        }
+        mEntryOffsets[entry] = offset;
+        mEntryLengths[entry] = newData.length;
+        mNumEntries++;
         mBytesUsed += newData.length;
         return true;
     }
 
     /**
-     * Returns the |i|-th element of the ring. The element retains its position in the ring.
+     * Returns a copy of the |i|-th element of the ring. The element retains its position in the
+     * ring.
      * @param i
      * @return the requested element
      */
     public byte[] getBuffer(int i) {
-        return mArrayList.get(i);
+        if (i < 0 || i >= mNumEntries) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + mNumEntries);
+        }
+        int entry = mFirstEntry + i;
+        if (entry >= mEntryOffsets.length) {
+            entry -= mEntryOffsets.length;
+        }
+        byte[] buffer = new byte[mEntryLengths[entry]];
+        copyOut(mEntryOffsets[entry], buffer);
+        return buffer;
     }
 
     /**
@@ -74,7 +106,17 @@ public class ByteArrayRingBuffer {
      * @return the number of elements present
      */
     public int getNumBuffers() {
-        return mArrayList.size();
+        return mNumEntries;
+    }
+
+    /**
+     * Returns a copy of the data of all elements present in the ring, oldest first, as a single
+     * array.
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[mBytesUsed];
+        copyOut(mDataStart, data);
+        return data;
     }
 
     /**
@@ -83,17 +125,65 @@ public class ByteArrayRingBuffer {
      */
     public void resize(int maxBytes) {
         pruneToSize(maxBytes);
+        if (maxBytes != mData.length) {
+            byte[] data = new byte[maxBytes];
+            copyOut(mDataStart, data, mBytesUsed);
+            int offset = 0;
+            for (int i = 0, entry = mFirstEntry; i < mNumEntries; i++) {
+                mEntryOffsets[entry] = offset;
+                offset += mEntryLengths[entry];
+                if (++entry == mEntryOffsets.length) entry = 0;
+            }
+            mData = data;
+            mDataStart = 0;
+        }
         mMaxBytes = maxBytes;
     }
 
     private void pruneToSize(int sizeBytes) {
-        int newBytesUsed = mBytesUsed;
-        int i = 0;
-        while (i < mArrayList.size() && newBytesUsed > sizeBytes) {
-            newBytesUsed -= mArrayList.get(i).length;
-            i++;
+        while (mNumEntries > 0 && mBytesUsed > sizeBytes) {
+            int length = mEntryLengths[mFirstEntry];
+            mBytesUsed -= length;
+            mDataStart = wrap(mDataStart + length);
+            if (++mFirstEntry == mEntryOffsets.length) mFirstEntry = 0;
+            mNumEntries--;
+        }
+        if (mNumEntries == 0) {
+            mFirstEntry = 0;
+            mDataStart = 0;
         }
-        mArrayList.subList(0, i).clear();
-        mBytesUsed = newBytesUsed;
+    }
+
+    private void growEntries() {
+        int[] offsets = new int[mEntryOffsets.length * 2];
+        int[] lengths = new int[mEntryLengths.length * 2];
+        int firstPart = Math.min(mNumEntries, mEntryOffsets.length - mFirstEntry);
+        System.arraycopy(mEntryOffsets, mFirstEntry, offsets, 0, firstPart);
+        System.arraycopy(mEntryOffsets, 0, offsets, firstPart, mNumEntries - firstPart);
+        System.arraycopy(mEntryLengths, mFirstEntry, lengths, 0, firstPart);
+        System.arraycopy(mEntryLengths, 0, lengths, firstPart, mNumEntries - firstPart);
+        mEntryOffsets = offsets;
+        mEntryLengths = lengths;
+        mFirstEntry = 0;
+    }
+
+    private int wrap(int offset) {
+        return offset >= mData.length ? offset - mData.length : offset;
+    }
+
+    private void copyIn(byte[] src, int offset) {
+        int firstPart = Math.min(src.length, mData.length - offset);
+        System.arraycopy(src, 0, mData, offset, firstPart);
+        System.arraycopy(src, firstPart, mData, 0, src.length - firstPart);
+    }
+
+    private void copyOut(int offset, byte[] dest) {
+        copyOut(offset, dest, dest.length);
+    }
+
+    private void copyOut(int offset, byte[] dest, int length) {
+        int firstPart = Math.min(length, mData.length - offset);
+        System.arraycopy(mData, offset, dest, 0, firstPart);
+        System.arraycopy(mData, 0, dest, firstPart, length - firstPart);
     }
 }
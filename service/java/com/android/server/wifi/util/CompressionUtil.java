@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import android.annotation.NonNull;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.zip.Deflater;
+
+/**
+ * Compression and encoding of binary diagnostics data, using buffers of a fixed size.
+ */
+public class CompressionUtil {
+    /** Number of input bytes encoded on each line of {@link Base64#DEFAULT} output */
+    private static final int BASE64_LINE_BYTES = 57;
+    /** Number of lines encoded at a time */
+    private static final int BASE64_CHUNK_LINES = 64;
+    private static final int BASE64_CHUNK_BYTES = BASE64_LINE_BYTES * BASE64_CHUNK_LINES;
+    /** Each line is 76 characters followed by a newline */
+    private static final int BASE64_CHUNK_CHARS = (76 + 1) * BASE64_CHUNK_LINES;
+    private static final int DEFLATE_BUFFER_BYTES = 1024;
+
+    private CompressionUtil() {}
+
+    /**
+     * Deflates |data| at {@link Deflater#BEST_SPEED}.
+     *
+     * @return the deflated data, or |data| itself if deflating does not make it smaller
+     */
+    public static @NonNull byte[] deflate(@NonNull byte[] data) {
+        Deflater compressor = new Deflater();
+        compressor.setLevel(Deflater.BEST_SPEED);
+        compressor.setInput(data);
+        compressor.finish();
+        // Unlike sizing the output to the input, this only grows as large as the output.
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(DEFLATE_BUFFER_BYTES);
+        final byte[] buf = new byte[DEFLATE_BUFFER_BYTES];
+        while (!compressor.finished() && bos.size() < data.length) {
+            int count = compressor.deflate(buf);
+            bos.write(buf, 0, count);
+        }
+        boolean smaller = compressor.finished() && bos.size() < data.length;
+        compressor.end();
+        return smaller ? bos.toByteArray() : data;
+    }
+
+    /**
+     * Writes |data| to |out| encoded with {@link Base64#DEFAULT}, the same text as
+     * {@link Base64#encodeToString(byte[], int)} returns, without encoding all of it at once.
+     */
+    public static void writeBase64(@NonNull byte[] data, @NonNull Writer out)
+            throws IOException {
+        final char[] chars = new char[BASE64_CHUNK_CHARS];
+        for (int offset = 0; offset < data.length; offset += BASE64_CHUNK_BYTES) {
+            byte[] encoded = Base64.encode(data, offset,
+                    Math.min(BASE64_CHUNK_BYTES, data.length - offset), Base64.DEFAULT);
+            for (int i = 0; i < encoded.length; i++) {
+                chars[i] = (char) encoded[i];
+            }
+            out.write(chars, 0, encoded.length);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A directory of text files whose total size is capped. Writing a file that takes the spool
+ * over its size limit deletes the oldest files.
+ *
+ * The spool owns its directory: files left there by a previous instance are deleted on first
+ * use. Files are written and read without holding the lock of the spool.
+ */
+public class FileSpool {
+    private static final String TAG = "WifiFileSpool";
+    private static final int COPY_BUFFER_CHARS = 4096;
+
+    /** Writes the content of a spool file. */
+    public interface ContentWriter {
+        /**
+         * Writes the content to |out|.
+         */
+        void writeTo(@NonNull Writer out) throws IOException;
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    // Spool files, oldest first, with their sizes.
+    private final Map<File, Long> mFiles = new LinkedHashMap<>();
+    private long mBytesUsed;
+    private int mNextFileId;
+    private boolean mInitialized;
+
+    /**
+     * @param directory directory of the spool files
+     * @param maxBytes upper bound on the total size of the spool files
+     */
+    public FileSpool(@NonNull File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Writes a new file to the spool.
+     *
+     * @param name name of the file, made unique by the spool
+     * @param content writes the content of the file
+     * @return the file, or null if it could not be written or alone exceeds the size limit
+     */
+    public @Nullable File write(@NonNull String name, @NonNull ContentWriter content) {
+        File file;
+        synchronized (this) {
+            if (!mInitialized) {
+                mInitialized = true;
+                deleteLeftoverFiles();
+            }
+            file = new File(mDirectory, name + "-" + mNextFileId++);
+        }
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.US_ASCII))) {
+            content.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write spool file " + file, e);
+            file.delete();
+            return null;
+        }
+
+        long length = file.length();
+        if (length > mMaxBytes) {
+            Log.w(TAG, "Spool file " + file + " exceeds the spool size limit");
+            file.delete();
+            return null;
+        }
+        synchronized (this) {
+            mFiles.put(file, length);
+            mBytesUsed += length;
+            Iterator<Map.Entry<File, Long>> it = mFiles.entrySet().iterator();
+            while (mBytesUsed > mMaxBytes) {
+                Map.Entry<File, Long> oldest = it.next();
+                it.remove();
+                mBytesUsed -= oldest.getValue();
+                oldest.getKey().delete();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Copies the content of a spool file to |out|.
+     *
+     * @return false if the file was deleted, because of the size limit or by {@link #delete}
+     */
+    public boolean copyTo(@NonNull File file, @NonNull Writer out) throws IOException {
+        try (Reader in = new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.US_ASCII)) {
+            final char[] buf = new char[COPY_BUFFER_CHARS];
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                out.write(buf, 0, count);
+            }
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes a spool file.
+     */
+    public synchronized void delete(@NonNull File file) {
+        Long length = mFiles.remove(file);
+        if (length != null) {
+            mBytesUsed -= length;
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the total size of the spool files.
+     */
+    public synchronized long getBytesUsed() {
+        return mBytesUsed;
+    }
+
+    private void deleteLeftoverFiles() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(TAG, "Failed to create spool directory " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+    }
+}
@@ -33,8 +33,86 @@ import java.util.List;
  *   > Helper methods to identify the encryption of a ScanResult.
  */
 public class ScanResultUtil {
+    /**
+     * Bits returned by {@link #getSecurityFlags(ScanResult)}. Each bit is set if and only if the
+     * corresponding isScanResultFor*Network() helper would return true for the scan result.
+     */
+    public static final int SECURITY_FLAG_PSK = 1 << 0;
+    public static final int SECURITY_FLAG_SAE = 1 << 1;
+    public static final int SECURITY_FLAG_EAP = 1 << 2;
+    public static final int SECURITY_FLAG_EAP_SUITE_B = 1 << 3;
+    public static final int SECURITY_FLAG_WEP = 1 << 4;
+    public static final int SECURITY_FLAG_OWE = 1 << 5;
+    public static final int SECURITY_FLAG_OWE_TRANSITION = 1 << 6;
+    public static final int SECURITY_FLAG_WAPI_PSK = 1 << 7;
+    public static final int SECURITY_FLAG_WAPI_CERT = 1 << 8;
+    public static final int SECURITY_FLAG_FILS_SHA256 = 1 << 9;
+    public static final int SECURITY_FLAG_FILS_SHA384 = 1 << 10;
+
+    /** Flags for which {@link #isScanResultForOpenNetwork(ScanResult)} returns false. */
+    public static final int SECURITY_FLAGS_NOT_OPEN = SECURITY_FLAG_PSK | SECURITY_FLAG_SAE
+            | SECURITY_FLAG_EAP | SECURITY_FLAG_EAP_SUITE_B | SECURITY_FLAG_WEP
+            | SECURITY_FLAG_WAPI_PSK | SECURITY_FLAG_WAPI_CERT;
+
     private ScanResultUtil() { /* not constructable */ }
 
+    /**
+     * Computes all the security flags of the provided |scanResult| in a single pass over its
+     * capabilities string.
+     *
+     * This is equivalent to calling each of the isScanResultFor*Network() helpers, each of which
+     * does a separate substring search, and is meant for callers classifying many scan results.
+     */
+    public static int getSecurityFlags(ScanResult scanResult) {
+        String caps = scanResult.capabilities;
+        int flags = 0;
+        int length = caps.length();
+        for (int i = 0; i < length; i++) {
+            switch (caps.charAt(i)) {
+                case 'P':
+                    if (caps.startsWith("PSK", i)) flags |= SECURITY_FLAG_PSK;
+                    break;
+                case 'S':
+                    if (caps.startsWith("SAE", i)) {
+                        flags |= SECURITY_FLAG_SAE;
+                    } else if (caps.startsWith("SUITE-B-192", i)) {
+                        flags |= SECURITY_FLAG_EAP_SUITE_B;
+                    }
+                    break;
+                case 'E':
+                    if (caps.startsWith("EAP", i)) flags |= SECURITY_FLAG_EAP;
+                    break;
+                case 'W':
+                    if (caps.startsWith("WEP", i)) {
+                        flags |= SECURITY_FLAG_WEP;
+                    } else if (caps.startsWith("WAPI-PSK", i)) {
+                        flags |= SECURITY_FLAG_WAPI_PSK;
+                    } else if (caps.startsWith("WAPI-CERT", i)) {
+                        flags |= SECURITY_FLAG_WAPI_CERT;
+                    }
+                    break;
+                case 'O':
+                    if (caps.startsWith("OWE", i)) {
+                        flags |= SECURITY_FLAG_OWE;
+                        if (caps.startsWith("OWE_TRANSITION", i)) {
+                            flags |= SECURITY_FLAG_OWE_TRANSITION;
+                        }
+                    }
+                    break;
+                case 'F':
+                    if (caps.startsWith("FILS-SHA256", i)) {
+                        flags |= SECURITY_FLAG_FILS_SHA256;
+                    } else if (caps.startsWith("FILS-SHA384", i)) {
+                        flags |= SECURITY_FLAG_FILS_SHA384;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return flags;
+    }
+
     /**
      * This method should only be used when the informationElements field in the provided scan
      * result is filled in with the IEs from the beacon.
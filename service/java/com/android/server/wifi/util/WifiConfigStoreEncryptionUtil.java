@@ -25,6 +25,7 @@ import android.security.keystore.KeyProperties;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
@@ -55,6 +56,9 @@ public class WifiConfigStoreEncryptionUtil {
     private static final String KEY_STORE = "AndroidKeyStore";
 
     private final String mDataFileName;
+    // Cached handles of the cipher and of the secret key of the store file.
+    private Cipher mCipher;
+    private SecretKey mSecretKey;
 
     /**
      * Construct a new util to help {@link com.android.server.wifi.WifiConfigStore.StoreData}
@@ -81,18 +85,13 @@ public class WifiConfigStoreEncryptionUtil {
      * @param data Data blob to be encrypted.
      * @return Instance of {@link EncryptedData} containing the encrypted info.
      */
-    public @Nullable EncryptedData encrypt(byte[] data) {
+    public synchronized @Nullable EncryptedData encrypt(byte[] data) {
         EncryptedData encryptedData = null;
         try {
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            SecretKey secretKeyReference = getOrCreateSecretKey(getKeyAlias());
-            if (secretKeyReference != null) {
-                cipher.init(Cipher.ENCRYPT_MODE, secretKeyReference);
-                encryptedData = new EncryptedData(cipher.doFinal(data), cipher.getIV());
-            } else {
-                reportException(new Exception("secretKeyReference is null."),
-                        "secretKeyReference is null.");
-            }
+            encryptedData = runWithSecretKey((cipher, secretKey) -> {
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+                return new EncryptedData(cipher.doFinal(data), cipher.getIV());
+            });
         } catch (NoSuchAlgorithmException e) {
             reportException(e, "encrypt could not find the algorithm: " + CIPHER_ALGORITHM);
         } catch (NoSuchPaddingException e) {
@@ -103,6 +102,8 @@ public class WifiConfigStoreEncryptionUtil {
             reportException(e, "encrypt had a padding problem");
         } catch (IllegalBlockSizeException e) {
             reportException(e, "encrypt had an illegal block size");
+        } catch (GeneralSecurityException e) {
+            reportException(e, "encrypt had a security exception");
         }
         return encryptedData;
     }
@@ -113,16 +114,14 @@ public class WifiConfigStoreEncryptionUtil {
      * @param encryptedData Instance of {@link EncryptedData} containing the encrypted info.
      * @return Original data blob that was encrypted.
      */
-    public @Nullable byte[] decrypt(@NonNull EncryptedData encryptedData) {
+    public synchronized @Nullable byte[] decrypt(@NonNull EncryptedData encryptedData) {
         byte[] decryptedData = null;
         try {
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
             GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, encryptedData.getIv());
-            SecretKey secretKeyReference = getOrCreateSecretKey(getKeyAlias());
-            if (secretKeyReference != null) {
-                cipher.init(Cipher.DECRYPT_MODE, secretKeyReference, spec);
-                decryptedData = cipher.doFinal(encryptedData.getEncryptedData());
-            }
+            decryptedData = runWithSecretKey((cipher, secretKey) -> {
+                cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
+                return cipher.doFinal(encryptedData.getEncryptedData());
+            });
         } catch (NoSuchAlgorithmException e) {
             reportException(e, "decrypt could not find cipher algorithm " + CIPHER_ALGORITHM);
         } catch (NoSuchPaddingException e) {
@@ -135,10 +134,85 @@ public class WifiConfigStoreEncryptionUtil {
             reportException(e, "decrypt had an invalid key");
         } catch (InvalidAlgorithmParameterException e) {
             reportException(e, "decrypt had an invalid algorithm parameter");
+        } catch (GeneralSecurityException e) {
+            reportException(e, "decrypt had a security exception");
         }
         return decryptedData;
     }
 
+    /**
+     * An operation using the cipher initialized by the caller with the secret key of the store
+     * file.
+     */
+    private interface CipherOperation<T> {
+        T run(Cipher cipher, SecretKey secretKey) throws GeneralSecurityException;
+    }
+
+    /**
+     * Run the operation with the cached cipher and secret key, looking them up first if needed.
+     *
+     * Looking up the key goes through the key store, while serializing a store file encrypts
+     * every credential in it. The key handle is therefore only looked up once, and dropped as
+     * soon as an operation fails with it: the key may have been invalidated or deleted from the
+     * key store since, so the operation is retried once with a fresh lookup before giving up.
+     *
+     * @return the result of the operation, or null if the secret key could not be retrieved.
+     */
+    private @Nullable <T> T runWithSecretKey(CipherOperation<T> operation)
+            throws GeneralSecurityException {
+        boolean wasCached = mSecretKey != null;
+        if (!loadSecretKey()) {
+            return null;
+        }
+        try {
+            return operation.run(mCipher, mSecretKey);
+        } catch (GeneralSecurityException e) {
+            invalidateSecretKey();
+            if (!wasCached) {
+                throw e;
+            }
+            Log.w(TAG, "Operation failed with the cached secret key, looking it up again", e);
+            if (!loadSecretKey()) {
+                return null;
+            }
+            try {
+                return operation.run(mCipher, mSecretKey);
+            } catch (GeneralSecurityException e2) {
+                invalidateSecretKey();
+                throw e2;
+            }
+        }
+    }
+
+    /**
+     * Look up the cipher and the secret key, unless they are already cached.
+     *
+     * @return true if both are available.
+     */
+    private boolean loadSecretKey() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        if (mSecretKey != null) {
+            return true;
+        }
+        if (mCipher == null) {
+            mCipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        }
+        mSecretKey = getOrCreateSecretKey(getKeyAlias());
+        if (mSecretKey == null) {
+            reportException(new Exception("secretKeyReference is null."),
+                    "secretKeyReference is null.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drop the cached cipher and secret key, so that they are looked up again on next use.
+     */
+    private void invalidateSecretKey() {
+        mSecretKey = null;
+        mCipher = null;
+    }
+
     private SecretKey getOrCreateSecretKey(String keyAlias) {
         SecretKey secretKey = null;
         try {
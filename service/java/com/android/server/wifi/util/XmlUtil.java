@@ -302,6 +302,55 @@ public class XmlUtil {
         XmlUtilHelper.writeValueXml(value, name, out);
     }
 
+    /**
+     * Write the int value with the provided name in the XML stream, in the same format as
+     * {@link #writeNextValue(XmlSerializer, String, Object)} without boxing the value.
+     *
+     * @param out   XmlSerializer instance pointing to the XML stream.
+     * @param name  name of the value.
+     * @param value value to be written.
+     */
+    public static void writeNextValue(XmlSerializer out, String name, int value)
+            throws IOException {
+        writeNextPrimitiveValue(out, "int", name, Integer.toString(value));
+    }
+
+    /**
+     * Write the long value with the provided name in the XML stream, in the same format as
+     * {@link #writeNextValue(XmlSerializer, String, Object)} without boxing the value.
+     *
+     * @param out   XmlSerializer instance pointing to the XML stream.
+     * @param name  name of the value.
+     * @param value value to be written.
+     */
+    public static void writeNextValue(XmlSerializer out, String name, long value)
+            throws IOException {
+        writeNextPrimitiveValue(out, "long", name, Long.toString(value));
+    }
+
+    /**
+     * Write the boolean value with the provided name in the XML stream, in the same format as
+     * {@link #writeNextValue(XmlSerializer, String, Object)} without boxing the value.
+     *
+     * @param out   XmlSerializer instance pointing to the XML stream.
+     * @param name  name of the value.
+     * @param value value to be written.
+     */
+    public static void writeNextValue(XmlSerializer out, String name, boolean value)
+            throws IOException {
+        writeNextPrimitiveValue(out, "boolean", name, value ? "true" : "false");
+    }
+
+    private static void writeNextPrimitiveValue(XmlSerializer out, String typeName, String name,
+            String value) throws IOException {
+        out.startTag(null, typeName);
+        if (name != null) {
+            out.attribute(null, "name", name);
+        }
+        out.attribute(null, "value", value);
+        out.endTag(null, typeName);
+    }
+
     /**
      * Utility class to serialize and deserialize {@link WifiConfiguration} object to XML &
      * vice versa.
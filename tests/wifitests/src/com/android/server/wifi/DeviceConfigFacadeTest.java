@@ -211,6 +211,8 @@ public class DeviceConfigFacadeTest extends WifiBaseTest {
                 mDeviceConfigFacade.getMinConfirmationDurationSendHighScoreMs());
         assertEquals(DeviceConfigFacade.DEFAULT_RSSI_THRESHOLD_NOT_SEND_LOW_SCORE_TO_CS_DBM,
                 mDeviceConfigFacade.getRssiThresholdNotSendLowScoreToCsDbm());
+        assertEquals(DeviceConfigFacade.DEFAULT_SCORE_CARD_MEMORY_BUDGET_BYTES,
+                mDeviceConfigFacade.getScoreCardMemoryBudgetBytes());
     }
 
     /**
@@ -319,6 +321,8 @@ public class DeviceConfigFacadeTest extends WifiBaseTest {
                 anyInt())).thenReturn(1000);
         when(DeviceConfig.getInt(anyString(), eq("rssi_threshold_not_send_low_score_to_cs_dbm"),
                 anyInt())).thenReturn(-70);
+        when(DeviceConfig.getInt(anyString(), eq("score_card_memory_budget_bytes"),
+                anyInt())).thenReturn(65536);
         mOnPropertiesChangedListenerCaptor.getValue().onPropertiesChanged(null);
 
         // Verifying fields are updated to the new values
@@ -378,5 +382,6 @@ public class DeviceConfigFacadeTest extends WifiBaseTest {
         assertEquals(4000, mDeviceConfigFacade.getMinConfirmationDurationSendLowScoreMs());
         assertEquals(1000, mDeviceConfigFacade.getMinConfirmationDurationSendHighScoreMs());
         assertEquals(-70, mDeviceConfigFacade.getRssiThresholdNotSendLowScoreToCsDbm());
+        assertEquals(65536, mDeviceConfigFacade.getScoreCardMemoryBudgetBytes());
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import android.os.Handler;
+import android.os.test.TestLooper;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.LocalMemoryStore}.
+ */
+@SmallTest
+public class LocalMemoryStoreTest extends WifiBaseTest {
+    private static final String DATA_NAME = "test";
+    private static final byte[] BLOB_1 = new byte[]{0x1, 0x2, 0x3};
+    private static final byte[] BLOB_2 = new byte[]{0x4, 0x5};
+
+    private static final long START_TIME_MS = 1_600_000_000_000L;
+
+    @Mock WifiScoreCard.BlobListener mBlobListener;
+    @Mock Clock mClock;
+    private TestLooper mLooper;
+    private File mStoreFile;
+    private LocalMemoryStore mLocalMemoryStore;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mLooper = new TestLooper();
+        when(mClock.getWallClockMillis()).thenReturn(START_TIME_MS);
+        mStoreFile = File.createTempFile("LocalMemoryStoreTest", null);
+        mStoreFile.delete();
+        mLocalMemoryStore = newLocalMemoryStore();
+        mLocalMemoryStore.start();
+    }
+
+    private LocalMemoryStore newLocalMemoryStore() {
+        return new LocalMemoryStore(mStoreFile, new Handler(mLooper.getLooper()), mClock);
+    }
+
+    @After
+    public void cleanup() {
+        mStoreFile.delete();
+    }
+
+    /**
+     * Reading a missing key should answer null.
+     */
+    @Test
+    public void readOfMissingKeyAnswersNull() throws Exception {
+        mLocalMemoryStore.read("L2Key", DATA_NAME, mBlobListener);
+        verify(mBlobListener).onBlobRetrieved(null);
+    }
+
+    /**
+     * A batch of writes should be persisted with a single file write, and be
+     * readable after a restart.
+     */
+    @Test
+    public void batchedWritesSurviveRestart() throws Exception {
+        mLocalMemoryStore.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, BLOB_1),
+                new WifiScoreCard.PendingWrite("L2Key2", "G2", DATA_NAME, BLOB_2)));
+        assertEquals(1, mLocalMemoryStore.getFileWriteCount());
+
+        LocalMemoryStore restarted = newLocalMemoryStore();
+        restarted.start();
+        assertArrayEquals(BLOB_1, restarted.getBlob("L2Key1", DATA_NAME));
+        assertArrayEquals(BLOB_2, restarted.getBlob("L2Key2", DATA_NAME));
+
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        restarted.read("L2Key2", DATA_NAME, mBlobListener);
+        verify(mBlobListener).onBlobRetrieved(captor.capture());
+        assertArrayEquals(BLOB_2, captor.getValue());
+    }
+
+    /**
+     * Removing a cluster should drop only the entries in that cluster.
+     */
+    @Test
+    public void removeClusterDropsMatchingEntries() throws Exception {
+        mLocalMemoryStore.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, BLOB_1),
+                new WifiScoreCard.PendingWrite("L2Key2", "G2", DATA_NAME, BLOB_2)));
+        mLocalMemoryStore.removeCluster("G1");
+        mLooper.dispatchAll();
+        assertNull(mLocalMemoryStore.getBlob("L2Key1", DATA_NAME));
+        assertArrayEquals(BLOB_2, mLocalMemoryStore.getBlob("L2Key2", DATA_NAME));
+
+        LocalMemoryStore restarted = newLocalMemoryStore();
+        restarted.start();
+        assertNull(restarted.getBlob("L2Key1", DATA_NAME));
+    }
+
+    /**
+     * Setting an unchanged cluster should not rewrite the file.
+     */
+    @Test
+    public void unchangedClusterDoesNotWrite() throws Exception {
+        mLocalMemoryStore.setCluster("L2Key1", "G1");
+        mLooper.dispatchAll();
+        mLocalMemoryStore.setCluster("L2Key1", "G1");
+        mLooper.dispatchAll();
+        assertEquals(1, mLocalMemoryStore.getFileWriteCount());
+    }
+
+    /**
+     * Single writes made during one wifi thread task should be persisted with
+     * a single file write once the task is done.
+     */
+    @Test
+    public void singleWritesAreCoalesced() throws Exception {
+        mLocalMemoryStore.setCluster("L2Key1", "G1");
+        mLocalMemoryStore.write("L2Key1", DATA_NAME, BLOB_1);
+        mLocalMemoryStore.write("L2Key2", DATA_NAME, BLOB_2);
+        assertEquals(0, mLocalMemoryStore.getFileWriteCount());
+
+        mLooper.dispatchAll();
+        assertEquals(1, mLocalMemoryStore.getFileWriteCount());
+
+        LocalMemoryStore restarted = newLocalMemoryStore();
+        restarted.start();
+        assertArrayEquals(BLOB_1, restarted.getBlob("L2Key1", DATA_NAME));
+        assertArrayEquals(BLOB_2, restarted.getBlob("L2Key2", DATA_NAME));
+    }
+
+    /**
+     * Flush should persist pending single writes right away, and leave
+     * nothing for the posted flush to do.
+     */
+    @Test
+    public void flushPersistsPendingWrites() throws Exception {
+        mLocalMemoryStore.write("L2Key1", DATA_NAME, BLOB_1);
+        mLocalMemoryStore.flush();
+        assertEquals(1, mLocalMemoryStore.getFileWriteCount());
+
+        mLooper.dispatchAll();
+        mLocalMemoryStore.flush();
+        assertEquals(1, mLocalMemoryStore.getFileWriteCount());
+    }
+
+    /**
+     * Records not updated for too long should be dropped, including after a
+     * restart.
+     */
+    @Test
+    public void oldRecordsAreDropped() throws Exception {
+        mLocalMemoryStore.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, BLOB_1)));
+        when(mClock.getWallClockMillis()).thenReturn(START_TIME_MS + 1000);
+        mLocalMemoryStore.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key2", "G2", DATA_NAME, BLOB_2)));
+
+        when(mClock.getWallClockMillis())
+                .thenReturn(START_TIME_MS + LocalMemoryStore.MAX_RECORD_AGE_MS + 1);
+        LocalMemoryStore restarted = newLocalMemoryStore();
+        restarted.start();
+        assertNull(restarted.getBlob("L2Key1", DATA_NAME));
+        assertArrayEquals(BLOB_2, restarted.getBlob("L2Key2", DATA_NAME));
+        assertEquals(1, restarted.getRecordCount());
+    }
+
+    /**
+     * Beyond the record limit, the least recently updated records should be
+     * evicted.
+     */
+    @Test
+    public void leastRecentlyUpdatedRecordsAreEvicted() throws Exception {
+        for (int i = 0; i <= LocalMemoryStore.MAX_RECORDS; i++) {
+            when(mClock.getWallClockMillis()).thenReturn(START_TIME_MS + i);
+            mLocalMemoryStore.write("L2Key" + i, DATA_NAME, BLOB_1);
+        }
+        // Refresh the oldest record so that the second oldest is evicted instead.
+        mLocalMemoryStore.write("L2Key0", DATA_NAME, BLOB_2);
+        mLooper.dispatchAll();
+
+        assertEquals(LocalMemoryStore.MAX_RECORDS, mLocalMemoryStore.getRecordCount());
+        assertArrayEquals(BLOB_2, mLocalMemoryStore.getBlob("L2Key0", DATA_NAME));
+        assertNull(mLocalMemoryStore.getBlob("L2Key1", DATA_NAME));
+        assertEquals(1, mLocalMemoryStore.getFileWriteCount());
+    }
+
+    /**
+     * Clear should wipe both memory and disk.
+     */
+    @Test
+    public void clearWipesEverything() throws Exception {
+        mLocalMemoryStore.write("L2Key1", DATA_NAME, BLOB_1);
+        mLocalMemoryStore.clear();
+        mLooper.dispatchAll();
+        assertNull(mLocalMemoryStore.getBlob("L2Key1", DATA_NAME));
+        assertFalse(mStoreFile.exists());
+    }
+}
@@ -21,6 +21,8 @@ import static org.mockito.Mockito.*;
 
 import android.content.Context;
 import android.net.IpMemoryStore;
+import android.net.ipmemorystore.OnStatusListener;
+import android.net.ipmemorystore.Status;
 
 import androidx.test.filters.SmallTest;
 
@@ -30,6 +32,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.Arrays;
+
 //import java.util.HashMap;
 //import java.util.Map;
 
@@ -44,6 +48,7 @@ public class MemoryStoreImplTest extends WifiBaseTest {
     @Mock WifiScoreCard.BlobListener mBlobListener;
     @Mock WifiInjector mWifiInjector;
     @Mock IpMemoryStore mIpMemoryStore;
+    @Mock LocalMemoryStore mLocalMemoryStore;
     private MemoryStoreImpl mMemoryStoreImpl;
     private static final String DATA_NAME = "test";
 
@@ -176,4 +181,80 @@ public class MemoryStoreImplTest extends WifiBaseTest {
         verify(mIpMemoryStore, never())
                 .retrieveBlob(any(), any(), any(), any());
     }
+
+    /**
+     * A batched write should only send the cluster for a key once.
+     */
+    @Test
+    public void batchedWriteSendsClusterOnlyWhenChanged() throws Exception {
+        final byte[] myBlob = new byte[]{0x0, 0x3, 0x1};
+        when(mWifiInjector.getIpMemoryStore()).thenReturn(mIpMemoryStore);
+        mMemoryStoreImpl.start();
+        mMemoryStoreImpl.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, myBlob),
+                new WifiScoreCard.PendingWrite("L2Key2", "G1", DATA_NAME, myBlob)));
+        mMemoryStoreImpl.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, myBlob)));
+        verify(mIpMemoryStore).storeNetworkAttributes(eq("L2Key1"), any(), any());
+        verify(mIpMemoryStore).storeNetworkAttributes(eq("L2Key2"), any(), any());
+        verify(mIpMemoryStore, times(2)).storeBlob(eq("L2Key1"), any(), any(), any(), any());
+        verify(mIpMemoryStore).storeBlob(eq("L2Key2"), any(), any(), any(), any());
+    }
+
+    /**
+     * A cluster which failed to be set should be sent again with the next batched write.
+     */
+    @Test
+    public void batchedWriteSendsClusterAgainAfterFailure() throws Exception {
+        final byte[] myBlob = new byte[]{0x0, 0x3, 0x1};
+        when(mWifiInjector.getIpMemoryStore()).thenReturn(mIpMemoryStore);
+        mMemoryStoreImpl.start();
+        mMemoryStoreImpl.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, myBlob)));
+        ArgumentCaptor<OnStatusListener> listenerCaptor =
+                ArgumentCaptor.forClass(OnStatusListener.class);
+        verify(mIpMemoryStore).storeNetworkAttributes(eq("L2Key1"), any(),
+                listenerCaptor.capture());
+        listenerCaptor.getValue().onComplete(new Status(Status.ERROR_GENERIC));
+
+        mMemoryStoreImpl.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, myBlob)));
+        verify(mIpMemoryStore, times(2)).storeNetworkAttributes(eq("L2Key1"), any(), any());
+    }
+
+    /**
+     * The clusters should be sent again after reconnecting to IpMemoryStore.
+     */
+    @Test
+    public void batchedWriteSendsClusterAgainAfterReconnect() throws Exception {
+        final byte[] myBlob = new byte[]{0x0, 0x3, 0x1};
+        when(mWifiInjector.getIpMemoryStore()).thenReturn(mIpMemoryStore);
+        mMemoryStoreImpl.start();
+        mMemoryStoreImpl.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, myBlob)));
+        mMemoryStoreImpl.stop();
+        mMemoryStoreImpl.start();
+        mMemoryStoreImpl.writeBatch(Arrays.asList(
+                new WifiScoreCard.PendingWrite("L2Key1", "G1", DATA_NAME, myBlob)));
+        verify(mIpMemoryStore, times(2)).storeNetworkAttributes(eq("L2Key1"), any(), any());
+    }
+
+    /**
+     * Without IpMemoryStore, the local memory store should be installed if available.
+     */
+    @Test
+    public void startFallsBackToLocalMemoryStore() throws Exception {
+        when(mWifiInjector.getLocalMemoryStore()).thenReturn(mLocalMemoryStore);
+        mMemoryStoreImpl.start();
+        verify(mLocalMemoryStore).start();
+        verify(mWifiScoreCard).installMemoryStore(eq(mLocalMemoryStore));
+        verify(mWifiHealthMonitor).installMemoryStoreSetUpDetectionAlarm(eq(mLocalMemoryStore));
+
+        mMemoryStoreImpl.clearLocalMemoryStore();
+        verify(mLocalMemoryStore).clear();
+
+        mMemoryStoreImpl.stop();
+        verify(mWifiScoreCard).doWrites();
+        verify(mWifiHealthMonitor).doWrites();
+    }
 }
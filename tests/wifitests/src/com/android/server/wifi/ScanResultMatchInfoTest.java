@@ -17,6 +17,8 @@ package com.android.server.wifi;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import android.net.wifi.WifiConfiguration;
@@ -328,4 +330,46 @@ public class ScanResultMatchInfoTest extends WifiBaseTest {
         assertFalse(key1.equals(key2));
         assertFalse(key2.equals(key1));
     }
+
+    /**
+     * Verify that the match info cached in a ScanDetail is reused, and recomputed when the
+     * underlying scan result is modified.
+     */
+    @Test
+    public void testScanDetailCachesMatchInfo() {
+        WifiConfiguration conf = WifiConfigurationTestUtil.createPskNetwork("\"Cached\"");
+        ScanDetail scan = createScanDetailForNetwork(conf, "AA:AA:AA:AA:AA:AA");
+        ScanResultMatchInfo matchInfo = scan.getScanResultMatchInfo();
+        assertSame(matchInfo, scan.getScanResultMatchInfo());
+        assertEquals(ScanResultMatchInfo.fromWifiConfiguration(conf), matchInfo);
+
+        scan.getScanResult().capabilities = "[ESS]";
+        assertEquals(WifiConfiguration.SECURITY_TYPE_OPEN,
+                scan.getScanResultMatchInfo().networkType);
+        scan.getScanResult().SSID = "Renamed";
+        assertEquals("\"Renamed\"", scan.getScanResultMatchInfo().networkSsid);
+        assertNotEquals(matchInfo, scan.getScanResultMatchInfo());
+    }
+
+    /**
+     * Verify that the cached match info of a large scan is the same as the one computed from
+     * the scan result on every call.
+     */
+    @Test
+    public void testScanDetailMatchInfoEquivalentForLargeScan() {
+        String[] capabilities = new String[] {"[ESS]", "[WEP]", "[WPA2-PSK-CCMP][ESS]",
+                "[RSN-PSK+SAE-CCMP][ESS]", "[RSN-SAE-CCMP][ESS]", "[RSN-EAP-CCMP][ESS]",
+                "[RSN-SUITE-B-192-GCMP-256][ESS]", "[RSN-OWE_TRANSITION-CCMP][ESS]",
+                "[RSN-OWE-CCMP][ESS]", "[WAPI-PSK-SMS4]", "[WAPI-CERT-SMS4]"};
+        for (int i = 0; i < 500; i++) {
+            ScanDetail scan = new ScanDetail(null, String.format("02:00:00:00:%02x:%02x",
+                    i / 256, i % 256), capabilities[i % capabilities.length], -60, 2412, 0, 0);
+            scan.getScanResult().SSID = "ssid" + (i % 50);
+            ScanResultMatchInfo expected = ScanResultMatchInfo.fromScanResult(
+                    scan.getScanResult());
+            ScanResultMatchInfo cached = scan.getScanResultMatchInfo();
+            assertEquals(expected.toString(), cached.toString());
+            assertSame(cached, scan.getScanResultMatchInfo());
+        }
+    }
 }
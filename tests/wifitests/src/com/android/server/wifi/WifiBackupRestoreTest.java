@@ -33,6 +33,7 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileDescriptor;
@@ -41,6 +42,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -582,6 +584,55 @@ public class WifiBackupRestoreTest extends WifiBaseTest {
                 configurations, retrievedConfigurations);
     }
 
+    /**
+     * Verify that the streaming restore hands all the networks to the listener in batches.
+     */
+    @Test
+    public void testMultipleNetworksStreamingRestoreInBatches() {
+        List<WifiConfiguration> configurations = new ArrayList<>();
+        configurations.add(WifiConfigurationTestUtil.createWepNetwork());
+        configurations.add(WifiConfigurationTestUtil.createPskNetwork());
+        configurations.add(WifiConfigurationTestUtil.createOpenNetwork());
+        configurations.add(WifiConfigurationTestUtil.createOweNetwork());
+        configurations.add(WifiConfigurationTestUtil.createSaeNetwork());
+
+        byte[] backupData = mWifiBackupRestore.retrieveBackupDataFromConfigurations(configurations);
+        List<List<WifiConfiguration>> batches = new ArrayList<>();
+        assertTrue(mWifiBackupRestore.retrieveConfigurationsFromBackupData(
+                new ByteArrayInputStream(backupData), 2, batches::add));
+        assertEquals(3, batches.size());
+        List<WifiConfiguration> retrievedConfigurations = new ArrayList<>();
+        for (List<WifiConfiguration> batch : batches) {
+            assertTrue(batch.size() <= 2);
+            retrievedConfigurations.addAll(batch);
+        }
+        WifiConfigurationTestUtil.assertConfigurationsEqualForBackup(
+                configurations, retrievedConfigurations);
+    }
+
+    /**
+     * Verify that the streaming restore of truncated backup data fails after handing the networks
+     * parsed before the truncation to the listener.
+     */
+    @Test
+    public void testStreamingRestoreOfTruncatedBackupData() {
+        List<WifiConfiguration> configurations = new ArrayList<>();
+        configurations.add(WifiConfigurationTestUtil.createPskNetwork());
+        configurations.add(WifiConfigurationTestUtil.createOpenNetwork());
+        configurations.add(WifiConfigurationTestUtil.createSaeNetwork());
+
+        byte[] backupData = mWifiBackupRestore.retrieveBackupDataFromConfigurations(configurations);
+        byte[] truncatedData = Arrays.copyOf(backupData, backupData.length / 2);
+
+        List<WifiConfiguration> retrievedConfigurations = new ArrayList<>();
+        assertFalse(mWifiBackupRestore.retrieveConfigurationsFromBackupData(
+                new ByteArrayInputStream(truncatedData), 1, retrievedConfigurations::addAll));
+        assertTrue(retrievedConfigurations.size() < configurations.size());
+        WifiConfigurationTestUtil.assertConfigurationsEqualForBackup(
+                configurations.subList(0, retrievedConfigurations.size()),
+                retrievedConfigurations);
+    }
+
     /**
      * Verify that multiple networks of different types except enterprise ones are serialized and
      * deserialized correctly
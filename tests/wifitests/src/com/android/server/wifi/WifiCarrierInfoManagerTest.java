@@ -183,7 +183,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         ArgumentCaptor<ImsiPrivacyProtectionExemptionStoreData.DataSource>
                 imsiDataSourceArgumentCaptor =
                 ArgumentCaptor.forClass(ImsiPrivacyProtectionExemptionStoreData.DataSource.class);
-        verify(mContext).registerReceiver(mBroadcastReceiverCaptor.capture(), any(), any(), any());
+        verify(mContext).registerReceiver(mBroadcastReceiverCaptor.capture(), any(), anyString(),
+                any());
         verify(mWifiInjector).makeImsiProtectionExemptionStoreData(imsiDataSourceArgumentCaptor
                 .capture());
         mImsiDataSource = imsiDataSourceArgumentCaptor.getValue();
@@ -257,6 +258,17 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         }
     }
 
+    /**
+     * Simulate telephony notifying that the active subscriptions changed.
+     */
+    private void notifySubscriptionsChanged() {
+        ArgumentCaptor<SubscriptionManager.OnSubscriptionsChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(SubscriptionManager.OnSubscriptionsChangedListener.class);
+        verify(mSubscriptionManager).addOnSubscriptionsChangedListener(any(),
+                listenerCaptor.capture());
+        listenerCaptor.getValue().onSubscriptionsChanged();
+    }
+
     /**
      * Verify that the IMSI encryption info is not updated  when non
      * {@link CarrierConfigManager#ACTION_CARRIER_CONFIG_CHANGED} intent is received.
@@ -267,7 +279,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
     public void receivedNonCarrierConfigChangedIntent() throws Exception {
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
         receiver.getValue().onReceive(mContext, new Intent("dummyIntent"));
         verify(mCarrierConfigManager, never()).getConfig();
     }
@@ -302,7 +315,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -311,6 +325,73 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         assertFalse(mWifiCarrierInfoManager.requiresImsiEncryption(NON_DATA_SUBID));
     }
 
+    /**
+     * Verify that the SIM state generation changes when the subscriptions or the carrier configs
+     * change.
+     */
+    @Test
+    public void simStateGenerationUpdatedOnSubscriptionOrCarrierConfigChange() throws Exception {
+        ArgumentCaptor<SubscriptionManager.OnSubscriptionsChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(SubscriptionManager.OnSubscriptionsChangedListener.class);
+        verify(mSubscriptionManager).addOnSubscriptionsChangedListener(any(),
+                listenerCaptor.capture());
+        ArgumentCaptor<BroadcastReceiver> receiver =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
+
+        int generation = mWifiCarrierInfoManager.getSimStateGeneration();
+        listenerCaptor.getValue().onSubscriptionsChanged();
+        assertNotEquals(generation, mWifiCarrierInfoManager.getSimStateGeneration());
+
+        generation = mWifiCarrierInfoManager.getSimStateGeneration();
+        receiver.getValue().onReceive(mContext, new Intent("dummyIntent"));
+        assertEquals(generation, mWifiCarrierInfoManager.getSimStateGeneration());
+        receiver.getValue().onReceive(mContext,
+                new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
+        assertNotEquals(generation, mWifiCarrierInfoManager.getSimStateGeneration());
+    }
+
+    /**
+     * Verify that subscription lookups are served from a snapshot which is only rebuilt from
+     * telephony when the subscriptions or the carrier configs change.
+     */
+    @Test
+    public void subscriptionLookupsUseSnapshotUntilSubscriptionsChange() throws Exception {
+        ArgumentCaptor<SubscriptionManager.OnSubscriptionsChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(SubscriptionManager.OnSubscriptionsChangedListener.class);
+        verify(mSubscriptionManager).addOnSubscriptionsChangedListener(any(),
+                listenerCaptor.capture());
+        ArgumentCaptor<BroadcastReceiver> receiver =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
+        clearInvocations(mSubscriptionManager);
+
+        assertEquals(DATA_SUBID, mWifiCarrierInfoManager.getMatchingSubId(DATA_CARRIER_ID));
+        assertEquals(NON_DATA_SUBID,
+                mWifiCarrierInfoManager.getMatchingSubId(NON_DATA_CARRIER_ID));
+        assertTrue(mWifiCarrierInfoManager.isSimPresent(NON_DATA_SUBID));
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        verify(mSubscriptionManager, times(1)).getActiveSubscriptionInfoList();
+        verify(mDataTelephonyManager, times(1)).getSubscriberId();
+
+        // The non data SIM is removed.
+        when(mSubscriptionManager.getActiveSubscriptionInfoList())
+                .thenReturn(Arrays.asList(mDataSubscriptionInfo));
+        listenerCaptor.getValue().onSubscriptionsChanged();
+        assertEquals(INVALID_SUBID,
+                mWifiCarrierInfoManager.getMatchingSubId(NON_DATA_CARRIER_ID));
+        assertFalse(mWifiCarrierInfoManager.isSimPresent(NON_DATA_SUBID));
+        verify(mSubscriptionManager, times(2)).getActiveSubscriptionInfoList();
+
+        // The carrier ID of the data SIM is updated in its carrier config.
+        when(mDataSubscriptionInfo.getCarrierId()).thenReturn(NON_DATA_CARRIER_ID);
+        receiver.getValue().onReceive(mContext,
+                new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
+        assertEquals(DATA_SUBID, mWifiCarrierInfoManager.getMatchingSubId(NON_DATA_CARRIER_ID));
+    }
+
     /**
      * Verify the IMSI encryption is cleared when the configuration in CarrierConfig is removed.
      */
@@ -322,7 +403,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(true));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -341,6 +423,62 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         assertFalse(mWifiCarrierInfoManager.requiresImsiEncryption(NON_DATA_SUBID));
     }
 
+    /**
+     * Verify that a snapshot built before the SIM records are loaded is not kept, so the IMSI is
+     * served as soon as it is loaded, and that results derived from it are invalidated.
+     */
+    @Test
+    public void subscriptionSnapshotNotKeptUntilSimRecordsLoaded() throws Exception {
+        when(mDataTelephonyManager.getSubscriberId()).thenReturn(null);
+        when(mNonDataTelephonyManager.getSimOperator()).thenReturn("");
+
+        assertNull(mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        clearInvocations(mDataTelephonyManager);
+        assertNull(mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        verify(mDataTelephonyManager, atLeastOnce()).getSubscriberId();
+        int generation = mWifiCarrierInfoManager.getSimStateGeneration();
+
+        // The SIM records are loaded, without any subscription or carrier config callback.
+        when(mDataTelephonyManager.getSubscriberId()).thenReturn(DATA_FULL_IMSI);
+        when(mNonDataTelephonyManager.getSimOperator()).thenReturn(NON_DATA_OPERATOR_NUMERIC);
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        assertNotEquals(generation, mWifiCarrierInfoManager.getSimStateGeneration());
+
+        // The complete snapshot is kept.
+        generation = mWifiCarrierInfoManager.getSimStateGeneration();
+        clearInvocations(mDataTelephonyManager);
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        verify(mDataTelephonyManager, never()).getSubscriberId();
+        assertEquals(generation, mWifiCarrierInfoManager.getSimStateGeneration());
+    }
+
+    /**
+     * Verify that a snapshot invalidated while it is built is not kept.
+     */
+    @Test
+    public void subscriptionSnapshotNotKeptWhenInvalidatedWhileBuilding() throws Exception {
+        ArgumentCaptor<SubscriptionManager.OnSubscriptionsChangedListener> listenerCaptor =
+                ArgumentCaptor.forClass(SubscriptionManager.OnSubscriptionsChangedListener.class);
+        verify(mSubscriptionManager).addOnSubscriptionsChangedListener(any(),
+                listenerCaptor.capture());
+        when(mSubscriptionManager.getActiveSubscriptionInfoList()).thenAnswer(invocation -> {
+            listenerCaptor.getValue().onSubscriptionsChanged();
+            return mSubInfoList;
+        });
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+
+        // The snapshot is built again on the next call.
+        when(mSubscriptionManager.getActiveSubscriptionInfoList()).thenReturn(mSubInfoList);
+        clearInvocations(mSubscriptionManager);
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        verify(mSubscriptionManager, atLeastOnce()).getActiveSubscriptionInfoList();
+
+        // Now it is kept.
+        clearInvocations(mSubscriptionManager);
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        verify(mSubscriptionManager, never()).getActiveSubscriptionInfoList();
+    }
+
     /**
      * Verify that if the IMSI encryption is downloaded.
      */
@@ -375,6 +513,37 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         assertTrue(mWifiCarrierInfoManager.isImsiEncryptionInfoAvailable(DATA_SUBID));
     }
 
+    /**
+     * Verify that the SIM state generation changes when an IMSI encryption key arrives, so that
+     * results cached while the IMSI was withheld are dropped, and that the IMSI is then returned.
+     */
+    @Test
+    public void simStateGenerationUpdatedWhenImsiEncryptionInfoArrives() {
+        when(mCarrierConfigManager.getConfigForSubId(DATA_SUBID))
+                .thenReturn(generateTestCarrierConfig(true));
+        when(mCarrierConfigManager.getConfigForSubId(NON_DATA_SUBID))
+                .thenReturn(generateTestCarrierConfig(false));
+        when(mDataTelephonyManager.getCarrierInfoForImsiEncryption(TelephonyManager.KEY_TYPE_WLAN))
+                .thenReturn(null);
+
+        ArgumentCaptor<ContentObserver> observerCaptor =
+                ArgumentCaptor.forClass(ContentObserver.class);
+        verify(mFrameworkFacade).registerContentObserver(eq(mContext), any(Uri.class), eq(false),
+                observerCaptor.capture());
+        ContentObserver observer = observerCaptor.getValue();
+
+        observer.onChange(false);
+        assertNull(mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+        int generation = mWifiCarrierInfoManager.getSimStateGeneration();
+
+        when(mDataTelephonyManager.getCarrierInfoForImsiEncryption(TelephonyManager.KEY_TYPE_WLAN))
+                .thenReturn(mock(ImsiEncryptionInfo.class));
+        observer.onChange(false);
+
+        assertNotEquals(generation, mWifiCarrierInfoManager.getSimStateGeneration());
+        assertEquals(DATA_FULL_IMSI, mWifiCarrierInfoManager.getMatchingImsi(DATA_CARRIER_ID));
+    }
+
     /**
      * Verify that if the IMSI encryption information is cleared
      */
@@ -966,6 +1135,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         when(subInfo.getSubscriptionId()).thenReturn(NON_DATA_SUBID);
         when(mSubscriptionManager.getActiveSubscriptionInfoList())
                 .thenReturn(Arrays.asList(subInfo));
+        notifySubscriptionsChanged();
         assertFalse(mWifiCarrierInfoManager.isSimPresent(DATA_SUBID));
     }
 
@@ -999,6 +1169,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
 
         when(mSubscriptionManager.getActiveSubscriptionInfoList())
                 .thenReturn(Collections.emptyList());
+        notifySubscriptionsChanged();
 
         assertEquals(INVALID_SUBID, mWifiCarrierInfoManager.getBestMatchSubscriptionId(config));
     }
@@ -1126,6 +1297,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
 
         when(mSubscriptionManager.getActiveSubscriptionInfoList())
                 .thenReturn(Collections.emptyList());
+        notifySubscriptionsChanged();
 
         assertNull(mWifiCarrierInfoManager.getMatchingImsiCarrierId(MATCH_PREFIX_IMSI));
     }
@@ -1177,6 +1349,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         when(mNonDataTelephonyManager.getSubscriberId()).thenReturn(NO_MATCH_FULL_IMSI);
         when(mNonDataTelephonyManager.getSimOperator())
                 .thenReturn(NO_MATCH_OPERATOR_NUMERIC);
+        notifySubscriptionsChanged();
 
         assertEquals(new Pair<>(DATA_FULL_IMSI, DATA_CARRIER_ID),
                 mWifiCarrierInfoManager.getMatchingImsiCarrierId(MATCH_PREFIX_IMSI));
@@ -1207,6 +1380,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         when(mNonDataTelephonyManager.getSubscriberId()).thenReturn(NO_MATCH_FULL_IMSI);
         when(mNonDataTelephonyManager.getSimOperator())
                 .thenReturn(NO_MATCH_OPERATOR_NUMERIC);
+        notifySubscriptionsChanged();
 
         assertEquals(new Pair<>(DATA_FULL_IMSI, DATA_CARRIER_ID),
                 mWifiCarrierInfoManager.getMatchingImsiCarrierId(MATCH_PREFIX_IMSI));
@@ -1236,6 +1410,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
         when(mDataTelephonyManager.getSimCarrierId()).thenReturn(DATA_CARRIER_ID);
         when(mDataTelephonyManager.getSubscriberId()).thenReturn(NO_MATCH_FULL_IMSI);
         when(mDataTelephonyManager.getSimOperator()).thenReturn(NO_MATCH_OPERATOR_NUMERIC);
+        notifySubscriptionsChanged();
 
         assertEquals(new Pair<>(NON_DATA_FULL_IMSI, NON_DATA_CARRIER_ID),
                 mWifiCarrierInfoManager.getMatchingImsiCarrierId(MATCH_PREFIX_IMSI));
@@ -1295,6 +1470,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
 
         when(mSubscriptionManager.getActiveSubscriptionInfoList())
                 .thenReturn(Collections.emptyList());
+        notifySubscriptionsChanged();
 
         assertFalse(mWifiCarrierInfoManager.tryUpdateCarrierIdForPasspoint(config));
     }
@@ -1379,7 +1555,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1446,6 +1623,7 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
 
         when(mSubscriptionManager.getActiveSubscriptionInfoList())
                 .thenReturn(Collections.emptyList());
+        notifySubscriptionsChanged();
         assertEquals(TelephonyManager.UNKNOWN_CARRIER_ID,
                 mWifiCarrierInfoManager.getCarrierIdForPackageWithCarrierPrivileges(TEST_PACKAGE));
     }
@@ -1526,7 +1704,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1556,7 +1735,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1586,7 +1766,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1623,7 +1804,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1664,7 +1846,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1710,7 +1893,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -1751,7 +1935,8 @@ public class WifiCarrierInfoManagerTest extends WifiBaseTest {
                 .thenReturn(generateTestCarrierConfig(false));
         ArgumentCaptor<BroadcastReceiver> receiver =
                 ArgumentCaptor.forClass(BroadcastReceiver.class);
-        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class));
+        verify(mContext).registerReceiver(receiver.capture(), any(IntentFilter.class), isNull(),
+                any(Handler.class));
 
         receiver.getValue().onReceive(mContext,
                 new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
@@ -293,6 +293,206 @@ public class WifiConfigManagerTest extends WifiBaseTest {
         mContextConfigStoreMockOrder.verify(mWifiConfigStore).write(anyBoolean());
     }
 
+    /**
+     * Verifies that the store writes requested between {@link WifiConfigManager#deferStoreWrites()}
+     * and {@link WifiConfigManager#resumeStoreWrites()} result in a single forced store write
+     * once the outermost deferral is resumed.
+     */
+    @Test
+    public void testDeferredStoreWritesResultInSingleWrite() throws Exception {
+        assertTrue(mWifiConfigManager.loadFromStore());
+
+        mWifiConfigManager.deferStoreWrites();
+        mWifiConfigManager.deferStoreWrites();
+        NetworkUpdateResult result = mWifiConfigManager.addOrUpdateNetwork(
+                WifiConfigurationTestUtil.createOpenNetwork(), TEST_CREATOR_UID);
+        assertTrue(result.isSuccess());
+        assertTrue(mWifiConfigManager.enableNetwork(
+                result.getNetworkId(), false, TEST_CREATOR_UID, TEST_CREATOR_NAME));
+        assertTrue(mWifiConfigManager.addOrUpdateNetwork(
+                WifiConfigurationTestUtil.createPskNetwork(), TEST_CREATOR_UID).isSuccess());
+        assertTrue(mWifiConfigManager.saveToStore(false));
+
+        assertTrue(mWifiConfigManager.resumeStoreWrites());
+        verify(mWifiConfigStore, never()).write(anyBoolean());
+
+        assertTrue(mWifiConfigManager.resumeStoreWrites());
+        verify(mWifiConfigStore).write(true);
+        assertEquals(2, mWifiConfigManager.getConfiguredNetworks().size());
+
+        // Unbalanced resume is rejected and nothing left to write.
+        assertFalse(mWifiConfigManager.resumeStoreWrites());
+        verify(mWifiConfigStore).write(anyBoolean());
+    }
+
+    /**
+     * Verifies that the store writes left deferred by a Wifi thread task are resumed once the
+     * task is done.
+     */
+    @Test
+    public void testStoreWritesLeftDeferredAreResumedAfterTask() throws Exception {
+        assertTrue(mWifiConfigManager.loadFromStore());
+
+        mWifiConfigManager.deferStoreWrites();
+        assertTrue(mWifiConfigManager.addOrUpdateNetwork(
+                WifiConfigurationTestUtil.createOpenNetwork(), TEST_CREATOR_UID).isSuccess());
+        verify(mWifiConfigStore, never()).write(anyBoolean());
+
+        mLooper.dispatchAll();
+        verify(mWifiConfigStore).write(true);
+        assertFalse(mWifiConfigManager.resumeStoreWrites());
+
+        // The store writes are no longer deferred.
+        assertTrue(mWifiConfigManager.saveToStore(false));
+        verify(mWifiConfigStore).write(false);
+    }
+
+    /**
+     * Verifies that {@link WifiConfigManager#addOrUpdateNetworks(List, int, String)} resumes the
+     * store writes even if the update fails with an exception.
+     */
+    @Test
+    public void testAddOrUpdateNetworksResumesStoreWritesOnException() throws Exception {
+        verifyWifiConfigStoreRead();
+        doThrow(new RuntimeException()).when(mContext).sendBroadcastAsUser(
+                any(Intent.class), any(UserHandle.class), anyString());
+
+        try {
+            mWifiConfigManager.addOrUpdateNetworks(
+                    Arrays.asList(WifiConfigurationTestUtil.createOpenNetwork()),
+                    TEST_CREATOR_UID, TEST_CREATOR_NAME);
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            // Expected.
+        }
+        assertFalse(mWifiConfigManager.resumeStoreWrites());
+
+        // The store writes are no longer deferred.
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        verify(mWifiConfigStore).write(true);
+    }
+
+    /**
+     * Verifies that {@link WifiConfigManager#addOrUpdateNetworks(List, int, String)} adds and
+     * updates all the valid networks of the list with a single broadcast and a single store write,
+     * and returns a result for each of the provided networks.
+     */
+    @Test
+    public void testAddOrUpdateNetworksSendsSingleBroadcastAndStoreWrite() throws Exception {
+        verifyWifiConfigStoreRead();
+
+        WifiConfiguration openNetwork = WifiConfigurationTestUtil.createOpenNetwork();
+        WifiConfiguration pskNetwork = WifiConfigurationTestUtil.createPskNetwork();
+        WifiConfiguration wepNetwork = WifiConfigurationTestUtil.createWepNetwork();
+        List<NetworkUpdateResult> results = mWifiConfigManager.addOrUpdateNetworks(
+                Arrays.asList(openNetwork, null, pskNetwork, wepNetwork), TEST_CREATOR_UID,
+                TEST_CREATOR_NAME);
+
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).isNewNetwork());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(2).isNewNetwork());
+        assertTrue(results.get(3).isNewNetwork());
+        verifyNetworkAddBroadcast();
+        mContextConfigStoreMockOrder.verify(mWifiConfigStore).write(true);
+        verify(mContext, times(2)).sendBroadcastAsUser(any(Intent.class), any(UserHandle.class),
+                anyString());
+        verify(mWifiConfigStore).write(anyBoolean());
+        verify(mWcmListener, times(3)).onNetworkAdded(any(WifiConfiguration.class));
+        assertEquals(3, mWifiConfigManager.getConfiguredNetworks().size());
+
+        // Update one of the networks and add a new one.
+        pskNetwork.networkId = results.get(2).getNetworkId();
+        pskNetwork.preSharedKey = "\"newpassword\"";
+        results = mWifiConfigManager.addOrUpdateNetworks(
+                Arrays.asList(pskNetwork, WifiConfigurationTestUtil.createOpenHiddenNetwork()),
+                TEST_CREATOR_UID, TEST_CREATOR_NAME);
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(0).isNewNetwork());
+        assertTrue(results.get(1).isNewNetwork());
+        verifyNetworkUpdateBroadcast();
+        mContextConfigStoreMockOrder.verify(mWifiConfigStore).write(true);
+        verify(mWifiConfigStore, times(2)).write(anyBoolean());
+        verify(mWcmListener).onNetworkUpdated(
+                any(WifiConfiguration.class), any(WifiConfiguration.class));
+        assertEquals(4, mWifiConfigManager.getConfiguredNetworks().size());
+    }
+
+    /**
+     * Verifies that {@link WifiConfigManager#addOrUpdateNetworks(List, int, String)} rejects all
+     * the networks from a UID that does not belong to the current user, without a broadcast or a
+     * store write.
+     */
+    @Test
+    public void testAddOrUpdateNetworksFromOtherUserFails() throws Exception {
+        verifyWifiConfigStoreRead();
+        when(mWifiPermissionsUtil.doesUidBelongToCurrentUser(anyInt())).thenReturn(false);
+
+        List<NetworkUpdateResult> results = mWifiConfigManager.addOrUpdateNetworks(
+                Arrays.asList(WifiConfigurationTestUtil.createOpenNetwork(),
+                        WifiConfigurationTestUtil.createPskNetwork()),
+                TEST_CREATOR_UID, TEST_CREATOR_NAME);
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        mContextConfigStoreMockOrder.verify(mContext, never()).sendBroadcastAsUser(
+                any(Intent.class), any(UserHandle.class), anyString());
+        verify(mWifiConfigStore, never()).write(anyBoolean());
+        assertTrue(mWifiConfigManager.getConfiguredNetworks().isEmpty());
+    }
+
+    /**
+     * Verifies that {@link WifiConfigManager#addOrUpdateNetworks(List, int, String)} notifies the
+     * listeners with the config of each update, and skips the networks removed by a later update
+     * of the same list.
+     */
+    @Test
+    public void testAddOrUpdateNetworksNotifiesEachUpdateConfig() throws Exception {
+        verifyWifiConfigStoreRead();
+        ArgumentCaptor<WifiConfiguration> wifiConfigCaptor =
+                ArgumentCaptor.forClass(WifiConfiguration.class);
+        ArgumentCaptor<WifiConfiguration> oldWifiConfigCaptor =
+                ArgumentCaptor.forClass(WifiConfiguration.class);
+
+        // The saved network replaces the ephemeral network added earlier in the list.
+        WifiConfiguration ephemeralNetwork = WifiConfigurationTestUtil.createOpenNetwork();
+        ephemeralNetwork.ephemeral = true;
+        WifiConfiguration openNetwork = new WifiConfiguration(ephemeralNetwork);
+        openNetwork.ephemeral = false;
+        List<NetworkUpdateResult> results = mWifiConfigManager.addOrUpdateNetworks(
+                Arrays.asList(ephemeralNetwork, openNetwork), TEST_CREATOR_UID,
+                TEST_CREATOR_NAME);
+
+        assertTrue(results.get(0).isNewNetwork());
+        assertTrue(results.get(1).isNewNetwork());
+        assertNull(mWifiConfigManager.getConfiguredNetwork(results.get(0).getNetworkId()));
+        verify(mWcmListener).onNetworkRemoved(any(WifiConfiguration.class));
+        verify(mWcmListener).onNetworkAdded(wifiConfigCaptor.capture());
+        assertEquals(results.get(1).getNetworkId(), wifiConfigCaptor.getValue().networkId);
+        assertFalse(wifiConfigCaptor.getValue().ephemeral);
+
+        // The network added earlier in the list is updated by a later entry.
+        reset(mWcmListener);
+        WifiConfiguration pskNetwork = WifiConfigurationTestUtil.createPskNetwork();
+        WifiConfiguration updatedPskNetwork = new WifiConfiguration(pskNetwork);
+        updatedPskNetwork.hiddenSSID = true;
+        results = mWifiConfigManager.addOrUpdateNetworks(
+                Arrays.asList(pskNetwork, updatedPskNetwork), TEST_CREATOR_UID,
+                TEST_CREATOR_NAME);
+
+        assertTrue(results.get(0).isNewNetwork());
+        assertFalse(results.get(1).isNewNetwork());
+        InOrder inOrder = inOrder(mWcmListener);
+        inOrder.verify(mWcmListener).onNetworkAdded(wifiConfigCaptor.capture());
+        assertFalse(wifiConfigCaptor.getValue().hiddenSSID);
+        inOrder.verify(mWcmListener).onNetworkUpdated(
+                wifiConfigCaptor.capture(), oldWifiConfigCaptor.capture());
+        assertTrue(wifiConfigCaptor.getValue().hiddenSSID);
+        assertFalse(oldWifiConfigCaptor.getValue().hiddenSSID);
+    }
+
     /**
      * Verify that a randomized MAC address is generated even if the KeyStore operation fails.
      */
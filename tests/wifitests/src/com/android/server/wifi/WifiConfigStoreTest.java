@@ -417,6 +417,82 @@ public class WifiConfigStoreTest extends WifiBaseTest {
         verify(mWifiMetrics).noteWifiConfigStoreWriteDuration(anyInt());
     }
 
+    /**
+     * Tests that the store files serialized one after the other, with the buffer reused between
+     * them, do not share or leak each other's data.
+     * Expected behaviour: The read should return the same data that was last written.
+     */
+    @Test
+    public void testReadAfterWritesOfDifferentSizes() throws Exception {
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mWifiConfigStore.registerStoreData(mUserStoreData);
+        mWifiConfigStore.switchUserStoresAndRead(mUserStores);
+
+        // The shared store is serialized first, and is much larger than the user store.
+        char[] longData = new char[10000];
+        Arrays.fill(longData, 'a');
+        mSharedStoreData.setData(new String(longData));
+        mUserStoreData.setData(TEST_USER_DATA);
+        mWifiConfigStore.write(true);
+        byte[] sharedStoreBytes = mSharedStore.getStoreBytes().clone();
+
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+        mUserStoreData.setData(TEST_USER_DATA + TEST_USER_DATA);
+        mSharedStoreData.setHasAnyNewData(false);
+        mWifiConfigStore.write(true);
+        assertFalse(Arrays.equals(sharedStoreBytes, mSharedStore.getStoreBytes()));
+
+        mWifiConfigStore.read();
+        assertEquals(TEST_USER_DATA + TEST_USER_DATA, mUserStoreData.getData());
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+    }
+
+    /**
+     * Tests that a store data without new data to serialize is not serialized again when another
+     * store data in the same store file is written, but its previously serialized section is.
+     */
+    @Test
+    public void testWriteReusesSectionOfStoreDataWithNoNewData() throws Exception {
+        StoreData cleanStoreData = mock(StoreData.class);
+        when(cleanStoreData.getStoreFileId())
+                .thenReturn(WifiConfigStore.STORE_FILE_SHARED_GENERAL);
+        when(cleanStoreData.hasNewDataToSerialize()).thenReturn(false);
+        when(cleanStoreData.getName()).thenReturn("CleanStoreData");
+        doAnswer(invocation -> {
+            XmlUtil.writeNextValue(invocation.getArgument(0), "CleanData", "Clean");
+            return null;
+        }).when(cleanStoreData).serializeData(any(), any());
+
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mWifiConfigStore.registerStoreData(cleanStoreData);
+        mWifiConfigStore.switchUserStoresAndRead(mUserStores);
+
+        String cleanSection =
+                "<CleanStoreData>\n<string name=\"CleanData\">Clean</string>\n</CleanStoreData>\n";
+
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+        verify(cleanStoreData).serializeData(any(), any());
+        verify(mWifiMetrics).noteWifiConfigStoreWriteBytes(anyLong(), eq(0L));
+        String firstWrite = new String(mSharedStore.getStoreBytes(), StandardCharsets.UTF_8);
+
+        mSharedStoreData.setData(TEST_SHARE_DATA + TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+        verify(cleanStoreData).serializeData(any(), any());
+        verify(mWifiMetrics).noteWifiConfigStoreWriteBytes(
+                anyLong(), eq((long) cleanSection.length()));
+        String secondWrite = new String(mSharedStore.getStoreBytes(), StandardCharsets.UTF_8);
+        assertEquals(firstWrite.replace(TEST_SHARE_DATA, TEST_SHARE_DATA + TEST_SHARE_DATA),
+                secondWrite);
+        assertTrue(secondWrite.contains(cleanSection));
+
+        // Reading the store files drops the previously serialized sections.
+        mWifiConfigStore.read();
+        mWifiConfigStore.write(true);
+        verify(cleanStoreData, times(2)).serializeData(any(), any());
+    }
+
     /**
      * Tests the read API behaviour when the shared store file is empty and the user store
      * is not yet visible (user not yet unlocked).
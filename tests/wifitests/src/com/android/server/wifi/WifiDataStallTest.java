@@ -76,6 +76,7 @@ public class WifiDataStallTest extends WifiBaseTest {
 
     private final WifiLinkLayerStats mOldLlStats = new WifiLinkLayerStats();
     private final WifiLinkLayerStats mNewLlStats = new WifiLinkLayerStats();
+    private final WifiLinkLayerStatsDelta mLinkLayerStatsDelta = new WifiLinkLayerStatsDelta();
     private MockitoSession mSession;
     /**
      * Sets up for unit test
@@ -165,6 +166,16 @@ public class WifiDataStallTest extends WifiBaseTest {
         lenient().when(mFrameworkFacade.getMobileRxBytes()).thenReturn((long) 0);
     }
 
+    /**
+     * Check data stall and throughput sufficiency with the delta between the given stats and
+     * mNewLlStats, as ClientModeImpl does on each RSSI poll.
+     */
+    private int checkDataStallAndThroughputSufficiency(WifiLinkLayerStats oldStats) {
+        mLinkLayerStatsDelta.update(oldStats, mNewLlStats);
+        return mWifiDataStall.checkDataStallAndThroughputSufficiency(mLinkLayerStatsDelta,
+                mNewLlStats, mWifiInfo);
+    }
+
     /**
      * Verify that LinkLayerStats for WifiIsUnusableEvent is correctly updated
      */
@@ -217,13 +228,13 @@ public class WifiDataStallTest extends WifiBaseTest {
      */
     @Test
     public void verifyThroughputNoRxLinkSpeed() throws Exception {
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(null, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(null);
         verify(mWifiMetrics).incrementChannelUtilizationCount(10, 5850);
         verify(mWifiMetrics).incrementThroughputKbpsCount(50_000, 150_000, 5850);
         assertEquals(50_000, mWifiDataStall.getTxThroughputKbps());
         assertEquals(150_000, mWifiDataStall.getRxThroughputKbps());
         when(mWifiInfo.getRxLinkSpeedMbps()).thenReturn(-1);
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         assertEquals(960, mWifiDataStall.getTxThroughputKbps());
         assertEquals(-1, mWifiDataStall.getRxThroughputKbps());
         verify(mWifiMetrics).incrementThroughputKbpsCount(960, -1, 5850);
@@ -236,15 +247,15 @@ public class WifiDataStallTest extends WifiBaseTest {
     public void verifyDataStallTxFailure() throws Exception {
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
 
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verify(mWifiMetrics).incrementThroughputKbpsCount(960, 9609, 5850);
         verifyUpdateWifiIsUnusableLinkLayerStats();
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(false, mWifiDataStall.isThroughputSufficient());
         assertEquals(960, mWifiDataStall.getTxThroughputKbps());
         assertEquals(9609, mWifiDataStall.getRxThroughputKbps());
@@ -260,14 +271,14 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
         mNewLlStats.retries_be = mOldLlStats.retries_be;
 
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(true, mWifiDataStall.isThroughputSufficient());
         assertEquals(833132, mWifiDataStall.getTxThroughputKbps());
         assertEquals(9609, mWifiDataStall.getRxThroughputKbps());
@@ -282,8 +293,8 @@ public class WifiDataStallTest extends WifiBaseTest {
     public void verifyNoDataStallWhenTxFailureIsNotConsecutive() throws Exception {
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
 
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(true, mWifiDataStall.isThroughputSufficient());
         verifyUpdateWifiIsUnusableLinkLayerStats();
 
@@ -291,8 +302,8 @@ public class WifiDataStallTest extends WifiBaseTest {
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         mNewLlStats.retries_be = 2 * mOldLlStats.retries_be;
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(true, mWifiDataStall.isThroughputSufficient());
         verify(mWifiMetrics, never()).logWifiIsUnusableEvent(
                 WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX);
@@ -306,14 +317,14 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mWifiInfo.getRxLinkSpeedMbps()).thenReturn(1);
         mNewLlStats.retries_be = 2 * mOldLlStats.retries_be;
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_DATA_STALL_TX_WITHOUT_RX, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_DATA_STALL_TX_WITHOUT_RX,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(false, mWifiDataStall.isThroughputSufficient());
         assertEquals(4804, mWifiDataStall.getTxThroughputKbps());
         assertEquals(960, mWifiDataStall.getRxThroughputKbps());
@@ -333,14 +344,14 @@ public class WifiDataStallTest extends WifiBaseTest {
         mNewLlStats.rxmpdu_be = mOldLlStats.rxmpdu_be + 1;
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
 
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(true, mWifiDataStall.isThroughputSufficient());
         assertEquals(9128, mWifiDataStall.getTxThroughputKbps());
         assertEquals(-1, mWifiDataStall.getRxThroughputKbps());
@@ -356,8 +367,8 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mWifiInfo.getRxLinkSpeedMbps()).thenReturn(1);
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
 
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         assertEquals(960, mWifiDataStall.getTxThroughputKbps());
         assertEquals(960, mWifiDataStall.getRxThroughputKbps());
@@ -366,8 +377,8 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_DATA_STALL_BOTH, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_DATA_STALL_BOTH,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(false, mWifiDataStall.isThroughputSufficient());
         assertEquals(960, mWifiDataStall.getTxThroughputKbps());
         assertEquals(960, mWifiDataStall.getRxThroughputKbps());
@@ -384,8 +395,8 @@ public class WifiDataStallTest extends WifiBaseTest {
                 10L + 2 * DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
 
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(false, mWifiDataStall.isThroughputSufficient());
         assertEquals(960, mWifiDataStall.getTxThroughputKbps());
         assertEquals(960, mWifiDataStall.getRxThroughputKbps());
@@ -397,8 +408,8 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + 2 * DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(true, mWifiDataStall.isThroughputSufficient());
         assertEquals(8943, mWifiDataStall.getTxThroughputKbps());
         assertEquals(9414, mWifiDataStall.getRxThroughputKbps());
@@ -413,14 +424,14 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mClock.getElapsedSinceBootMillis()).thenReturn(10L);
         when(mDeviceConfigFacade.getDataStallDurationMs()).thenReturn(
                 DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS + 1);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(false, mWifiDataStall.isThroughputSufficient());
         verify(mWifiMetrics, never()).logWifiIsUnusableEvent(
                 WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX);
@@ -436,14 +447,14 @@ public class WifiDataStallTest extends WifiBaseTest {
         when(mDeviceConfigFacade.getDataStallTxPerThr()).thenReturn(
                 DeviceConfigFacade.DEFAULT_DATA_STALL_TX_PER_THR + 1);
         when(mDeviceConfigFacade.getDataStallTxTputThrKbps()).thenReturn(800);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         when(mClock.getElapsedSinceBootMillis()).thenReturn(
                 10L + DeviceConfigFacade.DEFAULT_DATA_STALL_DURATION_MS);
         setUpWifiBytes(TEST_WIFI_BYTES, TEST_WIFI_BYTES);
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         assertEquals(false, mWifiDataStall.isThroughputSufficient());
         verify(mWifiMetrics, never()).logWifiIsUnusableEvent(
                 WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX);
@@ -454,8 +465,8 @@ public class WifiDataStallTest extends WifiBaseTest {
      */
     @Test
     public void verifyNoDataStallWhenNoFail() throws Exception {
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verify(mWifiMetrics, never()).resetWifiIsUnusableLinkLayerStats();
         verifyUpdateWifiIsUnusableLinkLayerStats();
         verify(mWifiMetrics, never()).logWifiIsUnusableEvent(anyInt());
@@ -470,8 +481,8 @@ public class WifiDataStallTest extends WifiBaseTest {
         mNewLlStats.lostmpdu_be = mOldLlStats.lostmpdu_be + TEST_MIN_TX_BAD;
         mNewLlStats.timeStampInMs = mOldLlStats.timeStampInMs
                 + WifiDataStall.MAX_MS_DELTA_FOR_DATA_STALL + 1;
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verifyUpdateWifiIsUnusableLinkLayerStats();
         verify(mWifiMetrics, never()).logWifiIsUnusableEvent(anyInt());
     }
@@ -482,8 +493,8 @@ public class WifiDataStallTest extends WifiBaseTest {
     @Test
     public void verifyReset() throws Exception {
         mNewLlStats.lostmpdu_be = mOldLlStats.lostmpdu_be - 1;
-        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN, mWifiDataStall
-                .checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo));
+        assertEquals(WifiIsUnusableEvent.TYPE_UNKNOWN,
+                checkDataStallAndThroughputSufficiency(mOldLlStats));
         verify(mWifiMetrics).resetWifiIsUnusableLinkLayerStats();
         verify(mWifiMetrics, never()).updateWifiIsUnusableLinkLayerStats(
                 anyLong(), anyLong(), anyLong(), anyLong(), anyLong());
@@ -503,14 +514,12 @@ public class WifiDataStallTest extends WifiBaseTest {
         mNewLlStats.timeStampInMs = mOldLlStats.timeStampInMs + 1000;
         // Expect 1st throughput sufficiency check to return true
         // because it hits mLastTxBytes == 0 || mLastRxBytes == 0
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(
-                mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         verify(mWifiMetrics, times(1)).incrementConnectionDuration(
                 1000, true, true);
 
         // Expect 2nd throughput sufficiency check to return false
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(
-                mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         verify(mWifiMetrics, times(1)).incrementConnectionDuration(
                 1000, false, true);
 
@@ -519,16 +528,14 @@ public class WifiDataStallTest extends WifiBaseTest {
         phoneStateListener.onDataConnectionStateChanged(
                 TelephonyManager.DATA_DISCONNECTED, TelephonyManager.NETWORK_TYPE_LTE);
         assertEquals(false, mWifiDataStall.isCellularDataAvailable());
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(
-                mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         verify(mWifiMetrics, times(1)).incrementConnectionDuration(
                 2000, false, false);
 
         // Expect this update to be ignored by connection duration counters due to its
         // too large poll interval
         mNewLlStats.timeStampInMs = mOldLlStats.timeStampInMs + 10000;
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(
-                mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         verify(mWifiMetrics, never()).incrementConnectionDuration(
                 10000, false, false);
         mWifiDataStall.disablePhoneStateListener();
@@ -551,21 +558,21 @@ public class WifiDataStallTest extends WifiBaseTest {
                 .startMocking();
         mNewLlStats.timeStampInMs = mOldLlStats.timeStampInMs + 3000;
         when(mWifiInfo.getFrequency()).thenReturn(5850);
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         ExtendedMockito.verify(() -> WifiStatsLog.write(
                 WifiStatsLog.WIFI_HEALTH_STAT_REPORTED, 3000, true, true,
                 WifiStatsLog.WIFI_HEALTH_STAT_REPORTED__BAND__BAND_5G_HIGH));
 
         mNewLlStats.timeStampInMs = mOldLlStats.timeStampInMs + 2000;
         when(mWifiInfo.getFrequency()).thenReturn(6850);
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         ExtendedMockito.verify(() -> WifiStatsLog.write(
                 WifiStatsLog.WIFI_HEALTH_STAT_REPORTED, 2000, true, true,
                 WifiStatsLog.WIFI_HEALTH_STAT_REPORTED__BAND__BAND_6G_MIDDLE));
 
         mNewLlStats.timeStampInMs = mOldLlStats.timeStampInMs + 1000;
         when(mWifiInfo.getFrequency()).thenReturn(1850);
-        mWifiDataStall.checkDataStallAndThroughputSufficiency(mOldLlStats, mNewLlStats, mWifiInfo);
+        checkDataStallAndThroughputSufficiency(mOldLlStats);
         ExtendedMockito.verify(() -> WifiStatsLog.write(
                 WifiStatsLog.WIFI_HEALTH_STAT_REPORTED, 1000, true, true,
                 WifiStatsLog.WIFI_HEALTH_STAT_REPORTED__BAND__UNKNOWN));
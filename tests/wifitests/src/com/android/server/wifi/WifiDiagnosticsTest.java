@@ -19,6 +19,7 @@ package com.android.server.wifi;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.gt;
 import static org.mockito.ArgumentMatchers.any;
@@ -38,6 +39,7 @@ import static org.mockito.Mockito.when;
 import android.app.test.MockAnswerUtil.AnswerWithArguments;
 import android.content.Context;
 import android.os.BugreportManager;
+import android.os.test.TestLooper;
 
 import androidx.test.filters.SmallTest;
 
@@ -51,6 +53,7 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -75,6 +78,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
     @Mock BugreportManager mBugreportManager;
     @Mock WifiScoreCard mWifiScoreCard;
     private long mBootTimeMs = 0L;
+    private TestLooper mLooper;
     MockResources mResources;
     WifiDiagnostics mWifiDiagnostics;
 
@@ -95,10 +99,9 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
     private WifiNative.RingBufferStatus mFakeRbs;
     /**
      * Returns the data that we would dump in a bug report, for our ring buffer.
-     * @return a 2-D byte array, where the first dimension is the record number, and the second
-     * dimension is the byte index within that record.
+     * @return the data of all records, oldest first.
      */
-    private final byte[][] getLoggerRingBufferData() throws Exception {
+    private final byte[] getLoggerRingBufferData() throws Exception {
         return mWifiDiagnostics.getBugReports().get(0).ringBuffers.get(FAKE_RING_BUFFER_NAME);
     }
 
@@ -108,6 +111,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        mLooper = new TestLooper();
 
         mFakeRbs = new WifiNative.RingBufferStatus();
         mFakeRbs.name = FAKE_RING_BUFFER_NAME;
@@ -147,7 +151,8 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
             }
         }).when(mClock).getElapsedSinceBootMillis();
         mWifiDiagnostics = new WifiDiagnostics(
-                mContext, mWifiInjector, mWifiNative, mBuildProperties, mLastMileLogger, mClock);
+                mContext, mWifiInjector, mWifiNative, mBuildProperties, mLastMileLogger, mClock,
+                mLooper.getLooper());
         mWifiNative.enableVerboseLogging(0);
     }
 
@@ -281,10 +286,10 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         final byte[] data = new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE];
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData.length);
-        assertArrayEquals(data, ringBufferData[0]);
+        byte[] ringBufferData = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData);
     }
 
     /**
@@ -302,10 +307,10 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data1);
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data2);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData.length);
-        assertArrayEquals(data2, ringBufferData[0]);
+        byte[] ringBufferData = getLoggerRingBufferData();
+        assertArrayEquals(data2, ringBufferData);
     }
 
     // Verifies that startPktFateMonitoring(any()) reports failure to start packet fate
@@ -326,6 +331,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startPktFateMonitoring(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mWifiNative).getTxPktFates(any(), anyObject());
         verify(mWifiNative).getRxPktFates(any(), anyObject());
     }
@@ -339,6 +345,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startPktFateMonitoring(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mWifiNative).getTxPktFates(any(), anyObject());
         verify(mWifiNative).getRxPktFates(any(), anyObject());
     }
@@ -367,6 +374,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mLastMileLogger).reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
     }
 
@@ -379,6 +387,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_TIMEOUT);
+        mLooper.dispatchAll();
         verify(mLastMileLogger).reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_TIMEOUT);
     }
 
@@ -392,6 +401,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startPktFateMonitoring(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mWifiNative).getTxPktFates(any(), anyObject());
         verify(mWifiNative).getRxPktFates(any(), anyObject());
     }
@@ -406,6 +416,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startPktFateMonitoring(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mWifiNative).getTxPktFates(any(), anyObject());
         verify(mWifiNative).getRxPktFates(any(), anyObject());
     }
@@ -450,6 +461,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(verbosityToggle);
         mWifiDiagnostics.startPktFateMonitoring(STA_IF_NAME);
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mWifiNative).getTxPktFates(any(), anyObject());
         verify(mWifiNative).getRxPktFates(any(), anyObject());
 
@@ -496,6 +508,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
             }
         });
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
 
         StringWriter sw = new StringWriter();
         PrintWriter pw = new PrintWriter(sw);
@@ -622,6 +635,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
             }
         });
         mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mLooper.dispatchAll();
         verify(mWifiNative).getTxPktFates(any(), anyObject());
         verify(mWifiNative).getRxPktFates(any(), anyObject());
 
@@ -648,6 +662,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.onRingBufferData(
                 mFakeRbs, new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE + 1]);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         assertEquals(0, getLoggerRingBufferData().length);
     }
 
@@ -664,6 +679,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.onRingBufferData(
                 mFakeRbs, new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE + 1]);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         assertEquals(0, getLoggerRingBufferData().length);
     }
 
@@ -680,6 +696,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.onRingBufferData(
                 mFakeRbs, new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE + 1]);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         assertEquals(0, getLoggerRingBufferData().length);
     }
 
@@ -693,7 +710,9 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.onRingBufferData(
                 mFakeRbs, new byte[LARGE_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE]);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
-        assertEquals(1, getLoggerRingBufferData().length);
+        mLooper.dispatchAll();
+        assertEquals(LARGE_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE,
+                getLoggerRingBufferData().length);
     }
 
     /** Verifies that we use large ring buffers when switched from normal to verbose mode. */
@@ -706,7 +725,9 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.onRingBufferData(
                 mFakeRbs, new byte[LARGE_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE]);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
-        assertEquals(1, getLoggerRingBufferData().length);
+        mLooper.dispatchAll();
+        assertEquals(LARGE_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE,
+                getLoggerRingBufferData().length);
     }
 
     /** Verifies that we use small ring buffers when switched from verbose to normal mode. */
@@ -723,12 +744,14 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(false /* verbose disabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         assertEquals(0, getLoggerRingBufferData().length);
 
         // New data must obey limit as well.
         mWifiDiagnostics.onRingBufferData(
                 mFakeRbs, new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE + 1]);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         assertEquals(0, getLoggerRingBufferData().length);
     }
 
@@ -739,6 +762,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
     @Test
     public void onWifiAlertCapturesBugreportAndLogsMetrics() throws Exception {
         mWifiDiagnostics.onWifiAlert(ALERT_REASON_CODE, ALERT_DATA);
+        mLooper.dispatchAll();
 
         assertEquals(1, mWifiDiagnostics.getAlertReports().size());
         WifiDiagnostics.BugReport alertReport = mWifiDiagnostics.getAlertReports().get(0);
@@ -753,6 +777,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
     @Test
     public void captureBugReportSkipsFirmwareAndDriverDumpsByDefault() {
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative, never()).getFwMemoryDump();
         verify(mWifiNative, never()).getDriverStateDump();
     }
@@ -763,6 +788,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getFwMemoryDump();
         verify(mWifiNative).getDriverStateDump();
     }
@@ -775,6 +801,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getDriverStateDump();
 
         StringWriter sw = new StringWriter();
@@ -789,6 +816,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getDriverStateDump();
 
         StringWriter sw = new StringWriter();
@@ -805,6 +833,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getDriverStateDump();
 
         mWifiDiagnostics.enableVerboseLogging(false /* verbose disabled */);
@@ -824,6 +853,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getFwMemoryDump();
 
         StringWriter sw = new StringWriter();
@@ -838,6 +868,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getFwMemoryDump();
 
         StringWriter sw = new StringWriter();
@@ -854,6 +885,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
         mWifiDiagnostics.startLogging(STA_IF_NAME);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).getFwMemoryDump();
 
         mWifiDiagnostics.enableVerboseLogging(false /* verbose disabled */);
@@ -913,7 +945,8 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         when(mBuildProperties.isUserBuild()).thenReturn(false);
         mResources.setBoolean(R.bool.config_wifi_diagnostics_bugreport_enabled, false);
         mWifiDiagnostics = new WifiDiagnostics(
-                mContext, mWifiInjector, mWifiNative, mBuildProperties, mLastMileLogger, mClock);
+                mContext, mWifiInjector, mWifiNative, mBuildProperties, mLastMileLogger, mClock,
+                mLooper.getLooper());
 
         mWifiDiagnostics.takeBugReport("", "");
         verify(mBugreportManager, never()).requestBugreport(any(), any(), any());
@@ -925,6 +958,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         when(mBuildProperties.isUserBuild()).thenReturn(false);
         when(mWifiNative.flushRingBufferData()).thenReturn(true);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
         verify(mWifiNative).flushRingBufferData();
     }
 
@@ -935,6 +969,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         when(mWifiNative.flushRingBufferData()).thenReturn(true);
         /** captureAlertData with mock fatal firmware alert*/
         mWifiDiagnostics.captureAlertData(FATAL_FW_ALERT_LIST[0], ALERT_DATA);
+        mLooper.dispatchAll();
         verify(mWifiNative).flushRingBufferData();
     }
 
@@ -945,6 +980,7 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         when(mWifiNative.flushRingBufferData()).thenReturn(true);
         /** captureAlertData with mock non fatal firmware alert*/
         mWifiDiagnostics.captureAlertData(NON_FATAL_FW_ALERT, ALERT_DATA);
+        mLooper.dispatchAll();
         verify(mWifiNative, never()).flushRingBufferData();
     }
 
@@ -961,10 +997,10 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         final byte[] data = new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE];
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData.length);
-        assertArrayEquals(data, ringBufferData[0]);
+        byte[] ringBufferData = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData);
     }
 
     /**
@@ -982,10 +1018,10 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         final byte[] data = new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE];
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData.length);
-        assertArrayEquals(data, ringBufferData[0]);
+        byte[] ringBufferData = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData);
     }
 
     /**
@@ -1004,19 +1040,19 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
 
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData0 = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData0.length);
-        assertArrayEquals(data, ringBufferData0[0]);
+        byte[] ringBufferData0 = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData0);
 
         mWifiDiagnostics.stopLogging(STA_IF_NAME);
 
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData1 = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData1.length);
-        assertArrayEquals(data, ringBufferData1[0]);
+        byte[] ringBufferData1 = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData1);
     }
 
     /**
@@ -1035,19 +1071,171 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
 
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData0 = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData0.length);
-        assertArrayEquals(data, ringBufferData0[0]);
+        byte[] ringBufferData0 = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData0);
 
         mWifiDiagnostics.stopLogging(AP_IF_NAME);
 
         mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
         mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
 
-        byte[][] ringBufferData1 = getLoggerRingBufferData();
-        assertEquals(1, ringBufferData1.length);
-        assertArrayEquals(data, ringBufferData1[0]);
+        byte[] ringBufferData1 = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData1);
+    }
+
+    /**
+     * Verifies that a bug report only snapshots the ring buffers on the caller's thread, and
+     * collects the rest of the report on the capture thread.
+     */
+    @Test
+    public void captureBugReportCollectsOnCaptureThread() throws Exception {
+        when(mWifiNative.flushRingBufferData()).thenReturn(true);
+        mWifiDiagnostics.enableVerboseLogging(false /* verbose disabled */);
+        mWifiDiagnostics.startLogging(STA_IF_NAME);
+
+        final byte[] data = {1, 2, 3};
+        mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        assertEquals(0, mWifiDiagnostics.getBugReports().size());
+        verify(mWifiNative, never()).getRingBufferData(anyString());
+        verify(mWifiNative, never()).flushRingBufferData();
+        verify(mJavaRuntime, never()).exec(anyString());
+
+        // Data received after the trigger is not part of the report.
+        mWifiDiagnostics.onRingBufferData(mFakeRbs, new byte[] {4, 5});
+        mLooper.dispatchAll();
+
+        assertEquals(1, mWifiDiagnostics.getBugReports().size());
+        byte[] ringBufferData = getLoggerRingBufferData();
+        assertArrayEquals(data, ringBufferData);
+        verify(mWifiNative).getRingBufferData(FAKE_RING_BUFFER_NAME);
+        verify(mWifiNative).flushRingBufferData();
+        verify(mJavaRuntime, times(2)).exec(anyString());
+    }
+
+    /** Verifies that identical back-to-back triggers are only captured once. */
+    @Test
+    public void identicalBackToBackCapturesAreDeduplicated() throws Exception {
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
+        assertEquals(1, mWifiDiagnostics.getBugReports().size());
+
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_DHCP_FAILURE);
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
+        assertEquals(3, mWifiDiagnostics.getBugReports().size());
+
+        mBootTimeMs += WifiDiagnostics.CAPTURE_DEDUP_WINDOW_MILLIS;
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
+        assertEquals(4, mWifiDiagnostics.getBugReports().size());
+
+        final byte[] otherAlertData = {1, 2};
+        mWifiDiagnostics.captureAlertData(ALERT_REASON_CODE, ALERT_DATA);
+        mWifiDiagnostics.captureAlertData(ALERT_REASON_CODE, ALERT_DATA);
+        mLooper.dispatchAll();
+        verify(mJavaRuntime, times(2 * 5)).exec(anyString());
+
+        mWifiDiagnostics.captureAlertData(ALERT_REASON_CODE, otherAlertData);
+        mLooper.dispatchAll();
+        assertArrayEquals(otherAlertData, mWifiDiagnostics.getAlertReports().get(0).alertData);
+    }
+
+    /** Verifies that triggers are dropped while too many captures are pending. */
+    @Test
+    public void pendingCapturesAreBounded() throws Exception {
+        for (int i = 0; i <= WifiDiagnostics.MAX_PENDING_CAPTURES; i++) {
+            mWifiDiagnostics.captureBugReportData(i);
+        }
+        mLooper.dispatchAll();
+        verify(mJavaRuntime, times(2 * WifiDiagnostics.MAX_PENDING_CAPTURES)).exec(anyString());
+        WifiDiagnostics.LimitedCircularArray<WifiDiagnostics.BugReport> reports =
+                mWifiDiagnostics.getBugReports();
+        assertEquals(WifiDiagnostics.MAX_PENDING_CAPTURES - 1,
+                reports.get(reports.size() - 1).errorCode);
+
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_FATAL_FW_ALERT);
+        mLooper.dispatchAll();
+        assertEquals(WifiDiagnostics.REPORT_REASON_FATAL_FW_ALERT,
+                reports.get(reports.size() - 1).errorCode);
+    }
+
+    /** Verifies that the dump includes the duration of each capture phase. */
+    @Test
+    public void dumpIncludesCaptureTimings() {
+        mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+        mLooper.dispatchAll();
+
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        mWifiDiagnostics.dump(new FileDescriptor(), pw, new String[]{});
+        assertTrue(sw.toString().contains("capture timings (ms): snapshot = "));
+    }
+
+    /**
+     * Verifies that firmware and driver dumps are kept in the spool when it is enabled, and
+     * removed from it when verbose logging is disabled.
+     */
+    @Test
+    public void captureBugReportSpoolsFirmwareAndDriverDumps() throws Exception {
+        File spoolDirectory = File.createTempFile("WifiDiagnosticsTest", null);
+        spoolDirectory.delete();
+        when(mWifiInjector.getWifiDiagnosticsSpoolDirectory()).thenReturn(spoolDirectory);
+        mResources.setInteger(R.integer.config_wifi_diagnostics_spool_size_limit_kb, 1024);
+        mWifiDiagnostics = new WifiDiagnostics(
+                mContext, mWifiInjector, mWifiNative, mBuildProperties, mLastMileLogger, mClock,
+                mLooper.getLooper());
+        when(mWifiNative.getFwMemoryDump()).thenReturn(new byte[] {0, 1, 2});
+        when(mWifiNative.getDriverStateDump()).thenReturn(new byte[] {3, 4, 5});
+
+        try {
+            mWifiDiagnostics.enableVerboseLogging(true /* verbose enabled */);
+            mWifiDiagnostics.startLogging(STA_IF_NAME);
+            mWifiDiagnostics.captureBugReportData(WifiDiagnostics.REPORT_REASON_NONE);
+            mLooper.dispatchAll();
+
+            WifiDiagnostics.BugReport report = mWifiDiagnostics.getBugReports().get(0);
+            assertNull(report.compressedFwMemoryDump);
+            assertNull(report.compressedDriverStateDump);
+            assertTrue(report.spoolFile.exists());
+
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            mWifiDiagnostics.dump(new FileDescriptor(), pw, new String[]{});
+            assertTrue(sw.toString().contains(WifiDiagnostics.FIRMWARE_DUMP_SECTION_HEADER));
+            assertTrue(sw.toString().contains(WifiDiagnostics.DRIVER_DUMP_SECTION_HEADER));
+
+            File spoolFile = report.spoolFile;
+            mWifiDiagnostics.enableVerboseLogging(false /* verbose disabled */);
+            mWifiDiagnostics.startLogging(STA_IF_NAME);
+            assertFalse(spoolFile.exists());
+
+            sw = new StringWriter();
+            pw = new PrintWriter(sw);
+            mWifiDiagnostics.dump(new FileDescriptor(), pw, new String[]{});
+            assertFalse(sw.toString().contains(WifiDiagnostics.FIRMWARE_DUMP_SECTION_HEADER));
+        } finally {
+            for (File file : spoolDirectory.listFiles()) {
+                file.delete();
+            }
+            spoolDirectory.delete();
+        }
+    }
+
+    /** Verifies that connection failures share a packet fate fetch that is still pending. */
+    @Test
+    public void reportConnectionFailuresSharePendingFatesFetch() {
+        mWifiDiagnostics.startPktFateMonitoring(STA_IF_NAME);
+        mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        mWifiDiagnostics.reportConnectionEvent(WifiDiagnostics.CONNECTION_EVENT_TIMEOUT);
+        verify(mWifiNative, never()).getTxPktFates(any(), anyObject());
+        mLooper.dispatchAll();
+        verify(mWifiNative).getTxPktFates(any(), anyObject());
+        verify(mWifiNative).getRxPktFates(any(), anyObject());
     }
 
     /** Verifies that stoplogging on both the interfaces clean up
@@ -212,6 +212,8 @@ public class WifiHealthMonitorTest extends WifiBaseTest {
                 DeviceConfigFacade.DEFAULT_HEALTH_MONITOR_RSSI_POLL_VALID_TIME_MS);
         when(mDeviceConfigFacade.getHealthMonitorFwAlertValidTimeMs()).thenReturn(
                 DeviceConfigFacade.DEFAULT_HEALTH_MONITOR_FW_ALERT_VALID_TIME_MS);
+        when(mDeviceConfigFacade.getScoreCardMemoryBudgetBytes()).thenReturn(
+                DeviceConfigFacade.DEFAULT_SCORE_CARD_MEMORY_BUDGET_BYTES);
         when(mDeviceConfigFacade.getNonstationaryScanRssiValidTimeMs()).thenReturn(
                 DeviceConfigFacade.DEFAULT_NONSTATIONARY_SCAN_RSSI_VALID_TIME_MS);
         when(mDeviceConfigFacade.getStationaryScanRssiValidTimeMs()).thenReturn(
@@ -39,7 +39,10 @@ import org.mockito.Mock;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 /**
  * Unit tests for {@link com.android.server.wifi.WifiLastResortWatchdog}.
@@ -190,6 +193,69 @@ public class WifiLastResortWatchdogTest extends WifiBaseTest {
         assertEquals(mLastResortWatchdog.getRecentAvailableNetworks().size(), 2);
     };
 
+    /**
+     * Buffer random scan results, and verify that the ages of the recently available networks and
+     * the number of access points per SSID match those of a network aged on every scan result.
+     */
+    @Test
+    public void testAvailableNetworkBuffering_randomScansMatchPerScanAging() throws Exception {
+        String[] ssids = {"\"test1\"", "\"test1\"", "\"test1\"", "\"test2\"", "\"test2\"",
+                "\"test3\""};
+        String[] bssids = {"aa:bb:cc:dd:ee:01", "aa:bb:cc:dd:ee:02", "aa:bb:cc:dd:ee:03",
+                "aa:bb:cc:dd:ee:04", "aa:bb:cc:dd:ee:05", "aa:bb:cc:dd:ee:06"};
+        Map<String, Integer> expectedAges = new HashMap<>();
+        Random random = new Random(7);
+        for (int scan = 0; scan < 200; scan++) {
+            List<Integer> seen = new ArrayList<>();
+            // Scans with no candidates make networks time out, and are common enough for it.
+            if (random.nextInt(3) != 0) {
+                for (int i = 0; i < bssids.length; i++) {
+                    if (random.nextInt(4) == 0) {
+                        seen.add(i);
+                    }
+                }
+            }
+            String[] scanSsids = new String[seen.size()];
+            String[] scanBssids = new String[seen.size()];
+            String[] scanCaps = new String[seen.size()];
+            int[] scanFrequencies = new int[seen.size()];
+            int[] scanLevels = new int[seen.size()];
+            for (int i = 0; i < seen.size(); i++) {
+                scanSsids[i] = ssids[seen.get(i)];
+                scanBssids[i] = bssids[seen.get(i)];
+                scanCaps[i] = mCaps[0];
+                scanFrequencies[i] = mFrequencies[0];
+                scanLevels[i] = mLevels[0];
+            }
+            mLastResortWatchdog.updateAvailableNetworks(createFilteredQnsCandidates(scanSsids,
+                    scanBssids, scanFrequencies, scanCaps, scanLevels,
+                    new boolean[seen.size()]));
+
+            // Age every network, culling the ones reaching MAX_BSSID_AGE.
+            for (String bssid : scanBssids) {
+                expectedAges.put(bssid, -1);
+            }
+            expectedAges.replaceAll((bssid, age) -> age + 1);
+            expectedAges.values().removeIf(age -> age >= WifiLastResortWatchdog.MAX_BSSID_AGE);
+
+            Map<String, WifiLastResortWatchdog.AvailableNetworkFailureCount> networks =
+                    mLastResortWatchdog.getRecentAvailableNetworks();
+            assertEquals(expectedAges.keySet(), networks.keySet());
+            Map<String, Integer> expectedApCounts = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : expectedAges.entrySet()) {
+                assertEquals((int) entry.getValue(), networks.get(entry.getKey()).age);
+                expectedApCounts.merge(networks.get(entry.getKey()).ssid, 1, Integer::sum);
+            }
+            // A BSSID is only ignored if it is the only access point of the only SSID.
+            for (String bssid : bssids) {
+                String ssid = networks.containsKey(bssid) ? networks.get(bssid).ssid : null;
+                assertEquals(ssid != null && expectedApCounts.size() == 1
+                                && expectedApCounts.get(ssid) == 1,
+                        mLastResortWatchdog.shouldIgnoreBssidUpdate(bssid));
+            }
+        }
+    }
+
     /**
      * Case #2: Culling of old networks
      * Part 1:
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static com.android.server.wifi.WifiLinkLayerStatsDelta.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.WifiLinkLayerStatsDelta}.
+ */
+@SmallTest
+public class WifiLinkLayerStatsDeltaTest extends WifiBaseTest {
+
+    WifiLinkLayerStatsDelta mDelta;
+    Random mRandom = new Random(0xd5);
+
+    /**
+     * Sets up for unit test
+     */
+    @Before
+    public void setUp() throws Exception {
+        mDelta = new WifiLinkLayerStatsDelta();
+    }
+
+    private WifiLinkLayerStats randomStats() {
+        WifiLinkLayerStats s = new WifiLinkLayerStats();
+        s.txmpdu_be = mRandom.nextInt(1000);
+        s.txmpdu_bk = mRandom.nextInt(1000);
+        s.txmpdu_vi = mRandom.nextInt(1000);
+        s.txmpdu_vo = mRandom.nextInt(1000);
+        s.retries_be = mRandom.nextInt(1000);
+        s.retries_bk = mRandom.nextInt(1000);
+        s.retries_vi = mRandom.nextInt(1000);
+        s.retries_vo = mRandom.nextInt(1000);
+        s.lostmpdu_be = mRandom.nextInt(1000);
+        s.lostmpdu_bk = mRandom.nextInt(1000);
+        s.lostmpdu_vi = mRandom.nextInt(1000);
+        s.lostmpdu_vo = mRandom.nextInt(1000);
+        s.rxmpdu_be = mRandom.nextInt(1000);
+        s.rxmpdu_bk = mRandom.nextInt(1000);
+        s.rxmpdu_vi = mRandom.nextInt(1000);
+        s.rxmpdu_vo = mRandom.nextInt(1000);
+        s.on_time = mRandom.nextInt(1000);
+        s.tx_time = mRandom.nextInt(1000);
+        s.rx_time = mRandom.nextInt(1000);
+        s.on_time_scan = mRandom.nextInt(1000);
+        s.on_time_nan_scan = mRandom.nextInt(1000);
+        s.on_time_background_scan = mRandom.nextInt(1000);
+        s.on_time_roam_scan = mRandom.nextInt(1000);
+        s.on_time_pno_scan = mRandom.nextInt(1000);
+        s.on_time_hs20_scan = mRandom.nextInt(1000);
+        s.timeStampInMs = mRandom.nextInt(1000);
+        return s;
+    }
+
+    /**
+     * Verify that the delta is invalid when one of the samples is missing.
+     */
+    @Test
+    public void missingSampleIsInvalid() throws Exception {
+        WifiLinkLayerStats stats = randomStats();
+        assertTrue(mDelta.update(randomStats(), stats));
+        assertTrue(mDelta.isValid());
+
+        assertFalse(mDelta.update(null, stats));
+        assertFalse(mDelta.isValid());
+        assertEquals(0, mDelta.getTotalDelta(COUNTER_TX_SUCCESS));
+        assertEquals(0, mDelta.getTimeDeltaMs());
+
+        assertFalse(mDelta.update(stats, null));
+        assertFalse(mDelta.isValid());
+    }
+
+    /**
+     * Verify that the deltas match the ones computed field by field from the two samples,
+     * including when counters go backwards, while the same instance is reused.
+     */
+    @Test
+    public void deltasMatchFieldByFieldDifferences() throws Exception {
+        WifiLinkLayerStats oldStats = randomStats();
+        for (int i = 0; i < 1000; i++) {
+            WifiLinkLayerStats newStats = randomStats();
+            assertTrue(mDelta.update(oldStats, newStats));
+
+            long txSuccessDelta = (newStats.txmpdu_be + newStats.txmpdu_bk
+                    + newStats.txmpdu_vi + newStats.txmpdu_vo)
+                    - (oldStats.txmpdu_be + oldStats.txmpdu_bk
+                    + oldStats.txmpdu_vi + oldStats.txmpdu_vo);
+            long txRetriesDelta = (newStats.retries_be + newStats.retries_bk
+                    + newStats.retries_vi + newStats.retries_vo)
+                    - (oldStats.retries_be + oldStats.retries_bk
+                    + oldStats.retries_vi + oldStats.retries_vo);
+            long txBadDelta = (newStats.lostmpdu_be + newStats.lostmpdu_bk
+                    + newStats.lostmpdu_vi + newStats.lostmpdu_vo)
+                    - (oldStats.lostmpdu_be + oldStats.lostmpdu_bk
+                    + oldStats.lostmpdu_vi + oldStats.lostmpdu_vo);
+            long rxSuccessDelta = (newStats.rxmpdu_be + newStats.rxmpdu_bk
+                    + newStats.rxmpdu_vi + newStats.rxmpdu_vo)
+                    - (oldStats.rxmpdu_be + oldStats.rxmpdu_bk
+                    + oldStats.rxmpdu_vi + oldStats.rxmpdu_vo);
+            long timeDeltaMs = newStats.timeStampInMs - oldStats.timeStampInMs;
+
+            assertEquals(txSuccessDelta, mDelta.getTotalDelta(COUNTER_TX_SUCCESS));
+            assertEquals(txRetriesDelta, mDelta.getTotalDelta(COUNTER_TX_RETRIES));
+            assertEquals(txBadDelta, mDelta.getTotalDelta(COUNTER_TX_BAD));
+            assertEquals(rxSuccessDelta, mDelta.getTotalDelta(COUNTER_RX_SUCCESS));
+            assertEquals(timeDeltaMs, mDelta.getTimeDeltaMs());
+            assertEquals(timeDeltaMs < 0 || txSuccessDelta < 0 || txRetriesDelta < 0
+                    || txBadDelta < 0 || rxSuccessDelta < 0, mDelta.hasCounterReset());
+
+            assertEquals(newStats.txmpdu_vi - oldStats.txmpdu_vi,
+                    mDelta.getDelta(COUNTER_TX_SUCCESS, AC_VI));
+            assertEquals(newStats.retries_bk - oldStats.retries_bk,
+                    mDelta.getDelta(COUNTER_TX_RETRIES, AC_BK));
+            assertEquals(newStats.lostmpdu_vo - oldStats.lostmpdu_vo,
+                    mDelta.getDelta(COUNTER_TX_BAD, AC_VO));
+            assertEquals(newStats.rxmpdu_be - oldStats.rxmpdu_be,
+                    mDelta.getDelta(COUNTER_RX_SUCCESS, AC_BE));
+
+            assertEquals(newStats.on_time - oldStats.on_time,
+                    mDelta.getRadioTimeDeltaMs(RADIO_ON_TIME));
+            assertEquals(newStats.tx_time - oldStats.tx_time,
+                    mDelta.getRadioTimeDeltaMs(RADIO_TX_TIME));
+            assertEquals(newStats.rx_time - oldStats.rx_time,
+                    mDelta.getRadioTimeDeltaMs(RADIO_RX_TIME));
+            assertEquals(newStats.on_time_scan - oldStats.on_time_scan,
+                    mDelta.getRadioTimeDeltaMs(RADIO_SCAN_TIME));
+            assertEquals(newStats.on_time_hs20_scan - oldStats.on_time_hs20_scan,
+                    mDelta.getRadioTimeDeltaMs(RADIO_HS20_SCAN_TIME));
+            oldStats = newStats;
+        }
+    }
+}
@@ -4093,6 +4093,29 @@ public class WifiMetricsTest extends WifiBaseTest {
         assertEquals(2, mDecodedProto.wifiConfigStoreIo.writeDurations[2].count);
     }
 
+    /**
+     * Test the generation of the 'WifiConfigStoreIO' serialized and reused bytes metrics.
+     */
+    @Test
+    public void testWifiConfigStoreWriteBytesMetrics() throws Exception {
+        mWifiMetrics.noteWifiConfigStoreWriteBytes(1000, 0);
+        mWifiMetrics.noteWifiConfigStoreWriteBytes(200, 800);
+        mWifiMetrics.noteWifiConfigStoreWriteBytes(50, 950);
+        mWifiMetrics.noteWifiConfigStoreWriteBytes(0, 0);
+
+        dumpProtoAndDeserialize();
+
+        assertEquals(1250, mDecodedProto.wifiConfigStoreIo.numBytesSerialized);
+        assertEquals(1750, mDecodedProto.wifiConfigStoreIo.numBytesReused);
+        HistogramBucketInt32[] expectedReusedPercentHistogram = {
+                buildHistogramBucketInt32(Integer.MIN_VALUE, 10, 1),
+                buildHistogramBucketInt32(75, 90, 1),
+                buildHistogramBucketInt32(90, 100, 1),
+        };
+        assertHistogramBucketsEqual(expectedReusedPercentHistogram,
+                mDecodedProto.wifiConfigStoreIo.writeBytesReusedPercentHistogram);
+    }
+
     /**
      * Test link probe metrics.
      */
@@ -5166,4 +5189,28 @@ public class WifiMetricsTest extends WifiBaseTest {
                 mDecodedProto.connectionEvent[0].networkType);
         assertTrue(mDecodedProto.connectionEvent[0].isOsuProvisioned);
     }
+
+    /**
+     * Verify the Passpoint ANQP query coalescing and time to first match metrics.
+     */
+    @Test
+    public void testPasspointAnqpQueryMetrics() throws Exception {
+        mWifiMetrics.incrementNumPasspointAnqpQueriesCoalesced();
+        mWifiMetrics.incrementNumPasspointAnqpQueriesCoalesced();
+        mWifiMetrics.logPasspointAnqpTimeToFirstMatch(50);
+        mWifiMetrics.logPasspointAnqpTimeToFirstMatch(700);
+        mWifiMetrics.logPasspointAnqpTimeToFirstMatch(800);
+        mWifiMetrics.logPasspointAnqpTimeToFirstMatch(60000);
+
+        dumpProtoAndDeserialize();
+
+        assertEquals(2, mDecodedProto.numPasspointAnqpQueriesCoalesced);
+        HistogramBucketInt32[] expectedTimeToFirstMatchHistogram = {
+                buildHistogramBucketInt32(Integer.MIN_VALUE, 100, 1),
+                buildHistogramBucketInt32(500, 1000, 2),
+                buildHistogramBucketInt32(30000, Integer.MAX_VALUE, 1),
+        };
+        assertHistogramBucketsEqual(expectedTimeToFirstMatchHistogram,
+                mDecodedProto.passpointAnqpTimeToFirstMatchMsHistogram);
+    }
 }
@@ -165,6 +165,8 @@ public class WifiScoreCardTest extends WifiBaseTest {
         // Disable FW alert time check by default
         when(mDeviceConfigFacade.getHealthMonitorFwAlertValidTimeMs()).thenReturn(-1);
         when(mDeviceConfigFacade.getBugReportThresholdExtraRatio()).thenReturn(1);
+        when(mDeviceConfigFacade.getScoreCardMemoryBudgetBytes()).thenReturn(
+                DeviceConfigFacade.DEFAULT_SCORE_CARD_MEMORY_BUDGET_BYTES);
         mWifiScoreCard.enableVerboseLogging(true);
     }
 
@@ -771,6 +773,57 @@ public class WifiScoreCardTest extends WifiBaseTest {
         assertEquals(beforeSize, mKeys.size());
     }
 
+    /**
+     * A batched memory store should receive all changed entries in one call.
+     */
+    @Test
+    public void testBatchedWrites() throws Exception {
+        final List<List<WifiScoreCard.PendingWrite>> batches = new ArrayList<>();
+        mWifiScoreCard.installMemoryStore(new WifiScoreCard.BatchedMemoryStore() {
+            @Override
+            public void read(String key, String name, WifiScoreCard.BlobListener listener) {
+                mBlobListeners.add(listener);
+            }
+            @Override
+            public void write(String key, String name, byte[] value) {
+                mKeys.add(key);
+            }
+            @Override
+            public void setCluster(String key, String cluster) {
+                mKeys.add(key);
+            }
+            @Override
+            public void removeCluster(String cluster) {
+                // ignore for now
+            }
+            @Override
+            public void writeBatch(List<WifiScoreCard.PendingWrite> writes) {
+                batches.add(new ArrayList<>(writes));
+            }
+        });
+
+        makeSerializedAccessPointExample();
+        // Some writes may already have happened; mark both entries as changed again
+        batches.clear();
+        mWifiScoreCard.fetchByBssid(TEST_BSSID_1).changed = true;
+        mWifiScoreCard.fetchByNetwork(mWifiInfo.getSSID()).changed = true;
+        int count = mWifiScoreCard.doWrites();
+
+        // One perBssid and one perNetwork, delivered together without individual writes
+        assertEquals(2, count);
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(0, mKeys.size());
+        for (WifiScoreCard.PendingWrite pendingWrite : batches.get(0)) {
+            assertNotNull(pendingWrite.cluster);
+            assertTrue(pendingWrite.value.length > 0);
+        }
+
+        // Nothing changed, so nothing more to write
+        assertEquals(0, mWifiScoreCard.doWrites());
+        assertEquals(1, batches.size());
+    }
+
     /**
      * Calling doWrites before installing a MemoryStore should do nothing.
      */
@@ -837,6 +890,46 @@ public class WifiScoreCardTest extends WifiBaseTest {
         verify(mMemoryStore, times(3)).read(any(), any(), any()); // Assumes target size < 253
     }
 
+    /**
+     * Test that eviction is least-recently-used, bounded by the memory budget, and
+     * only writes out the evicted entries that have changed.
+     */
+    @Test
+    public void testLruEvictionWithinMemoryBudget() throws Exception {
+        final int entrySize = WifiScoreCard.PER_BSSID_BASE_BYTES;
+        when(mDeviceConfigFacade.getScoreCardMemoryBudgetBytes()).thenReturn(3 * entrySize);
+        mWifiScoreCard.installMemoryStore(mMemoryStore);
+        MacAddress[] bssids = new MacAddress[4];
+        for (int i = 0; i < bssids.length; i++) {
+            bssids[i] = MacAddress.fromBytes(new byte[]{2, 2, 2, 2, 2, (byte) i});
+        }
+        // Fill to the budget with entries that have no signal stats yet
+        for (int i = 0; i < 3; i++) {
+            mWifiScoreCard.lookupBssid(TEST_SSID_1, bssids[i].toString());
+        }
+        assertEquals(3 * entrySize, mWifiScoreCard.getApForBssidEstimatedBytes());
+        assertEquals(0, mWifiScoreCard.getApForBssidEvictions());
+
+        // Mark the second one as changed, touch the eldest, then add one more
+        mWifiScoreCard.lookupBssid(TEST_SSID_1, bssids[1].toString()).changed = true;
+        mWifiScoreCard.lookupBssid(TEST_SSID_1, bssids[0].toString());
+        reset(mMemoryStore);
+        mWifiScoreCard.lookupBssid(TEST_SSID_1, bssids[3].toString());
+
+        // bssids[2] is now the least recently used, and it is unchanged
+        assertEquals(1, mWifiScoreCard.getApForBssidEvictions());
+        assertNull(mWifiScoreCard.fetchByBssid(bssids[2]));
+        assertNotNull(mWifiScoreCard.fetchByBssid(bssids[0]));
+        verify(mMemoryStore, never()).write(any(), any(), any());
+        assertEquals(3 * entrySize, mWifiScoreCard.getApForBssidEstimatedBytes());
+
+        // Adding another evicts the least recently used one, which was changed
+        mWifiScoreCard.lookupBssid(TEST_SSID_1, bssids[2].toString());
+        verify(mMemoryStore, times(1)).write(any(), any(), any());
+        assertEquals(2, mWifiScoreCard.getApForBssidEvictions());
+        assertTrue(mWifiScoreCard.getCacheStatsString().contains("evictions: 2"));
+    }
+
     private void makeAssocTimeOutExample() {
         mWifiScoreCard.noteConnectionAttempt(mWifiInfo, -53, mWifiInfo.getSSID());
         millisecondsPass(1000);
@@ -3468,7 +3468,47 @@ public class WifiServiceImplTest extends WifiBaseTest {
                 .enforceCallingOrSelfPermission(eq(android.Manifest.permission.NETWORK_SETTINGS),
                         eq("WifiService"));
         mWifiServiceImpl.restoreBackupData(null);
-        verify(mWifiBackupRestore, never()).retrieveConfigurationsFromBackupData(any(byte[].class));
+        verify(mWifiBackupRestore, never()).retrieveConfigurationsFromBackupData(
+                any(byte[].class), anyInt(), any());
+    }
+
+    /**
+     * Verify that the networks restored from backup data are added to WifiConfigManager in
+     * batches, with the store writes deferred only while each batch is added, so that the store
+     * writes of other Wifi thread tasks between the batches are not held back.
+     */
+    @Test
+    public void testRestoreBackupDataDefersStoreWritesPerBatch() {
+        WifiConfiguration openNetwork = WifiConfigurationTestUtil.createOpenNetwork();
+        WifiConfiguration pskNetwork = WifiConfigurationTestUtil.createPskNetwork();
+        byte[] data = new byte[] {0x01};
+        doAnswer(invocation -> {
+            WifiBackupRestore.RestoredNetworksListener listener = invocation.getArgument(2);
+            listener.onNetworksRestored(Arrays.asList(openNetwork));
+            listener.onNetworksRestored(Arrays.asList(pskNetwork));
+            return true;
+        }).when(mWifiBackupRestore).retrieveConfigurationsFromBackupData(
+                eq(data), anyInt(), any(WifiBackupRestore.RestoredNetworksListener.class));
+        when(mWifiConfigManager.addOrUpdateNetworks(any(), anyInt(), any())).thenReturn(
+                Arrays.asList(new NetworkUpdateResult(TEST_NETWORK_ID)));
+        mWifiServiceImpl.mClientModeImplChannel = mAsyncChannel;
+
+        mLooper.startAutoDispatch();
+        mWifiServiceImpl.restoreBackupData(data);
+        mLooper.stopAutoDispatchAndIgnoreExceptions();
+
+        InOrder inOrder = inOrder(mWifiConfigManager);
+        inOrder.verify(mWifiConfigManager).deferStoreWrites();
+        inOrder.verify(mWifiConfigManager).addOrUpdateNetworks(
+                eq(Arrays.asList(openNetwork)), anyInt(), any());
+        inOrder.verify(mWifiConfigManager).enableNetwork(
+                eq(TEST_NETWORK_ID), eq(false), anyInt(), any());
+        inOrder.verify(mWifiConfigManager).resumeStoreWrites();
+        inOrder.verify(mWifiConfigManager).deferStoreWrites();
+        inOrder.verify(mWifiConfigManager).addOrUpdateNetworks(
+                eq(Arrays.asList(pskNetwork)), anyInt(), any());
+        inOrder.verify(mWifiConfigManager).resumeStoreWrites();
+        verify(mWifiConfigManager, never()).addOrUpdateNetwork(any(), anyInt());
     }
 
     /**
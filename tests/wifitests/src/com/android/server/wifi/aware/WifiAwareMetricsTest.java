@@ -570,6 +570,33 @@ public class WifiAwareMetricsTest extends WifiBaseTest {
         validateProtoHistBucket("Duration[1]", log.histogramNdpSessionDurationMs[1], 100, 200, 3);
     }
 
+    /**
+     * Validate the message transmission metrics: send latency and per-session throughput.
+     */
+    @Test
+    public void testMessageSendMetrics() {
+        WifiMetricsProto.WifiAwareLog log;
+
+        setTime(0);
+        mDut.recordMessageSendLatency(5);
+        mDut.recordMessageSendLatency(5);
+        mDut.recordMessageSendLatency(50);
+
+        setTime(2000);
+        mDut.recordDiscoverySessionMessageThroughput(0, 4000); // 2000 bytes/sec
+        mDut.recordDiscoverySessionMessageThroughput(1000, 0); // no messages: ignored
+
+        log = mDut.consolidateProto();
+        collector.checkThat("histogramMessageSendLatencyMs.length",
+                log.histogramMessageSendLatencyMs.length, equalTo(2));
+        validateProtoHistBucket("Latency[0]", log.histogramMessageSendLatencyMs[0], 5, 6, 2);
+        validateProtoHistBucket("Latency[1]", log.histogramMessageSendLatencyMs[1], 50, 60, 1);
+        collector.checkThat("histogramSessionMessageThroughputBytesPerSec.length",
+                log.histogramSessionMessageThroughputBytesPerSec.length, equalTo(1));
+        validateProtoHistBucket("Throughput[0]",
+                log.histogramSessionMessageThroughputBytesPerSec[0], 2000, 3000, 1);
+    }
+
     /**
      * Validate that the histogram configuration is initialized correctly: bucket starting points
      * and sub-bucket widths.
@@ -2208,10 +2208,107 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
         verifyNoMoreInteractions(mockCallback, mockSessionCallback);
     }
 
+    /**
+     * Validate that the number of messages queued in the firmware is limited to the advertised
+     * firmware capability (rather than relying on queue-full errors), and that all messages are
+     * eventually transmitted in order.
+     */
+    @Test
+    public void testSendMessageWindowLimitedByCapabilities() throws Exception {
+        final int clientId = 1005;
+        final int uid = 1000;
+        final int pid = 2000;
+        final String callingPackage = "com.google.somePackage";
+        final String callingFeature = "com.google.someFeature";
+        final String serviceName = "some-service-name";
+        final byte subscribeId = 15;
+        final int requestorId = 22;
+        final byte[] peerMac = HexEncoding.decode("060708090A0B".toCharArray(), false);
+        final int messageIdBase = 6948;
+        final int numberOfMessages = 30;
+        final int queueDepth = 20;
+
+        ConfigRequest configRequest = new ConfigRequest.Builder().build();
+        SubscribeConfig subscribeConfig = new SubscribeConfig.Builder().setServiceName(serviceName)
+                .build();
+
+        IWifiAwareEventCallback mockCallback = mock(IWifiAwareEventCallback.class);
+        IWifiAwareDiscoverySessionCallback mockSessionCallback = mock(
+                IWifiAwareDiscoverySessionCallback.class);
+        ArgumentCaptor<Short> transactionId = ArgumentCaptor.forClass(Short.class);
+        ArgumentCaptor<Integer> sessionId = ArgumentCaptor.forClass(Integer.class);
+        ArgumentCaptor<Integer> messageIdCaptor = ArgumentCaptor.forClass(Integer.class);
+        ArgumentCaptor<Integer> peerIdCaptor = ArgumentCaptor.forClass(Integer.class);
+        InOrder inOrder = inOrder(mockCallback, mockSessionCallback, mMockNative);
+
+        mDut.enableUsage();
+        mMockLooper.dispatchAll();
+        inOrder.verify(mMockNative).getCapabilities(transactionId.capture());
+        mDut.onCapabilitiesUpdateResponse(transactionId.getValue(), getCapabilities());
+        mMockLooper.dispatchAll();
+
+        // (0) connect
+        mDut.connect(clientId, uid, pid, callingPackage, callingFeature, mockCallback,
+                configRequest, false);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mMockNative).enableAndConfigure(transactionId.capture(),
+                eq(configRequest), eq(false), eq(true), eq(true), eq(false), eq(false));
+        mDut.onConfigSuccessResponse(transactionId.getValue());
+        mMockLooper.dispatchAll();
+        inOrder.verify(mockCallback).onConnectSuccess(clientId);
+
+        // (1) subscribe
+        mDut.subscribe(clientId, subscribeConfig, mockSessionCallback);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mMockNative).subscribe(transactionId.capture(), eq((byte) 0),
+                eq(subscribeConfig));
+        mDut.onSessionConfigSuccessResponse(transactionId.getValue(), false, subscribeId);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mockSessionCallback).onSessionStarted(sessionId.capture());
+
+        // (2) match
+        mDut.onMatchNotification(subscribeId, requestorId, peerMac, null, null, 0, 0);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mockSessionCallback).onMatch(peerIdCaptor.capture(), isNull(), isNull());
+
+        // (3) transmit messages: firmware could accept more messages than the capabilities
+        // advertise, but only a window of maxQueuedTransmitMessages messages is kept in flight
+        SendMessageQueueModelAnswer answerObj = new SendMessageQueueModelAnswer(queueDepth,
+                null, null, null);
+        when(mMockNative.sendMessage(anyShort(), anyByte(), anyInt(), any(),
+                any(), anyInt())).thenAnswer(answerObj);
+
+        for (int i = 0; i < numberOfMessages; ++i) {
+            mDut.sendMessage(uid, clientId, sessionId.getValue(), peerIdCaptor.getValue(), null,
+                    messageIdBase + i, 0);
+        }
+        mMockLooper.dispatchAll();
+        assertEquals("send window", getCapabilities().maxQueuedTransmitMessages,
+                answerObj.queueSize());
+
+        for (int i = 0; i < numberOfMessages; ++i) {
+            assertTrue(answerObj.process());
+            mMockLooper.dispatchAll();
+            assertTrue("send window", answerObj.queueSize()
+                    <= getCapabilities().maxQueuedTransmitMessages);
+        }
+        assertEquals("queue empty", 0, answerObj.queueSize());
+
+        inOrder.verify(mockSessionCallback, times(numberOfMessages)).onMessageSendSuccess(
+                messageIdCaptor.capture());
+        for (int i = 0; i < numberOfMessages; ++i) {
+            assertEquals("message ID: " + i, (long) messageIdBase + i,
+                    (long) messageIdCaptor.getAllValues().get(i));
+        }
+
+        verifyNoMoreInteractions(mockCallback, mockSessionCallback);
+    }
+
     /**
      * Validate that the message queue depth per process function. Tests the case
      * with two processes both have message num larger than queue depth. And all messages get
-     * into the firmware queue are sent out and are received on first attempt.
+     * into the firmware queue are sent out and are received on first attempt. The two processes
+     * share the firmware queue fairly: their messages are interleaved.
      */
     @Test
     public void testSendMessageQueueLimitBlock() throws Exception {
@@ -2348,12 +2445,21 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
                     (int) messageIdCaptorFail.getAllValues().get(i + numOfReject));
         }
 
-        for (int i = 0; i < messageQueueDepthPerUid; ++i) {
-            assertEquals("message ID: " + i, messageIdBase1 + i,
-                    (int) messageIdCaptorSuccess.getAllValues().get(i));
-            assertEquals("message ID: " + i,  messageIdBase2 + i,
-                    (int) messageIdCaptorSuccess.getAllValues().get(i + messageQueueDepthPerUid));
+        // messages of each UID are sent in order, and neither UID gets far ahead of the other
+        int numSent1 = 0;
+        int numSent2 = 0;
+        for (int messageId : messageIdCaptorSuccess.getAllValues()) {
+            if (messageId < messageIdBase2) {
+                assertEquals("message ID", messageIdBase1 + numSent1, messageId);
+                numSent1++;
+            } else {
+                assertEquals("message ID", messageIdBase2 + numSent2, messageId);
+                numSent2++;
+            }
+            assertTrue("fair share", Math.abs(numSent1 - numSent2) <= 10);
         }
+        assertEquals(messageQueueDepthPerUid, numSent1);
+        assertEquals(messageQueueDepthPerUid, numSent2);
 
         verifyNoMoreInteractions(mockCallback, mockSessionCallback);
     }
@@ -3768,7 +3874,8 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
         field = WifiAwareStateManager.WifiAwareStateMachine.class.getDeclaredField(
                 "mHostQueuedSendMessages");
         field.setAccessible(true);
-        SparseArray<Message> hostQueuedSendMessages = (SparseArray<Message>) field.get(sm);
+        SparseArray<SparseArray<Message>> hostQueuedSendMessages =
+                (SparseArray<SparseArray<Message>>) field.get(sm);
 
         field = WifiAwareStateManager.WifiAwareStateMachine.class.getDeclaredField(
                 "mFwQueuedSendMessages");
@@ -3776,11 +3883,14 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
         Map<Short, Message> fwQueuedSendMessages = (Map<Short, Message>) field.get(sm);
 
         for (int i = 0; i < hostQueuedSendMessages.size(); ++i) {
-            Message msg = hostQueuedSendMessages.valueAt(i);
-            if (msg.getData().getInt("message_id") == messageId) {
-                collector.checkThat(
-                        "Message not cleared-up from host queue. Message ID=" + messageId, msg,
-                        nullValue());
+            SparseArray<Message> uidQueue = hostQueuedSendMessages.valueAt(i);
+            for (int j = 0; j < uidQueue.size(); ++j) {
+                Message msg = uidQueue.valueAt(j);
+                if (msg.getData().getInt("message_id") == messageId) {
+                    collector.checkThat(
+                            "Message not cleared-up from host queue. Message ID=" + messageId, msg,
+                            nullValue());
+                }
             }
         }
 
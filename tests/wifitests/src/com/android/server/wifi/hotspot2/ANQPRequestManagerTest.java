@@ -20,7 +20,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyObject;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
@@ -31,6 +33,7 @@ import androidx.test.filters.SmallTest;
 
 import com.android.server.wifi.Clock;
 import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.WifiMetrics;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 
 import org.junit.Before;
@@ -48,6 +51,8 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
     private static final long TEST_BSSID = 0x123456L;
     private static final ANQPNetworkKey TEST_ANQP_KEY =
             new ANQPNetworkKey("TestSSID", TEST_BSSID, 0, 0);
+    private static final long TEST_HESSID = 0x5678L;
+    private static final int TEST_ANQP_DOMAIN_ID = 1;
 
     private static final List<Constants.ANQPElementType> R1_ANQP_WITHOUT_RC = Arrays.asList(
             Constants.ANQPElementType.ANQPVenueName,
@@ -97,6 +102,8 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
     PasspointEventHandler mHandler;
     @Mock
     Clock mClock;
+    @Mock
+    WifiMetrics mWifiMetrics;
     ANQPRequestManager mManager;
 
     /**
@@ -105,7 +112,7 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
     @Before
     public void setUp() throws Exception {
         initMocks(this);
-        mManager = new ANQPRequestManager(mHandler, mClock);
+        mManager = new ANQPRequestManager(mHandler, mClock, mWifiMetrics);
     }
 
     /**
@@ -361,4 +368,115 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
         assertTrue(mManager.requestANQPElements(TEST_BSSID, TEST_ANQP_KEY, true,
                 NetworkDetail.HSRelease.R3));
     }
+
+    /**
+     * Verify that only one AP of an ESS is queried at a time, and that another AP of the ESS is
+     * queried after the query to the first one failed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void requestANQPElementsCoalescedForSameEss() throws Exception {
+        long otherBssid = TEST_BSSID + 1;
+        ANQPNetworkKey essKey = ANQPNetworkKey.buildKey("TestSSID", TEST_BSSID, TEST_HESSID,
+                TEST_ANQP_DOMAIN_ID);
+        ANQPNetworkKey otherEssKey = ANQPNetworkKey.buildKey("TestSSID", otherBssid,
+                TEST_HESSID, TEST_ANQP_DOMAIN_ID);
+        when(mHandler.requestANQP(anyLong(), anyObject())).thenReturn(true);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(0L);
+        assertTrue(mManager.requestANQPElements(TEST_BSSID, essKey, false,
+                NetworkDetail.HSRelease.R1));
+
+        // The other AP of the ESS is not queried while the first query is in flight.
+        assertFalse(mManager.requestANQPElements(otherBssid, otherEssKey, false,
+                NetworkDetail.HSRelease.R1));
+        verify(mHandler, never()).requestANQP(eq(otherBssid), anyObject());
+        verify(mWifiMetrics).incrementNumPasspointAnqpQueriesCoalesced();
+
+        // Requests to siblings on later scans are not counted again for the same query.
+        assertFalse(mManager.requestANQPElements(otherBssid, otherEssKey, false,
+                NetworkDetail.HSRelease.R1));
+        assertFalse(mManager.requestANQPElements(otherBssid + 1, otherEssKey, false,
+                NetworkDetail.HSRelease.R1));
+        verify(mWifiMetrics).incrementNumPasspointAnqpQueriesCoalesced();
+
+        // The other AP is queried once the first query failed.
+        assertEquals(essKey, mManager.onRequestCompleted(TEST_BSSID, false));
+        assertTrue(mManager.requestANQPElements(otherBssid, otherEssKey, false,
+                NetworkDetail.HSRelease.R1));
+    }
+
+    /**
+     * Verify that another AP of an ESS is queried when the query to the first one is not answered
+     * within the in flight timeout.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void requestANQPElementsForSameEssAfterInFlightTimeout() throws Exception {
+        long otherBssid = TEST_BSSID + 1;
+        ANQPNetworkKey essKey = ANQPNetworkKey.buildKey("TestSSID", TEST_BSSID, TEST_HESSID,
+                TEST_ANQP_DOMAIN_ID);
+        when(mHandler.requestANQP(anyLong(), anyObject())).thenReturn(true);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(0L);
+        assertTrue(mManager.requestANQPElements(TEST_BSSID, essKey, false,
+                NetworkDetail.HSRelease.R1));
+
+        when(mClock.getElapsedSinceBootMillis())
+                .thenReturn((long) ANQPRequestManager.IN_FLIGHT_TIMEOUT_MILLISECONDS);
+        assertTrue(mManager.requestANQPElements(otherBssid, essKey, false,
+                NetworkDetail.HSRelease.R1));
+
+        // A late response from the first AP is still associated with the ESS.
+        assertEquals(essKey, mManager.onRequestCompleted(TEST_BSSID, true));
+        assertEquals(essKey, mManager.onRequestCompleted(otherBssid, true));
+    }
+
+    /**
+     * Verify that no more than {@link ANQPRequestManager#MAX_IN_FLIGHT_QUERIES} queries are in
+     * flight at a time.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void requestANQPElementsBoundedInFlight() throws Exception {
+        when(mHandler.requestANQP(anyLong(), anyObject())).thenReturn(true);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(0L);
+        for (int i = 0; i < ANQPRequestManager.MAX_IN_FLIGHT_QUERIES; i++) {
+            long bssid = TEST_BSSID + i;
+            assertTrue(mManager.requestANQPElements(bssid,
+                    new ANQPNetworkKey("TestSSID", bssid, 0, 0), false,
+                    NetworkDetail.HSRelease.R1));
+        }
+        long nextBssid = TEST_BSSID + ANQPRequestManager.MAX_IN_FLIGHT_QUERIES;
+        ANQPNetworkKey nextKey = new ANQPNetworkKey("TestSSID", nextBssid, 0, 0);
+        assertFalse(mManager.requestANQPElements(nextBssid, nextKey, false,
+                NetworkDetail.HSRelease.R1));
+        verify(mHandler, never()).requestANQP(eq(nextBssid), anyObject());
+
+        mManager.onRequestCompleted(TEST_BSSID, true);
+        assertTrue(mManager.requestANQPElements(nextBssid, nextKey, false,
+                NetworkDetail.HSRelease.R1));
+    }
+
+    /**
+     * Verify that the time from the first query to an ESS until the first provider match is
+     * logged once.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void onProviderMatchedLogsTimeToFirstMatch() throws Exception {
+        when(mHandler.requestANQP(anyLong(), anyObject())).thenReturn(true);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(1000L);
+        assertTrue(mManager.requestANQPElements(TEST_BSSID, TEST_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1));
+        mManager.onRequestCompleted(TEST_BSSID, true);
+
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(1500L);
+        mManager.onProviderMatched(TEST_ANQP_KEY);
+        mManager.onProviderMatched(TEST_ANQP_KEY);
+        verify(mWifiMetrics).logPasspointAnqpTimeToFirstMatch(500);
+        verify(mWifiMetrics).logPasspointAnqpTimeToFirstMatch(anyInt());
+    }
 }
@@ -16,6 +16,7 @@
 
 package com.android.server.wifi.hotspot2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -28,11 +29,17 @@ import com.android.server.wifi.Clock;
 import com.android.server.wifi.WifiBaseTest;
 import com.android.server.wifi.hotspot2.ANQPData;
 import com.android.server.wifi.hotspot2.AnqpCache;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.Constants;
+import com.android.server.wifi.hotspot2.anqp.RawByteElement;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Unit tests for {@link com.android.server.wifi.hotspot2.AnqpCache}.
  *
@@ -42,6 +49,7 @@ import org.mockito.Mock;
 @SmallTest
 public class AnqpCacheTest extends WifiBaseTest {
     private static final ANQPNetworkKey ENTRY_KEY = new ANQPNetworkKey("test", 0L, 0L, 1);
+    private static final ANQPNetworkKey ENTRY_KEY2 = new ANQPNetworkKey("test2", 0L, 0L, 1);
 
     @Mock Clock mClock;
     AnqpCache mCache;
@@ -112,4 +120,93 @@ public class AnqpCacheTest extends WifiBaseTest {
         mCache.flush();
         assertNull(mCache.getEntry(ENTRY_KEY));
     }
+
+    /**
+     * Verify that a sweep removes the expired entries in the order they were added in, and keeps
+     * an entry that was updated after an older entry was added.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sweepRemovesEntriesInExpiryOrder() throws Exception {
+        mCache.addEntry(ENTRY_KEY, null);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(1000L);
+        mCache.addEntry(ENTRY_KEY2, null);
+        // Updating the first entry moves its expiry after the second entry.
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(2000L);
+        mCache.addEntry(ENTRY_KEY, null);
+
+        when(mClock.getElapsedSinceBootMillis())
+                .thenReturn(ANQPData.DATA_LIFETIME_MILLISECONDS + 1000L);
+        mCache.sweep();
+        assertNotNull(mCache.getEntry(ENTRY_KEY));
+        assertNull(mCache.getEntry(ENTRY_KEY2));
+        assertEquals(1, mCache.getExpirationCount());
+
+        when(mClock.getElapsedSinceBootMillis())
+                .thenReturn(ANQPData.DATA_LIFETIME_MILLISECONDS + 2000L
+                        + AnqpCache.CACHE_SWEEP_INTERVAL_MILLISECONDS);
+        mCache.sweep();
+        assertEquals(0, mCache.size());
+        assertEquals(0, mCache.getSizeBytes());
+        assertEquals(2, mCache.getExpirationCount());
+    }
+
+    /**
+     * Verify that the least recently used entry is evicted when the cache is full.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void evictLeastRecentlyUsedEntryWhenFull() throws Exception {
+        for (int i = 0; i < AnqpCache.MAX_CACHE_ENTRIES; i++) {
+            mCache.addEntry(new ANQPNetworkKey("test", i + 1, 0L, 0), null);
+        }
+        // Use the oldest entry, so that the second oldest one is evicted.
+        ANQPNetworkKey oldestKey = new ANQPNetworkKey("test", 1, 0L, 0);
+        assertNotNull(mCache.getEntry(oldestKey));
+        mCache.addEntry(ENTRY_KEY, null);
+
+        assertEquals(AnqpCache.MAX_CACHE_ENTRIES, mCache.size());
+        assertEquals(1, mCache.getEvictionCount());
+        assertNotNull(mCache.getEntry(oldestKey));
+        assertNotNull(mCache.getEntry(ENTRY_KEY));
+        assertNull(mCache.getEntry(new ANQPNetworkKey("test", 2, 0L, 0)));
+    }
+
+    /**
+     * Verify that entries are evicted when the estimated memory usage exceeds the maximum.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void evictEntriesWhenOverMemoryBudget() throws Exception {
+        Map<Constants.ANQPElementType, ANQPElement> elements = new HashMap<>();
+        elements.put(Constants.ANQPElementType.ANQPVenueName, new RawByteElement(
+                Constants.ANQPElementType.ANQPVenueName,
+                new byte[(int) (AnqpCache.MAX_CACHE_SIZE_BYTES / 2)]));
+        mCache.addEntry(ENTRY_KEY, elements);
+        assertTrue(mCache.getSizeBytes() > AnqpCache.MAX_CACHE_SIZE_BYTES / 2);
+
+        mCache.addEntry(ENTRY_KEY2, elements);
+        assertEquals(1, mCache.size());
+        assertEquals(1, mCache.getEvictionCount());
+        assertNull(mCache.getEntry(ENTRY_KEY));
+        assertNotNull(mCache.getEntry(ENTRY_KEY2));
+    }
+
+    /**
+     * Verify that the hits and misses of the cache are counted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void countHitsAndMisses() throws Exception {
+        mCache.addEntry(ENTRY_KEY, null);
+        mCache.getEntry(ENTRY_KEY);
+        mCache.getEntry(ENTRY_KEY2);
+        mCache.peekEntry(ENTRY_KEY2);
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
 }
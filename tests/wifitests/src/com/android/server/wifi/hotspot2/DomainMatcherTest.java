@@ -28,8 +28,11 @@ import com.android.server.wifi.WifiBaseTest;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,6 +44,20 @@ public class DomainMatcherTest extends WifiBaseTest {
     private static final String SECONDARY_DOMAIN1 = "android.com";
     private static final String SECONDARY_DOMAIN2 = "testing.test.com";
 
+    /**
+     * Carrier and enterprise domain names as advertised by Passpoint APs and configured in
+     * Passpoint profiles, including the forms that need normalizing.
+     */
+    private static final List<String> REALISTIC_DOMAINS = Arrays.asList(
+            "wlan.mnc410.mcc310.3gppnetwork.org", "wlan.mnc260.mcc310.3gppnetwork.org",
+            "mnc410.mcc310.3gppnetwork.org", "3gppnetwork.org",
+            "WLAN.MNC004.MCC311.3GPPNETWORK.ORG",
+            "att.com", "wifi.att.com", "hotspot.att.com.", "t-mobile.com", "boingo.com",
+            "passpoint.boingo.com", "eduroam.org", "corp.example.com", "wifi.corp.example.com",
+            "user@corp.example.com", "anonymous@wlan.mnc410.mcc310.3gppnetwork.org",
+            "example.com", "example..com", ".example.com", "example.com..", "com", "org", ".",
+            "...");
+
     /**
      * Test data for isSubDomain function.
      */
@@ -203,4 +220,109 @@ public class DomainMatcherTest extends WifiBaseTest {
         assertTrue(DomainMatcher.arg2SubdomainOfArg1("test..com", "adsf.test..com"));
     }
 
+    /**
+     * Reference implementation of {@link DomainMatcher#arg2SubdomainOfArg1} over the label
+     * lists returned by {@link Utils#splitDomain}.
+     */
+    private static boolean splitArg2SubdomainOfArg1(String domain1, String domain2) {
+        List<String> labels1 = Utils.splitDomain(domain1);
+        List<String> labels2 = Utils.splitDomain(domain2);
+        if (labels2.size() < labels1.size()) {
+            return false;
+        }
+        Iterator<String> l2 = labels2.iterator();
+        for (String label : labels1) {
+            if (!label.equals(l2.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verify that matching directly over the domain strings gives the same results as matching
+     * the labels returned by {@link Utils#splitDomain}, for carrier and enterprise domains.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void matchRealisticDomainsSameAsSplitLabels() throws Exception {
+        for (String domain1 : REALISTIC_DOMAINS) {
+            for (String domain2 : REALISTIC_DOMAINS) {
+                assertEquals(domain1 + " / " + domain2,
+                        splitArg2SubdomainOfArg1(domain1, domain2),
+                        DomainMatcher.arg2SubdomainOfArg1(domain1, domain2));
+            }
+        }
+    }
+
+    /**
+     * Verify that labels are matched case-insensitively, ignoring the NAI user part and a
+     * trailing ".".
+     *
+     * @throws Exception
+     */
+    @Test
+    public void matchDomainIgnoresCaseUserPartAndTrailingDot() throws Exception {
+        DomainMatcher domainMatcher = new DomainMatcher("wlan.mnc410.mcc310.3gppnetwork.org",
+                Arrays.asList("Corp.Example.com."));
+        assertEquals(DomainMatcher.MATCH_PRIMARY,
+                domainMatcher.isSubDomain("anonymous@WLAN.mnc410.mcc310.3gppnetwork.org."));
+        assertEquals(DomainMatcher.MATCH_SECONDARY,
+                domainMatcher.isSubDomain("wifi.corp.EXAMPLE.com"));
+        assertEquals(DomainMatcher.MATCH_SECONDARY,
+                domainMatcher.isSubDomain("user@corp.example.com"));
+        assertEquals(DomainMatcher.MATCH_NONE, domainMatcher.isSubDomain("example.com"));
+        assertEquals(DomainMatcher.MATCH_NONE, domainMatcher.isSubDomain("..."));
+        assertTrue(DomainMatcher.arg2SubdomainOfArg1("3gppnetwork.org",
+                "user@wlan.mnc410.mcc310.3GPPNETWORK.org."));
+        assertFalse(DomainMatcher.arg2SubdomainOfArg1("corp.example.com", "user@example.com"));
+    }
+
+    /**
+     * Verify that the MCC-MNC of a domain is the same as the one derived from its split labels.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getMccMncSameAsSplitLabels() throws Exception {
+        List<String> domains = new ArrayList<>(REALISTIC_DOMAINS);
+        domains.addAll(Arrays.asList("wlan.mnc41a.mcc310.3gppnetwork.org",
+                "wlan.mnc.mcc.3gppnetwork.org", "x.wlan.mnc410.mcc310.3gppnetwork.org",
+                "wlanx.mnc410.mcc310.3gppnetworks.orgs", "wlan.mnc410.mcc310.3gppnetwork.org..",
+                "wlan.mnc410..3gppnetwork.org", ""));
+        for (String domain : domains) {
+            assertEquals(domain, Utils.getMccMnc(Utils.splitDomain(domain)),
+                    DomainMatcher.getMccMnc(domain));
+        }
+        assertEquals("310410", DomainMatcher.getMccMnc("wlan.mnc410.mcc310.3gppnetwork.org"));
+    }
+
+    /**
+     * Verify that walking the label tree visits the nodes of all the added domains that a domain
+     * is the same as or a sub-domain of.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void forEachNodeVisitsParentDomains() throws Exception {
+        DomainMatcher domainMatcher = new DomainMatcher();
+        int comNode = domainMatcher.addDomain("com");
+        int exampleNode = domainMatcher.addDomain("Example.com");
+        int corpNode = domainMatcher.addDomain("corp.example.com");
+        int otherNode = domainMatcher.addDomain("other.com");
+        assertEquals(DomainMatcher.NO_NODE, domainMatcher.addDomain("..."));
+        assertEquals(5, domainMatcher.getNodeCount());
+
+        List<Integer> nodes = new ArrayList<>();
+        domainMatcher.forEachNode("user@wifi.CORP.example.com.", (node, list) -> list.add(node),
+                nodes);
+        assertEquals(Arrays.asList(comNode, exampleNode, corpNode), nodes);
+
+        nodes.clear();
+        domainMatcher.forEachNode("example.org", (node, list) -> list.add(node), nodes);
+        assertTrue(nodes.isEmpty());
+        domainMatcher.forEachNode("other.com", (node, list) -> list.add(node), nodes);
+        assertEquals(Arrays.asList(comNode, otherNode), nodes);
+    }
 }
@@ -99,6 +99,8 @@ import com.android.server.wifi.hotspot2.anqp.Constants.ANQPElementType;
 import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
 import com.android.server.wifi.hotspot2.anqp.HSOsuProvidersElement;
 import com.android.server.wifi.hotspot2.anqp.I18Name;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmData;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmElement;
 import com.android.server.wifi.hotspot2.anqp.OsuProviderInfo;
 import com.android.server.wifi.proto.nano.WifiMetricsProto.UserActionEvent;
 import com.android.server.wifi.util.InformationElementUtil;
@@ -111,6 +113,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoSession;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
@@ -209,7 +213,7 @@ public class PasspointManagerTest extends WifiBaseTest {
     public void setUp() throws Exception {
         initMocks(this);
         when(mObjectFactory.makeAnqpCache(mClock)).thenReturn(mAnqpCache);
-        when(mObjectFactory.makeANQPRequestManager(any(), eq(mClock)))
+        when(mObjectFactory.makeANQPRequestManager(any(), eq(mClock), eq(mWifiMetrics)))
                 .thenReturn(mAnqpRequestManager);
         when(mObjectFactory.makeOsuNetworkConnection(any(Context.class)))
                 .thenReturn(mOsuNetworkConnection);
@@ -328,6 +332,19 @@ public class PasspointManagerTest extends WifiBaseTest {
         return config;
     }
 
+    /**
+     * Helper function for creating an ANQP entry advertising {@link #TEST_REALM}, so that all
+     * providers using the default test realm are candidates for matching.
+     *
+     * @return {@link ANQPData}
+     */
+    private ANQPData createTestAnqpDataWithRealm() {
+        Map<ANQPElementType, ANQPElement> anqpElementMap = new HashMap<>();
+        anqpElementMap.put(ANQPElementType.ANQPNAIRealm, new NAIRealmElement(Arrays.asList(
+                new NAIRealmData(Arrays.asList(TEST_REALM), new ArrayList<>()))));
+        return new ANQPData(mClock, anqpElementMap);
+    }
+
     /**
      * Helper function for creating a test configuration with SIM credential.
      *
@@ -1014,7 +1031,7 @@ public class PasspointManagerTest extends WifiBaseTest {
     public void matchProviderAsHomeProvider() throws Exception {
         PasspointProvider provider =
                 addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
-        ANQPData entry = new ANQPData(mClock, null);
+        ANQPData entry = createTestAnqpDataWithRealm();
 
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
         when(provider.match(anyMap(), any(RoamingConsortium.class)))
@@ -1035,7 +1052,7 @@ public class PasspointManagerTest extends WifiBaseTest {
     public void matchProviderAsRoamingProvider() throws Exception {
         PasspointProvider provider =
                 addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
-        ANQPData entry = new ANQPData(mClock, null);
+        ANQPData entry = createTestAnqpDataWithRealm();
 
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
         when(provider.match(anyMap(), any(RoamingConsortium.class)))
@@ -1058,7 +1075,7 @@ public class PasspointManagerTest extends WifiBaseTest {
                 addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
         PasspointProvider roamingProvider2 =
                 addTestProvider(TEST_FQDN2, TEST_FRIENDLY_NAME2, TEST_PACKAGE1, false, null, false);
-        ANQPData entry = new ANQPData(mClock, null);
+        ANQPData entry = createTestAnqpDataWithRealm();
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
         when(roamingProvider1.match(anyMap(), any(RoamingConsortium.class)))
                 .thenReturn(PasspointMatch.RoamingProvider);
@@ -1106,6 +1123,71 @@ public class PasspointManagerTest extends WifiBaseTest {
         assertTrue(mManager.matchProvider(createTestScanResult()).isEmpty());
     }
 
+    /**
+     * Verify that the provider match results are reused until the ANQP entry, the providers or
+     * the SIM state change.
+     */
+    @Test
+    public void matchProviderResultsCachedUntilInputsChange() throws Exception {
+        PasspointProvider provider =
+                addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
+        when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(createTestAnqpDataWithRealm());
+        when(provider.match(anyMap(), any(RoamingConsortium.class)))
+                .thenReturn(PasspointMatch.HomeProvider);
+
+        assertEquals(1, mManager.matchProvider(createTestScanResult()).size());
+        assertEquals(1, mManager.matchProvider(createTestScanResult()).size());
+        verify(provider, times(1)).match(anyMap(), any(RoamingConsortium.class));
+        verify(provider, times(1)).tryUpdateCarrierId();
+
+        // New ANQP entry for the AP.
+        when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(createTestAnqpDataWithRealm());
+        assertEquals(1, mManager.matchProvider(createTestScanResult()).size());
+        verify(provider, times(2)).match(anyMap(), any(RoamingConsortium.class));
+
+        // SIM state changed.
+        when(mWifiCarrierInfoManager.getSimStateGeneration()).thenReturn(1);
+        assertEquals(1, mManager.matchProvider(createTestScanResult()).size());
+        verify(provider, times(3)).match(anyMap(), any(RoamingConsortium.class));
+        verify(provider, times(2)).tryUpdateCarrierId();
+
+        // Providers changed.
+        PasspointProvider provider2 =
+                addTestProvider(TEST_FQDN2, TEST_FRIENDLY_NAME2, TEST_PACKAGE1, false, null, false);
+        when(provider2.match(anyMap(), any(RoamingConsortium.class)))
+                .thenReturn(PasspointMatch.HomeProvider);
+        assertEquals(2, mManager.matchProvider(createTestScanResult()).size());
+        verify(provider, times(4)).match(anyMap(), any(RoamingConsortium.class));
+
+        StringWriter sw = new StringWriter();
+        mManager.dump(new PrintWriter(sw));
+        assertTrue(sw.toString().contains("hits=1 misses=4"));
+    }
+
+    /**
+     * Verify that a cached "no match" for a SIM credential provider is dropped once the SIM state
+     * generation changes, e.g. when the IMSI encryption key arrives, and the provider matches.
+     */
+    @Test
+    public void cachedNoMatchDroppedWhenImsiEncryptionKeyArrives() throws Exception {
+        PasspointProvider provider =
+                addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
+        when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(createTestAnqpDataWithRealm());
+        // The IMSI is withheld while the IMSI encryption key is missing.
+        when(provider.match(anyMap(), any(RoamingConsortium.class)))
+                .thenReturn(PasspointMatch.None);
+        assertTrue(mManager.matchProvider(createTestScanResult()).isEmpty());
+        assertTrue(mManager.matchProvider(createTestScanResult()).isEmpty());
+        verify(provider, times(1)).match(anyMap(), any(RoamingConsortium.class));
+
+        // The key arrives.
+        when(provider.match(anyMap(), any(RoamingConsortium.class)))
+                .thenReturn(PasspointMatch.HomeProvider);
+        when(mWifiCarrierInfoManager.getSimStateGeneration()).thenReturn(1);
+        assertEquals(1, mManager.matchProvider(createTestScanResult()).size());
+        verify(provider, times(2)).match(anyMap(), any(RoamingConsortium.class));
+    }
+
     /**
      * Verify the expectations for sweepCache.
      *
@@ -1199,7 +1281,7 @@ public class PasspointManagerTest extends WifiBaseTest {
                     TEST_FQDN + 2, TEST_FRIENDLY_NAME, SECURITY_EAP);
             PasspointProvider providerNone = addTestProvider(TEST_FQDN + 2, TEST_FRIENDLY_NAME,
                     TEST_PACKAGE, wifiConfiguration, false, null, false);
-            ANQPData entry = new ANQPData(mClock, null);
+            ANQPData entry = createTestAnqpDataWithRealm();
             InformationElementUtil.Vsa vsa = new InformationElementUtil.Vsa();
             vsa.anqpDomainID = TEST_ANQP_DOMAIN_ID2;
 
@@ -2276,7 +2358,7 @@ public class PasspointManagerTest extends WifiBaseTest {
                     TEST_FQDN + 2, TEST_FRIENDLY_NAME, SECURITY_EAP);
             PasspointProvider providerNone = addTestProvider(TEST_FQDN + 2, TEST_FRIENDLY_NAME,
                     TEST_PACKAGE, wifiConfiguration, false, null, false);
-            ANQPData entry = new ANQPData(mClock, null);
+            ANQPData entry = createTestAnqpDataWithRealm();
             InformationElementUtil.Vsa vsa = new InformationElementUtil.Vsa();
             vsa.anqpDomainID = TEST_ANQP_DOMAIN_ID;
 
@@ -2326,7 +2408,7 @@ public class PasspointManagerTest extends WifiBaseTest {
                     TEST_FQDN + 2, TEST_FRIENDLY_NAME, SECURITY_EAP);
             PasspointProvider providerNone = addTestProvider(TEST_FQDN + 2, TEST_FRIENDLY_NAME,
                     TEST_PACKAGE, wifiConfiguration, false, null, false);
-            ANQPData entry = new ANQPData(mClock, null);
+            ANQPData entry = createTestAnqpDataWithRealm();
             InformationElementUtil.Vsa vsa = new InformationElementUtil.Vsa();
             vsa.anqpDomainID = TEST_ANQP_DOMAIN_ID;
 
@@ -2378,7 +2460,7 @@ public class PasspointManagerTest extends WifiBaseTest {
                     TEST_FQDN + 2, TEST_FRIENDLY_NAME, SECURITY_EAP);
             PasspointProvider providerNone = addTestProvider(TEST_FQDN + 2, TEST_FRIENDLY_NAME,
                     TEST_PACKAGE, wifiConfiguration, false, null, false);
-            ANQPData entry = new ANQPData(mClock, null);
+            ANQPData entry = createTestAnqpDataWithRealm();
             InformationElementUtil.Vsa vsa = new InformationElementUtil.Vsa();
             vsa.anqpDomainID = TEST_ANQP_DOMAIN_ID;
 
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import android.net.wifi.EAPConstants;
+import android.net.wifi.hotspot2.PasspointConfiguration;
+import android.net.wifi.hotspot2.pps.Credential;
+import android.net.wifi.hotspot2.pps.HomeSp;
+import android.util.Pair;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.WifiCarrierInfoManager;
+import com.android.server.wifi.WifiKeyStore;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.CellularNetwork;
+import com.android.server.wifi.hotspot2.anqp.Constants.ANQPElementType;
+import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmData;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmElement;
+import com.android.server.wifi.hotspot2.anqp.RoamingConsortiumElement;
+import com.android.server.wifi.hotspot2.anqp.ThreeGPPNetworkElement;
+import com.android.server.wifi.util.InformationElementUtil.RoamingConsortium;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.hotspot2.PasspointProviderIndex}.
+ */
+@SmallTest
+public class PasspointProviderIndexTest extends WifiBaseTest {
+    private static final String TEST_SIM_IMSI_PREFIX = "123456*";
+    private static final String TEST_SIM_IMSI = "123456789012345";
+    private static final String TEST_SIM_DOMAIN = "wlan.mnc456.mcc123.3gppnetwork.org";
+
+    @Mock WifiKeyStore mKeyStore;
+    @Mock WifiCarrierInfoManager mWifiCarrierInfoManager;
+    @Mock RoamingConsortium mRoamingConsortium;
+
+    private final List<PasspointProvider> mProviders = new ArrayList<>();
+    private final PasspointProviderIndex mIndex = new PasspointProviderIndex();
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        when(mWifiCarrierInfoManager.getMatchingImsiCarrierId(TEST_SIM_IMSI_PREFIX))
+                .thenReturn(new Pair<>(TEST_SIM_IMSI, 1));
+
+        HomeSp homeSp = createHomeSp("test.com");
+        addProvider(homeSp, createUserCredential("realm.test.com"));
+
+        homeSp = createHomeSp("other.com");
+        homeSp.setOtherHomePartners(new String[] {"partner.com"});
+        homeSp.setRoamingConsortiumOis(new long[] {0x1234L});
+        addProvider(homeSp, createUserCredential("realm.other.com"));
+
+        homeSp = createHomeSp("sim.com");
+        Credential credential = createUserCredential(TEST_SIM_DOMAIN);
+        credential.setUserCredential(null);
+        Credential.SimCredential simCredential = new Credential.SimCredential();
+        simCredential.setImsi(TEST_SIM_IMSI_PREFIX);
+        simCredential.setEapType(EAPConstants.EAP_SIM);
+        credential.setSimCredential(simCredential);
+        addProvider(homeSp, credential);
+
+        homeSp = createHomeSp("all.com");
+        homeSp.setMatchAllOis(new long[] {0x5678L});
+        addProvider(homeSp, createUserCredential("realm.all.com"));
+
+        homeSp = createHomeSp("any.com");
+        homeSp.setMatchAnyOis(new long[] {0x9abcL, 0xdefL});
+        addProvider(homeSp, createUserCredential("realm.any.com"));
+
+        mIndex.rebuild(mProviders);
+    }
+
+    private HomeSp createHomeSp(String fqdn) {
+        HomeSp homeSp = new HomeSp();
+        homeSp.setFqdn(fqdn);
+        homeSp.setFriendlyName(fqdn);
+        return homeSp;
+    }
+
+    private Credential createUserCredential(String realm) {
+        Credential credential = new Credential();
+        credential.setRealm(realm);
+        Credential.UserCredential userCredential = new Credential.UserCredential();
+        userCredential.setUsername("username");
+        userCredential.setPassword("cGFzc3dvcmQ=");
+        userCredential.setEapType(EAPConstants.EAP_TTLS);
+        userCredential.setNonEapInnerMethod(Credential.UserCredential.AUTH_METHOD_MSCHAPV2);
+        credential.setUserCredential(userCredential);
+        return credential;
+    }
+
+    private void addProvider(HomeSp homeSp, Credential credential) {
+        PasspointConfiguration config = new PasspointConfiguration();
+        config.setHomeSp(homeSp);
+        config.setCredential(credential);
+        mProviders.add(new PasspointProvider(config, mKeyStore, mWifiCarrierInfoManager,
+                mProviders.size(), 1000, "com.android.test", false));
+    }
+
+    private static Map<ANQPElementType, ANQPElement> createAnqpElements(String[] domains,
+            Long[] ois, String[] plmns, String[] realms) {
+        Map<ANQPElementType, ANQPElement> elements = new HashMap<>();
+        if (domains != null) {
+            elements.put(ANQPElementType.ANQPDomName,
+                    new DomainNameElement(Arrays.asList(domains)));
+        }
+        if (ois != null) {
+            elements.put(ANQPElementType.ANQPRoamingConsortium,
+                    new RoamingConsortiumElement(Arrays.asList(ois)));
+        }
+        if (plmns != null) {
+            elements.put(ANQPElementType.ANQP3GPPNetwork, new ThreeGPPNetworkElement(
+                    Arrays.asList(new CellularNetwork(Arrays.asList(plmns)))));
+        }
+        if (realms != null) {
+            elements.put(ANQPElementType.ANQPNAIRealm, new NAIRealmElement(Arrays.asList(
+                    new NAIRealmData(Arrays.asList(realms), new ArrayList<>()))));
+        }
+        return elements;
+    }
+
+    private List<Pair<PasspointProvider, PasspointMatch>> match(
+            List<PasspointProvider> providers, Map<ANQPElementType, ANQPElement> elements) {
+        List<Pair<PasspointProvider, PasspointMatch>> matches = new ArrayList<>();
+        for (PasspointProvider provider : providers) {
+            PasspointMatch match = provider.match(elements, mRoamingConsortium);
+            if (match != PasspointMatch.None) {
+                matches.add(Pair.create(provider, match));
+            }
+        }
+        return matches;
+    }
+
+    private void verifySameMatchesAsAllProviders(Map<ANQPElementType, ANQPElement> elements) {
+        List<PasspointProvider> candidates = mIndex.getCandidates(elements, mRoamingConsortium);
+        assertEquals(match(mProviders, elements), match(candidates, elements));
+    }
+
+    /**
+     * Verify that matching only the candidates from the index gives the same results, in the same
+     * order, as matching all providers.
+     */
+    @Test
+    public void candidatesMatchSameAsAllProviders() {
+        List<Map<ANQPElementType, ANQPElement>> aps = Arrays.asList(
+                createAnqpElements(null, null, null, null),
+                createAnqpElements(new String[] {"test.com"}, null, null, null),
+                createAnqpElements(new String[] {"hotspot.TEST.com."}, null, null, null),
+                createAnqpElements(new String[] {"com"}, null, null, null),
+                createAnqpElements(new String[] {"a.partner.com", "unrelated.org"}, null, null,
+                        null),
+                createAnqpElements(new String[] {TEST_SIM_DOMAIN}, null, null, null),
+                createAnqpElements(new String[] {"wlan.mnc999.mcc123.3gppnetwork.org"}, null,
+                        null, null),
+                createAnqpElements(null, new Long[] {0x1234L}, null, null),
+                createAnqpElements(null, new Long[] {0xdefL, 0x42L}, null, null),
+                createAnqpElements(null, new Long[] {0x5678L}, null, null),
+                createAnqpElements(null, null, new String[] {"123456"}, null),
+                createAnqpElements(null, null, new String[] {"12345"}, null),
+                createAnqpElements(null, null, new String[] {"310410"}, null),
+                createAnqpElements(null, null, null, new String[] {"realm.other.com"}),
+                createAnqpElements(null, null, null, new String[] {"sub.realm.any.com"}),
+                createAnqpElements(null, null, null, new String[] {"any.com"}),
+                createAnqpElements(new String[] {"any.com"}, new Long[] {0x1234L},
+                        new String[] {"123456"}, new String[] {"realm.test.com"}));
+
+        List<long[]> apOis = Arrays.asList(null, new long[0], new long[] {0x1234L},
+                new long[] {0x5678L}, new long[] {0x9abcL});
+        for (long[] ois : apOis) {
+            when(mRoamingConsortium.getRoamingConsortiums()).thenReturn(ois);
+            for (Map<ANQPElementType, ANQPElement> elements : aps) {
+                verifySameMatchesAsAllProviders(elements);
+            }
+        }
+    }
+
+    /**
+     * Verify that providers that can not match an AP are not returned as candidates.
+     */
+    @Test
+    public void candidatesExcludeProvidersThatCanNotMatch() {
+        when(mRoamingConsortium.getRoamingConsortiums()).thenReturn(null);
+        List<PasspointProvider> candidates = mIndex.getCandidates(
+                createAnqpElements(new String[] {"test.com"}, null, null, null),
+                mRoamingConsortium);
+        assertTrue(candidates.contains(mProviders.get(0)));
+        assertFalse(candidates.contains(mProviders.get(1)));
+        assertFalse(candidates.contains(mProviders.get(2)));
+        assertFalse(candidates.contains(mProviders.get(4)));
+
+        candidates = mIndex.getCandidates(
+                createAnqpElements(null, null, new String[] {"123456"}, null), null);
+        assertTrue(candidates.contains(mProviders.get(2)));
+        assertFalse(candidates.contains(mProviders.get(0)));
+    }
+
+    /**
+     * Verify that clearing the index removes all candidates.
+     */
+    @Test
+    public void clearRemovesAllCandidates() {
+        mIndex.clear();
+        assertEquals(0, mIndex.size());
+        assertTrue(mIndex.getCandidates(createAnqpElements(new String[] {"test.com"}, null,
+                null, null), null).isEmpty());
+    }
+}
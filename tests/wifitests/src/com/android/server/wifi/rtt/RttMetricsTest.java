@@ -518,6 +518,59 @@ public class RttMetricsTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_LOCATION_PERMISSION_MISSING, 12);
     }
 
+    /**
+     * Verify that HAL ranging commands (possibly serving several merged requests) and the
+     * queueing delays of the requests are recorded correctly.
+     */
+    @Test
+    public void testRecordHalRangingCommand() {
+        WifiMetricsProto.WifiRttLog log;
+
+        mDut.clear();
+
+        mDut.recordHalRangingCommand(new long[]{5});
+        mDut.recordHalRangingCommand(new long[]{5, 50});
+        mDut.recordHalRangingCommand(new long[]{8, 500});
+
+        log = mDut.consolidateProto();
+
+        collector.checkThat("numHalRangingCommands", log.numHalRangingCommands, equalTo(3));
+        collector.checkThat("histogramRequestsPerHalCommand.length",
+                log.histogramRequestsPerHalCommand.length, equalTo(2));
+        validateProtoHistBucket("histogramRequestsPerHalCommand[0]",
+                log.histogramRequestsPerHalCommand[0], 1, 1, 1);
+        validateProtoHistBucket("histogramRequestsPerHalCommand[1]",
+                log.histogramRequestsPerHalCommand[1], 2, 2, 2);
+
+        collector.checkThat("histogramQueueingDelayMs.length",
+                log.histogramQueueingDelayMs.length, equalTo(3));
+        validateProtoHistBucket("histogramQueueingDelayMs[0]",
+                log.histogramQueueingDelayMs[0], 1, 10, 3);
+        validateProtoHistBucket("histogramQueueingDelayMs[1]",
+                log.histogramQueueingDelayMs[1], 10, 100, 1);
+        validateProtoHistBucket("histogramQueueingDelayMs[2]",
+                log.histogramQueueingDelayMs[2], 100, 1000, 1);
+    }
+
+    /**
+     * Verify that result cache hits and misses are recorded correctly.
+     */
+    @Test
+    public void testRecordResultCacheLookup() {
+        WifiMetricsProto.WifiRttLog log;
+
+        mDut.clear();
+
+        mDut.recordResultCacheLookup(true);
+        mDut.recordResultCacheLookup(false);
+        mDut.recordResultCacheLookup(true);
+
+        log = mDut.consolidateProto();
+
+        collector.checkThat("numResultCacheHits", log.numResultCacheHits, equalTo(2));
+        collector.checkThat("numResultCacheMisses", log.numResultCacheMisses, equalTo(1));
+    }
+
     // Utilities
 
     /**
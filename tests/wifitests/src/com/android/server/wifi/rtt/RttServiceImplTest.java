@@ -34,6 +34,8 @@ import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -50,6 +52,7 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
 import android.net.MacAddress;
+import android.net.wifi.ScanResult;
 import android.net.wifi.aware.IWifiAwareMacAddressProvider;
 import android.net.wifi.aware.PeerHandle;
 import android.net.wifi.aware.WifiAwareManager;
@@ -305,6 +308,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -379,6 +383,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -446,10 +451,211 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
 
+    /**
+     * Validate that queued requests from different UIDs are merged into a single HAL ranging
+     * operation (at most one request per UID), and that the results are split back per request.
+     */
+    @Test
+    public void testMergeRequestsFromDifferentUids() throws Exception {
+        int otherUid = mDefaultUid + 1;
+        WorkSource otherWs = new WorkSource(otherUid);
+        IRttCallback mockCallback2 = mock(IRttCallback.class);
+        int numIter = 4;
+        RangingRequest[] requests = new RangingRequest[numIter];
+        List<Pair<List<RangingResult>, List<RangingResult>>> results = new ArrayList<>();
+        for (int i = 0; i < numIter; ++i) {
+            requests[i] = RttTestUtils.getDummyRangingRequest((byte) i);
+            results.add(RttTestUtils.getDummyRangingResults(requests[i]));
+        }
+        ArgumentCaptor<RangingRequest> requestCaptor = ArgumentCaptor.forClass(
+                RangingRequest.class);
+
+        // (1) request 0 is dispatched on its own, then queue: 1 (same UID), 2 & 3 (other UID)
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, requests[0], mockCallback);
+        mMockLooper.dispatchAll();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(requests[0]), eq(true));
+        verifyWakeupSet(true, 0);
+
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, requests[1], mockCallback);
+        mDut.fakeUid = otherUid;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, requests[2],
+                mockCallback2);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, requests[3],
+                mockCallback2);
+        mMockLooper.dispatchAll();
+
+        // (2) results of request 0: requests 1 & 2 are dispatched as a single HAL operation
+        mDut.onRangingResults(mIntCaptor.getValue(), results.get(0).second);
+        mMockLooper.dispatchAll();
+        verify(mockCallback).onRangingResults(results.get(0).second);
+        verifyWakeupCancelled();
+
+        verify(mockNative, times(2)).rangeRequest(mIntCaptor.capture(), requestCaptor.capture(),
+                eq(true));
+        verifyWakeupSet(true, 0);
+        RangingRequest mergedRequest = requestCaptor.getValue();
+        Set<ResponderConfig> expectedPeers = new HashSet<>(requests[1].mRttPeers);
+        expectedPeers.addAll(requests[2].mRttPeers);
+        assertEquals(expectedPeers.size(), mergedRequest.mRttPeers.size());
+        assertEquals(expectedPeers, new HashSet<>(mergedRequest.mRttPeers));
+
+        // (3) results of the merged operation are split between the two callers
+        List<RangingResult> mergedResults = new ArrayList<>(results.get(1).second);
+        for (RangingResult result : results.get(2).second) {
+            if (!requests[1].mRttPeers.stream().anyMatch(
+                    peer -> peer.macAddress.equals(result.getMacAddress()))) {
+                mergedResults.add(result);
+            }
+        }
+        mDut.onRangingResults(mIntCaptor.getValue(), mergedResults);
+        mMockLooper.dispatchAll();
+        verify(mockCallback).onRangingResults(results.get(1).second);
+        verify(mockCallback2).onRangingResults(results.get(2).second);
+        verifyWakeupCancelled();
+
+        // (4) request 3 (other UID) was not merged with request 2: executed on its own
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(requests[3]), eq(true));
+        verifyWakeupSet(true, 0);
+        mDut.onRangingResults(mIntCaptor.getValue(), results.get(3).second);
+        mMockLooper.dispatchAll();
+        verify(mockCallback2).onRangingResults(results.get(3).second);
+        verifyWakeupCancelled();
+
+        // verify metrics
+        for (int i = 0; i < numIter; ++i) {
+            verify(mockMetrics).recordRequest(eq(i < 2 ? mDefaultWs : otherWs), eq(requests[i]));
+            verify(mockMetrics).recordResult(eq(requests[i]), eq(results.get(i).second),
+                    anyInt());
+        }
+        verify(mockMetrics, times(numIter)).recordOverallStatus(
+                WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        ArgumentCaptor<long[]> queueingDelaysCaptor = ArgumentCaptor.forClass(long[].class);
+        verify(mockMetrics, times(3)).recordHalRangingCommand(queueingDelaysCaptor.capture());
+        assertEquals(1, queueingDelaysCaptor.getAllValues().get(0).length);
+        assertEquals(2, queueingDelaysCaptor.getAllValues().get(1).length);
+        assertEquals(1, queueingDelaysCaptor.getAllValues().get(2).length);
+
+        verify(mockNative, atLeastOnce()).isReady();
+        verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback, mockCallback2,
+                mAlarmManager.getAlarmManager());
+    }
+
+    /**
+     * Validate that when the result cache is enabled, a request for responders with fresh results
+     * is served from the cache without a HAL operation, and that expired results aren't used.
+     */
+    @Test
+    public void testRangingServedFromResultCache() throws Exception {
+        int cacheMaxAgeMs = 1000;
+        RangingRequest request = RttTestUtils.getDummyRangingRequestMcOnly((byte) 0);
+        Pair<List<RangingResult>, List<RangingResult>> results =
+                RttTestUtils.getDummyRangingResults(request);
+
+        // restart the service with the result cache enabled
+        mMockResources.setInteger(R.integer.config_wifiRttResultCacheMaxAgeMs, cacheMaxAgeMs);
+        mDut = new RttServiceImplSpy(mockContext);
+        mDut.fakeUid = mDefaultUid;
+        mDut.start(mMockLooper.getLooper(), mockClock, mockAwareManager, mockNative,
+                mockMetrics, mockPermissionUtil, mWifiSettingsConfigStore);
+        mMockLooper.dispatchAll();
+        verify(mockNative, times(2)).start(any());
+
+        ClockAnswer clock = new ClockAnswer();
+        doAnswer(clock).when(mockClock).getElapsedSinceBootMillis();
+        clock.time = 100;
+
+        // (1) first request: cache miss - executed by the HAL
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request, mockCallback);
+        mMockLooper.dispatchAll();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request), eq(true));
+        verifyWakeupSet(false, clock.time);
+        mDut.onRangingResults(mIntCaptor.getValue(), results.second);
+        mMockLooper.dispatchAll();
+        verify(mockCallback).onRangingResults(results.second);
+        verifyWakeupCancelled();
+
+        // (2) second request within the freshness bound: served from the cache
+        clock.time += cacheMaxAgeMs / 2;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request, mockCallback);
+        mMockLooper.dispatchAll();
+        verify(mockCallback, times(2)).onRangingResults(results.second);
+
+        // (3) third request after the cached results expired: executed by the HAL
+        clock.time += cacheMaxAgeMs;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request, mockCallback);
+        mMockLooper.dispatchAll();
+        verify(mockNative, times(2)).rangeRequest(mIntCaptor.capture(), eq(request), eq(true));
+        verifyWakeupSet(false, clock.time);
+        mDut.onRangingResults(mIntCaptor.getValue(), results.second);
+        mMockLooper.dispatchAll();
+        verify(mockCallback, times(3)).onRangingResults(results.second);
+        verifyWakeupCancelled();
+
+        // verify metrics
+        verify(mockMetrics, times(3)).recordRequest(eq(mDefaultWs), eq(request));
+        verify(mockMetrics, times(2)).recordResult(eq(request), eq(results.second), anyInt());
+        verify(mockMetrics, times(3)).recordOverallStatus(
+                WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordResultCacheLookup(true);
+        verify(mockMetrics, times(2)).recordResultCacheLookup(false);
+
+        verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
+        verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
+                mAlarmManager.getAlarmManager());
+    }
+
+    /**
+     * Validate that a cached result isn't used for a request ranging the same responder with a
+     * different responder config.
+     */
+    @Test
+    public void testRangingNotServedFromResultCacheForDifferentResponderConfig() throws Exception {
+        int cacheMaxAgeMs = 1000;
+        RangingRequest request = RttTestUtils.getDummyRangingRequestMcOnly((byte) 0);
+        Pair<List<RangingResult>, List<RangingResult>> results =
+                RttTestUtils.getDummyRangingResults(request);
+        ScanResult scan = new ScanResult();
+        scan.BSSID = request.mRttPeers.get(0).macAddress.toString();
+        scan.setFlag(ScanResult.FLAG_80211mc_RESPONDER);
+        scan.channelWidth = ScanResult.CHANNEL_WIDTH_80MHZ;
+        RangingRequest request2 = new RangingRequest.Builder().addAccessPoint(scan).build();
+
+        // restart the service with the result cache enabled
+        mMockResources.setInteger(R.integer.config_wifiRttResultCacheMaxAgeMs, cacheMaxAgeMs);
+        mDut = new RttServiceImplSpy(mockContext);
+        mDut.fakeUid = mDefaultUid;
+        mDut.start(mMockLooper.getLooper(), mockClock, mockAwareManager, mockNative,
+                mockMetrics, mockPermissionUtil, mWifiSettingsConfigStore);
+        mMockLooper.dispatchAll();
+
+        ClockAnswer clock = new ClockAnswer();
+        doAnswer(clock).when(mockClock).getElapsedSinceBootMillis();
+        clock.time = 100;
+
+        // (1) first request: executed by the HAL
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request, mockCallback);
+        mMockLooper.dispatchAll();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request), eq(true));
+        mDut.onRangingResults(mIntCaptor.getValue(), results.second);
+        mMockLooper.dispatchAll();
+        verify(mockCallback).onRangingResults(results.second);
+
+        // (2) same responder with a different channel width: executed by the HAL
+        clock.time += cacheMaxAgeMs / 2;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request2, mockCallback);
+        mMockLooper.dispatchAll();
+        verify(mockNative).rangeRequest(anyInt(), eq(request2), eq(true));
+        verify(mockCallback).onRangingResults(any());
+        verify(mockMetrics, never()).recordResultCacheLookup(true);
+        verify(mockMetrics, times(2)).recordResultCacheLookup(false);
+    }
+
     /**
      * Validate a ranging flow for an app whose LOCATION runtime permission is revoked.
      */
@@ -483,6 +689,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_LOCATION_PERMISSION_MISSING);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -565,6 +772,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -604,6 +812,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordRequest(eq(ws), eq(request));
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -655,6 +864,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         mMockLooper.dispatchAll();
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -705,6 +915,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -746,6 +957,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -793,6 +1005,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -836,6 +1049,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -889,6 +1103,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -943,6 +1158,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -1057,6 +1273,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -1157,6 +1374,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -1231,6 +1449,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 .recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -1314,6 +1533,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
@@ -1420,6 +1640,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
 
         verify(mockNative, atLeastOnce()).isReady();
+        verifyHalRangingCommandMetrics();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback, mockCallback2,
                 mockCallback3, mAlarmManager.getAlarmManager());
     }
@@ -1439,6 +1660,17 @@ public class RttServiceImplTest extends WifiBaseTest {
         mPowerBcastReceiver.onReceive(mockContext, intent);
     }
 
+    /**
+     * Verify that a HAL ranging command metric was recorded for each ranging operation issued to
+     * the HAL.
+     */
+    private void verifyHalRangingCommandMetrics() {
+        long numRangeRequests = mockingDetails(mockNative).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("rangeRequest"))
+                .count();
+        verify(mockMetrics, times((int) numRangeRequests)).recordHalRangingCommand(any());
+    }
+
     /**
      * Simulate the broadcast which is dispatched when a LOCATION_MODE is modified.
      */
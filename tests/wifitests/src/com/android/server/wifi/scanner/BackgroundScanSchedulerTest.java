@@ -45,6 +45,7 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -400,6 +401,85 @@ public class BackgroundScanSchedulerTest extends WifiBaseTest {
         }
     }
 
+    /**
+     * Add 2 background scan requests that both have more channels than fit into a bucket, with
+     * only enough buckets to split one of them. Ensure that the request whose band has the most
+     * channels it does not need is split, and the other one scans its whole band.
+     */
+    @Test
+    public void optimalScheduleSplitsBucketSavingMostChannelScans() {
+        ArrayList<ScanSettings> requests = new ArrayList<>();
+        requests.add(createRequest(channelsToSpec(2400, 2450), 10000, 0, 20,
+                WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN));
+        requests.add(createRequest(channelsToSpec(5150, 5600), 30000, 0, 20,
+                WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN));
+
+        mScheduler.setMaxBuckets(3);
+        mScheduler.setMaxChannelsPerBucket(1);
+        mScheduler.updateSchedule(requests);
+        WifiNative.ScanSettings schedule = mScheduler.getSchedule();
+
+        assertEquals("base_period_ms", 10000, schedule.base_period_ms);
+        assertBuckets(schedule, 3);
+        for (ScanSettings request : requests) {
+            assertSettingsSatisfied(schedule, request, false, false);
+        }
+        assertEquals("bucket band", WifiScanner.WIFI_BAND_24_GHZ, schedule.buckets[0].band);
+        assertEquals("bucket channels", 1, schedule.buckets[1].num_channels);
+        assertEquals("bucket channels", 1, schedule.buckets[2].num_channels);
+    }
+
+    /**
+     * Schedule randomized sets of requests with varying hardware limits. Ensure that the
+     * schedules never exceed the max buckets and scan all the requested channels.
+     */
+    @Test
+    public void randomRequestsScheduledWithinLimits() {
+        int[] channels = {2400, 2450, 5150, 5175, 5600, 5650, 5660};
+        int[] bands = {WifiScanner.WIFI_BAND_24_GHZ, WifiScanner.WIFI_BAND_5_GHZ,
+                WifiScanner.WIFI_BAND_5_GHZ_DFS_ONLY, WifiScanner.WIFI_BAND_BOTH_WITH_DFS};
+        Random random = new Random(0x5ca9);
+        for (int i = 0; i < 200; i++) {
+            ArrayList<ScanSettings> requests = new ArrayList<>();
+            int numRequests = 1 + random.nextInt(8);
+            for (int r = 0; r < numRequests; r++) {
+                int period = (1 + random.nextInt(48)) * 10000;
+                if (random.nextInt(4) == 0) {
+                    requests.add(createRequest(bands[random.nextInt(bands.length)], period, 0,
+                            20, WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN));
+                } else {
+                    ArraySet<Integer> requestChannels = new ArraySet<>();
+                    int numChannels = 1 + random.nextInt(channels.length);
+                    for (int c = 0; c < numChannels; c++) {
+                        requestChannels.add(channels[random.nextInt(channels.length)]);
+                    }
+                    int[] requestChannelArray = new int[requestChannels.size()];
+                    for (int c = 0; c < requestChannelArray.length; c++) {
+                        requestChannelArray[c] = requestChannels.valueAt(c);
+                    }
+                    requests.add(createRequest(channelsToSpec(requestChannelArray), period, 0,
+                            20, WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN));
+                }
+            }
+            int maxBuckets = 1 + random.nextInt(8);
+            mScheduler.setMaxBuckets(maxBuckets);
+            mScheduler.setMaxChannelsPerBucket(1 + random.nextInt(4));
+            mScheduler.updateSchedule(requests);
+            WifiNative.ScanSettings schedule = mScheduler.getSchedule();
+
+            assertTrue("num_buckets " + schedule.num_buckets + " > " + maxBuckets,
+                    schedule.num_buckets <= maxBuckets);
+            KnownBandsChannelCollection scheduleChannels =
+                    mChannelHelper.createChannelCollection();
+            for (int b = 0; b < schedule.num_buckets; b++) {
+                scheduleChannels.addChannels(schedule.buckets[b]);
+            }
+            for (ScanSettings request : requests) {
+                assertChannels(scheduleChannels.getAllChannels(), getAllChannels(request));
+            }
+        }
+    }
+
     @Test
     public void exactRequests() {
         scheduleAndTestExactRequest(createRequest(WifiScanner.WIFI_BAND_BOTH, 30000, 0,
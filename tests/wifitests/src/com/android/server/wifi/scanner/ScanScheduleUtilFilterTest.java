@@ -25,6 +25,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import android.net.wifi.WifiScanner;
@@ -38,6 +39,8 @@ import com.android.server.wifi.WifiBaseTest;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.BitSet;
+
 /**
  * Unit tests for filtering of scan results in
  * {@link com.android.server.wifi.scanner.ScanScheduleUtil}.
@@ -310,6 +313,24 @@ public class ScanScheduleUtilFilterTest extends WifiBaseTest {
                 results);
     }
 
+    @Test
+    public void resultIndicesSelectSameResultsAsFilter() {
+        ScanSettings settings = createRequest(
+                channelsToSpec(2412, 5160), 30000, 0, 3,
+                WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN
+        );
+        ScanData[] scanDatas = createScanDatas(new int[][]{
+                { 2412, 2450, 5160, 5175, 2412, 2412 } });
+
+        BitSet indices = ScanScheduleUtil.getResultIndicesForSettings(mChannelHelper,
+                scanDatas[0].getResults(), settings);
+        ScanData[] results = new ScanData[] {
+                ScanScheduleUtil.createScanDataForResultIndices(scanDatas[0], indices)};
+
+        assertScanDataFreqsEquals(new int[][]{ { 2412, 5160, 2412 } }, results);
+        assertSame(scanDatas[0].getResults()[0], results[0].getResults()[0]);
+    }
+
 
     private static void assertScanDataFreqsEquals(int[][] expected, ScanData[] results) {
         if (expected == null) {
@@ -33,6 +33,7 @@ import static com.android.server.wifi.scanner.WifiScanningServiceImpl.WifiSingle
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
@@ -110,7 +111,9 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -1577,6 +1580,82 @@ public class WifiScanningServiceTest extends WifiBaseTest {
         assertEquals(mWifiMetrics.getScanReturnEntry(WifiMetricsProto.WifiLog.SCAN_SUCCESS), 2);
     }
 
+    /**
+     * Send single scan requests selecting the same results while a scan listener is registered.
+     * Verify that requests and listeners that are delivered the same results share a single copy
+     * of them.
+     */
+    @Test
+    public void singleScanRequestsSelectingSameResultsShareResults() throws RemoteException {
+        ScanResults results24GHz =
+                ScanResults.create(0, WifiScanner.WIFI_BAND_BOTH, 2412, 2412, 2412, 2450);
+        ScanResults results5GHz =
+                ScanResults.create(0, WifiScanner.WIFI_BAND_BOTH, 5160, 5160, 5175);
+        ScanResults resultsBoth =
+                ScanResults.merge(WifiScanner.WIFI_BAND_BOTH, results24GHz, results5GHz);
+
+        WifiScanner.ScanSettings requestSettings1 = createRequest(
+                WifiScanner.SCAN_TYPE_HIGH_ACCURACY, WifiScanner.WIFI_BAND_BOTH, 0,
+                0, 20, WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN);
+        int requestId1 = 12;
+        WifiScanner.ScanSettings requestSettings2 = createRequest(
+                WifiScanner.SCAN_TYPE_LOW_LATENCY, WifiScanner.WIFI_BAND_24_GHZ, 0,
+                0, 20, WifiScanner.REPORT_EVENT_AFTER_EACH_SCAN);
+        int requestId2 = 13;
+        int requestId3 = 14;
+        int listenerRequestId = 15;
+
+        startServiceAndLoadDriver();
+        mWifiScanningServiceImpl.setWifiHandlerLogForTest(mLog);
+
+        when(mWifiScannerImpl0.startSingleScan(any(WifiNative.ScanSettings.class),
+                        any(WifiNative.ScanEventHandler.class))).thenReturn(true);
+
+        Handler handler = mock(Handler.class);
+        BidirectionalAsyncChannel controlChannel = connectChannel(handler);
+        InOrder handlerOrder = inOrder(handler);
+        InOrder nativeOrder = inOrder(mWifiScannerImpl0);
+
+        registerScanListener(controlChannel, listenerRequestId);
+        mLooper.dispatchAll();
+        verifySuccessfulResponse(handlerOrder, handler, listenerRequestId);
+
+        sendSingleScanRequest(controlChannel, requestId1, requestSettings1, null);
+        mLooper.dispatchAll();
+        WifiNative.ScanEventHandler eventHandler = verifyStartSingleScan(nativeOrder,
+                computeSingleScanNativeSettings(requestSettings1));
+        verifySuccessfulResponse(handlerOrder, handler, requestId1);
+
+        // Queue scans 2 and 3 (will be folded into ongoing scan)
+        sendSingleScanRequest(controlChannel, requestId2, requestSettings2, null);
+        sendSingleScanRequest(controlChannel, requestId3, requestSettings2, null);
+        mLooper.dispatchAll();
+        verifySuccessfulResponse(handlerOrder, handler, requestId2);
+        verifySuccessfulResponse(handlerOrder, handler, requestId3);
+
+        when(mWifiScannerImpl0.getLatestSingleScanResults())
+                .thenReturn(resultsBoth.getScanData());
+        eventHandler.onScanStatus(WifiNative.WIFI_SCAN_RESULTS_AVAILABLE);
+        mLooper.dispatchAll();
+
+        // 3 requests each get their results and a completion, and the listener gets all results.
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        handlerOrder.verify(handler, times(7)).handleMessage(messageCaptor.capture());
+        Map<Integer, Object> resultsById = new HashMap<>();
+        for (Message message : messageCaptor.getAllValues()) {
+            if (message.what == WifiScanner.CMD_SCAN_RESULT) {
+                resultsById.put(message.arg2, message.obj);
+            }
+        }
+        assertEquals(4, resultsById.size());
+        assertScanDatasEquals(new WifiScanner.ScanData[] {resultsBoth.getScanData()},
+                ((WifiScanner.ParcelableScanData) resultsById.get(requestId1)).getResults());
+        assertScanDatasEquals(new WifiScanner.ScanData[] {results24GHz.getScanData()},
+                ((WifiScanner.ParcelableScanData) resultsById.get(requestId2)).getResults());
+        assertSame(resultsById.get(requestId1), resultsById.get(listenerRequestId));
+        assertSame(resultsById.get(requestId2), resultsById.get(requestId3));
+    }
+
     /**
      * Send a single scan request and then two more before the first completes, one of which is
      * satisfied by the first scan. Verify that the first two complete together the second scan is
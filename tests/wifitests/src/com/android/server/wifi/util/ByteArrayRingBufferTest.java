@@ -16,9 +16,9 @@
 
 package com.android.server.wifi.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import androidx.test.filters.SmallTest;
@@ -46,7 +46,7 @@ public class ByteArrayRingBufferTest extends WifiBaseTest {
         final byte[] data = {0};
         assertTrue(rb.appendBuffer(data));
         assertEquals(1, rb.getNumBuffers());
-        assertSame(data, rb.getBuffer(0));
+        assertArrayEquals(data, rb.getBuffer(0));
     }
 
     @Test
@@ -57,8 +57,8 @@ public class ByteArrayRingBufferTest extends WifiBaseTest {
         assertTrue(rb.appendBuffer(data1));
         assertTrue(rb.appendBuffer(data2));
         assertEquals(2, rb.getNumBuffers());
-        assertSame(data1, rb.getBuffer(0));
-        assertSame(data2, rb.getBuffer(1));
+        assertArrayEquals(data1, rb.getBuffer(0));
+        assertArrayEquals(data2, rb.getBuffer(1));
     }
 
     @Test
@@ -98,7 +98,7 @@ public class ByteArrayRingBufferTest extends WifiBaseTest {
         final byte[] data2 = {11};
         assertTrue(rb.appendBuffer(data2));
         assertEquals(1, rb.getNumBuffers());
-        assertSame(data2, rb.getBuffer(0));
+        assertArrayEquals(data2, rb.getBuffer(0));
     }
 
     @Test
@@ -112,7 +112,7 @@ public class ByteArrayRingBufferTest extends WifiBaseTest {
         final byte[] data3 = {11, 12, 13, 14, 15, 16};
         assertTrue(rb.appendBuffer(data3));
         assertEquals(1, rb.getNumBuffers());
-        assertSame(data3, rb.getBuffer(0));
+        assertArrayEquals(data3, rb.getBuffer(0));
     }
 
     @Test
@@ -137,8 +137,8 @@ public class ByteArrayRingBufferTest extends WifiBaseTest {
         final byte[] data3 = {11};
         assertTrue(rb.appendBuffer(data3));
         assertEquals(2, rb.getNumBuffers());
-        assertSame(data2, rb.getBuffer(0));
-        assertSame(data3, rb.getBuffer(1));
+        assertArrayEquals(data2, rb.getBuffer(0));
+        assertArrayEquals(data3, rb.getBuffer(1));
     }
 
     @Test
@@ -180,6 +180,77 @@ public class ByteArrayRingBufferTest extends WifiBaseTest {
         assertEquals(2, rb.getNumBuffers());
     }
 
+    /** Verifies that the ring keeps a copy of the appended data. */
+    @Test
+    public void appendCopiesData() {
+        final ByteArrayRingBuffer rb = new ByteArrayRingBuffer(MAX_BYTES);
+        final byte[] data = {1, 2, 3};
+        assertTrue(rb.appendBuffer(data));
+        data[0] = 4;
+        assertArrayEquals(new byte[] {1, 2, 3}, rb.getBuffer(0));
+    }
+
+    /** Verifies that elements wrapping around the end of the ring are retrieved intact. */
+    @Test
+    public void canRetrieveElementsWrappingAroundEnd() {
+        final ByteArrayRingBuffer rb = new ByteArrayRingBuffer(MAX_BYTES);
+        final byte[] data1 = {1, 2, 3, 4};
+        final byte[] data2 = {5, 6, 7, 8};
+        final byte[] data3 = {9, 10, 11, 12};
+        assertTrue(rb.appendBuffer(data1));
+        assertTrue(rb.appendBuffer(data2));
+        assertTrue(rb.appendBuffer(data3));
+        assertEquals(2, rb.getNumBuffers());
+        assertArrayEquals(data2, rb.getBuffer(0));
+        assertArrayEquals(data3, rb.getBuffer(1));
+        assertArrayEquals(new byte[] {5, 6, 7, 8, 9, 10, 11, 12}, rb.toByteArray());
+    }
+
+    /** Verifies that many small elements are held, and pruned in FIFO order. */
+    @Test
+    public void canHoldManySmallElements() {
+        final int maxBytes = 1024;
+        final ByteArrayRingBuffer rb = new ByteArrayRingBuffer(maxBytes);
+        for (int i = 0; i < maxBytes + 100; i++) {
+            assertTrue(rb.appendBuffer(new byte[] {(byte) i}));
+        }
+        assertEquals(maxBytes, rb.getNumBuffers());
+        for (int i = 0; i < maxBytes; i++) {
+            assertArrayEquals(new byte[] {(byte) (i + 100)}, rb.getBuffer(i));
+        }
+    }
+
+    /** Verifies that toByteArray() returns the data of all elements, oldest first. */
+    @Test
+    public void toByteArrayConcatenatesElements() {
+        final ByteArrayRingBuffer rb = new ByteArrayRingBuffer(MAX_BYTES);
+        assertEquals(0, rb.toByteArray().length);
+        assertTrue(rb.appendBuffer(new byte[] {1, 2}));
+        assertTrue(rb.appendBuffer(new byte[0]));
+        assertTrue(rb.appendBuffer(new byte[] {3}));
+        assertEquals(3, rb.getNumBuffers());
+        assertArrayEquals(new byte[] {1, 2, 3}, rb.toByteArray());
+    }
+
+    /** Verifies that resize() retains elements wrapping around the end of the ring. */
+    @Test
+    public void resizeRetainsElementsWrappingAroundEnd() {
+        final ByteArrayRingBuffer rb = new ByteArrayRingBuffer(MAX_BYTES);
+        final byte[] data1 = {1, 2, 3, 4, 5, 6};
+        final byte[] data2 = {7, 8, 9, 10, 11, 12};
+        assertTrue(rb.appendBuffer(data1));
+        assertTrue(rb.appendBuffer(data2));
+        rb.resize(MAX_BYTES * 2);
+        assertEquals(1, rb.getNumBuffers());
+        assertArrayEquals(data2, rb.getBuffer(0));
+
+        assertTrue(rb.appendBuffer(data1));
+        assertTrue(rb.appendBuffer(data2));
+        assertEquals(3, rb.getNumBuffers());
+        assertArrayEquals(new byte[] {7, 8, 9, 10, 11, 12, 1, 2, 3, 4, 5, 6,
+                7, 8, 9, 10, 11, 12}, rb.toByteArray());
+    }
+
     /** Verifies that we don't crash when shrinking an empty buffer. */
     @Test
     public void shrinkingEmptyBufferSucceeds() {
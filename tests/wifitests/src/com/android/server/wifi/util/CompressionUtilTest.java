@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Base64;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.util.CompressionUtil}.
+ */
+@SmallTest
+public class CompressionUtilTest extends WifiBaseTest {
+    /**
+     * Verifies that writeBase64() writes the same text as Base64.encodeToString(), including
+     * around the boundaries of the lines and chunks it encodes.
+     */
+    @Test
+    public void writeBase64SameAsEncodeToString() throws Exception {
+        Random random = new Random(42);
+        int[] lengths = {0, 1, 2, 3, 56, 57, 58, 57 * 64 - 1, 57 * 64, 57 * 64 + 1, 10000};
+        for (int length : lengths) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            StringWriter sw = new StringWriter();
+            CompressionUtil.writeBase64(data, sw);
+            assertEquals(Base64.encodeToString(data, Base64.DEFAULT), sw.toString());
+        }
+    }
+
+    /** Verifies that deflated data inflates back to the original data. */
+    @Test
+    public void deflateRoundTrips() throws Exception {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        byte[] deflated = CompressionUtil.deflate(data);
+        assertTrue(deflated.length < data.length);
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        byte[] inflated = new byte[data.length];
+        assertEquals(data.length, inflater.inflate(inflated));
+        assertTrue(inflater.finished());
+        inflater.end();
+        assertArrayEquals(data, inflated);
+    }
+
+    /** Verifies that data that does not get smaller is returned as is. */
+    @Test
+    public void deflateReturnsIncompressibleData() {
+        byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+        assertSame(data, CompressionUtil.deflate(data));
+
+        byte[] empty = new byte[0];
+        assertSame(empty, CompressionUtil.deflate(empty));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.util.FileSpool}.
+ */
+@SmallTest
+public class FileSpoolTest extends WifiBaseTest {
+    private static final int MAX_BYTES = 10;
+
+    private File mDirectory;
+    private FileSpool mSpool;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("FileSpoolTest", null);
+        mDirectory.delete();
+        mSpool = new FileSpool(mDirectory, MAX_BYTES);
+    }
+
+    @After
+    public void cleanup() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private String read(File file) throws Exception {
+        StringWriter sw = new StringWriter();
+        assertTrue(mSpool.copyTo(file, sw));
+        return sw.toString();
+    }
+
+    /** Verifies that written files can be read back. */
+    @Test
+    public void canWriteAndReadFiles() throws Exception {
+        File file1 = mSpool.write("test", out -> out.write("abc"));
+        File file2 = mSpool.write("test", out -> out.write("defg"));
+        assertNotNull(file1);
+        assertNotNull(file2);
+        assertFalse(file1.equals(file2));
+        assertEquals("abc", read(file1));
+        assertEquals("defg", read(file2));
+        assertEquals(7, mSpool.getBytesUsed());
+    }
+
+    /** Verifies that the oldest files are deleted to stay within the size limit. */
+    @Test
+    public void writeDeletesOldestFilesOverSizeLimit() throws Exception {
+        File file1 = mSpool.write("test", out -> out.write("abcd"));
+        File file2 = mSpool.write("test", out -> out.write("efgh"));
+        File file3 = mSpool.write("test", out -> out.write("ijkl"));
+        assertFalse(file1.exists());
+        assertFalse(mSpool.copyTo(file1, new StringWriter()));
+        assertEquals("efgh", read(file2));
+        assertEquals("ijkl", read(file3));
+        assertEquals(8, mSpool.getBytesUsed());
+    }
+
+    /** Verifies that a file larger than the size limit is not kept. */
+    @Test
+    public void writeRejectsFileOverSizeLimit() throws Exception {
+        File file1 = mSpool.write("test", out -> out.write("abcd"));
+        assertNull(mSpool.write("test", out -> out.write("0123456789a")));
+        assertEquals("abcd", read(file1));
+        assertEquals(1, mDirectory.listFiles().length);
+    }
+
+    /** Verifies that deleted files no longer count towards the size limit. */
+    @Test
+    public void deleteRemovesFile() throws Exception {
+        File file1 = mSpool.write("test", out -> out.write("abcd"));
+        mSpool.delete(file1);
+        assertFalse(file1.exists());
+        assertEquals(0, mSpool.getBytesUsed());
+    }
+
+    /** Verifies that files left by a previous spool are deleted on first use. */
+    @Test
+    public void firstWriteDeletesLeftoverFiles() throws Exception {
+        File leftover = new FileSpool(mDirectory, MAX_BYTES).write("old", out -> out.write("a"));
+        assertTrue(leftover.exists());
+
+        File file = mSpool.write("test", out -> out.write("b"));
+        assertFalse(leftover.exists());
+        assertEquals("b", read(file));
+    }
+}
@@ -248,6 +248,51 @@ public class ScanResultUtilTest extends WifiBaseTest {
     /**
      * Verify ScanResultList validation.
      */
+    /**
+     * Verify that the security flags computed in a single pass agree with each of the individual
+     * isScanResultFor*Network() helpers.
+     */
+    @Test
+    public void testGetSecurityFlagsMatchesHelpers() {
+        String[] capabilities = new String[] {
+                "", "[ESS]", "[WEP]", "[WPA-PSK-CCMP+TKIP][WPA2-PSK-CCMP+TKIP][ESS]",
+                "[RSN-PSK+SAE-CCMP][ESS]", "[RSN-SAE-CCMP][ESS]", "[RSN-EAP-CCMP][ESS]",
+                "[RSN-SUITE-B-192-GCMP-256][ESS]", "[RSN-OWE-CCMP][ESS]",
+                "[RSN-OWE_TRANSITION-CCMP][ESS]", "[ESS][OWE_TRANSITION]", "[WAPI-PSK-SMS4]",
+                "[WAPI-CERT-SMS4]", "[WPA2-EAP+EAP-SHA256+EAP-FILS-SHA256-CCMP]",
+                "[WPA2-EAP+EAP-SHA384+EAP-FILS-SHA384-CCMP]", "[WPA2-PSK-CCMP][WPS][ESS]",
+                "[OW][PS][SA][EA][WAPI-][FILS-SHA]"};
+        for (String caps : capabilities) {
+            ScanResult scanResult = new ScanResult();
+            scanResult.capabilities = caps;
+            int flags = ScanResultUtil.getSecurityFlags(scanResult);
+            assertEquals(caps, ScanResultUtil.isScanResultForPskNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_PSK) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForSaeNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_SAE) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForEapNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_EAP) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForEapSuiteBNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_EAP_SUITE_B) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForWepNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_WEP) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForOweNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_OWE) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForOweTransitionNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_OWE_TRANSITION) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForWapiPskNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_WAPI_PSK) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForWapiCertNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_WAPI_CERT) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForFilsSha256Network(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_FILS_SHA256) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForFilsSha384Network(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAG_FILS_SHA384) != 0);
+            assertEquals(caps, ScanResultUtil.isScanResultForOpenNetwork(scanResult),
+                    (flags & ScanResultUtil.SECURITY_FLAGS_NOT_OPEN) == 0);
+        }
+    }
+
     @Test
     public void testValidateScanResultList() {
         List<ScanResult> scanResults = new ArrayList<>();
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.security.keystore.AndroidKeyStoreProvider;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockitoSession;
+
+import java.security.KeyStore;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.util.WifiConfigStoreEncryptionUtil}.
+ */
+@SmallTest
+public class WifiConfigStoreEncryptionUtilTest extends WifiBaseTest {
+    private static final String TEST_DATA_FILE_NAME = "WifiConfigStore.xml";
+    private static final String TEST_KEY_ALIAS = TEST_DATA_FILE_NAME + ".data-encryption-key";
+    private static final byte[] TEST_DATA = "TestPassword".getBytes();
+
+    private final KeyStore mKeyStore = mock(KeyStore.class);
+    private MockitoSession mSession;
+    private WifiConfigStoreEncryptionUtil mEncryptionUtil;
+
+    @Before
+    public void setUp() throws Exception {
+        mSession = mockitoSession()
+                .mockStatic(AndroidKeyStoreProvider.class, withSettings().lenient())
+                .startMocking();
+        when(AndroidKeyStoreProvider.getKeyStoreForUid(anyInt())).thenReturn(mKeyStore);
+        when(mKeyStore.containsAlias(TEST_KEY_ALIAS)).thenReturn(true);
+        setSecretKey(new byte[32]);
+        mEncryptionUtil = new WifiConfigStoreEncryptionUtil(TEST_DATA_FILE_NAME);
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        if (mSession != null) {
+            mSession.finishMocking();
+        }
+    }
+
+    private void setSecretKey(byte[] key) throws Exception {
+        when(mKeyStore.getEntry(eq(TEST_KEY_ALIAS), any()))
+                .thenReturn(new KeyStore.SecretKeyEntry(new SecretKeySpec(key, "AES")));
+    }
+
+    private void verifyKeyStoreLookups(int times) {
+        ExtendedMockito.verify(() -> AndroidKeyStoreProvider.getKeyStoreForUid(anyInt()),
+                times(times));
+    }
+
+    /**
+     * Verify that the key store is only looked up once for all the credentials encrypted and
+     * decrypted for a store file.
+     */
+    @Test
+    public void secretKeyIsLookedUpOnce() throws Exception {
+        EncryptedData encryptedData = mEncryptionUtil.encrypt(TEST_DATA);
+        assertNotNull(encryptedData);
+        assertNotNull(mEncryptionUtil.encrypt(TEST_DATA));
+        assertArrayEquals(TEST_DATA, mEncryptionUtil.decrypt(encryptedData));
+
+        verifyKeyStoreLookups(1);
+    }
+
+    /**
+     * Verify that the cached secret key is dropped when an operation fails with it, and that
+     * the operation is retried with a fresh lookup.
+     */
+    @Test
+    public void failureWithCachedSecretKeyLooksItUpAgain() throws Exception {
+        // An invalid AES key length makes the cipher initialization fail.
+        setSecretKey(new byte[7]);
+        assertNull(mEncryptionUtil.encrypt(TEST_DATA));
+        verifyKeyStoreLookups(1);
+
+        setSecretKey(new byte[32]);
+        EncryptedData encryptedData = mEncryptionUtil.encrypt(TEST_DATA);
+        assertNotNull(encryptedData);
+        verifyKeyStoreLookups(2);
+
+        // Data that does not authenticate with the cached key is retried with a fresh lookup.
+        EncryptedData corruptedData = new EncryptedData(
+                new byte[encryptedData.getEncryptedData().length], encryptedData.getIv());
+        assertNull(mEncryptionUtil.decrypt(corruptedData));
+        verifyKeyStoreLookups(3);
+        assertArrayEquals(TEST_DATA, mEncryptionUtil.decrypt(encryptedData));
+        verifyKeyStoreLookups(4);
+    }
+
+    /**
+     * Verify that nothing is encrypted when the secret key can not be retrieved.
+     */
+    @Test
+    public void encryptFailsWithoutSecretKey() throws Exception {
+        when(mKeyStore.getEntry(anyString(), any())).thenReturn(null);
+        assertNull(mEncryptionUtil.encrypt(TEST_DATA));
+    }
+}
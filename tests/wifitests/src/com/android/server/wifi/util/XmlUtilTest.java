@@ -510,6 +510,42 @@ public class XmlUtilTest extends WifiBaseTest {
                 retrieved.second.macRandomizationSetting);
     }
 
+    /**
+     * Verify that the primitive value writers produce the same XML as the boxed values, and that
+     * the values are read back.
+     */
+    @Test
+    public void testPrimitiveValuesSerializeSameAsBoxedValues()
+            throws IOException, XmlPullParserException {
+        final XmlSerializer primitiveOut = new FastXmlSerializer();
+        final ByteArrayOutputStream primitiveStream = new ByteArrayOutputStream();
+        primitiveOut.setOutput(primitiveStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(primitiveOut, mXmlDocHeader);
+        XmlUtil.writeNextValue(primitiveOut, "Int", -5);
+        XmlUtil.writeNextValue(primitiveOut, "Long", Long.MAX_VALUE);
+        XmlUtil.writeNextValue(primitiveOut, "Boolean", true);
+        XmlUtil.writeDocumentEnd(primitiveOut, mXmlDocHeader);
+
+        final XmlSerializer boxedOut = new FastXmlSerializer();
+        final ByteArrayOutputStream boxedStream = new ByteArrayOutputStream();
+        boxedOut.setOutput(boxedStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(boxedOut, mXmlDocHeader);
+        XmlUtil.writeNextValue(boxedOut, "Int", (Object) Integer.valueOf(-5));
+        XmlUtil.writeNextValue(boxedOut, "Long", (Object) Long.valueOf(Long.MAX_VALUE));
+        XmlUtil.writeNextValue(boxedOut, "Boolean", (Object) Boolean.TRUE);
+        XmlUtil.writeDocumentEnd(boxedOut, mXmlDocHeader);
+
+        assertArrayEquals(boxedStream.toByteArray(), primitiveStream.toByteArray());
+
+        final XmlPullParser in = Xml.newPullParser();
+        in.setInput(new ByteArrayInputStream(primitiveStream.toByteArray()),
+                StandardCharsets.UTF_8.name());
+        XmlUtil.gotoDocumentStart(in, mXmlDocHeader);
+        assertEquals(-5, XmlUtil.readNextValueWithName(in, "Int"));
+        assertEquals(Long.MAX_VALUE, XmlUtil.readNextValueWithName(in, "Long"));
+        assertEquals(true, XmlUtil.readNextValueWithName(in, "Boolean"));
+    }
+
     private byte[] serializeWifiConfigurationForBackup(WifiConfiguration configuration)
             throws IOException, XmlPullParserException {
         final XmlSerializer out = new FastXmlSerializer();